@@ -0,0 +1,95 @@
+package net.floodlightcontroller.ARPRewrite;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * Encodes Ethernet ARP frames by patching the addresses into a preformatted
+ * frame, instead of building and serializing Ethernet and ARP objects. Every
+ * thread has its own encoder, whose frames are reused: a frame is only valid
+ * until the thread encodes the next one, so it has to be written out (and a
+ * packet-out flushed) before then.
+ */
+public class ARPFrameEncoder {
+	/** An untagged Ethernet header and an IPv4 over Ethernet ARP packet */
+	public static final int FRAME_LENGTH = 42;
+	/** The same with an 802.1Q tag */
+	public static final int TAGGED_FRAME_LENGTH = 46;
+
+	private static final int MAC_LENGTH = 6;
+	private static final int IP_LENGTH = 4;
+
+	private static final ThreadLocal<ARPFrameEncoder> ENCODERS = new ThreadLocal<ARPFrameEncoder>() {
+		@Override
+		protected ARPFrameEncoder initialValue() {
+			return new ARPFrameEncoder();
+		}
+	};
+
+	private final byte[] frame = new byte[FRAME_LENGTH];
+	private final byte[] taggedFrame = new byte[TAGGED_FRAME_LENGTH];
+
+	protected ARPFrameEncoder() {
+		formatArp(frame, 12);
+		putShort(taggedFrame, 12, (short) 0x8100);
+		formatArp(taggedFrame, 16);
+	}
+
+	/**
+	 * @return the calling thread's encoder
+	 */
+	public static ARPFrameEncoder get() {
+		return ENCODERS.get();
+	}
+
+	/**
+	 * Writes everything but the addresses and opcode, from the ethertype on.
+	 */
+	private static void formatArp(byte[] f, int offset) {
+		putShort(f, offset, Ethernet.TYPE_ARP);
+		putShort(f, offset + 2, ARP.HW_TYPE_ETHERNET);
+		putShort(f, offset + 4, ARP.PROTO_TYPE_IP);
+		f[offset + 6] = MAC_LENGTH;
+		f[offset + 7] = IP_LENGTH;
+	}
+
+	private static void putShort(byte[] f, int offset, short value) {
+		f[offset] = (byte) (value >>> 8);
+		f[offset + 1] = (byte) value;
+	}
+
+	/**
+	 * Encodes an ARP frame.
+	 * @param destinationMAC the Ethernet destination
+	 * @param sourceMAC the Ethernet source, also the sender hardware address
+	 * @param vlanID the VLAN, or Ethernet.VLAN_UNTAGGED
+	 * @param priorityCode the 802.1p priority, if tagged
+	 * @param opCode the ARP opcode
+	 * @param senderProtocolAddress the sender IP address
+	 * @param targetHardwareAddress the target MAC address
+	 * @param targetProtocolAddress the target IP address
+	 * @return the frame, valid until the calling thread encodes another one
+	 */
+	public byte[] encode(byte[] destinationMAC, byte[] sourceMAC, short vlanID, byte priorityCode,
+			short opCode, byte[] senderProtocolAddress, byte[] targetHardwareAddress,
+			byte[] targetProtocolAddress) {
+		byte[] f;
+		int arp;
+		if (vlanID == Ethernet.VLAN_UNTAGGED) {
+			f = frame;
+			arp = 14;
+		} else {
+			f = taggedFrame;
+			putShort(f, 14, (short) ((priorityCode << 13) | (vlanID & 0x0fff)));
+			arp = 18;
+		}
+		System.arraycopy(destinationMAC, 0, f, 0, MAC_LENGTH);
+		System.arraycopy(sourceMAC, 0, f, MAC_LENGTH, MAC_LENGTH);
+		putShort(f, arp + 6, opCode);
+		System.arraycopy(sourceMAC, 0, f, arp + 8, MAC_LENGTH);
+		System.arraycopy(senderProtocolAddress, 0, f, arp + 14, IP_LENGTH);
+		System.arraycopy(targetHardwareAddress, 0, f, arp + 18, MAC_LENGTH);
+		System.arraycopy(targetProtocolAddress, 0, f, arp + 24, IP_LENGTH);
+		return f;
+	}
+}
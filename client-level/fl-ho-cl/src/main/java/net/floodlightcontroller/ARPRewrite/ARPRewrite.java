@@ -1,7 +1,10 @@
 package net.floodlightcontroller.ARPRewrite;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import net.floodlightcontroller.core.FloodlightContext;
@@ -12,48 +15,45 @@ import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.forwarding.Forwarding;
+import net.floodlightcontroller.interfaceregistry.HostInterface;
+import net.floodlightcontroller.interfaceregistry.IInterfaceRegistryService;
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
-import net.floodlightcontroller.packet.IPacket;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.routing.IRoutingDecision;
 import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.util.MACAddress;
 
-import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFPort;
 import org.openflow.protocol.OFType;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ARPRewrite extends Forwarding implements
 IFloodlightModule  {
 	protected static Logger log = LoggerFactory.getLogger(ARPRewrite.class);
-	// proxyArp MAC address - can replace with other values in future
-	public static String TAP_MAC_ADDRESS = "12:51:16:90:8f:ee"; // Tap
-	public static String IFACE1_MAC_ADDRESS = "00:1d:e1:3b:48:1d"; // WiMAX
-	public static String IFACE2_MAC_ADDRESS = "00:23:15:81:8b:f8"; // WiFi
-	public static String IFACE3_MAC_ADDRESS = "00:23:15:81:8b:f8"; // WiFi #2 (Not Used, GEC18)
-	public static String IFACE4_MAC_ADDRESS = "00:1d:e1:3b:48:1d"; // WiMAX #2 (Not Used, GEC18)
 	public static String BROADCAST_MAC = "ff:ff:ff:ff:ff:ff";
-	
-	public static String IFACE1_DPID;
-	public static String IFACE2_DPID;
-	public static String IFACE3_DPID; 
-	public static String IFACE4_DPID;
-	public static String TAP_DPID;
+	protected static final MACAddress BCAST_MAC = MACAddress.valueOf(BROADCAST_MAC);
+	protected static final byte[] BCAST_MAC_BYTES = BCAST_MAC.toBytes();
 
-	protected MACAddress TAP_MAC;
-	protected MACAddress IFACE1_MAC;
-	protected MACAddress IFACE2_MAC;
-	protected MACAddress IFACE3_MAC;
-	protected MACAddress IFACE4_MAC;
-	protected MACAddress BCAST_MAC;
-	
 	protected IStaticFlowEntryPusherService sfep;
 	protected IFloodlightProviderService floodlightProvider;
+	protected IInterfaceRegistryService interfaces;
+	protected EgressPortCache egressPorts;
+
+	// proxy ARP: answer the tap's requests from what each interface has learned
+	protected boolean proxyArp = false;
+	protected int proxyArpCacheSize = 256;
+	protected long proxyArpTtlMs = 60000;
+	protected long proxyArpRefreshMs = 30000;
+	protected boolean proxyArpFlushOnHandover = false;
+	protected Map<HostInterface, NeighborCache> neighbors;
+	protected volatile HostInterface activeIface;
 
     @Override
     public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
@@ -62,6 +62,7 @@ IFloodlightModule  {
         l.add(IFloodlightProviderService.class);
         l.add(IStorageSourceService.class);
         l.add(IStaticFlowEntryPusherService.class);
+        l.add(IInterfaceRegistryService.class);
         return l;
     }
     
@@ -71,28 +72,25 @@ IFloodlightModule  {
     	
     	sfep = context.getServiceImpl(IStaticFlowEntryPusherService.class);
     	floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
-    	
+    	interfaces = context.getServiceImpl(IInterfaceRegistryService.class);
+
 		/* read our config options */
 		Map<String, String> configOptions = context.getConfigParams(this);
-
-		TAP_MAC_ADDRESS = configOptions.get("tap-mac-address");
-		IFACE1_MAC_ADDRESS = configOptions.get("wimax-mac-address");
-		IFACE2_MAC_ADDRESS = configOptions.get("wifi-mac-address");
-		IFACE3_MAC_ADDRESS = configOptions.get("iface3-mac-address");
-		IFACE4_MAC_ADDRESS = configOptions.get("iface4-mac-address");
-
-		TAP_DPID = configOptions.get("tap-dpid");
-		IFACE1_DPID = configOptions.get("wimax-dpid");
-		IFACE2_DPID = configOptions.get("wifi-dpid");
-		IFACE3_DPID = configOptions.get("iface3-dpid");
-		IFACE4_DPID = configOptions.get("iface4-dpid");
-
-		TAP_MAC = MACAddress.valueOf(TAP_MAC_ADDRESS);
-		IFACE1_MAC = MACAddress.valueOf(IFACE1_MAC_ADDRESS);
-		IFACE2_MAC = MACAddress.valueOf(IFACE2_MAC_ADDRESS);
-		IFACE3_MAC = MACAddress.valueOf(IFACE3_MAC_ADDRESS);
-		IFACE4_MAC = MACAddress.valueOf(IFACE4_MAC_ADDRESS);
-		BCAST_MAC = MACAddress.valueOf(BROADCAST_MAC);
+		if (configOptions.get("proxy-arp") != null) {
+			proxyArp = Boolean.parseBoolean(configOptions.get("proxy-arp"));
+		}
+		if (configOptions.get("proxy-arp-cache-size") != null) {
+			proxyArpCacheSize = Integer.parseInt(configOptions.get("proxy-arp-cache-size"));
+		}
+		if (configOptions.get("proxy-arp-ttl-seconds") != null) {
+			proxyArpTtlMs = Long.parseLong(configOptions.get("proxy-arp-ttl-seconds")) * 1000;
+		}
+		if (configOptions.get("proxy-arp-refresh-seconds") != null) {
+			proxyArpRefreshMs = Long.parseLong(configOptions.get("proxy-arp-refresh-seconds")) * 1000;
+		}
+		if (configOptions.get("proxy-arp-flush-on-handover") != null) {
+			proxyArpFlushOnHandover = Boolean.parseBoolean(configOptions.get("proxy-arp-flush-on-handover"));
+		}
  
 		super.init(context);
 	}
@@ -100,6 +98,13 @@ IFloodlightModule  {
     
     @Override
     public void startUp(FloodlightModuleContext context) {
+    	egressPorts = new EgressPortCache(sfep);
+    	sfep.addListener(egressPorts);
+    	egressPorts.rebuild();
+    	neighbors = new HashMap<HostInterface, NeighborCache>();
+    	for (HostInterface iface : interfaces.getInterfaces()) {
+    		neighbors.put(iface, new NeighborCache(proxyArpCacheSize, proxyArpTtlMs));
+    	}
     	floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
     }
 
@@ -113,51 +118,31 @@ IFloodlightModule  {
 			// retrieve arp to determine addresses
 			ARP arpPayload = (ARP) eth.getPayload();
 
-			// (1) Get flows from switch
-			// (2) Find flow with matching ingress port
-			// (3) Use matching flow and extract output port
-			// (4) Use switch DPID and use correct (hard-coded) MAC of physical interface on that switch
+			// (1) Look up the output port of the static flow with matching ingress port
+			// (2) Use switch DPID and use correct MAC of physical interface on that switch
 			// This is only for ARP. DHCP is ethertype 0x800, which will work with existing flows.
 
-			// (1) Get flows
-			Map<String, OFFlowMod> flows;
-			//long switchIDAsLong = sw.getId();
-			//String switchIDAsString = Long.toString(switchIDAsLong);
-			//flows = sfep.getFlows("00:00:00:00:00:00:00:0".concat(switchIDAsString)); // This might not convert correctly
-			flows = sfep.getFlows(sw.getStringId()); // This might not convert correctly
-			Collection<OFFlowMod> flowsAsCollection;
-			if (flows != null) {
-				flowsAsCollection = flows.values();
-			} else {
-				log.debug("No flows on switch " + sw.getStringId());
-				return Command.CONTINUE;
-			}
+			// (1) Get output port from matching ingress port
 			short inPort = pi.getInPort();
-			short outPort = 0;
-			log.debug("Packet from switch " + sw.getStringId() + " on port " + inPort);
-
-
-			// (2) and (3) Get output port from matching ingress port
-			if (!flows.isEmpty()) {
-				for (OFFlowMod myFlow : flowsAsCollection) {
-					if (myFlow.getMatch().getInputPort() == inPort) {
-						outPort = myFlow.getOutPort();
-						log.debug("Got (inPort, outPort) pair (" + inPort + ", " + outPort + ")");
-						break;
-					}
-				}
-			} else {
-				log.info("No flows returned for DPID " + sw.getStringId());
-				return Command.CONTINUE;
+			short outPort = egressPorts.getEgressPort(sw.getId(), inPort);
+			if (proxyArp) {
+				learnNeighbor(sw, inPort, arpPayload);
 			}
-			
 			if (outPort == 0) {
-				log.debug("No matching flow found");
+				log.debug("No matching flow found on switch {} for port {}", sw.getStringId(), inPort);
 				return Command.CONTINUE; 
 			}
+			if (proxyArp && proxyReply(sw, inPort, outPort, arpPayload, cntx)) {
+				return Command.CONTINUE;
+			}
 
-			// (4) Determine MAC address to rewrite
-			// ingress on tap
+			// (2) Determine MAC address to rewrite
+			HostInterface iface = interfaces.getInterface(sw.getId());
+			if (iface == null) {
+				log.debug("Did not find an interface on switch {}", sw.getStringId());
+				return Command.CONTINUE;
+			}
+			MACAddress tapMAC = interfaces.getTap().getMAC();
 
 			MACAddress targetMAC;
 			MACAddress sourceMAC;
@@ -166,64 +151,36 @@ IFloodlightModule  {
 			boolean isRequest = false;
 			short arpOpCode = arpPayload.getOpCode();
 			if (arpOpCode == ARP.OP_REQUEST) {
-				log.info("ARP packet is a request");
+				log.debug("ARP packet is a request");
 				destinationMAC = BCAST_MAC;
 				isRequest = true;
 			} else if (arpOpCode == ARP.OP_REPLY) {
-				log.info("ARP packet is a reply");
+				log.debug("ARP packet is a reply");
 			} else {
-				log.info("ARP packet was neither request nor reply");
+				log.debug("ARP packet was neither request nor reply");
 				return Command.CONTINUE;
 			}
-			if (sw.getStringId() == TAP_DPID) {
-				if (outPort == 1 || outPort == 65534 || outPort == -1) {
-					targetMAC = TAP_MAC;
-					sourceMAC = null;
-					isIngress = true;
-				} else {
-					targetMAC = null;
-					sourceMAC = TAP_MAC;
-				}
-			} else if (sw.getStringId() == IFACE1_DPID) {
-				if (outPort == 1 || outPort == 65534 || outPort == -1) {
-					targetMAC = null;
-					sourceMAC = IFACE1_MAC;
-				} else {
-					targetMAC = TAP_MAC;
+			// out the tap's local port or the interface's own port is toward the host
+			boolean towardHost = outPort == iface.getIfacePort() ||
+					outPort == OFPort.OFPP_LOCAL.getValue() || outPort == OFPort.OFPP_NONE.getValue();
+			if (iface.isTap()) {
+				if (towardHost) {
+					targetMAC = tapMAC;
 					sourceMAC = null;
 					isIngress = true;
-				}
-			} else if (sw.getStringId() == IFACE2_DPID) {
-				if (outPort == 1 || outPort == 65534 || outPort == -1) {
-					targetMAC = null;
-					sourceMAC = IFACE2_MAC;
 				} else {
-					targetMAC = TAP_MAC;
-					sourceMAC = null;
-					isIngress = true;
-				}
-			} else if (sw.getStringId() == IFACE3_DPID) {
-				if (outPort == 1 || outPort == 65534 || outPort == -1) {
 					targetMAC = null;
-					sourceMAC = IFACE3_MAC;
-				} else {
-					targetMAC = TAP_MAC;
-					sourceMAC = null;
-					isIngress = true;
+					sourceMAC = tapMAC;
 				}
-			} else if (sw.getStringId() == IFACE4_DPID) {
-				if (outPort == 1 || outPort == 65534 || outPort == -1) {
+			} else {
+				if (towardHost) {
 					targetMAC = null;
-					sourceMAC = IFACE4_MAC;
+					sourceMAC = iface.getMAC();
 				} else {
-					targetMAC = TAP_MAC;
+					targetMAC = tapMAC;
 					sourceMAC = null;
 					isIngress = true;
 				}
-			} else {
-				sourceMAC = null;
-				targetMAC = null;
-				log.debug("Did find a matching DPID");
 			}
 
 			// 4 Cases: Only rewrite on non-TAP switch. The tap switch will have 4 flows for 0x800 and 0x806.
@@ -232,30 +189,22 @@ IFloodlightModule  {
 			// (2) Ingress Packet, ARP Reply -- rewrite destination MAC to tap
 			// (3) Outbound Packet, ARP Request -- rewrite source MAC to physical (need to be able to respond and send on IFACE)
 			// (4) Outbound Packet, ARP Reply -- rewrite source MAC to physical (need to be able to send on IFACE)
-			if (isRequest && sw.getStringId() == TAP_DPID && isIngress) {
-				log.debug("Sending request out with SRC " + sourceMAC.toString() + " DST " + MACAddress.valueOf(arpPayload.getTargetHardwareAddress())
-						+ " from port " + inPort + " to port " + outPort);
+			if (isRequest && iface.isTap() && isIngress) {
 				destinationMAC = BCAST_MAC;
-				sendARP(sw, pi, cntx, inPort, (short)65534, arpOpCode, 
-						arpPayload.getSenderHardwareAddress(), arpPayload.getTargetHardwareAddress(), destinationMAC.toBytes());
-			} else if (!isRequest && sw.getStringId() == TAP_DPID && isIngress) {
-				log.debug("Sending reply out with SRC " + sourceMAC.toString() + " DST " + MACAddress.valueOf(arpPayload.getTargetHardwareAddress())
-						+ " from port " + inPort + " to port " + outPort);
+				sendARP(sw, eth, cntx, inPort, (short)65534, arpOpCode, 
+						arpPayload.getSenderHardwareAddress(), arpPayload.getTargetHardwareAddress(), BCAST_MAC_BYTES);
+			} else if (!isRequest && iface.isTap() && isIngress) {
 				destinationMAC = targetMAC;
-				sendARP(sw, pi, cntx, inPort, (short)65534, arpOpCode, 
+				sendARP(sw, eth, cntx, inPort, (short)65534, arpOpCode, 
 						arpPayload.getSenderHardwareAddress(), targetMAC.toBytes(), destinationMAC.toBytes());
-			} else if (isRequest && sw.getStringId() != TAP_DPID && !isIngress) {
-				log.debug("Sending request out with SRC " + sourceMAC.toString() + " DST " + MACAddress.valueOf(arpPayload.getTargetHardwareAddress())
-						+ " from port " + inPort + " to port " + outPort);
+			} else if (isRequest && !iface.isTap() && !isIngress) {
 				destinationMAC = BCAST_MAC;
 				// removed (-) from outPort for testing
-				sendARP(sw, pi, cntx, inPort, (short)-outPort, arpOpCode, 
-						sourceMAC.toBytes(), arpPayload.getTargetHardwareAddress(), destinationMAC.toBytes());
-			} else if (!isRequest && sw.getStringId() != TAP_DPID && !isIngress) {
-				log.debug("Sending reply out with SRC " + sourceMAC.toString() + " DST " + MACAddress.valueOf(arpPayload.getTargetHardwareAddress())
-						+ " from port " + inPort + " to port " + outPort);
+				sendARP(sw, eth, cntx, inPort, (short)-outPort, arpOpCode, 
+						sourceMAC.toBytes(), arpPayload.getTargetHardwareAddress(), BCAST_MAC_BYTES);
+			} else if (!isRequest && !iface.isTap() && !isIngress) {
 				destinationMAC = targetMAC;
-				sendARP(sw, pi, cntx, inPort, (short)-outPort, arpOpCode, 
+				sendARP(sw, eth, cntx, inPort, (short)-outPort, arpOpCode, 
 						sourceMAC.toBytes(), arpPayload.getTargetHardwareAddress(), destinationMAC.toBytes());
 			} else {
 				log.debug("Determining how to rewrite ARP packet failed!");
@@ -267,41 +216,112 @@ IFloodlightModule  {
 		return Command.CONTINUE;
 	}
 
-	protected void sendARP(IOFSwitch sw, OFPacketIn pi, FloodlightContext cntx, short inPort, short outPort, 
-			short arpOpCode , byte[] sourceMACAddress, byte[] targetMACAddress, byte[] destinationMACAddress) {
+	/**
+	 * Learns the sender of an ARP packet that came in from an interface.
+	 */
+	protected void learnNeighbor(IOFSwitch sw, short inPort, ARP arp) {
+		HostInterface iface = interfaces.getInterface(sw.getId(), inPort);
+		if (iface == null || iface.isTap()) {
+			return;
+		}
+		// on its own OVS, only what comes in through the interface is from its network
+		if (sw.getId() == iface.getDpid() && inPort != iface.getIfacePort()) {
+			return;
+		}
+		long mac = Ethernet.toLong(arp.getSenderHardwareAddress());
+		if (mac == 0 || mac == BCAST_MAC.toLong()) {
+			return;
+		}
+		neighbors.get(iface).put(IPv4.toIPv4Address(arp.getSenderProtocolAddress()), mac,
+				System.currentTimeMillis());
+	}
 
-		Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-		// retrieve original ARP
-		ARP arpPayload = (ARP) eth.getPayload();
-		log.debug("ARP to " + IPv4.fromIPv4Address(IPv4.toIPv4Address(arpPayload.getTargetProtocolAddress())));
+	/**
+	 * Answers an ARP request of the tap from what the active interface has
+	 * learned. The interface is the one the tap's traffic is sent to, and a
+	 * handover is noticed as a change of it.
+	 * @return true if the request was answered and needs no forwarding;
+	 * false if it was not answered, or was answered from a binding that is
+	 * due for a refresh, so the request should still go out
+	 */
+	protected boolean proxyReply(IOFSwitch sw, short inPort, short outPort, ARP arp,
+			FloodlightContext cntx) {
+		HostInterface tap = interfaces.getTap();
+		if (arp.getOpCode() != ARP.OP_REQUEST || sw.getId() != tap.getDpid() ||
+				inPort != tap.getIfacePort()) {
+			return false;
+		}
+		HostInterface iface = interfaces.getInterface(sw.getId(), outPort);
+		if (iface == null || iface.isTap()) {
+			return false;
+		}
+		HostInterface previous = activeIface;
+		if (previous != iface) {
+			activeIface = iface;
+			if (previous != null && proxyArpFlushOnHandover) {
+				log.debug("Tap moved from {} to {}; flushing its neighbors", previous, iface);
+				neighbors.get(previous).clear();
+			}
+		}
 
-		// Modify original ARP packet
-		IPacket newARPPacket = new Ethernet()
-		.setSourceMACAddress(sourceMACAddress)
-		.setDestinationMACAddress(destinationMACAddress)
-		.setEtherType(Ethernet.TYPE_ARP)
-		.setVlanID(eth.getVlanID())
-		.setPriorityCode(eth.getPriorityCode())
-		.setPayload(
-				new ARP()
-				.setHardwareType(ARP.HW_TYPE_ETHERNET)
-				.setProtocolType(ARP.PROTO_TYPE_IP)
-				.setHardwareAddressLength((byte) 6)
-				.setProtocolAddressLength((byte) 4)
-				.setOpCode(arpOpCode)
-				.setSenderHardwareAddress(sourceMACAddress)
-				.setSenderProtocolAddress(
-						arpPayload.getSenderProtocolAddress())
-						.setTargetHardwareAddress(
-								targetMACAddress)
-								.setTargetProtocolAddress(
-										arpPayload.getTargetProtocolAddress()));
+		long nowMs = System.currentTimeMillis();
+		NeighborCache.Neighbor n = neighbors.get(iface).get(IPv4.toIPv4Address(arp.getTargetProtocolAddress()), nowMs);
+		if (n == null) {
+			return false;
+		}
+		byte[] mac = Ethernet.toByteArray(n.getMAC());
+		byte[] reply = ARPFrameEncoder.get().encode(arp.getSenderHardwareAddress(), mac,
+				Ethernet.VLAN_UNTAGGED, (byte) 0, ARP.OP_REPLY, arp.getTargetProtocolAddress(),
+				arp.getSenderHardwareAddress(), arp.getSenderProtocolAddress());
+		// back out the port it came in on, which OpenFlow only allows from no port
+		pushFrame(sw, reply, OFPort.OFPP_NONE.getValue(), inPort, cntx);
+		return nowMs - n.getLearnedMs() <= proxyArpRefreshMs;
+	}
+
+	/**
+	 * Sends a rewritten copy of the ARP packet in hand. The frame is encoded
+	 * by the thread's ARPFrameEncoder, keeping the original's VLAN tag and
+	 * IP addresses.
+	 */
+	protected void sendARP(IOFSwitch sw, Ethernet eth, FloodlightContext cntx, short inPort, short outPort, 
+			short arpOpCode , byte[] sourceMACAddress, byte[] targetMACAddress, byte[] destinationMACAddress) {
+		ARP arpPayload = (ARP) eth.getPayload();
+		byte[] frame = ARPFrameEncoder.get().encode(destinationMACAddress, sourceMACAddress,
+				eth.getVlanID(), eth.getPriorityCode(), arpOpCode,
+				arpPayload.getSenderProtocolAddress(), targetMACAddress,
+				arpPayload.getTargetProtocolAddress());
 
 		// push ARP out
-		pushPacket(newARPPacket, sw, OFPacketOut.BUFFER_ID_NONE, inPort, outPort, cntx, true);
-		log.debug("ARP packet pushed out PORT " + outPort + " on SWITCH " + sw.getStringId() + " with SRC " + MACAddress.valueOf(sourceMACAddress)
-				+ " and TGT " + MACAddress.valueOf(targetMACAddress) + " and DST " + MACAddress.valueOf(destinationMACAddress));
-		return;
+		pushFrame(sw, frame, inPort, outPort, cntx);
+		if (log.isDebugEnabled()) {
+			log.debug("ARP to {} pushed out PORT {} on SWITCH {} with SRC {} and TGT {} and DST {}",
+					new Object[] { IPv4.fromIPv4Address(IPv4.toIPv4Address(arpPayload.getTargetProtocolAddress())),
+					outPort, sw.getStringId(), MACAddress.valueOf(sourceMACAddress),
+					MACAddress.valueOf(targetMACAddress), MACAddress.valueOf(destinationMACAddress) });
+		}
+	}
+
+	/**
+	 * Sends an encoded frame out of a port. The packet-out is flushed, so
+	 * that the frame is written to the switch before the thread's encoder
+	 * reuses it.
+	 */
+	protected void pushFrame(IOFSwitch sw, byte[] frame, short inPort, short outPort,
+			FloodlightContext cntx) {
+		OFPacketOut po = (OFPacketOut) floodlightProvider.getOFMessageFactory()
+				.getMessage(OFType.PACKET_OUT);
+		po.setActions(Collections.singletonList((OFAction) new OFActionOutput(outPort, (short) 0xffff)))
+		.setActionsLength((short) OFActionOutput.MINIMUM_LENGTH);
+		po.setBufferId(OFPacketOut.BUFFER_ID_NONE);
+		po.setInPort(inPort);
+		po.setPacketData(frame);
+		po.setLength((short) (OFPacketOut.MINIMUM_LENGTH + OFActionOutput.MINIMUM_LENGTH + frame.length));
+		try {
+			counterStore.updatePktOutFMCounterStore(sw, po);
+			messageDamper.write(sw, po, cntx, true);
+		} catch (IOException e) {
+			log.error("Failure writing ARP packet out", e);
+		}
 	}
 
 	@Override
@@ -0,0 +1,140 @@
+package net.floodlightcontroller.ARPRewrite;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryListener;
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.util.HexString;
+
+/**
+ * Knows, for every switch, which port the static flows send the packets of
+ * each ingress port out of. Each switch has an array indexed by ingress port,
+ * copied on write as the static flow pusher reports changes, so a lookup
+ * never walks the flows or takes a lock.
+ *
+ * Flows that send to the controller say nothing about where a packet is
+ * headed and are left out. If several flows match an ingress port, the one
+ * added last wins; if it is removed, the remaining one of highest priority
+ * takes over.
+ */
+public class EgressPortCache implements IStaticFlowEntryListener {
+	private static final short[] NONE = new short[0];
+
+	private final IStaticFlowEntryPusherService sfep;
+	// DPID --> ingress port --> egress port, 0 if none
+	private final Map<Long, short[]> egressPorts = new ConcurrentHashMap<Long, short[]>();
+
+	public EgressPortCache(IStaticFlowEntryPusherService sfep) {
+		this.sfep = sfep;
+	}
+
+	/**
+	 * Fills the cache from every static flow known so far.
+	 */
+	public void rebuild() {
+		egressPorts.clear();
+		Map<String, Map<String, OFFlowMod>> flows = sfep.getFlows();
+		if (flows == null) {
+			return;
+		}
+		for (Map.Entry<String, Map<String, OFFlowMod>> e : flows.entrySet()) {
+			flowsAdded(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * @param dpid the switch
+	 * @param inPort the ingress port
+	 * @return the port the static flows send the ingress port's packets out
+	 * of, or 0 if no static flow matches the ingress port
+	 */
+	public short getEgressPort(long dpid, short inPort) {
+		short[] ports = egressPorts.get(dpid);
+		if (ports == null) {
+			return 0;
+		}
+		int i = inPort & 0xffff;
+		return (i < ports.length) ? ports[i] : 0;
+	}
+
+	private static boolean isIndexed(OFFlowMod flow) {
+		return flow != null &&
+				(flow.getMatch().getWildcards() & OFMatch.OFPFW_IN_PORT) == 0 &&
+				flow.getOutPort() != OFPort.OFPP_CONTROLLER.getValue() &&
+				flow.getOutPort() != 0;
+	}
+
+	@Override
+	public synchronized void flowsAdded(String dpid, Map<String, OFFlowMod> flows) {
+		int length = -1;
+		for (OFFlowMod flow : flows.values()) {
+			if (isIndexed(flow)) {
+				length = Math.max(length, (flow.getMatch().getInputPort() & 0xffff) + 1);
+			}
+		}
+		if (length < 0) {
+			return;
+		}
+		long sw = HexString.toLong(dpid);
+		short[] ports = egressPorts.get(sw);
+		ports = (ports == null) ? NONE : ports;
+		short[] updated = new short[Math.max(ports.length, length)];
+		System.arraycopy(ports, 0, updated, 0, ports.length);
+		for (OFFlowMod flow : flows.values()) {
+			if (isIndexed(flow)) {
+				updated[flow.getMatch().getInputPort() & 0xffff] = flow.getOutPort();
+			}
+		}
+		egressPorts.put(sw, updated);
+	}
+
+	@Override
+	public synchronized void flowsRemoved(String dpid, Map<String, OFFlowMod> flows) {
+		long sw = HexString.toLong(dpid);
+		short[] ports = egressPorts.get(sw);
+		if (ports == null) {
+			return;
+		}
+		short[] updated = null;
+		for (OFFlowMod flow : flows.values()) {
+			if (!isIndexed(flow)) {
+				continue;
+			}
+			int i = flow.getMatch().getInputPort() & 0xffff;
+			if (i >= ports.length || ports[i] != flow.getOutPort()) {
+				continue;	// not the flow the port is mapped by
+			}
+			if (updated == null) {
+				updated = ports.clone();
+			}
+			updated[i] = findEgressPort(dpid, flow.getMatch().getInputPort());
+		}
+		if (updated != null) {
+			egressPorts.put(sw, updated);
+		}
+	}
+
+	/**
+	 * Looks through the flows of a switch for the one of highest priority
+	 * matching an ingress port; only done when a mapped flow goes away.
+	 */
+	private short findEgressPort(String dpid, short inPort) {
+		Map<String, OFFlowMod> flows = sfep.getFlows(dpid);
+		if (flows == null) {
+			return 0;
+		}
+		OFFlowMod best = null;
+		for (OFFlowMod flow : flows.values()) {
+			if (isIndexed(flow) && flow.getMatch().getInputPort() == inPort &&
+					(best == null || (flow.getPriority() & 0xffff) > (best.getPriority() & 0xffff))) {
+				best = flow;
+			}
+		}
+		return (best == null) ? 0 : best.getOutPort();
+	}
+}
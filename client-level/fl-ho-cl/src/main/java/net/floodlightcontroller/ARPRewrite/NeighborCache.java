@@ -0,0 +1,84 @@
+package net.floodlightcontroller.ARPRewrite;
+
+import net.floodlightcontroller.util.LRUHashMap;
+
+/**
+ * The IP to MAC bindings learned from the ARP traffic of one interface,
+ * so that the tap's requests for them can be answered by the controller.
+ * Bindings expire after a time to live, and the least recently used ones
+ * are evicted once the cache is full.
+ */
+public class NeighborCache {
+
+	/**
+	 * A binding, as of when it was learned.
+	 */
+	public static class Neighbor {
+		private final long mac;
+		private final long learnedMs;
+
+		private Neighbor(long mac, long learnedMs) {
+			this.mac = mac;
+			this.learnedMs = learnedMs;
+		}
+
+		public long getMAC() {
+			return mac;
+		}
+
+		public long getLearnedMs() {
+			return learnedMs;
+		}
+	}
+
+	private final long ttlMs;
+	private final LRUHashMap<Integer, Neighbor> neighbors;
+
+	/**
+	 * @param capacity the most bindings to remember
+	 * @param ttlMs how long a binding stays valid once learned
+	 */
+	public NeighborCache(int capacity, long ttlMs) {
+		this.ttlMs = ttlMs;
+		this.neighbors = new LRUHashMap<Integer, Neighbor>(capacity);
+	}
+
+	/**
+	 * Looks up the MAC address of an IP address.
+	 * @param ip the IP address
+	 * @param nowMs the current time in milliseconds
+	 * @return the binding, or null if there is none or it has expired
+	 */
+	public synchronized Neighbor get(int ip, long nowMs) {
+		Neighbor n = neighbors.get(ip);
+		if (n == null) {
+			return null;
+		}
+		if (nowMs - n.learnedMs > ttlMs) {
+			neighbors.remove(ip);
+			return null;
+		}
+		return n;
+	}
+
+	/**
+	 * Learns a binding, replacing any older one for the IP address.
+	 * @param ip the IP address
+	 * @param mac the MAC address it is at
+	 * @param nowMs the current time in milliseconds
+	 */
+	public synchronized void put(int ip, long mac, long nowMs) {
+		neighbors.put(ip, new Neighbor(mac, nowMs));
+	}
+
+	/**
+	 * Forgets every binding.
+	 */
+	public synchronized void clear() {
+		neighbors.clear();
+	}
+
+	public synchronized int size() {
+		return neighbors.size();
+	}
+}
@@ -1083,6 +1083,10 @@ public class Controller implements IFloodlightProviderService,
                     handlePortStatusMessage(sw, (OFPortStatus)m, updateStorage);
                     shouldHandleMessage = true;
                     break;
+                case BARRIER_REPLY:
+                    sw.deliverBarrierReply(m);
+                    shouldHandleMessage = true;
+                    break;
 
                 default:
                     shouldHandleMessage = true;
@@ -0,0 +1,245 @@
+package net.floodlightcontroller.handover;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asks the GRC for handover decisions without blocking the caller.
+ * Requests go out on a small pool of threads over one long-lived, keep-alive
+ * HTTP client. Each request is aborted once its connect and read deadlines
+ * have passed, a query identical to one in flight joins it instead of being
+ * sent again, and no more than a fixed number of queries are ever in flight.
+ * Decisions are handed to a listener as they arrive.
+ */
+public class GRCClient {
+	protected static Logger log = LoggerFactory.getLogger(GRCClient.class);
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * Receives the decisions of the GRC.
+	 */
+	public interface IGRCListener {
+		/**
+		 * Called on a GRC client thread when a decision arrives.
+		 * @param latitude the latitude the GRC was asked about
+		 * @param longitude the longitude the GRC was asked about
+		 * @param networkType the network type the GRC decided on
+		 * @param decisionNs System.nanoTime() at which the decision arrived
+		 */
+		public void receiveDecision(double latitude, double longitude, String networkType, long decisionNs);
+	}
+
+	private final String url;
+	private final IGRCListener listener;
+	private final long deadlineMs;
+	private final Semaphore inFlight;
+	private final Map<String, Future<String>> pending;
+	private final CloseableHttpClient client;
+	private final ExecutorService requestPool;
+	private final ScheduledExecutorService deadlineTimer;
+
+	/**
+	 * @param url the GRC's handover decision URL
+	 * @param connectTimeoutMs deadline to connect, or to get a pooled connection
+	 * @param readTimeoutMs deadline to read the whole response once connected
+	 * @param maxInFlight the most queries in flight at once
+	 * @param listener receives the decisions
+	 */
+	public GRCClient(String url, int connectTimeoutMs, int readTimeoutMs,
+			int maxInFlight, IGRCListener listener) {
+		this.url = url;
+		this.listener = listener;
+		this.deadlineMs = connectTimeoutMs + readTimeoutMs;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.pending = new HashMap<String, Future<String>>();
+
+		PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+		connections.setMaxTotal(maxInFlight);
+		connections.setDefaultMaxPerRoute(maxInFlight);
+		RequestConfig config = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMs)
+				.setConnectionRequestTimeout(connectTimeoutMs)
+				.setSocketTimeout(readTimeoutMs)
+				.build();
+		this.client = HttpClients.custom()
+				.setConnectionManager(connections)
+				.setDefaultRequestConfig(config)
+				.build();
+
+		ThreadFactory daemons = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "GRCClient");
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		this.requestPool = Executors.newFixedThreadPool(maxInFlight, daemons);
+		this.deadlineTimer = Executors.newSingleThreadScheduledExecutor(daemons);
+	}
+
+	/**
+	 * Builds the form the GRC expects.
+	 * @param latitude where we are
+	 * @param longitude where we are
+	 * @param networkTypes the network types to choose from, each mapped to its operator
+	 * @return the form parameters
+	 */
+	private static List<NameValuePair> buildQuery(double latitude, double longitude,
+			Map<String, String> networkTypes) throws IOException {
+		//create a JSON object for every interface name, containing collected details
+		List<Map<String, String>> netTypeObjs = new ArrayList<Map<String, String>>();
+		for (Map.Entry<String, String> e : networkTypes.entrySet()) {
+			Map<String, String> obj = new HashMap<String, String>();
+			obj.put("name", e.getKey());
+			obj.put("operator", e.getValue());
+			netTypeObjs.add(obj);
+		}
+		List<NameValuePair> nvps = new ArrayList<NameValuePair>();
+		nvps.add(new BasicNameValuePair("latitude", Double.toString(latitude)));
+		nvps.add(new BasicNameValuePair("longitude", Double.toString(longitude)));
+		nvps.add(new BasicNameValuePair("network_types", MAPPER.writeValueAsString(netTypeObjs)));
+		return nvps;
+	}
+
+	/**
+	 * Sends a query to the GRC, unless an identical one is already in flight.
+	 * Returns right away.
+	 * @param latitude where we are
+	 * @param longitude where we are
+	 * @param networkTypes the network types to choose from, each mapped to its operator
+	 * @return Future wrapping the network type decided on, or null if the GRC
+	 * failed or missed its deadline; null if too many queries are in flight
+	 * @throws IOException if the query could not be encoded
+	 */
+	public Future<String> query(double latitude, double longitude,
+			Map<String, String> networkTypes) throws IOException {
+		String body = URLEncodedUtils.format(buildQuery(latitude, longitude, networkTypes), "UTF-8");
+		synchronized (pending) {
+			Future<String> inFlightQuery = pending.get(body);
+			if (inFlightQuery != null) {
+				log.debug("Joining GRC query already in flight");
+				return inFlightQuery;
+			}
+			if (!inFlight.tryAcquire()) {
+				log.debug("Too many GRC queries in flight; skipping this one");
+				return null;
+			}
+			FutureTask<String> request = new FutureTask<String>(new Request(body, latitude, longitude));
+			pending.put(body, request);
+			requestPool.execute(request);
+			return request;
+		}
+	}
+
+	/**
+	 * @return the number of queries in flight
+	 */
+	public int getInFlight() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Stops the client. Queries in flight are aborted.
+	 */
+	public void shutdown() {
+		requestPool.shutdownNow();
+		deadlineTimer.shutdownNow();
+		try {
+			client.close();
+		} catch (IOException e) {
+			log.debug("Failure closing the GRC client", e);
+		}
+	}
+
+	private class Request implements Callable<String> {
+		private final String body;
+		private final double latitude;
+		private final double longitude;
+
+		private Request(String body, double latitude, double longitude) {
+			this.body = body;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+
+		@Override
+		public String call() {
+			final HttpPost httpPost = new HttpPost(url);
+			httpPost.setEntity(new StringEntity(body, ContentType.APPLICATION_FORM_URLENCODED));
+			// the socket timeout bounds each read; this bounds the whole exchange
+			ScheduledFuture<?> deadline = deadlineTimer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					httpPost.abort();
+				}
+			}, deadlineMs, TimeUnit.MILLISECONDS);
+
+			String network = null;
+			try {
+				CloseableHttpResponse response = client.execute(httpPost);
+				try {
+					int status = response.getStatusLine().getStatusCode();
+					String responseBody = EntityUtils.toString(response.getEntity());
+					if (status >= 200 && status < 300) {
+						JsonNode node = MAPPER.readTree(responseBody).get("network");
+						if (node != null && node.isTextual() && !node.getTextValue().isEmpty()) {
+							network = node.getTextValue();
+						} else {
+							log.debug("ERROR: Empty response from server, check args.");
+						}
+					} else {
+						log.warn("GRC answered with status {}", status);
+					}
+				} finally {
+					response.close();
+				}
+			} catch (Exception e) {
+				log.warn("GRC query failed: {}", e.toString());
+			} finally {
+				deadline.cancel(false);
+				synchronized (pending) {
+					pending.remove(body);
+					inFlight.release();
+				}
+			}
+
+			if (network != null) {
+				listener.receiveDecision(latitude, longitude, network, System.nanoTime());
+			}
+			return network;
+		}
+	}
+}
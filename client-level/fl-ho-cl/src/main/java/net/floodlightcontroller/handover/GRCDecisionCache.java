@@ -0,0 +1,129 @@
+package net.floodlightcontroller.handover;
+
+import net.floodlightcontroller.util.LRUHashMap;
+
+/**
+ * Remembers the GRC's past decisions by where they were made. Positions are
+ * bucketed into geohash cells, so a vehicle driving a known route finds the
+ * decision for the cell it enters without asking the GRC. Decisions expire
+ * after a time to live, and the least recently used cells are evicted once
+ * the cache is full.
+ */
+public class GRCDecisionCache {
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+	private static class Decision {
+		private final String networkType;
+		private final long madeMs;
+
+		private Decision(String networkType, long madeMs) {
+			this.networkType = networkType;
+			this.madeMs = madeMs;
+		}
+	}
+
+	private final int precision;
+	private final long ttlMs;
+	private final LRUHashMap<String, Decision> decisions;
+
+	/**
+	 * @param precision geohash length of a cell; 7 is about 150 m across
+	 * @param capacity the most cells to remember
+	 * @param ttlMs how long a decision stays valid
+	 */
+	public GRCDecisionCache(int precision, int capacity, long ttlMs) {
+		if (precision < 1 || precision > 12) {
+			throw new IllegalArgumentException("Geohash precision must be 1 to 12, not " + precision);
+		}
+		this.precision = precision;
+		this.ttlMs = ttlMs;
+		this.decisions = new LRUHashMap<String, Decision>(capacity);
+	}
+
+	/**
+	 * @param latitude the position's latitude
+	 * @param longitude the position's longitude
+	 * @return the geohash of the cell the position is in
+	 */
+	public String getCell(double latitude, double longitude) {
+		return geohash(latitude, longitude, precision);
+	}
+
+	/**
+	 * Looks up the decision for a cell.
+	 * @param cell the cell, see getCell()
+	 * @param nowMs the current time in milliseconds
+	 * @return the network type decided on in the cell, or null if there is
+	 * no decision or it has expired
+	 */
+	public synchronized String get(String cell, long nowMs) {
+		Decision d = decisions.get(cell);
+		if (d == null) {
+			return null;
+		}
+		if (nowMs - d.madeMs > ttlMs) {
+			decisions.remove(cell);
+			return null;
+		}
+		return d.networkType;
+	}
+
+	/**
+	 * Remembers a decision for a cell, replacing any older one.
+	 * @param cell the cell, see getCell()
+	 * @param networkType the network type decided on
+	 * @param nowMs the current time in milliseconds
+	 */
+	public synchronized void put(String cell, String networkType, long nowMs) {
+		decisions.put(cell, new Decision(networkType, nowMs));
+	}
+
+	public synchronized int size() {
+		return decisions.size();
+	}
+
+	/**
+	 * Encodes a position as a geohash.
+	 * @param latitude the position's latitude
+	 * @param longitude the position's longitude
+	 * @param precision the number of characters
+	 * @return the geohash
+	 */
+	public static String geohash(double latitude, double longitude, int precision) {
+		double latMin = -90, latMax = 90;
+		double lonMin = -180, lonMax = 180;
+		char[] hash = new char[precision];
+		boolean evenBit = true; // bits alternate between longitude and latitude, longitude first
+		int bits = 0;
+		int ch = 0;
+		int i = 0;
+		while (i < precision) {
+			if (evenBit) {
+				double mid = (lonMin + lonMax) / 2;
+				if (longitude >= mid) {
+					ch = (ch << 1) | 1;
+					lonMin = mid;
+				} else {
+					ch = ch << 1;
+					lonMax = mid;
+				}
+			} else {
+				double mid = (latMin + latMax) / 2;
+				if (latitude >= mid) {
+					ch = (ch << 1) | 1;
+					latMin = mid;
+				} else {
+					ch = ch << 1;
+					latMax = mid;
+				}
+			}
+			evenBit = !evenBit;
+			if (++bits == 5) {
+				hash[i++] = BASE32[ch];
+				bits = 0;
+				ch = 0;
+			}
+		}
+		return new String(hash);
+	}
+}
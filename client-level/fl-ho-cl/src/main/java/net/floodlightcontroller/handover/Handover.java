@@ -4,55 +4,61 @@ import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.net.UnknownServiceException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.HttpsURLConnection;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.ResponseHandler;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONStringer;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFPortStatus;
+import org.openflow.protocol.OFType;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionDataLayerDestination;
 import org.openflow.protocol.action.OFActionDataLayerSource;
 import org.openflow.protocol.action.OFActionOutput;
-import org.openflow.protocol.action.OFActionType;
+import org.openflow.util.HexString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.handover.HandoverTimeline.Stage;
+import net.floodlightcontroller.interfaceregistry.HostInterface;
+import net.floodlightcontroller.interfaceregistry.IInterfaceRegistryService;
+import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.linkquality.ILinkQualityService;
+import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntries;
 
 import de.taimos.gpsd4java.*;
 import de.taimos.gpsd4java.api.IObjectListener;
@@ -68,14 +74,19 @@ import de.taimos.gpsd4java.types.SKYObject;
 import de.taimos.gpsd4java.types.TPVObject;
 import de.taimos.gpsd4java.types.subframes.SUBFRAMEObject;
 
-public class Handover implements IFloodlightModule {
+public class Handover implements IFloodlightModule, IHandoverService, IOFMessageListener, IOFSwitchListener {
 
 	protected static Logger log;
 	protected IFloodlightProviderService floodlightProvider;
 	protected IStaticFlowEntryPusherService sfp;
+	protected IRestApiService restApi;
+	protected ILinkQualityService linkQuality;
+	protected IInterfaceRegistryService interfaces;
 
 	private static ScheduledThreadPoolExecutor grcProbeMgr;
 	private static Runnable grcProbe;
+	private static ScheduledThreadPoolExecutor policyCheckMgr;
+	private static Runnable policyCheck;
 
 	private static GPSdEndpoint GPSD_CONN = null;
 	private static ResultParser GPSD_RESULT_PARSER = null;
@@ -86,70 +97,125 @@ public class Handover implements IFloodlightModule {
 
 	private static long GRC_PROBE_INTERVAL_SECONDS;
 	private static String GRC_URL = null;
-
-	private static String OVS_TAP_DPID;
-	private static String OVS_WIFI0_DPID;
-	private static String OVS_WIFI1_DPID;
-	private static String OVS_WIMAX0_DPID;
-	private static String OVS_WIMAX1_DPID;
-	private static String OVS_ETHERNET_DPID;
-
-	private static byte[] TAP_MAC;
-	private static byte[] WIFI0_MAC;
-	private static byte[] WIFI1_MAC;
-	private static byte[] WIMAX0_MAC;
-	private static byte[] WIMAX1_MAC;
-	private static byte[] ETHERNET_MAC;
-
-	private static String TAP_IFACE_NAME;
-	private static String WIFI0_IFACE_NAME;
-	private static String WIFI1_IFACE_NAME;
-	private static String WIMAX0_IFACE_NAME;
-	private static String WIMAX1_IFACE_NAME;
-	private static String ETHERNET_IFACE_NAME;
-
-	private static short OVS_TAP_TO_WIFI0_PATCH;
-	private static short OVS_TAP_TO_WIFI1_PATCH;
-	private static short OVS_TAP_TO_WIMAX0_PATCH;
-	private static short OVS_TAP_TO_WIMAX1_PATCH;
-	private static short OVS_TAP_TO_ETHERNET_PATCH;
-
-	private static short OVS_WIFI0_TO_TAP_PATCH;
-	private static short OVS_WIFI1_TO_TAP_PATCH;
-	private static short OVS_WIMAX0_TO_TAP_PATCH;
-	private static short OVS_WIMAX1_TO_TAP_PATCH;
-	private static short OVS_ETHERNET_TO_TAP_PATCH;
-
-	private static short OVS_TAP_LOCAL_PORT;
-	private static short OVS_WIFI0_IFACE_PORT;
-	private static short OVS_WIFI1_IFACE_PORT;
-	private static short OVS_WIMAX0_IFACE_PORT;
-	private static short OVS_WIMAX1_IFACE_PORT;
-	private static short OVS_ETHERNET_IFACE_PORT;
-
-	private static ArrayList<String> ACTIVE_FLOWS;
+	private static int GRC_CONNECT_TIMEOUT_MS = 1000;
+	private static int GRC_READ_TIMEOUT_MS = 2000;
+	private static int GRC_MAX_IN_FLIGHT = 2;
+	private static GRCClient GRC_CLIENT = null;
+	private static int GRC_CACHE_PRECISION = 7;
+	private static int GRC_CACHE_SIZE = 4096;
+	private static long GRC_CACHE_TTL_SECONDS = 86400;
+	private static GRCDecisionCache GRC_CACHE = null;
+	private static Map<String, String> GRC_NETWORK_TYPES; // network type --> operator
+	private static String GPSD_CELL = null;
+
+	private static boolean MAKE_BEFORE_BREAK = true;
+	private static boolean ARP_OFFLOAD = false;
+	private static long BARRIER_TIMEOUT_MS = 1000;
+	// priorities are unsigned on the wire; 0x8000 is 32768, one above FLOW_PRIORITY_LOW
+	private static final short FLOW_PRIORITY_HIGH = (short) 0x8000;
+	private static final short FLOW_PRIORITY_LOW = (short) 32767;
+
+	private static final String ETHERNET = "Ethernet";
+	private static Map<String, FlowTemplate[]> FLOW_TEMPLATES; // network type --> { high priority, low priority }
+	private static volatile FlowTemplate ACTIVE_TEMPLATE = null;
 	private static final String OFFLINE = "offline";
-	private static String ACTIVE_NETWORK_TYPE = OFFLINE;
+	private static volatile String ACTIVE_NETWORK_TYPE = OFFLINE;
+	private static List<String> FAILOVER_ORDER = null;
+
+	private static long POLICY_INTERVAL_MS = 100;
+	private static double POLICY_LEAVE_QUALITY = 0.3;
+	private static double POLICY_ENTER_QUALITY = 0.6;
+	private static long POLICY_DWELL_MS = 2000;
+	private static volatile IHandoverPolicy POLICY;
+	private static volatile ILinkMetricsSource LINK_METRICS = null;
+
+	// the latest GRC decision not yet acted upon, and the last one acted upon
+	private static final AtomicReference<GRCAdvice> GRC_ADVICE = new AtomicReference<GRCAdvice>();
+	private static String GRC_ADVISED = null;
+
+	private static int TIMELINE_SIZE = 256;
+	private static HandoverTimeline TIMELINE;
+
+	/**
+	 * A decision received from the GRC, to be applied by the policy check.
+	 */
+	private static class GRCAdvice {
+		private final String networkType;
+		private final long decisionNs;
+
+		private GRCAdvice(String networkType, long decisionNs) {
+			this.networkType = networkType;
+			this.decisionNs = decisionNs;
+		}
+	}
+
+	/**
+	 * The flows that bridge the tap to one interface at one priority, built
+	 * once at startUp. Each OVS's share of them is also kept serialized, both
+	 * as adds and as strict deletes, so that a handover writes ready-made bytes
+	 * to the switches instead of building and encoding flow mods.
+	 */
+	static class FlowTemplate {
+		private final short priority;
+		private final String tapDpid;
+		private final String ifaceDpid;
+		private final long ifaceSwitchId;
+		private final short ifacePort;
+		final Map<String, OFFlowMod> tapFlows;
+		final Map<String, OFFlowMod> ifaceFlows;
+		private final ChannelBuffer tapAdd;
+		private final ChannelBuffer tapDelete;
+		private final ChannelBuffer ifaceAdd;
+		private final ChannelBuffer ifaceDelete;
+
+		private FlowTemplate(short priority, String tapDpid, Map<String, OFFlowMod> tapFlows,
+				String ifaceDpid, long ifaceSwitchId, short ifacePort, Map<String, OFFlowMod> ifaceFlows) {
+			this.priority = priority;
+			this.tapDpid = tapDpid;
+			this.ifaceDpid = ifaceDpid;
+			this.ifaceSwitchId = ifaceSwitchId;
+			this.ifacePort = ifacePort;
+			this.tapFlows = tapFlows;
+			this.ifaceFlows = ifaceFlows;
+			this.tapAdd = serialize(tapFlows.values(), OFFlowMod.OFPFC_ADD);
+			this.tapDelete = serialize(tapFlows.values(), OFFlowMod.OFPFC_DELETE_STRICT);
+			this.ifaceAdd = serialize(ifaceFlows.values(), OFFlowMod.OFPFC_ADD);
+			this.ifaceDelete = serialize(ifaceFlows.values(), OFFlowMod.OFPFC_DELETE_STRICT);
+		}
+	}
 
 	@Override
 	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
-		return null;
+		Collection<Class<? extends IFloodlightService>> l = new ArrayList<Class<? extends IFloodlightService>>();
+		l.add(IHandoverService.class);
+		return l;
 	}
 
 	@Override
 	public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
-		return null;
+		Map<Class<? extends IFloodlightService>, IFloodlightService> m = new HashMap<Class<? extends IFloodlightService>, IFloodlightService>();
+		m.put(IHandoverService.class, this);
+		return m;
 	}
 
 	@Override
 	public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
-		return null;
+		Collection<Class<? extends IFloodlightService>> l = new ArrayList<Class<? extends IFloodlightService>>();
+		l.add(IFloodlightProviderService.class);
+		l.add(IStaticFlowEntryPusherService.class);
+		l.add(IRestApiService.class);
+		l.add(ILinkQualityService.class);
+		l.add(IInterfaceRegistryService.class);
+		return l;
 	}
 
 	@Override
 	public void init(FloodlightModuleContext context) throws FloodlightModuleException {
 		floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
 		sfp = context.getServiceImpl(IStaticFlowEntryPusherService.class);
+		restApi = context.getServiceImpl(IRestApiService.class);
+		linkQuality = context.getServiceImpl(ILinkQualityService.class);
+		interfaces = context.getServiceImpl(IInterfaceRegistryService.class);
 		log = LoggerFactory.getLogger(Handover.class);
 		return;
 	}
@@ -162,53 +228,96 @@ public class Handover implements IFloodlightModule {
 			GPSD_TCP_PORT = Integer.parseInt(configOptions.get("gpsd-tcp-port"));
 			GRC_URL = configOptions.get("grc-url");
 
-			TAP_IFACE_NAME = configOptions.get("tap-iface-name");
-			WIFI0_IFACE_NAME = configOptions.get("wifi0-iface-name");
-			WIFI1_IFACE_NAME = configOptions.get("wifi1-iface-name");
-			WIMAX0_IFACE_NAME = configOptions.get("wimax0-iface-name");
-			WIMAX1_IFACE_NAME = configOptions.get("wimax1-iface-name");
-			ETHERNET_IFACE_NAME = configOptions.get("ethernet-iface-name");
-
-			TAP_MAC = Ethernet.toMACAddress(configOptions.get("tap-mac"));
-			WIFI0_MAC = Ethernet.toMACAddress(configOptions.get("wifi0-mac"));
-			WIFI1_MAC = Ethernet.toMACAddress(configOptions.get("wifi1-mac"));
-			WIMAX0_MAC = Ethernet.toMACAddress(configOptions.get("wimax0-mac"));
-			WIMAX1_MAC = Ethernet.toMACAddress(configOptions.get("wimax1-mac"));
-			ETHERNET_MAC = Ethernet.toMACAddress(configOptions.get("ethernet-mac"));
-
-
-			OVS_TAP_DPID = configOptions.get("ovs-tap-dpid");
-			OVS_WIFI0_DPID = configOptions.get("ovs-wifi0-dpid");
-			OVS_WIFI1_DPID = configOptions.get("ovs-wifi1-dpid");
-			OVS_WIMAX0_DPID = configOptions.get("ovs-wimax0-dpid");
-			OVS_WIMAX1_DPID = configOptions.get("ovs-wimax1-dpid");
-			OVS_ETHERNET_DPID = configOptions.get("ovs-ethernet-dpid");
-
-			OVS_TAP_TO_WIFI0_PATCH = Short.parseShort(configOptions.get("ovs-tap-to-wifi0-patch"));
-			OVS_TAP_TO_WIFI1_PATCH = Short.parseShort(configOptions.get("ovs-tap-to-wifi1-patch"));
-			OVS_TAP_TO_WIMAX0_PATCH = Short.parseShort(configOptions.get("ovs-tap-to-wimax0-patch"));
-			OVS_TAP_TO_WIMAX1_PATCH = Short.parseShort(configOptions.get("ovs-tap-to-wimax1-patch"));
-			OVS_TAP_TO_ETHERNET_PATCH = Short.parseShort(configOptions.get("ovs-tap-to-ethernet-patch"));
-
-			OVS_WIFI0_TO_TAP_PATCH = Short.parseShort(configOptions.get("ovs-wifi0-to-tap-patch"));
-			OVS_WIFI1_TO_TAP_PATCH = Short.parseShort(configOptions.get("ovs-wifi1-to-tap-patch"));
-			OVS_WIMAX0_TO_TAP_PATCH = Short.parseShort(configOptions.get("ovs-wimax0-to-tap-patch"));
-			OVS_WIMAX1_TO_TAP_PATCH = Short.parseShort(configOptions.get("ovs-wimax1-to-tap-patch"));
-			OVS_ETHERNET_TO_TAP_PATCH = Short.parseShort(configOptions.get("ovs-ethernet-to-tap-patch"));
-
-			OVS_TAP_LOCAL_PORT = Short.parseShort(configOptions.get("ovs-tap-local-port"));
-			OVS_WIFI0_IFACE_PORT = Short.parseShort(configOptions.get("ovs-wifi0-iface-port"));
-			OVS_WIFI1_IFACE_PORT = Short.parseShort(configOptions.get("ovs-wifi1-iface-port"));
-			OVS_WIMAX0_IFACE_PORT = Short.parseShort(configOptions.get("ovs-wimax0-iface-port"));
-			OVS_WIMAX1_IFACE_PORT = Short.parseShort(configOptions.get("ovs-wimax1-iface-port"));
-			OVS_ETHERNET_IFACE_PORT = Short.parseShort(configOptions.get("ovs-ethernet-iface-port"));
+			if (configOptions.get("make-before-break") != null) {
+				MAKE_BEFORE_BREAK = Boolean.parseBoolean(configOptions.get("make-before-break"));
+			}
+			if (configOptions.get("arp-offload") != null) {
+				ARP_OFFLOAD = Boolean.parseBoolean(configOptions.get("arp-offload"));
+			}
+			if (configOptions.get("barrier-timeout-ms") != null) {
+				BARRIER_TIMEOUT_MS = Long.parseLong(configOptions.get("barrier-timeout-ms"));
+			}
+			if (configOptions.get("grc-connect-timeout-ms") != null) {
+				GRC_CONNECT_TIMEOUT_MS = Integer.parseInt(configOptions.get("grc-connect-timeout-ms"));
+			}
+			if (configOptions.get("grc-read-timeout-ms") != null) {
+				GRC_READ_TIMEOUT_MS = Integer.parseInt(configOptions.get("grc-read-timeout-ms"));
+			}
+			if (configOptions.get("grc-max-in-flight") != null) {
+				GRC_MAX_IN_FLIGHT = Integer.parseInt(configOptions.get("grc-max-in-flight"));
+			}
+			if (configOptions.get("grc-cache-geohash-precision") != null) {
+				GRC_CACHE_PRECISION = Integer.parseInt(configOptions.get("grc-cache-geohash-precision"));
+			}
+			if (configOptions.get("grc-cache-size") != null) {
+				GRC_CACHE_SIZE = Integer.parseInt(configOptions.get("grc-cache-size"));
+			}
+			if (configOptions.get("grc-cache-ttl-seconds") != null) {
+				GRC_CACHE_TTL_SECONDS = Long.parseLong(configOptions.get("grc-cache-ttl-seconds"));
+			}
+			if (configOptions.get("failover-order") != null) {
+				FAILOVER_ORDER = new ArrayList<String>();
+				for (String networkType : configOptions.get("failover-order").split(",")) {
+					FAILOVER_ORDER.add(networkType.trim());
+				}
+			}
+			if (configOptions.get("policy-interval-ms") != null) {
+				POLICY_INTERVAL_MS = Long.parseLong(configOptions.get("policy-interval-ms"));
+			}
+			if (configOptions.get("policy-leave-quality") != null) {
+				POLICY_LEAVE_QUALITY = Double.parseDouble(configOptions.get("policy-leave-quality"));
+			}
+			if (configOptions.get("policy-enter-quality") != null) {
+				POLICY_ENTER_QUALITY = Double.parseDouble(configOptions.get("policy-enter-quality"));
+			}
+			if (configOptions.get("policy-dwell-ms") != null) {
+				POLICY_DWELL_MS = Long.parseLong(configOptions.get("policy-dwell-ms"));
+			}
+			if (configOptions.get("timeline-size") != null) {
+				TIMELINE_SIZE = Integer.parseInt(configOptions.get("timeline-size"));
+			}
 
 		} catch(Exception e) {
 			log.error("Incorrect Handover configuration options", e);
 			//throw e;
 		}
 
-		ACTIVE_FLOWS = new ArrayList<String>();
+		TIMELINE = new HandoverTimeline(TIMELINE_SIZE);
+		GRC_CACHE = new GRCDecisionCache(GRC_CACHE_PRECISION, GRC_CACHE_SIZE, GRC_CACHE_TTL_SECONDS * 1000);
+		if (POLICY == null) {
+			POLICY = new HysteresisHandoverPolicy(POLICY_LEAVE_QUALITY, POLICY_ENTER_QUALITY, POLICY_DWELL_MS);
+		}
+		restApi.addRestletRoutable(new HandoverWebRoutable());
+
+		/*
+		 * Every network type is served by the first interface configured with it.
+		 * Judge each by the port statistics of its iface port, build its flows up
+		 * front (a handover only replays them), and offer it to the GRC if it has
+		 * an operator.
+		 */
+		FLOW_TEMPLATES = new HashMap<String, FlowTemplate[]>();
+		GRC_NETWORK_TYPES = new LinkedHashMap<String, String>();
+		List<String> networkTypes = new ArrayList<String>();
+		for (HostInterface iface : interfaces.getInterfaces()) {
+			String networkType = iface.getNetworkType();
+			if (interfaces.getInterface(networkType) != iface) {
+				continue;
+			}
+			networkTypes.add(networkType);
+			linkQuality.addMonitoredPort(networkType, iface.getDpid(), iface.getIfacePort());
+			FLOW_TEMPLATES.put(networkType, new FlowTemplate[] {
+					buildTemplate(iface, FLOW_PRIORITY_HIGH, ARP_OFFLOAD),
+					buildTemplate(iface, FLOW_PRIORITY_LOW, ARP_OFFLOAD) });
+			if (iface.getOperator() != null) {
+				GRC_NETWORK_TYPES.put(networkType, iface.getOperator());
+			}
+		}
+		if (LINK_METRICS == null) {
+			LINK_METRICS = new LinkQualityMetricsSource(linkQuality);
+		}
+		if (FAILOVER_ORDER == null) {
+			FAILOVER_ORDER = networkTypes;
+		}
 
 		try {
 			GPSD_CONN = new GPSdEndpoint("127.0.0.1", GPSD_TCP_PORT, new ResultParser());
@@ -219,6 +328,7 @@ public class Handover implements IFloodlightModule {
 					GPSD_LATITUDE = tpv.getLatitude();
 					GPSD_LONGITUDE = tpv.getLongitude();
 					GPSD_ALTITUDE = tpv.getAltitude();
+					enterCell(GPSD_LATITUDE, GPSD_LONGITUDE);
 				}
 
 				@Override
@@ -281,13 +391,105 @@ public class Handover implements IFloodlightModule {
 			e.printStackTrace();
 		}
 
-		// Periodically ask GRC for a handover decision
-		grcProbeMgr = new ScheduledThreadPoolExecutor(1);
-		grcProbe = new GRCProbe();
-		grcProbeMgr.scheduleAtFixedRate(grcProbe, 10, GRC_PROBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		// Periodically ask GRC for a handover decision; it only advises, the policy check acts on it
+		if (GRC_URL != null && !GRC_URL.isEmpty()) {
+			GRC_CLIENT = new GRCClient(GRC_URL, GRC_CONNECT_TIMEOUT_MS, GRC_READ_TIMEOUT_MS, GRC_MAX_IN_FLIGHT,
+					new GRCClient.IGRCListener() {
+						@Override
+						public void receiveDecision(double latitude, double longitude, String networkType, long decisionNs) {
+							log.debug("GRC decided on " + networkType);
+							GRC_CACHE.put(GRC_CACHE.getCell(latitude, longitude), networkType, System.currentTimeMillis());
+							GRC_ADVICE.set(new GRCAdvice(networkType, decisionNs));
+						}
+					});
+			grcProbeMgr = new ScheduledThreadPoolExecutor(1);
+			grcProbe = new GRCProbe();
+			grcProbeMgr.scheduleAtFixedRate(grcProbe, 10, GRC_PROBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+			// Floodlight has no module shutdown, so stop probing and close the client's connections on exit
+			Runtime.getRuntime().addShutdownHook(new Thread("GRC client shutdown") {
+				@Override
+				public void run() {
+					grcProbeMgr.shutdownNow();
+					GRC_CLIENT.shutdown();
+				}
+			});
+		}
+
+		// All handovers happen on the policy check thread
+		policyCheckMgr = new ScheduledThreadPoolExecutor(1);
+		policyCheck = new PolicyCheck();
+		policyCheckMgr.scheduleAtFixedRate(policyCheck, POLICY_INTERVAL_MS, POLICY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+		// Fail over as soon as the active interface's port goes down
+		floodlightProvider.addOFMessageListener(OFType.PORT_STATUS, this);
+		floodlightProvider.addOFSwitchListener(this);
 		return;
 	}
 
+	@Override
+	public String getName() {
+		return "handover";
+	}
+
+	@Override
+	public boolean isCallbackOrderingPrereq(OFType type, String name) {
+		return false;
+	}
+
+	@Override
+	public boolean isCallbackOrderingPostreq(OFType type, String name) {
+		return false;
+	}
+
+	@Override
+	public Command receive(IOFSwitch sw, OFMessage msg, FloodlightContext cntx) {
+		// the controller has already applied the port status to the switch
+		FlowTemplate active = ACTIVE_TEMPLATE;
+		if (active != null && sw.getId() == active.ifaceSwitchId &&
+				((OFPortStatus) msg).getDesc().getPortNumber() == active.ifacePort &&
+				!sw.portEnabled(active.ifacePort)) {
+			failOver(active);
+		}
+		return Command.CONTINUE;
+	}
+
+	@Override
+	public void addedSwitch(IOFSwitch sw) {
+		// nothing to do; flows are replayed by the static flow pusher
+	}
+
+	@Override
+	public void removedSwitch(IOFSwitch sw) {
+		FlowTemplate active = ACTIVE_TEMPLATE;
+		if (active != null && sw.getId() == active.ifaceSwitchId) {
+			failOver(active);
+		}
+	}
+
+	@Override
+	public void switchPortChanged(Long switchId) {
+		// covered by the port status itself, which arrives first
+	}
+
+	/**
+	 * Hands the failover off to the policy check thread, ahead of its next check.
+	 * @param from the template whose interface link went away
+	 */
+	private void failOver(FlowTemplate from) {
+		log.warn("Link of {} is down", ACTIVE_NETWORK_TYPE);
+		policyCheckMgr.execute(new Failover(from, System.nanoTime()));
+	}
+
+	/**
+	 * @return true if the switch of the template's interface is connected
+	 * and the interface's port is enabled
+	 */
+	private boolean isLinkUp(FlowTemplate template) {
+		IOFSwitch sw = floodlightProvider.getSwitches().get(template.ifaceSwitchId);
+		return sw != null && sw.portEnabled(template.ifacePort);
+	}
+
 	private static String cmdExec(String cmdLine) {
 		String line;
 		String output = "";
@@ -306,336 +508,454 @@ public class Handover implements IFloodlightModule {
 		return output;
 	}
 
-	private void switchInterface(String networkType) {
+	@Override
+	public HandoverTimeline getTimeline() {
+		return TIMELINE;
+	}
+
+	@Override
+	public void setHandoverPolicy(IHandoverPolicy policy) {
+		POLICY = policy;
+	}
+
+	@Override
+	public void setLinkMetricsSource(ILinkMetricsSource source) {
+		LINK_METRICS = source;
+	}
+
+	/**
+	 * Moves the tap over to the interface of a network type.
+	 * @param networkType the network type the GRC decided on
+	 * @param decisionNs System.nanoTime() at which the decision was received
+	 */
+	private void switchInterface(String networkType, long decisionNs) {
 		if(ACTIVE_NETWORK_TYPE.equals(networkType) || networkType.equals(OFFLINE))
 			return;
-		
-		OFFlowMod flow;
-		OFMatch match;
-		ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-		OFActionOutput outputAction;
-		OFActionDataLayerDestination dlDstAction;
-		OFActionDataLayerSource dlSrcAction;
-		String flowName;
-		int flowLength;
-
-		String ifaceOVSdpid;
-		String tapOVSdpid = OVS_TAP_DPID;
-
-		short tapOVSpatchPort;
-		short tapOVShostPort = OVS_TAP_LOCAL_PORT;
-		short ifaceOVSifacePort;
-		short ifaceOVSpatchPort;
-
-		byte[] ifaceMACaddr;
-		byte[] tapMACaddr = TAP_MAC;		
-
-		// based on the iface chosen, set appropriate parameters
-		if (networkType.equals("Wifi")) {
-			ifaceOVSdpid = OVS_WIFI0_DPID;
-			tapOVSpatchPort = OVS_TAP_TO_WIFI0_PATCH;
-			ifaceOVSifacePort = OVS_WIFI0_IFACE_PORT;
-			ifaceOVSpatchPort = OVS_WIFI0_TO_TAP_PATCH;
-			ifaceMACaddr = WIFI0_MAC;
-		} else if (networkType.equals("WiMAX")) {
-			ifaceOVSdpid = OVS_WIMAX0_DPID;
-			tapOVSpatchPort = OVS_TAP_TO_WIMAX0_PATCH;
-			ifaceOVSifacePort = OVS_WIMAX0_IFACE_PORT;
-			ifaceOVSpatchPort = OVS_WIMAX0_TO_TAP_PATCH;
-			ifaceMACaddr = WIMAX0_MAC;
-		} else {
-			//TODO: remove this... not needed
+
+		FlowTemplate[] templates = FLOW_TEMPLATES.get(networkType);
+		if (templates == null) {
 			//fail over to ethernet
-			ifaceOVSdpid = OVS_ETHERNET_DPID;
-			tapOVSpatchPort = OVS_TAP_TO_ETHERNET_PATCH;
-			ifaceOVSifacePort = OVS_ETHERNET_IFACE_PORT;
-			ifaceOVSpatchPort = OVS_ETHERNET_TO_TAP_PATCH;
-			ifaceMACaddr = ETHERNET_MAC;
+			templates = FLOW_TEMPLATES.get(ETHERNET);
+			if (templates == null) {
+				log.error("No interface for {}, nor any ethernet to fall back to", networkType);
+				return;
+			}
 		}
 
-		// Remove old flows and switch only if we are switching to a different interface.
-		if (!networkType.equals(ACTIVE_NETWORK_TYPE)) {
-			while (!ACTIVE_FLOWS.isEmpty()) {
-				String tmp = ACTIVE_FLOWS.remove(0);
-				log.debug("In prep. for switch, removing flow " + tmp);
-				sfp.deleteFlow(tmp);
+		/*
+		 * The tap --> patch flows of every interface share the same match, so the
+		 * new set is installed at the other of two priorities. That way the new and
+		 * old flows can coexist on the tap OVS, and removing the old ones by strict
+		 * match never touches the new ones.
+		 */
+		FlowTemplate next = (ACTIVE_TEMPLATE != null && ACTIVE_TEMPLATE.priority == FLOW_PRIORITY_HIGH) ? templates[1] : templates[0];
+		FlowTemplate prev = ACTIVE_TEMPLATE;
+		HandoverTimeline.Record timeline = new HandoverTimeline.Record(ACTIVE_NETWORK_TYPE, networkType, decisionNs);
+
+		if (MAKE_BEFORE_BREAK) {
+			// Make before break: the iface OVS must be ready before the tap OVS points at it,
+			// and the old flows are only removed once the switches confirm both new sets.
+			timeline.stamp(Stage.FIRST_FLOW_MOD);
+			if (!awaitBarrier(writeFlows(next.ifaceDpid, next.ifaceAdd), timeline, Stage.IFACE_BARRIER)) {
+				log.error("Could not confirm flows for {}; staying on {}", networkType, ACTIVE_NETWORK_TYPE);
+				writeFlows(next.ifaceDpid, next.ifaceDelete);
+				TIMELINE.add(timeline);
+				return;
+			}
+			Future<OFBarrierReply> tapBarrier = writeFlows(next.tapDpid, next.tapAdd);
+			timeline.stamp(Stage.LAST_FLOW_MOD);
+			if (!awaitBarrier(tapBarrier, timeline, Stage.TAP_BARRIER)) {
+				log.error("Could not confirm flows for {}; staying on {}", networkType, ACTIVE_NETWORK_TYPE);
+				writeFlows(next.tapDpid, next.tapDelete);
+				writeFlows(next.ifaceDpid, next.ifaceDelete);
+				TIMELINE.add(timeline);
+				return;
 			}
+			if (prev != null) {
+				writeFlows(prev.tapDpid, prev.tapDelete);
+				writeFlows(prev.ifaceDpid, prev.ifaceDelete);
+			}
+		} else {
+			timeline.stamp(Stage.FIRST_FLOW_MOD);
+			if (prev != null) {
+				writeFlows(prev.tapDpid, prev.tapDelete);
+				writeFlows(prev.ifaceDpid, prev.ifaceDelete);
+			}
+			Future<OFBarrierReply> ifaceBarrier = writeFlows(next.ifaceDpid, next.ifaceAdd);
+			Future<OFBarrierReply> tapBarrier = writeFlows(next.tapDpid, next.tapAdd);
+			timeline.stamp(Stage.LAST_FLOW_MOD);
+			// nothing waits on these; they only complete the timeline
+			awaitBarrier(ifaceBarrier, timeline, Stage.IFACE_BARRIER);
+			awaitBarrier(tapBarrier, timeline, Stage.TAP_BARRIER);
+		}
+		timeline.setSucceeded(true);
+		TIMELINE.add(timeline);
+		log.info("Switched flows from {} to {}", ACTIVE_NETWORK_TYPE, networkType);
+
+		// the switches are set; now let the static flow pusher know what is on them
+		if (prev != null) {
+			sfp.unregisterFlows(prev.tapFlows.keySet(), prev.tapDpid);
+			sfp.unregisterFlows(prev.ifaceFlows.keySet(), prev.ifaceDpid);
+		}
+		sfp.registerFlows(copyFlows(next.ifaceFlows), next.ifaceDpid);
+		sfp.registerFlows(copyFlows(next.tapFlows), next.tapDpid);
 
-			// update to the new interface we have been told to use
-			ACTIVE_NETWORK_TYPE = networkType;
-
-			// first, insert flows at the tap OVS. Do the MAC rewrites here (just to keep them all on one OVS).
-			// this means there should be no ARP flows at the tap OVS (all ARP packets will be sent to the controller auto-magically).
-			// tap --> patch (IP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			outputAction = new OFActionOutput();
-			dlSrcAction = new OFActionDataLayerSource();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(tapOVShostPort);
-			match.setDataLayerType((short) 0x0800);
-			dlSrcAction.setType(OFActionType.SET_DL_SRC);
-			dlSrcAction.setDataLayerAddress(ifaceMACaddr);
-			dlSrcAction.setLength((short) OFActionDataLayerSource.MINIMUM_LENGTH);
-			flowLength = flowLength + dlSrcAction.getLengthU();
-			actionList.add(dlSrcAction);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(tapOVSpatchPort);
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(tapOVSpatchPort);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "tap-to-patch-ip";
-			sfp.addFlow(flowName, flow, tapOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + tapOVSdpid + flowName);
-			actionList.clear();
-			// tap --> patch (CONTROLLER) (ARP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(tapOVShostPort);
-			match.setDataLayerType((short) 0x0806);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(OFPort.OFPP_CONTROLLER.getValue());
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(OFPort.OFPP_CONTROLLER.getValue());
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "tap-to-patch(controller)-arp";
-			sfp.addFlow(flowName, flow, tapOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + tapOVSdpid + flowName);
-			actionList.clear();
-			// tap <-- patch (IP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			dlDstAction = new OFActionDataLayerDestination();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(tapOVSpatchPort);
-			match.setDataLayerType((short) 0x0800);
-			dlDstAction.setType(OFActionType.SET_DL_DST);
-			dlDstAction.setDataLayerAddress(tapMACaddr);
-			dlDstAction.setLength((short) OFActionDataLayerDestination.MINIMUM_LENGTH);
-			flowLength = flowLength + dlDstAction.getLengthU();
-			actionList.add(dlDstAction);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(tapOVShostPort);
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(tapOVShostPort);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "tap-from-patch-ip";
-			sfp.addFlow(flowName, flow, tapOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + tapOVSdpid + flowName);
-			actionList.clear();
+		// update to the new interface we have been told to use
+		ACTIVE_TEMPLATE = next;
+		ACTIVE_NETWORK_TYPE = networkType;
+
+		return;
+	}
+
+	/**
+	 * Builds the flows that bridge the tap to an interface.
+	 * @param iface the interface
+	 * @param priority priority of the flows
+	 * @param arpOffload whether ARP requests from the network bypass the controller
+	 * @return the template for the flows
+	 */
+	FlowTemplate buildTemplate(HostInterface iface, short priority, boolean arpOffload) {
+		HostInterface tap = interfaces.getTap();
+		String networkType = iface.getNetworkType();
+		String ifaceOVSdpid = iface.getStringDpid();
+		String tapOVSdpid = tap.getStringDpid();
+
+		short tapOVSpatchPort = iface.getTapPatchPort();
+		short tapOVShostPort = tap.getIfacePort();
+		short ifaceOVSifacePort = iface.getIfacePort();
+		short ifaceOVSpatchPort = iface.getPatchPort();
+
+		byte[] ifaceMACaddr = iface.getMAC().toBytes();
+		byte[] tapMACaddr = tap.getMAC().toBytes();
+
+		// flow names carry the network type and priority, since both sets are on the tap OVS during a handover
+		String suffix = "-" + networkType.toLowerCase() + "-" + (priority & 0xffff);
+		Map<String, OFFlowMod> tapFlows = new LinkedHashMap<String, OFFlowMod>();
+		Map<String, OFFlowMod> ifaceFlows = new LinkedHashMap<String, OFFlowMod>();
+
+		// first, the flows at the tap OVS. Do the MAC rewrites here (just to keep them all on one OVS).
+		// this means there should be no ARP flows at the tap OVS (all ARP packets will be sent to the controller auto-magically).
+		OFActionDataLayerSource dlSrcAction = new OFActionDataLayerSource();
+		dlSrcAction.setDataLayerAddress(ifaceMACaddr);
+		OFActionDataLayerDestination dlDstAction = new OFActionDataLayerDestination();
+		dlDstAction.setDataLayerAddress(tapMACaddr);
+		// tap --> patch (IP)
+		addFlow(tapFlows, "tap-to-patch-ip" + suffix,
+				createFlow(tapOVShostPort, Ethernet.TYPE_IPv4, dlSrcAction, tapOVSpatchPort, priority));
+		// tap --> patch (CONTROLLER) (ARP)
+		addFlow(tapFlows, "tap-to-patch(controller)-arp" + suffix,
+				createFlow(tapOVShostPort, Ethernet.TYPE_ARP, null, OFPort.OFPP_CONTROLLER.getValue(), priority));
+		// tap <-- patch (IP)
+		addFlow(tapFlows, "tap-from-patch-ip" + suffix,
+				createFlow(tapOVSpatchPort, Ethernet.TYPE_IPv4, dlDstAction, tapOVShostPort, priority));
+		if (arpOffload) {
+			/*
+			 * ARP requests from the network only need their destination MAC pointed at
+			 * the tap, which the datapath can do. Replies carry the iface's MAC as their
+			 * target hardware address, which OpenFlow 1.0 cannot rewrite in the payload,
+			 * so they still go to the controller. So does ARP from the tap, whose sender
+			 * hardware address has to become the iface's.
+			 */
+			// tap <-- patch (ARP request)
+			addFlow(tapFlows, "tap-from-patch-arp-request" + suffix,
+					matchArpOpCode(createFlow(tapOVSpatchPort, Ethernet.TYPE_ARP, dlDstAction, tapOVShostPort, priority),
+							ARP.OP_REQUEST));
+			// tap (CONTROLLER) <-- patch (ARP reply)
+			addFlow(tapFlows, "tap(controller)-from-patch-arp-reply" + suffix,
+					matchArpOpCode(createFlow(tapOVSpatchPort, Ethernet.TYPE_ARP, null, OFPort.OFPP_CONTROLLER.getValue(), priority),
+							ARP.OP_REPLY));
+		} else {
 			// tap (CONTROLLER) <-- patch (ARP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(tapOVSpatchPort);
-			match.setDataLayerType((short) 0x0806);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(OFPort.OFPP_CONTROLLER.getValue());
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(OFPort.OFPP_CONTROLLER.getValue());
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "tap(controller)-from-patch-arp";
-			sfp.addFlow(flowName, flow, tapOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + tapOVSdpid + flowName);
-			actionList.clear();
-
-			// now, insert the flows on the OVS corresponding to the iface of choice.
-			// no rewrites should occur here. Forward all packets of any ethertype.
-			// iface <-- patch (IP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(ifaceOVSpatchPort);
-			match.setDataLayerType((short) 0x0800);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(ifaceOVSifacePort);
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ifaceOVSifacePort);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "iface-from-patch-ip";
-			sfp.addFlow(flowName, flow, ifaceOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + ifaceOVSdpid + flowName);
-			actionList.clear();
-			// iface <-- patch (ARP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(ifaceOVSpatchPort);
-			match.setDataLayerType((short) 0x0806);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(ifaceOVSifacePort);
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ifaceOVSifacePort);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "iface-from-patch-arp";
-			sfp.addFlow(flowName, flow, ifaceOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + ifaceOVSdpid + flowName);
-			actionList.clear();
-			// iface --> patch (IP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(ifaceOVSifacePort);
-			match.setDataLayerType((short) 0x0800);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(ifaceOVSpatchPort);
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ifaceOVSpatchPort);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "iface-to-patch-ip";
-			sfp.addFlow(flowName, flow, ifaceOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + ifaceOVSdpid + flowName);
-			actionList.clear();
-			// iface --> patch (ARP)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			flowLength = OFFlowMod.MINIMUM_LENGTH;
-			match.setInputPort(ifaceOVSifacePort);
-			match.setDataLayerType((short) 0x0806);
-			outputAction.setType(OFActionType.OUTPUT);
-			outputAction.setPort(ifaceOVSpatchPort);
-			outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			flowLength = flowLength + outputAction.getLengthU();
-			actionList.add(outputAction);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ifaceOVSpatchPort);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority((short) 32768);
-			flow.setLengthU(flowLength);
-			flowName = "iface-to-patch-arp";
-			sfp.addFlow(flowName, flow, ifaceOVSdpid);
-			ACTIVE_FLOWS.add(flowName);
-			log.info("added flow on SW " + ifaceOVSdpid + flowName);
-			actionList.clear();
+			addFlow(tapFlows, "tap(controller)-from-patch-arp" + suffix,
+					createFlow(tapOVSpatchPort, Ethernet.TYPE_ARP, null, OFPort.OFPP_CONTROLLER.getValue(), priority));
 		}
-		
-		return;
+
+		// now, the flows on the OVS corresponding to the iface of choice.
+		// no rewrites should occur here. Forward all packets of any ethertype.
+		// iface <-- patch (IP)
+		addFlow(ifaceFlows, "iface-from-patch-ip" + suffix,
+				createFlow(ifaceOVSpatchPort, Ethernet.TYPE_IPv4, null, ifaceOVSifacePort, priority));
+		// iface <-- patch (ARP)
+		addFlow(ifaceFlows, "iface-from-patch-arp" + suffix,
+				createFlow(ifaceOVSpatchPort, Ethernet.TYPE_ARP, null, ifaceOVSifacePort, priority));
+		// iface --> patch (IP)
+		addFlow(ifaceFlows, "iface-to-patch-ip" + suffix,
+				createFlow(ifaceOVSifacePort, Ethernet.TYPE_IPv4, null, ifaceOVSpatchPort, priority));
+		// iface --> patch (ARP)
+		addFlow(ifaceFlows, "iface-to-patch-arp" + suffix,
+				createFlow(ifaceOVSifacePort, Ethernet.TYPE_ARP, null, ifaceOVSpatchPort, priority));
+
+		return new FlowTemplate(priority, tapOVSdpid, tapFlows, ifaceOVSdpid, iface.getDpid(), ifaceOVSifacePort, ifaceFlows);
 	}
 
-	// HTTP POST request
-	private String askGRC() {
-		try {
-			CloseableHttpClient httpclient = HttpClients.createDefault();
-			HttpPost httpPost = new HttpPost(GRC_URL);
-			List <NameValuePair> nvps = new ArrayList <NameValuePair>();
-			
-			//we need a list of all available network types, this shouldn't be hard coded
-			ArrayList<String> networkTypes = new ArrayList<String>();
-			networkTypes.add("WiMAX");
-			networkTypes.add("Wifi");
-			
-			//create a JSON object for every interface name, containing collected details
-			ArrayList<JSONObject> netTypeObjs = new ArrayList<JSONObject>();
-			for(String netType : networkTypes){
-				JSONObject obj = new JSONObject();
-				obj.put("name", netType);
-				obj.put("operator", netType.equals("Wifi")? "" :"Clemson");
-				netTypeObjs.add(obj);
-			}
+	/**
+	 * Adds a flow to a template under its static flow pusher name, with the
+	 * cookie the static flow pusher would give it.
+	 */
+	private static void addFlow(Map<String, OFFlowMod> flows, String name, OFFlowMod flow) {
+		flow.setCookie(StaticFlowEntries.computeEntryCookie(flow, 0, name));
+		flows.put(name, flow);
+	}
 
-			//create a JSON array containing all of our JSON objects, and include it in our request
-			log.debug("Latitude: " + Double.toString(GPSD_LATITUDE) + ", Longitude: " + Double.toString(GPSD_LONGITUDE));
-			JSONArray jNetTypesArray = new JSONArray(netTypeObjs);
-			nvps.add(new BasicNameValuePair("latitude", Double.toString(GPSD_LATITUDE)));
-			nvps.add(new BasicNameValuePair("longitude", Double.toString(GPSD_LONGITUDE)));
-			nvps.add(new BasicNameValuePair("network_types", jNetTypesArray.toString()));
-			
-			//set POST parameters and execute request
-			httpPost.setEntity(new UrlEncodedFormEntity(nvps));
-			HttpResponse response = httpclient.execute(httpPost);
-			int status = response.getStatusLine().getStatusCode();
-
-			//retreive JSON response
-			String body;
-			if(status >= 200 && status < 300){
-				HttpEntity entity = response.getEntity();
-				body = EntityUtils.toString(entity);
-			} else {
-				body = "ERROR";
+	/**
+	 * Builds a flow matching the given ingress port and ethertype, with an
+	 * optional MAC rewrite ahead of the output action.
+	 * @param inPort port to match on
+	 * @param etherType ethertype to match on
+	 * @param rewrite a SET_DL_SRC or SET_DL_DST action to apply first, or null
+	 * @param outPort port to output to
+	 * @param priority priority of the flow
+	 * @return the flow, ready to be written as an OFPFC_ADD
+	 */
+	private static OFFlowMod createFlow(short inPort, short etherType, OFAction rewrite, short outPort, short priority) {
+		OFFlowMod flow = new OFFlowMod();
+		OFMatch match = new OFMatch();
+		ArrayList<OFAction> actionList = new ArrayList<OFAction>();
+		int flowLength = OFFlowMod.MINIMUM_LENGTH;
+
+		match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE);
+		match.setInputPort(inPort);
+		match.setDataLayerType(etherType);
+		if (rewrite != null) {
+			actionList.add(rewrite);
+			flowLength = flowLength + rewrite.getLengthU();
+		}
+		OFActionOutput outputAction = new OFActionOutput();
+		outputAction.setPort(outPort);
+		outputAction.setMaxLength(Short.MAX_VALUE);
+		actionList.add(outputAction);
+		flowLength = flowLength + outputAction.getLengthU();
+
+		flow.setCommand(OFFlowMod.OFPFC_ADD);
+		flow.setCookie(0);
+		flow.setBufferId(-1);
+		flow.setOutPort(outPort);
+		flow.setActions(actionList);
+		flow.setMatch(match);
+		flow.setPriority(priority);
+		flow.setLengthU(flowLength);
+		return flow;
+	}
+
+	/**
+	 * Narrows an ARP flow to one ARP opcode, which OpenFlow 1.0 matches as
+	 * the network protocol.
+	 * @param flow the flow, matching ARP
+	 * @param opCode the ARP opcode to match on
+	 * @return the flow
+	 */
+	private static OFFlowMod matchArpOpCode(OFFlowMod flow, short opCode) {
+		OFMatch match = flow.getMatch();
+		match.setWildcards(match.getWildcards() & ~OFMatch.OFPFW_NW_PROTO);
+		match.setNetworkProtocol((byte) opCode);
+		return flow;
+	}
+
+	/**
+	 * Serializes flows back to back into one read-only buffer.
+	 * @param flows the flows to serialize
+	 * @param command the flow mod command to serialize them with
+	 * @return the buffer, to be duplicated for every write
+	 */
+	private static ChannelBuffer serialize(Collection<OFFlowMod> flows, short command) {
+		int length = 0;
+		for (OFFlowMod flow : flows) {
+			length += flow.getLengthU();
+		}
+		ChannelBuffer buf = ChannelBuffers.buffer(length);
+		for (OFFlowMod flow : flows) {
+			short original = flow.getCommand();
+			flow.setCommand(command);
+			flow.writeTo(buf);
+			flow.setCommand(original);
+		}
+		return ChannelBuffers.unmodifiableBuffer(buf);
+	}
+
+	/**
+	 * Copies the flows of a template, since the static flow pusher keeps and
+	 * modifies the flow mods it is given.
+	 */
+	private static Map<String, OFFlowMod> copyFlows(Map<String, OFFlowMod> flows) {
+		Map<String, OFFlowMod> copy = new LinkedHashMap<String, OFFlowMod>();
+		for (Entry<String, OFFlowMod> e : flows.entrySet()) {
+			try {
+				copy.put(e.getKey(), e.getValue().clone());
+			} catch (CloneNotSupportedException ex) {
+				// OFFlowMod is Cloneable
 			}
+		}
+		return copy;
+	}
 
-			//parse JSON response
-			JSONObject responseObj = new JSONObject(body);
-			String responseNet = responseObj.getString("network");
-			if(responseNet.isEmpty()){
-			    log.debug("ERROR: Empty response from server, check args.");
-				return OFFLINE;
+	/**
+	 * Writes pre-serialized flow mods to a switch, followed by a barrier.
+	 * @param dpid the switch to write to
+	 * @param flows the serialized flow mods
+	 * @return Future wrapping the barrier reply, or null if the switch is
+	 * not connected or could not be written to
+	 */
+	private Future<OFBarrierReply> writeFlows(String dpid, ChannelBuffer flows) {
+		IOFSwitch sw = floodlightProvider.getSwitches().get(HexString.toLong(dpid));
+		if (sw == null) {
+			log.warn("Switch {} is not connected", dpid);
+			return null;
+		}
+		try {
+			// the barrier goes out on the same channel, behind the flow mods
+			sw.getChannel().write(flows.duplicate());
+			return sw.sendBarrier();
+		} catch (IOException e) {
+			log.error("Failure writing flows to switch {}", dpid, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Waits for a barrier reply, and stamps its arrival on the handover's timeline.
+	 * @param barrier the barrier to wait for; null for a switch that was not written to
+	 * @param timeline the timeline of the handover
+	 * @param stage the stage the barrier reply marks
+	 * @return true if the barrier reply arrived within the barrier timeout
+	 */
+	private boolean awaitBarrier(Future<OFBarrierReply> barrier, HandoverTimeline.Record timeline, Stage stage) {
+		if (barrier == null) {
+			return false;
+		}
+		try {
+			if (barrier.get(BARRIER_TIMEOUT_MS, TimeUnit.MILLISECONDS) == null) {
+				log.warn("Timed out after {} ms waiting for a barrier reply", BARRIER_TIMEOUT_MS);
+				barrier.cancel(true);
+				return false;
 			}
-			
-			log.debug("Switching to: " + responseNet);
-			return responseObj.getString("network");
-		} catch(Exception e) {
-			e.printStackTrace();
-		} 
-		return OFFLINE;
+		} catch (Exception e) {
+			log.error("Failed waiting for a barrier reply: {}", e.getMessage());
+			return false;
+		}
+		timeline.stamp(stage);
+		return true;
+	}
+
+	/**
+	 * Asks the GRC for a decision at a position, in the background.
+	 */
+	private static void queryGRC(double latitude, double longitude) {
+		log.debug("Latitude: " + Double.toString(latitude) + ", Longitude: " + Double.toString(longitude));
+		try {
+			// returns right away; a slow GRC never holds up the caller
+			GRC_CLIENT.query(latitude, longitude, GRC_NETWORK_TYPES);
+		} catch (IOException e) {
+			log.error("Could not build GRC query", e);
+		}
+	}
+
+	/**
+	 * Called on every GPS fix. On entering a new cell, acts on the decision
+	 * cached for it right away, and asks the GRC again in the background,
+	 * either to revalidate that decision or to learn the cell.
+	 */
+	private static void enterCell(double latitude, double longitude) {
+		if (GRC_CLIENT == null || Double.isNaN(latitude) || Double.isNaN(longitude))
+			return;
+		String cell = GRC_CACHE.getCell(latitude, longitude);
+		if (cell.equals(GPSD_CELL))
+			return;
+		GPSD_CELL = cell;
+
+		String cached = GRC_CACHE.get(cell, System.currentTimeMillis());
+		if (cached != null) {
+			log.debug("Entered cell {}; cached GRC decision is {}", cell, cached);
+			GRC_ADVICE.set(new GRCAdvice(cached, System.nanoTime()));
+		}
+		queryGRC(latitude, longitude);
 	}
 
 	class GRCProbe implements Runnable {
 		@Override
 		public void run() {
 			log.info("Asking GRC (Cybertiger) for a handover decision...");
-			// do it here
-			switchInterface(askGRC());
+			queryGRC(GPSD_LATITUDE, GPSD_LONGITUDE);
 			return;
 		}
 	} // END GRCProbe Class
+
+	class PolicyCheck implements Runnable {
+		@Override
+		public void run() {
+			try {
+				// a GRC decision overrides the local policy...
+				GRCAdvice advice = GRC_ADVICE.getAndSet(null);
+				if (advice != null) {
+					GRC_ADVISED = advice.networkType;
+					switchInterface(advice.networkType, advice.decisionNs);
+					return;
+				}
+
+				ILinkMetricsSource source = LINK_METRICS;
+				if (source == null) {
+					return;
+				}
+				Map<String, LinkMetrics> metrics = source.getLinkMetrics();
+				// ...for as long as the link it chose is up
+				if (ACTIVE_NETWORK_TYPE.equals(GRC_ADVISED)) {
+					LinkMetrics advised = metrics.get(GRC_ADVISED);
+					if (advised != null && advised.isUp()) {
+						return;
+					}
+					GRC_ADVISED = null;
+				}
+				String networkType = POLICY.decide(ACTIVE_NETWORK_TYPE, metrics, System.currentTimeMillis());
+				if (networkType != null) {
+					log.info("Local policy decided to switch from {} to {}", ACTIVE_NETWORK_TYPE, networkType);
+					switchInterface(networkType, System.nanoTime());
+				}
+			} catch (Exception e) {
+				// keep the check scheduled
+				log.error("Handover policy check failed", e);
+			}
+		}
+	} // END PolicyCheck Class
+
+	/**
+	 * Moves off an interface whose link went away, onto the next interface in
+	 * the failover order whose link is up. Every interface's flows are built
+	 * at startUp, so this costs no more than any other handover.
+	 */
+	class Failover implements Runnable {
+		private final FlowTemplate from;
+		private final long detectedNs;
+
+		Failover(FlowTemplate from, long detectedNs) {
+			this.from = from;
+			this.detectedNs = detectedNs;
+		}
+
+		@Override
+		public void run() {
+			try {
+				// a handover may have happened since, or the link may be back
+				if (ACTIVE_TEMPLATE != from || isLinkUp(from)) {
+					return;
+				}
+				int start = FAILOVER_ORDER.indexOf(ACTIVE_NETWORK_TYPE);
+				for (int i = 1; i <= FAILOVER_ORDER.size(); i++) {
+					String networkType = FAILOVER_ORDER.get((start + i) % FAILOVER_ORDER.size());
+					FlowTemplate[] templates = FLOW_TEMPLATES.get(networkType);
+					if (templates == null || templates[0].ifaceSwitchId == from.ifaceSwitchId && templates[0].ifacePort == from.ifacePort) {
+						continue;
+					}
+					if (isLinkUp(templates[0])) {
+						log.warn("Failing over from {} to {}", ACTIVE_NETWORK_TYPE, networkType);
+						// the GRC's choice is gone; let the local policy take it from here
+						GRC_ADVISED = null;
+						switchInterface(networkType, detectedNs);
+						return;
+					}
+				}
+				log.error("No interface left to fail over to from {}", ACTIVE_NETWORK_TYPE);
+			} catch (Exception e) {
+				log.error("Handover failover failed", e);
+			}
+		}
+	} // END Failover Class
 } // END Handover Module
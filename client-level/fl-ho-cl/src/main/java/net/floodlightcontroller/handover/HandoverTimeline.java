@@ -0,0 +1,199 @@
+package net.floodlightcontroller.handover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the timelines of the most recent handovers in a ring buffer and
+ * summarizes them. Each timeline stamps its stages with System.nanoTime(),
+ * so the stages are reported as offsets from the GRC decision.
+ */
+public class HandoverTimeline {
+
+	/**
+	 * The stages of a handover, in the order they normally happen.
+	 */
+	public enum Stage {
+		DECISION("decision"),
+		FIRST_FLOW_MOD("first-flow-mod"),
+		LAST_FLOW_MOD("last-flow-mod"),
+		IFACE_BARRIER("iface-barrier-reply"),
+		TAP_BARRIER("tap-barrier-reply");
+
+		private final String name;
+
+		private Stage(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * The timeline of one handover. Stages that were never reached, e.g.
+	 * because a switch did not answer the barrier, are left unset.
+	 */
+	public static class Record {
+		private static final long UNSET = -1;
+
+		private final String from;
+		private final String to;
+		private final long decisionTimeMs;
+		private final long[] stagesNs;
+		private boolean succeeded;
+
+		public Record(String from, String to, long decisionNs) {
+			this.from = from;
+			this.to = to;
+			this.decisionTimeMs = System.currentTimeMillis();
+			this.stagesNs = new long[Stage.values().length];
+			Arrays.fill(this.stagesNs, UNSET);
+			this.stagesNs[Stage.DECISION.ordinal()] = decisionNs;
+		}
+
+		/**
+		 * Stamps a stage with the current time.
+		 * @param stage the stage reached
+		 */
+		public void stamp(Stage stage) {
+			stagesNs[stage.ordinal()] = System.nanoTime();
+		}
+
+		public void setSucceeded(boolean succeeded) {
+			this.succeeded = succeeded;
+		}
+
+		/**
+		 * @param stage the stage
+		 * @return nanoseconds from the decision to the stage, or -1 if the stage was not reached
+		 */
+		public long getOffsetNs(Stage stage) {
+			long t = stagesNs[stage.ordinal()];
+			return (t == UNSET) ? UNSET : t - stagesNs[Stage.DECISION.ordinal()];
+		}
+
+		protected Map<String, Object> toMap() {
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("from", from);
+			m.put("to", to);
+			m.put("time", decisionTimeMs);
+			m.put("succeeded", succeeded);
+			for (Stage stage : Stage.values()) {
+				if (stage != Stage.DECISION) {
+					m.put(stage.toString(), getOffsetNs(stage));
+				}
+			}
+			return m;
+		}
+	}
+
+	private final Record[] records;
+	private int next;
+	private int count;
+
+	/**
+	 * @param capacity the number of handovers to keep
+	 */
+	public HandoverTimeline(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Timeline capacity must be positive");
+		}
+		this.records = new Record[capacity];
+	}
+
+	/**
+	 * Adds a finished handover, evicting the oldest one when full.
+	 * @param record the handover's timeline
+	 */
+	public synchronized void add(Record record) {
+		records[next] = record;
+		next = (next + 1) % records.length;
+		if (count < records.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * Drops every handover kept so far.
+	 */
+	public synchronized void reset() {
+		Arrays.fill(records, null);
+		next = 0;
+		count = 0;
+	}
+
+	/**
+	 * @return the handovers kept, oldest first
+	 */
+	public synchronized List<Record> getRecords() {
+		List<Record> list = new ArrayList<Record>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(records[(next - count + i + records.length) % records.length]);
+		}
+		return list;
+	}
+
+	/**
+	 * Computes the p50, p99 and max offset of each stage over the handovers
+	 * kept, counting only the handovers that reached the stage.
+	 * @param stage the stage to summarize
+	 * @return the summary, or null if no handover reached the stage
+	 */
+	public Map<String, Long> getSummary(Stage stage) {
+		List<Record> list = getRecords();
+		long[] offsets = new long[list.size()];
+		int n = 0;
+		for (Record r : list) {
+			long offset = r.getOffsetNs(stage);
+			if (offset >= 0) {
+				offsets[n++] = offset;
+			}
+		}
+		if (n == 0) {
+			return null;
+		}
+		Arrays.sort(offsets, 0, n);
+		Map<String, Long> summary = new LinkedHashMap<String, Long>();
+		summary.put("samples", (long) n);
+		summary.put("p50", percentile(offsets, n, 50));
+		summary.put("p99", percentile(offsets, n, 99));
+		summary.put("max", offsets[n - 1]);
+		return summary;
+	}
+
+	/**
+	 * Nearest-rank percentile of the first n sorted values.
+	 */
+	private static long percentile(long[] sorted, int n, int p) {
+		int rank = (int) Math.ceil(p / 100.0 * n);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * @return the summary of every stage and the handovers kept, ready to be
+	 * serialized by the REST API; offsets are in nanoseconds
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		Map<String, Object> summaries = new LinkedHashMap<String, Object>();
+		for (Stage stage : Stage.values()) {
+			if (stage != Stage.DECISION) {
+				summaries.put(stage.toString(), getSummary(stage));
+			}
+		}
+		List<Map<String, Object>> handovers = new ArrayList<Map<String, Object>>();
+		for (Record r : getRecords()) {
+			handovers.add(r.toMap());
+		}
+		m.put("capacity", records.length);
+		m.put("stages", summaries);
+		m.put("handovers", handovers);
+		return m;
+	}
+}
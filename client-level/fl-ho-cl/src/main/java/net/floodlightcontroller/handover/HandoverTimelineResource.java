@@ -0,0 +1,32 @@
+package net.floodlightcontroller.handover;
+
+import java.util.Map;
+
+import org.restlet.data.Status;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Returns the latency timelines of the most recent handovers, along with
+ * the p50/p99/max of each stage, or resets them.
+ */
+public class HandoverTimelineResource extends ServerResource {
+
+	@Get("json")
+	public Map<String, Object> retrieve() {
+		IHandoverService handover =
+				(IHandoverService)getContext().getAttributes().
+					get(IHandoverService.class.getCanonicalName());
+
+		String op = (String) getRequestAttributes().get("op");
+		if (op != null) {
+			if (!op.equalsIgnoreCase("reset")) {
+				setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Unknown operation " + op);
+				return null;
+			}
+			handover.getTimeline().reset();
+		}
+		setStatus(Status.SUCCESS_OK, "OK");
+		return handover.getTimeline().toMap();
+	}
+}
@@ -0,0 +1,22 @@
+package net.floodlightcontroller.handover;
+
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.routing.Router;
+
+import net.floodlightcontroller.restserver.RestletRoutable;
+
+public class HandoverWebRoutable implements RestletRoutable {
+	@Override
+	public Restlet getRestlet(Context context) {
+		Router router = new Router(context);
+		router.attach("/timeline/json", HandoverTimelineResource.class);
+		router.attach("/timeline/{op}/json", HandoverTimelineResource.class); // reset
+		return router;
+	}
+
+	@Override
+	public String basePath() {
+		return "/wm/handover";
+	}
+}
@@ -0,0 +1,75 @@
+package net.floodlightcontroller.handover;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A handover policy with hysteresis. The active link is only left once its
+ * quality drops below the leave threshold, and only for a link whose quality
+ * is at or above the higher enter threshold and has stayed there, as the best
+ * candidate, for the dwell time. A link that goes down is left right away.
+ */
+public class HysteresisHandoverPolicy implements IHandoverPolicy {
+	private final double leaveThreshold;
+	private final double enterThreshold;
+	private final long dwellMs;
+
+	private String candidate = null;
+	private long candidateSinceMs;
+
+	/**
+	 * @param leaveThreshold quality below which the active link is left
+	 * @param enterThreshold quality a link needs to be switched to; at least the leave threshold
+	 * @param dwellMs how long a candidate must stay good before switching to it
+	 */
+	public HysteresisHandoverPolicy(double leaveThreshold, double enterThreshold, long dwellMs) {
+		if (enterThreshold < leaveThreshold) {
+			throw new IllegalArgumentException("Enter threshold " + enterThreshold +
+					" is below leave threshold " + leaveThreshold);
+		}
+		this.leaveThreshold = leaveThreshold;
+		this.enterThreshold = enterThreshold;
+		this.dwellMs = dwellMs;
+	}
+
+	@Override
+	public synchronized String decide(String activeNetworkType, Map<String, LinkMetrics> metrics, long nowMs) {
+		LinkMetrics active = metrics.get(activeNetworkType);
+		boolean activeDown = (active == null || !active.isUp());
+		if (!activeDown && active.getQuality() >= leaveThreshold) {
+			candidate = null;
+			return null;
+		}
+
+		// the best other link that is worth switching to
+		String best = null;
+		double bestQuality = -1;
+		for (Entry<String, LinkMetrics> e : metrics.entrySet()) {
+			if (e.getKey().equals(activeNetworkType) || !e.getValue().isUp())
+				continue;
+			if (e.getValue().getQuality() > bestQuality) {
+				best = e.getKey();
+				bestQuality = e.getValue().getQuality();
+			}
+		}
+		if (best == null || (!activeDown && bestQuality < enterThreshold)) {
+			candidate = null;
+			return null;
+		}
+
+		if (activeDown) {
+			// anything beats a dead link
+			candidate = null;
+			return best;
+		}
+		if (!best.equals(candidate)) {
+			candidate = best;
+			candidateSinceMs = nowMs;
+		}
+		if (nowMs - candidateSinceMs >= dwellMs) {
+			candidate = null;
+			return best;
+		}
+		return null;
+	}
+}
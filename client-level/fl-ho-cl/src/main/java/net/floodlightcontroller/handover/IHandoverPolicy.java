@@ -0,0 +1,19 @@
+package net.floodlightcontroller.handover;
+
+import java.util.Map;
+
+/**
+ * Decides locally which interface the tap should use. A policy is asked
+ * again every policy interval, so it may keep state between calls, e.g.
+ * to wait for a candidate to stay good before switching to it.
+ */
+public interface IHandoverPolicy {
+	/**
+	 * Decides whether to hand over.
+	 * @param activeNetworkType the network type in use, or "offline" before the first handover
+	 * @param metrics the latest link metrics, keyed by network type
+	 * @param nowMs the current time in milliseconds
+	 * @return the network type to switch to, or null to stay
+	 */
+	public String decide(String activeNetworkType, Map<String, LinkMetrics> metrics, long nowMs);
+}
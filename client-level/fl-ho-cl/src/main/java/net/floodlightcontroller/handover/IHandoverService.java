@@ -0,0 +1,24 @@
+package net.floodlightcontroller.handover;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+public interface IHandoverService extends IFloodlightService {
+	/**
+	 * Returns the timelines of the most recent handovers
+	 * @return The handover timeline
+	 */
+	public HandoverTimeline getTimeline();
+
+	/**
+	 * Replaces the local policy that decides when to hand over
+	 * @param policy The new policy
+	 */
+	public void setHandoverPolicy(IHandoverPolicy policy);
+
+	/**
+	 * Sets where the local policy gets its link metrics from. Without a
+	 * source, only the GRC decides.
+	 * @param source The link metrics source
+	 */
+	public void setLinkMetricsSource(ILinkMetricsSource source);
+}
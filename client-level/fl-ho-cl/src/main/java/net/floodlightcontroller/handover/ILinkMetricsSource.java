@@ -0,0 +1,15 @@
+package net.floodlightcontroller.handover;
+
+import java.util.Map;
+
+/**
+ * Provides the current link metrics of every interface Handover can use.
+ */
+public interface ILinkMetricsSource {
+	/**
+	 * Returns the latest metrics of each interface
+	 * @return Map of network type (as named by the GRC) to its link metrics.
+	 * Interfaces without metrics are left out.
+	 */
+	public Map<String, LinkMetrics> getLinkMetrics();
+}
@@ -0,0 +1,35 @@
+package net.floodlightcontroller.handover;
+
+/**
+ * A snapshot of how well one interface's link is doing, as seen by a
+ * handover policy.
+ */
+public class LinkMetrics {
+	private final boolean up;
+	private final double quality;
+
+	/**
+	 * @param up whether the link is up at all
+	 * @param quality how good the link is, from 0 (unusable) to 1 (perfect)
+	 */
+	public LinkMetrics(boolean up, double quality) {
+		this.up = up;
+		this.quality = Math.max(0, Math.min(1, quality));
+	}
+
+	public boolean isUp() {
+		return up;
+	}
+
+	/**
+	 * @return the link quality from 0 to 1; 0 if the link is down
+	 */
+	public double getQuality() {
+		return up ? quality : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "LinkMetrics [up=" + up + ", quality=" + quality + "]";
+	}
+}
@@ -0,0 +1,31 @@
+package net.floodlightcontroller.handover;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.floodlightcontroller.linkquality.ILinkQualityService;
+import net.floodlightcontroller.linkquality.LinkQuality;
+
+/**
+ * Feeds the handover policy from the link quality monitor. A link's
+ * quality is the share of its packets that were neither dropped nor in
+ * error over the monitor's window.
+ */
+public class LinkQualityMetricsSource implements ILinkMetricsSource {
+	private final ILinkQualityService linkQuality;
+
+	public LinkQualityMetricsSource(ILinkQualityService linkQuality) {
+		this.linkQuality = linkQuality;
+	}
+
+	@Override
+	public Map<String, LinkMetrics> getLinkMetrics() {
+		Map<String, LinkMetrics> metrics = new HashMap<String, LinkMetrics>();
+		for (Entry<String, LinkQuality> e : linkQuality.getLinkQualities().entrySet()) {
+			LinkQuality q = e.getValue();
+			metrics.put(e.getKey(), new LinkMetrics(q.isUp(), 1 - q.getLossRatio()));
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,101 @@
+package net.floodlightcontroller.interfaceregistry;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.openflow.util.HexString;
+
+/**
+ * One of the host's network interfaces, as bridged by its own OVS. Every
+ * interface OVS is patched to the tap OVS, which the tap interface hangs
+ * off of; the tap itself is described the same way, with its local port
+ * as the iface port and no patch ports.
+ */
+public class HostInterface {
+    private final String name;
+    private final String ifaceName;
+    private final String networkType;
+    private final String operator;
+    private final long dpid;
+    private final MACAddress mac;
+    private final short ifacePort;
+    private final short patchPort;
+    private final short tapPatchPort;
+    private final boolean tap;
+
+    /**
+     * @param name the name the interface is configured under, e.g. wifi0
+     * @param ifaceName the name of the host's interface, e.g. wlan0
+     * @param networkType the network type, as named by the GRC, e.g. Wifi
+     * @param operator the network's operator, or null if the interface is
+     * not offered to the GRC
+     * @param dpid the DPID of the interface's OVS
+     * @param mac the MAC address of the interface
+     * @param ifacePort the port of the interface on its OVS
+     * @param patchPort the port on the interface's OVS patched to the tap OVS
+     * @param tapPatchPort the port on the tap OVS patched to the interface's OVS
+     * @param tap whether this is the tap
+     */
+    public HostInterface(String name, String ifaceName, String networkType, String operator,
+                         long dpid, MACAddress mac, short ifacePort, short patchPort,
+                         short tapPatchPort, boolean tap) {
+        this.name = name;
+        this.ifaceName = ifaceName;
+        this.networkType = networkType;
+        this.operator = operator;
+        this.dpid = dpid;
+        this.mac = mac;
+        this.ifacePort = ifacePort;
+        this.patchPort = patchPort;
+        this.tapPatchPort = tapPatchPort;
+        this.tap = tap;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getIfaceName() {
+        return ifaceName;
+    }
+
+    public String getNetworkType() {
+        return networkType;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public long getDpid() {
+        return dpid;
+    }
+
+    public String getStringDpid() {
+        return HexString.toHexString(dpid);
+    }
+
+    public MACAddress getMAC() {
+        return mac;
+    }
+
+    public short getIfacePort() {
+        return ifacePort;
+    }
+
+    public short getPatchPort() {
+        return patchPort;
+    }
+
+    public short getTapPatchPort() {
+        return tapPatchPort;
+    }
+
+    public boolean isTap() {
+        return tap;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + networkType + ", " + getStringDpid() + "]";
+    }
+}
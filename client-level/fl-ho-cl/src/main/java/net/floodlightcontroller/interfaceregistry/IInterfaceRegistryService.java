@@ -0,0 +1,43 @@
+package net.floodlightcontroller.interfaceregistry;
+
+import java.util.List;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+public interface IInterfaceRegistryService extends IFloodlightService {
+    /**
+     * Returns the tap
+     * @return The tap interface
+     */
+    public HostInterface getTap();
+
+    /**
+     * Returns every interface other than the tap
+     * @return The interfaces, in the order they are configured in
+     */
+    public List<HostInterface> getInterfaces();
+
+    /**
+     * Looks up an interface by the network it connects to
+     * @param networkType The network type, as named by the GRC
+     * @return The first interface configured with the network type, or null
+     */
+    public HostInterface getInterface(String networkType);
+
+    /**
+     * Looks up the interface an OVS bridges
+     * @param dpid The DPID of the OVS
+     * @return The interface, the tap if the OVS is the tap OVS, or null
+     */
+    public HostInterface getInterface(long dpid);
+
+    /**
+     * Looks up the interface a port of an OVS leads to. On the tap OVS that
+     * is the interface a patch port is patched to, or the tap itself for its
+     * local port; on any other OVS it is the interface the OVS bridges.
+     * @param dpid The DPID of the OVS
+     * @param port The port number
+     * @return The interface, or null
+     */
+    public HostInterface getInterface(long dpid, short port);
+}
@@ -0,0 +1,199 @@
+package net.floodlightcontroller.interfaceregistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.core.module.IFloodlightModule;
+import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.openflow.util.HexString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Describes the host's interfaces from configuration, so that the modules
+ * handling them need no per-interface code. The interfaces are listed by
+ * name in "interfaces", and each is described by keys prefixed with its
+ * name, e.g. for wifi0:
+ * <pre>
+ * wifi0-iface-name, wifi0-network-type, wifi0-operator (optional),
+ * wifi0-mac, ovs-wifi0-dpid, ovs-wifi0-iface-port,
+ * ovs-wifi0-to-tap-patch, ovs-tap-to-wifi0-patch
+ * </pre>
+ * The tap is described by tap-iface-name, tap-mac, ovs-tap-dpid and
+ * ovs-tap-local-port.
+ */
+public class InterfaceRegistry implements IFloodlightModule, IInterfaceRegistryService {
+    protected static Logger log = LoggerFactory.getLogger(InterfaceRegistry.class);
+
+    protected HostInterface tap;
+    protected List<HostInterface> interfaces;
+    // network type --> first interface of that type
+    protected Map<String, HostInterface> byNetworkType;
+    // DPID --> interface bridged by that OVS, or the tap
+    protected Map<Long, HostInterface> bySwitch;
+    // port on the tap OVS --> interface patched to it
+    protected HostInterface[] byTapPatchPort;
+
+    // IInterfaceRegistryService
+
+    @Override
+    public HostInterface getTap() {
+        return tap;
+    }
+
+    @Override
+    public List<HostInterface> getInterfaces() {
+        return interfaces;
+    }
+
+    @Override
+    public HostInterface getInterface(String networkType) {
+        return byNetworkType.get(networkType);
+    }
+
+    @Override
+    public HostInterface getInterface(long dpid) {
+        return bySwitch.get(dpid);
+    }
+
+    @Override
+    public HostInterface getInterface(long dpid, short port) {
+        if (dpid != tap.getDpid()) {
+            return bySwitch.get(dpid);
+        }
+        if (port == tap.getIfacePort()) {
+            return tap;
+        }
+        int i = port & 0xffff;
+        return (i < byTapPatchPort.length) ? byTapPatchPort[i] : null;
+    }
+
+    /**
+     * Builds the registry from the configured interfaces.
+     * @param tap the tap
+     * @param interfaces the other interfaces
+     * @throws FloodlightModuleException if two interfaces share an OVS or a
+     * patch port on the tap OVS
+     */
+    protected void setInterfaces(HostInterface tap, List<HostInterface> interfaces)
+            throws FloodlightModuleException {
+        Map<String, HostInterface> types = new HashMap<String, HostInterface>();
+        Map<Long, HostInterface> switches = new HashMap<Long, HostInterface>();
+        int maxPort = 0;
+        switches.put(tap.getDpid(), tap);
+        for (HostInterface iface : interfaces) {
+            HostInterface other = switches.put(iface.getDpid(), iface);
+            if (other != null) {
+                throw new FloodlightModuleException("Interfaces " + other.getName() +
+                        " and " + iface.getName() + " are both on OVS " + iface.getStringDpid());
+            }
+            if (types.containsKey(iface.getNetworkType())) {
+                log.warn("Interface {} is not the first of network type {}; it is only " +
+                         "reachable by its OVS", iface.getName(), iface.getNetworkType());
+            } else {
+                types.put(iface.getNetworkType(), iface);
+            }
+            maxPort = Math.max(maxPort, iface.getTapPatchPort() & 0xffff);
+        }
+        HostInterface[] ports = new HostInterface[maxPort + 1];
+        for (HostInterface iface : interfaces) {
+            int i = iface.getTapPatchPort() & 0xffff;
+            if (ports[i] != null) {
+                throw new FloodlightModuleException("Interfaces " + ports[i].getName() +
+                        " and " + iface.getName() + " share tap OVS port " + i);
+            }
+            ports[i] = iface;
+        }
+
+        this.tap = tap;
+        this.interfaces = Collections.unmodifiableList(new ArrayList<HostInterface>(interfaces));
+        this.byNetworkType = types;
+        this.bySwitch = switches;
+        this.byTapPatchPort = ports;
+    }
+
+    private static String getParam(Map<String, String> configOptions, String key)
+            throws FloodlightModuleException {
+        String value = configOptions.get(key);
+        if (value == null) {
+            throw new FloodlightModuleException("Interface registry is missing " + key);
+        }
+        return value.trim();
+    }
+
+    // IFloodlightModule
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IInterfaceRegistryService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m =
+                new HashMap<Class<? extends IFloodlightService>, IFloodlightService>();
+        m.put(IInterfaceRegistryService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
+        return null;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context) throws FloodlightModuleException {
+        Map<String, String> configOptions = context.getConfigParams(this);
+        try {
+            HostInterface tap = new HostInterface("tap",
+                    getParam(configOptions, "tap-iface-name"), null, null,
+                    HexString.toLong(getParam(configOptions, "ovs-tap-dpid")),
+                    MACAddress.valueOf(getParam(configOptions, "tap-mac")),
+                    Short.parseShort(getParam(configOptions, "ovs-tap-local-port")),
+                    (short) 0, (short) 0, true);
+
+            List<HostInterface> interfaces = new ArrayList<HostInterface>();
+            for (String name : getParam(configOptions, "interfaces").split(",")) {
+                name = name.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                String operator = configOptions.get(name + "-operator");
+                interfaces.add(new HostInterface(name,
+                        getParam(configOptions, name + "-iface-name"),
+                        getParam(configOptions, name + "-network-type"),
+                        (operator == null) ? null : operator.trim(),
+                        HexString.toLong(getParam(configOptions, "ovs-" + name + "-dpid")),
+                        MACAddress.valueOf(getParam(configOptions, name + "-mac")),
+                        Short.parseShort(getParam(configOptions, "ovs-" + name + "-iface-port")),
+                        Short.parseShort(getParam(configOptions, "ovs-" + name + "-to-tap-patch")),
+                        Short.parseShort(getParam(configOptions, "ovs-tap-to-" + name + "-patch")),
+                        false));
+            }
+            setInterfaces(tap, interfaces);
+        } catch (NumberFormatException e) {
+            throw new FloodlightModuleException("Interface registry has a bad port number: " +
+                    e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new FloodlightModuleException("Interface registry has a bad DPID or MAC: " +
+                    e.getMessage());
+        }
+        log.info("Interfaces: tap {}, {}", tap, interfaces);
+    }
+
+    @Override
+    public void startUp(FloodlightModuleContext context) {
+        // nothing to do
+    }
+}
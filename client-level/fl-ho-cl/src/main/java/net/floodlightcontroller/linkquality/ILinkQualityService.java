@@ -0,0 +1,38 @@
+package net.floodlightcontroller.linkquality;
+
+import java.util.Map;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+public interface ILinkQualityService extends IFloodlightService {
+    /**
+     * Starts monitoring a switch port. The port's statistics are polled
+     * from then on, and its link quality is published under the given name.
+     * @param name The name to publish the link quality under, e.g. the
+     * network type the port leads to
+     * @param dpid The DPID of the switch the port is on
+     * @param portNumber The port number
+     */
+    public void addMonitoredPort(String name, long dpid, short portNumber);
+
+    /**
+     * Stops monitoring a port
+     * @param name The name the port was added under
+     */
+    public void removeMonitoredPort(String name);
+
+    /**
+     * Returns the latest link quality of a monitored port
+     * @param name The name the port was added under
+     * @return The link quality, or null if the port is not monitored or has
+     * not been polled yet
+     */
+    public LinkQuality getLinkQuality(String name);
+
+    /**
+     * Returns the latest link quality of every monitored port that has
+     * been polled
+     * @return Map of name to link quality
+     */
+    public Map<String, LinkQuality> getLinkQualities();
+}
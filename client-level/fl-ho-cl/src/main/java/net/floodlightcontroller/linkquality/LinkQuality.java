@@ -0,0 +1,119 @@
+package net.floodlightcontroller.linkquality;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.openflow.util.HexString;
+
+/**
+ * How a monitored port has performed over the sliding window of its
+ * latest port statistics. Rates are per second.
+ */
+public class LinkQuality {
+    private final long dpid;
+    private final short portNumber;
+    private final boolean up;
+    private final long windowMs;
+    private final double rxBitsPerSecond;
+    private final double txBitsPerSecond;
+    private final double rxPacketsPerSecond;
+    private final double txPacketsPerSecond;
+    private final double dropsPerSecond;
+    private final double errorsPerSecond;
+    private final double lossRatio;
+
+    public LinkQuality(long dpid, short portNumber, boolean up, long windowMs,
+                       double rxBitsPerSecond, double txBitsPerSecond,
+                       double rxPacketsPerSecond, double txPacketsPerSecond,
+                       double dropsPerSecond, double errorsPerSecond,
+                       double lossRatio) {
+        this.dpid = dpid;
+        this.portNumber = portNumber;
+        this.up = up;
+        this.windowMs = windowMs;
+        this.rxBitsPerSecond = rxBitsPerSecond;
+        this.txBitsPerSecond = txBitsPerSecond;
+        this.rxPacketsPerSecond = rxPacketsPerSecond;
+        this.txPacketsPerSecond = txPacketsPerSecond;
+        this.dropsPerSecond = dropsPerSecond;
+        this.errorsPerSecond = errorsPerSecond;
+        this.lossRatio = lossRatio;
+    }
+
+    /**
+     * A port that is down or whose switch is not connected.
+     */
+    public static LinkQuality down(long dpid, short portNumber) {
+        return new LinkQuality(dpid, portNumber, false, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    @JsonIgnore
+    public long getDpid() {
+        return dpid;
+    }
+
+    public String getSwitch() {
+        return HexString.toHexString(dpid);
+    }
+
+    public short getPort() {
+        return portNumber;
+    }
+
+    /**
+     * @return whether the switch is connected and the port is enabled
+     */
+    public boolean isUp() {
+        return up;
+    }
+
+    /**
+     * @return the time the window spans, 0 until there are two samples
+     */
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public double getRxBitsPerSecond() {
+        return rxBitsPerSecond;
+    }
+
+    public double getTxBitsPerSecond() {
+        return txBitsPerSecond;
+    }
+
+    public double getRxPacketsPerSecond() {
+        return rxPacketsPerSecond;
+    }
+
+    public double getTxPacketsPerSecond() {
+        return txPacketsPerSecond;
+    }
+
+    /**
+     * @return received and transmitted packets dropped, per second
+     */
+    public double getDropsPerSecond() {
+        return dropsPerSecond;
+    }
+
+    /**
+     * @return receive and transmit errors, per second
+     */
+    public double getErrorsPerSecond() {
+        return errorsPerSecond;
+    }
+
+    /**
+     * @return the share of packets dropped or in error over the window,
+     * from 0 to 1
+     */
+    public double getLossRatio() {
+        return lossRatio;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkQuality [switch=" + getSwitch() + ", port=" + portNumber +
+                ", up=" + up + ", rxBps=" + rxBitsPerSecond +
+                ", txBps=" + txBitsPerSecond + ", lossRatio=" + lossRatio + "]";
+    }
+}
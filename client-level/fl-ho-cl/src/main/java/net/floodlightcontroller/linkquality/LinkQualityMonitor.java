@@ -0,0 +1,222 @@
+package net.floodlightcontroller.linkquality;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.core.module.IFloodlightModule;
+import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.core.util.SingletonTask;
+import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
+
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.util.HexString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the port statistics of the monitored ports and keeps a sliding
+ * window of them per port, from which throughput, drop and error rates
+ * are published as link quality.
+ */
+public class LinkQualityMonitor implements IFloodlightModule, ILinkQualityService {
+    protected static Logger log = LoggerFactory.getLogger(LinkQualityMonitor.class);
+
+    protected IFloodlightProviderService floodlightProvider;
+    protected IThreadPoolService threadPool;
+    protected IRestApiService restApi;
+
+    protected long pollIntervalMs = 1000;
+    protected int windowSize = 5;
+    protected SingletonTask pollTask;
+
+    // name --> window of the port monitored under that name
+    protected Map<String, PortStatisticsWindow> windows =
+            new ConcurrentHashMap<String, PortStatisticsWindow>();
+    // name --> latest link quality
+    protected Map<String, LinkQuality> qualities =
+            new ConcurrentHashMap<String, LinkQuality>();
+
+    // ILinkQualityService
+
+    @Override
+    public void addMonitoredPort(String name, long dpid, short portNumber) {
+        windows.put(name, new PortStatisticsWindow(dpid, portNumber, windowSize));
+        qualities.remove(name);
+    }
+
+    @Override
+    public void removeMonitoredPort(String name) {
+        windows.remove(name);
+        qualities.remove(name);
+    }
+
+    @Override
+    public LinkQuality getLinkQuality(String name) {
+        return qualities.get(name);
+    }
+
+    @Override
+    public Map<String, LinkQuality> getLinkQualities() {
+        return Collections.unmodifiableMap(new HashMap<String, LinkQuality>(qualities));
+    }
+
+    /**
+     * Polls the port statistics of every switch with monitored ports, one
+     * request per switch for all of its ports, and updates the windows.
+     */
+    protected void pollPorts() {
+        Map<Long, IOFSwitch> switches = floodlightProvider.getSwitches();
+        Map<Long, Future<List<OFStatistics>>> requests =
+                new HashMap<Long, Future<List<OFStatistics>>>();
+        for (PortStatisticsWindow w : windows.values()) {
+            Long dpid = w.getDpid();
+            IOFSwitch sw = switches.get(dpid);
+            if (sw == null || requests.containsKey(dpid))
+                continue;
+            try {
+                requests.put(dpid, sw.getStatistics(buildPortStatisticsRequest()));
+            } catch (Exception e) {
+                log.error("Failure requesting port statistics from switch " + sw, e);
+            }
+        }
+
+        // every request shares the poll interval as its deadline
+        long deadline = System.currentTimeMillis() + pollIntervalMs;
+        Map<Long, Map<Short, OFPortStatisticsReply>> replies =
+                new HashMap<Long, Map<Short, OFPortStatisticsReply>>();
+        for (Entry<Long, Future<List<OFStatistics>>> e : requests.entrySet()) {
+            Map<Short, OFPortStatisticsReply> ports = new HashMap<Short, OFPortStatisticsReply>();
+            try {
+                long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+                List<OFStatistics> values = e.getValue().get(remaining, TimeUnit.MILLISECONDS);
+                if (values != null) {
+                    for (OFStatistics s : values) {
+                        OFPortStatisticsReply reply = (OFPortStatisticsReply) s;
+                        ports.put(reply.getPortNumber(), reply);
+                    }
+                }
+            } catch (Exception ex) {
+                log.debug("No port statistics from switch {}: {}",
+                          HexString.toHexString(e.getKey()), ex.toString());
+            }
+            replies.put(e.getKey(), ports);
+        }
+
+        long now = System.currentTimeMillis();
+        for (Entry<String, PortStatisticsWindow> e : windows.entrySet()) {
+            PortStatisticsWindow w = e.getValue();
+            IOFSwitch sw = switches.get(w.getDpid());
+            if (sw == null) {
+                w.clear();
+                qualities.put(e.getKey(), LinkQuality.down(w.getDpid(), w.getPortNumber()));
+                continue;
+            }
+            Map<Short, OFPortStatisticsReply> ports = replies.get(w.getDpid());
+            OFPortStatisticsReply reply = (ports != null) ? ports.get(w.getPortNumber()) : null;
+            if (reply != null) {
+                w.add(now, reply);
+            }
+            qualities.put(e.getKey(), w.getLinkQuality(sw.portEnabled(w.getPortNumber())));
+        }
+    }
+
+    protected OFStatisticsRequest buildPortStatisticsRequest() {
+        OFStatisticsRequest req = new OFStatisticsRequest();
+        req.setStatisticType(OFStatisticsType.PORT);
+        OFPortStatisticsRequest specificReq = new OFPortStatisticsRequest();
+        specificReq.setPortNumber(OFPort.OFPP_NONE.getValue());
+        req.setStatistics(Collections.singletonList((OFStatistics)specificReq));
+        req.setLengthU(req.getLengthU() + specificReq.getLength());
+        return req;
+    }
+
+    // IFloodlightModule
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l = 
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(ILinkQualityService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m = 
+                new HashMap<Class<? extends IFloodlightService>, IFloodlightService>();
+        m.put(ILinkQualityService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
+        Collection<Class<? extends IFloodlightService>> l = 
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFloodlightProviderService.class);
+        l.add(IThreadPoolService.class);
+        l.add(IRestApiService.class);
+        return l;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context) throws FloodlightModuleException {
+        floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
+        threadPool = context.getServiceImpl(IThreadPoolService.class);
+        restApi = context.getServiceImpl(IRestApiService.class);
+
+        Map<String, String> configOptions = context.getConfigParams(this);
+        try {
+            String interval = configOptions.get("poll-interval-ms");
+            if (interval != null) {
+                pollIntervalMs = Long.parseLong(interval);
+            }
+            String size = configOptions.get("window-size");
+            if (size != null) {
+                windowSize = Integer.parseInt(size);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Error parsing link quality configuration, " +
+                     "using defaults", e);
+        }
+        log.debug("Polling port statistics every {} ms, window of {} samples",
+                  pollIntervalMs, windowSize);
+    }
+
+    @Override
+    public void startUp(FloodlightModuleContext context) {
+        ScheduledExecutorService ses = threadPool.getScheduledExecutor();
+        pollTask = new SingletonTask(ses, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pollPorts();
+                } catch (Exception e) {
+                    log.error("Exception polling port statistics", e);
+                } finally {
+                    pollTask.reschedule(pollIntervalMs, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+        pollTask.reschedule(pollIntervalMs, TimeUnit.MILLISECONDS);
+        restApi.addRestletRoutable(new LinkQualityWebRoutable());
+    }
+}
@@ -0,0 +1,30 @@
+package net.floodlightcontroller.linkquality;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Returns the link quality of every monitored port, or of one by name
+ */
+public class LinkQualityResource extends ServerResource {
+
+    @Get("json")
+    public Map<String, LinkQuality> retrieve() {
+        ILinkQualityService linkQuality = 
+                (ILinkQualityService)getContext().getAttributes().
+                    get(ILinkQualityService.class.getCanonicalName());
+
+        String name = (String) getRequestAttributes().get("name");
+        if (name == null) {
+            return linkQuality.getLinkQualities();
+        }
+        LinkQuality q = linkQuality.getLinkQuality(name);
+        if (q == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(name, q);
+    }
+}
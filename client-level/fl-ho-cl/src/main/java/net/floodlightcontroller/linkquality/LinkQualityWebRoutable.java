@@ -0,0 +1,23 @@
+package net.floodlightcontroller.linkquality;
+
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.routing.Router;
+
+import net.floodlightcontroller.restserver.RestletRoutable;
+
+public class LinkQualityWebRoutable implements RestletRoutable {
+
+    @Override
+    public Restlet getRestlet(Context context) {
+        Router router = new Router(context);
+        router.attach("/json", LinkQualityResource.class);
+        router.attach("/{name}/json", LinkQualityResource.class);
+        return router;
+    }
+
+    @Override
+    public String basePath() {
+        return "/wm/linkquality";
+    }
+}
@@ -0,0 +1,119 @@
+package net.floodlightcontroller.linkquality;
+
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+
+/**
+ * The latest port statistics samples of one port, oldest first, in a ring.
+ * Rates are computed between the oldest and newest sample.
+ */
+public class PortStatisticsWindow {
+    // counters kept per sample
+    private static final int RX_BYTES = 0;
+    private static final int TX_BYTES = 1;
+    private static final int RX_PACKETS = 2;
+    private static final int TX_PACKETS = 3;
+    private static final int DROPS = 4;
+    private static final int ERRORS = 5;
+    private static final int COUNTERS = 6;
+
+    private final long dpid;
+    private final short portNumber;
+    private final long[] timesMs;
+    private final long[][] counters;
+    private int next;
+    private int count;
+
+    /**
+     * @param dpid The DPID of the switch the port is on
+     * @param portNumber The port number
+     * @param size The number of samples to keep; at least 2
+     */
+    public PortStatisticsWindow(long dpid, short portNumber, int size) {
+        if (size < 2) {
+            throw new IllegalArgumentException("A window needs at least 2 samples");
+        }
+        this.dpid = dpid;
+        this.portNumber = portNumber;
+        this.timesMs = new long[size];
+        this.counters = new long[size][COUNTERS];
+    }
+
+    public long getDpid() {
+        return dpid;
+    }
+
+    public short getPortNumber() {
+        return portNumber;
+    }
+
+    /**
+     * Adds a sample, evicting the oldest one if the window is full. If a
+     * counter went backwards, e.g. because the switch restarted, the window
+     * starts over from this sample.
+     * @param timeMs When the sample was taken
+     * @param reply The port statistics
+     */
+    public synchronized void add(long timeMs, OFPortStatisticsReply reply) {
+        long[] sample = new long[COUNTERS];
+        sample[RX_BYTES] = reply.getReceiveBytes();
+        sample[TX_BYTES] = reply.getTransmitBytes();
+        sample[RX_PACKETS] = reply.getreceivePackets();
+        sample[TX_PACKETS] = reply.getTransmitPackets();
+        sample[DROPS] = reply.getReceiveDropped() + reply.getTransmitDropped();
+        sample[ERRORS] = reply.getreceiveErrors() + reply.getTransmitErrors();
+
+        if (count > 0) {
+            long[] newest = counters[(next - 1 + counters.length) % counters.length];
+            for (int i = 0; i < COUNTERS; i++) {
+                if (sample[i] < newest[i]) {
+                    clear();
+                    break;
+                }
+            }
+        }
+        timesMs[next] = timeMs;
+        System.arraycopy(sample, 0, counters[next], 0, COUNTERS);
+        next = (next + 1) % counters.length;
+        if (count < counters.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Drops every sample, e.g. when the switch disconnects.
+     */
+    public synchronized void clear() {
+        next = 0;
+        count = 0;
+    }
+
+    /**
+     * @param up whether the port is up
+     * @return the link quality over the window; all rates are 0 until
+     * there are two samples
+     */
+    public synchronized LinkQuality getLinkQuality(boolean up) {
+        if (count < 2) {
+            return new LinkQuality(dpid, portNumber, up, 0, 0, 0, 0, 0, 0, 0, 0);
+        }
+        int oldest = (next - count + counters.length) % counters.length;
+        int newest = (next - 1 + counters.length) % counters.length;
+        long windowMs = timesMs[newest] - timesMs[oldest];
+        double seconds = Math.max(windowMs, 1) / 1000.0;
+        long[] delta = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            delta[i] = counters[newest][i] - counters[oldest][i];
+        }
+        long packets = delta[RX_PACKETS] + delta[TX_PACKETS];
+        long lost = delta[DROPS] + delta[ERRORS];
+        double lossRatio = (packets + lost == 0) ? 0 : (double) lost / (packets + lost);
+        return new LinkQuality(dpid, portNumber, up, windowMs,
+                               delta[RX_BYTES] * 8 / seconds,
+                               delta[TX_BYTES] * 8 / seconds,
+                               delta[RX_PACKETS] / seconds,
+                               delta[TX_PACKETS] / seconds,
+                               delta[DROPS] / seconds,
+                               delta[ERRORS] / seconds,
+                               lossRatio);
+    }
+}
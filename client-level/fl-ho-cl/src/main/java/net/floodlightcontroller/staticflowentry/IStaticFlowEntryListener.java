@@ -0,0 +1,27 @@
+package net.floodlightcontroller.staticflowentry;
+
+import java.util.Map;
+
+import org.openflow.protocol.OFFlowMod;
+
+/**
+ * Receives changes to the static flow entries. The flows passed in are the
+ * static flow pusher's own and must not be modified.
+ */
+public interface IStaticFlowEntryListener {
+    /**
+     * Fired after static flows are added to a switch. A flow that replaces
+     * an entry of the same name is preceded by a flowsRemoved() for the
+     * entry it replaces.
+     * @param dpid The switch DPID, in 00:00:00:00:00:00:00:01 notation
+     * @param flows Map of flow name to the flow added
+     */
+    public void flowsAdded(String dpid, Map<String, OFFlowMod> flows);
+
+    /**
+     * Fired after static flows are removed from a switch
+     * @param dpid The switch DPID, in 00:00:00:00:00:00:00:01 notation
+     * @param flows Map of flow name to the flow removed
+     */
+    public void flowsRemoved(String dpid, Map<String, OFFlowMod> flows);
+}
@@ -1,5 +1,6 @@
 package net.floodlightcontroller.staticflowentry;
 
+import java.util.Collection;
 import java.util.Map;
 
 import org.openflow.protocol.OFFlowMod;
@@ -20,6 +21,24 @@ public interface IStaticFlowEntryPusherService extends IFloodlightService {
      * @param name The name of the static flow to delete.
      */
     public void deleteFlow(String name);
+
+    /**
+     * Records a batch of static flows that the caller has already written to
+     * the switch itself. The flows are persisted to storage and pushed again
+     * when the switch reconnects, but nothing is written to the switch now.
+     * @param flows Map of flow name to the flow as it was written. Names must be unique.
+     * @param swDpid The switch DPID the flows are on, in 00:00:00:00:00:00:00:01 notation.
+     */
+    public void registerFlows(Map<String, OFFlowMod> flows, String swDpid);
+
+    /**
+     * Forgets a batch of static flows that the caller has already deleted
+     * from the switch itself. The flows are removed from storage, but nothing
+     * is written to the switch.
+     * @param names The names of the static flows to forget.
+     * @param swDpid The switch DPID the flows were on, in 00:00:00:00:00:00:00:01 notation.
+     */
+    public void unregisterFlows(Collection<String> names, String swDpid);
     
     /**
      * Deletes all static flows for a practicular switch
@@ -41,4 +60,10 @@ public interface IStaticFlowEntryPusherService extends IFloodlightService {
      * Gets a list of flows by switch
      */
     public Map<String, OFFlowMod> getFlows(String dpid);
+
+    /**
+     * Adds a listener for changes to the static flows
+     * @param listener The listener
+     */
+    public void addListener(IStaticFlowEntryListener listener);
 }
@@ -7,11 +7,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -100,6 +102,16 @@ public class StaticFlowEntryPusher
     protected Map<String, Map<String, OFFlowMod>> entriesFromStorage;
     // Entry Name -> DPID of Switch it's on
     protected Map<String, String> entry2dpid;
+    // Guards entriesFromStorage and entry2dpid, which storage listener,
+    // switch, REST and service caller threads all read and update
+    protected final Object entriesLock = new Object();
+    // Entry Name -> number of pending storage notifications to ignore, for
+    // entries registerFlows()/unregisterFlows() already wrote to storage
+    protected Map<String, Integer> writeBehindEntries =
+            new HashMap<String, Integer>();
+
+    protected List<IStaticFlowEntryListener> listeners =
+            new CopyOnWriteArrayList<IStaticFlowEntryListener>();
 
     private BasicFactory ofMessageFactory;
 
@@ -124,12 +136,14 @@ public class StaticFlowEntryPusher
      * @return the number of static flow entries as cached from storage
      */
     public int countEntries() {
-        int size = 0;
-        if (entriesFromStorage == null)
-            return 0;
-        for (String ofswitch : entriesFromStorage.keySet())
-            size += entriesFromStorage.get(ofswitch).size();
-        return size;
+        synchronized (entriesLock) {
+            int size = 0;
+            if (entriesFromStorage == null)
+                return 0;
+            for (String ofswitch : entriesFromStorage.keySet())
+                size += entriesFromStorage.get(ofswitch).size();
+            return size;
+        }
     }
 
     public IFloodlightProviderService getFloodlightProvider() {
@@ -161,22 +175,28 @@ public class StaticFlowEntryPusher
      */
     protected void sendEntriesToSwitch(IOFSwitch sw) {
         String dpid = sw.getStringId();
-
-        if ((entriesFromStorage != null) && (entriesFromStorage.containsKey(dpid))) {
-            Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
-            List<String> sortedList = new ArrayList<String>(entries.keySet());
-            // weird that Collections.sort() returns void
-            Collections.sort( sortedList, new FlowModSorter(dpid));
-            for (String entryName : sortedList) {
-                OFFlowMod flowMod = entries.get(entryName);
-                if (flowMod != null) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Pushing static entry {} for {}", dpid, entryName);
+        List<OFFlowMod> flowMods = new ArrayList<OFFlowMod>();
+
+        synchronized (entriesLock) {
+            if ((entriesFromStorage != null) && (entriesFromStorage.containsKey(dpid))) {
+                Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
+                List<String> sortedList = new ArrayList<String>(entries.keySet());
+                // weird that Collections.sort() returns void
+                Collections.sort( sortedList, new FlowModSorter(dpid));
+                for (String entryName : sortedList) {
+                    OFFlowMod flowMod = entries.get(entryName);
+                    if (flowMod != null) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Pushing static entry {} for {}", dpid, entryName);
+                        }
+                        flowMods.add(flowMod);
                     }
-                    writeFlowModToSwitch(sw, flowMod);
                 }
             }
         }
+        for (OFFlowMod flowMod : flowMods) {
+            writeFlowModToSwitch(sw, flowMod);
+        }
     }
     
     /**
@@ -350,35 +370,46 @@ public class StaticFlowEntryPusher
             new HashMap<String, Map<String, OFFlowMod>>();
         // build up list of what was added 
         for(Object key: rowKeys) {
+            if (consumeWriteBehind(key)) {
+                continue;   // already on the switch
+            }
             IResultSet resultSet = storageSource.getRow(tableName, key);
             for (Iterator<IResultSet> it = resultSet.iterator(); it.hasNext();) {
                 Map<String, Object> row = it.next().getRow();
                 parseRow(row, entriesToAdd);
             }            
         }
-        // batch updates by switch and blast them out
-        for (String dpid : entriesToAdd.keySet()) {
-            if (!entriesFromStorage.containsKey(dpid))
-                entriesFromStorage.put(dpid, new HashMap<String, OFFlowMod>());
-            List<OFMessage> outQueue = new ArrayList<OFMessage>();
-            for(String entry : entriesToAdd.get(dpid).keySet()) {
-                OFFlowMod newFlowMod = entriesToAdd.get(dpid).get(entry);
-                OFFlowMod oldFlowMod = entriesFromStorage.get(dpid).get(entry);
-                if (oldFlowMod != null) {  // remove any pre-existing rule
-                    oldFlowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
-                    outQueue.add(oldFlowMod);
-                }
-                if (newFlowMod != null) {
-                    entriesFromStorage.get(dpid).put(entry, newFlowMod);
-                    outQueue.add(newFlowMod);
-                    entry2dpid.put(entry, dpid);
-                } else {
-                    entriesFromStorage.get(dpid).remove(entry);
-                    entry2dpid.remove(entry);
+        synchronized (entriesLock) {
+            // batch updates by switch and blast them out
+            for (String dpid : entriesToAdd.keySet()) {
+                if (!entriesFromStorage.containsKey(dpid))
+                    entriesFromStorage.put(dpid, new HashMap<String, OFFlowMod>());
+                List<OFMessage> outQueue = new ArrayList<OFMessage>();
+                Map<String, OFFlowMod> removed = new HashMap<String, OFFlowMod>();
+                Map<String, OFFlowMod> added = new HashMap<String, OFFlowMod>();
+                for(String entry : entriesToAdd.get(dpid).keySet()) {
+                    OFFlowMod newFlowMod = entriesToAdd.get(dpid).get(entry);
+                    OFFlowMod oldFlowMod = entriesFromStorage.get(dpid).get(entry);
+                    if (oldFlowMod != null) {  // remove any pre-existing rule
+                        oldFlowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+                        outQueue.add(oldFlowMod);
+                        removed.put(entry, oldFlowMod);
+                    }
+                    if (newFlowMod != null) {
+                        entriesFromStorage.get(dpid).put(entry, newFlowMod);
+                        outQueue.add(newFlowMod);
+                        entry2dpid.put(entry, dpid);
+                        added.put(entry, newFlowMod);
+                    } else {
+                        entriesFromStorage.get(dpid).remove(entry);
+                        entry2dpid.remove(entry);
+                    }
                 }
-            }
             
-            writeOFMessagesToSwitch(HexString.toLong(dpid), outQueue);
+                writeOFMessagesToSwitch(HexString.toLong(dpid), outQueue);
+                notifyRemoved(dpid, removed);
+                notifyAdded(dpid, added);
+            }
         }
     }
 
@@ -393,6 +424,9 @@ public class StaticFlowEntryPusher
                 log.debug("tried to delete non-string key {}; ignoring", obj);
                 continue;
             }
+            if (consumeWriteBehind(obj)) {
+                continue;   // already deleted from the switch
+            }
             deleteStaticFlowEntry((String) obj);
         }
     }
@@ -403,33 +437,92 @@ public class StaticFlowEntryPusher
             		"deleting a static flow rule",
             recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     private boolean deleteStaticFlowEntry(String entryName) {
-        String dpid = entry2dpid.get(entryName);
-        if (log.isDebugEnabled()) {
-            log.debug("Deleting flow {} for switch {}", entryName, dpid);
+        synchronized (entriesLock) {
+            String dpid = entry2dpid.get(entryName);
+            if (log.isDebugEnabled()) {
+                log.debug("Deleting flow {} for switch {}", entryName, dpid);
+            }
+            if (dpid == null) {
+                log.error("inconsistent internal state: no switch has rule {}",
+                        entryName);
+                return false;
+            }
+        
+            // send flow_mod delete
+            OFFlowMod flowMod = entriesFromStorage.get(dpid).get(entryName);
+            flowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+
+            if (entriesFromStorage.containsKey(dpid) && 
+                    entriesFromStorage.get(dpid).containsKey(entryName)) {
+                entriesFromStorage.get(dpid).remove(entryName);
+            } else { 
+                log.debug("Tried to delete non-existent entry {} for switch {}", 
+                        entryName, dpid);
+                return false;
+            }
+        
+            writeFlowModToSwitch(HexString.toLong(dpid), flowMod);
+            notifyRemoved(dpid, Collections.singletonMap(entryName, flowMod));
+            return true;
         }
-        if (dpid == null) {
-            log.error("inconsistent internal state: no switch has rule {}",
-                    entryName);
-            return false;
+    }
+
+    /**
+     * Tells the listeners about flows added to a switch
+     * @param dpid The switch DPID
+     * @param flows Map of flow name to flow; nothing is fired if empty
+     */
+    private void notifyAdded(String dpid, Map<String, OFFlowMod> flows) {
+        if (flows.isEmpty())
+            return;
+        for (IStaticFlowEntryListener listener : listeners) {
+            listener.flowsAdded(dpid, flows);
         }
-        
-        // send flow_mod delete
-        OFFlowMod flowMod = entriesFromStorage.get(dpid).get(entryName);
-        flowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
-
-        if (entriesFromStorage.containsKey(dpid) && 
-                entriesFromStorage.get(dpid).containsKey(entryName)) {
-            entriesFromStorage.get(dpid).remove(entryName);
-        } else { 
-            log.debug("Tried to delete non-existent entry {} for switch {}", 
-                    entryName, dpid);
-            return false;
+    }
+
+    /**
+     * Tells the listeners about flows removed from a switch
+     * @param dpid The switch DPID
+     * @param flows Map of flow name to flow; nothing is fired if empty
+     */
+    private void notifyRemoved(String dpid, Map<String, OFFlowMod> flows) {
+        if (flows.isEmpty())
+            return;
+        for (IStaticFlowEntryListener listener : listeners) {
+            listener.flowsRemoved(dpid, flows);
         }
-        
-        writeFlowModToSwitch(HexString.toLong(dpid), flowMod);
-        return true;
     }
     
+    /**
+     * Notes that the next storage notification for an entry comes from
+     * a write-behind and must not be pushed to the switch again.
+     * @param entryName The name of the entry
+     */
+    private void markWriteBehind(String entryName) {
+        synchronized (writeBehindEntries) {
+            Integer pending = writeBehindEntries.get(entryName);
+            writeBehindEntries.put(entryName, (pending == null) ? 1 : pending + 1);
+        }
+    }
+
+    /**
+     * Consumes a pending write-behind notification for an entry
+     * @param key The row key of the entry
+     * @return true if the notification came from a write-behind
+     */
+    private boolean consumeWriteBehind(Object key) {
+        synchronized (writeBehindEntries) {
+            Integer pending = writeBehindEntries.get(key);
+            if (pending == null)
+                return false;
+            if (pending > 1)
+                writeBehindEntries.put((String) key, pending - 1);
+            else
+                writeBehindEntries.remove(key);
+            return true;
+        }
+    }
+
     /**
      * Writes a list of OFMessages to a switch
      * @param dpid The datapath ID of the switch to write to
@@ -590,8 +683,10 @@ public class StaticFlowEntryPusher
         storageSource.createTable(TABLE_NAME, null);
         storageSource.setTablePrimaryKeyName(TABLE_NAME, COLUMN_NAME);
         storageSource.addListener(TABLE_NAME, this);
-        entriesFromStorage = readEntriesFromStorage(); 
-        entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+        synchronized (entriesLock) {
+            entriesFromStorage = readEntriesFromStorage(); 
+            entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+        }
         restApi.addRestletRoutable(new StaticFlowEntryWebRoutable());
     }
 
@@ -599,15 +694,20 @@ public class StaticFlowEntryPusher
     
     @Override
     public void addFlow(String name, OFFlowMod fm, String swDpid) {
-        Map<String, Object> fmMap = StaticFlowEntries.flowModToStorageEntry(fm, swDpid, name);
-        entry2dpid.put(name, swDpid);
-        Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
-        if (switchEntries == null) {
-            switchEntries = new HashMap<String, OFFlowMod>();
-            entriesFromStorage.put(swDpid, switchEntries);
+        synchronized (entriesLock) {
+            Map<String, Object> fmMap = StaticFlowEntries.flowModToStorageEntry(fm, swDpid, name);
+            entry2dpid.put(name, swDpid);
+            Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
+            if (switchEntries == null) {
+                switchEntries = new HashMap<String, OFFlowMod>();
+                entriesFromStorage.put(swDpid, switchEntries);
+            }
+            OFFlowMod oldFlowMod = switchEntries.put(name, fm);
+            if (oldFlowMod != null)
+                notifyRemoved(swDpid, Collections.singletonMap(name, oldFlowMod));
+            notifyAdded(swDpid, Collections.singletonMap(name, fm));
+            storageSource.insertRowAsync(TABLE_NAME, fmMap);
         }
-        switchEntries.put(name, fm);
-        storageSource.insertRowAsync(TABLE_NAME, fmMap);
     }
 
     @Override
@@ -616,9 +716,99 @@ public class StaticFlowEntryPusher
         // TODO - What if there is a delay in storage?
     }
     
+    @Override
+    public void registerFlows(Map<String, OFFlowMod> flows, String swDpid) {
+        synchronized (entriesLock) {
+            storeFlows(flows, swDpid);
+            persistFlows(flows, swDpid);
+        }
+    }
+
+    @Override
+    public void unregisterFlows(Collection<String> names, String swDpid) {
+        synchronized (entriesLock) {
+            unpersistFlows(forgetFlows(names, swDpid).keySet());
+        }
+    }
+
+    /**
+     * Records flows as the current entries of a switch, stamping each with
+     * its static flow cookie.
+     * @param flows Map of flow name to flow
+     * @param swDpid The switch DPID the flows are for
+     */
+    private void storeFlows(Map<String, OFFlowMod> flows, String swDpid) {
+        Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
+        if (switchEntries == null) {
+            switchEntries = new HashMap<String, OFFlowMod>();
+            entriesFromStorage.put(swDpid, switchEntries);
+        }
+        Map<String, OFFlowMod> replaced = new HashMap<String, OFFlowMod>();
+        for (Entry<String, OFFlowMod> e : flows.entrySet()) {
+            String name = e.getKey();
+            OFFlowMod fm = e.getValue();
+            fm.setCommand(OFFlowMod.OFPFC_ADD);
+            fm.setCookie(StaticFlowEntries.computeEntryCookie(fm, 0, name));
+            OFFlowMod oldFlowMod = switchEntries.put(name, fm);
+            if (oldFlowMod != null)
+                replaced.put(name, oldFlowMod);
+            entry2dpid.put(name, swDpid);
+        }
+        notifyRemoved(swDpid, replaced);
+        notifyAdded(swDpid, flows);
+    }
+
+    /**
+     * Removes flows from the current entries of a switch.
+     * @param names The names of the flows to remove
+     * @param swDpid The switch DPID the flows are on
+     * @return Map of flow name to the removed flow, for the names that existed
+     */
+    private Map<String, OFFlowMod> forgetFlows(Collection<String> names, String swDpid) {
+        Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
+        Map<String, OFFlowMod> removed = new LinkedHashMap<String, OFFlowMod>();
+        for (String name : names) {
+            OFFlowMod fm = (switchEntries != null) ? switchEntries.remove(name) : null;
+            if (fm == null) {
+                log.debug("Tried to delete non-existent entry {} for switch {}",
+                        name, swDpid);
+                continue;
+            }
+            entry2dpid.remove(name);
+            removed.put(name, fm);
+        }
+        notifyRemoved(swDpid, removed);
+        return removed;
+    }
+
+    /**
+     * Writes flows already stored by storeFlows() behind to storage.
+     */
+    private void persistFlows(Map<String, OFFlowMod> flows, String swDpid) {
+        for (Entry<String, OFFlowMod> e : flows.entrySet()) {
+            markWriteBehind(e.getKey());
+            storageSource.insertRowAsync(TABLE_NAME,
+                    StaticFlowEntries.flowModToStorageEntry(e.getValue(), swDpid, e.getKey()));
+        }
+    }
+
+    /**
+     * Removes flows already dropped by forgetFlows() from storage.
+     */
+    private void unpersistFlows(Collection<String> names) {
+        for (String name : names) {
+            markWriteBehind(name);
+            storageSource.deleteRowAsync(TABLE_NAME, name);
+        }
+    }
+    
     @Override
     public void deleteAllFlows() {
-        for (String entry : entry2dpid.keySet()) {
+        List<String> entries;
+        synchronized (entriesLock) {
+            entries = new ArrayList<String>(entry2dpid.keySet());
+        }
+        for (String entry : entries) {
             deleteFlow(entry);
         }
     }
@@ -626,45 +816,86 @@ public class StaticFlowEntryPusher
     @Override
     public void deleteFlowsForSwitch(long dpid) {
         String sDpid = HexString.toHexString(dpid);
-        
-        for (Entry<String, String> e : entry2dpid.entrySet()) {
-            if (e.getValue().equals(sDpid))
-                deleteFlow(e.getKey());
+        List<String> entries = new ArrayList<String>();
+        synchronized (entriesLock) {
+            for (Entry<String, String> e : entry2dpid.entrySet()) {
+                if (e.getValue().equals(sDpid))
+                    entries.add(e.getKey());
+            }
+        }
+        for (String entry : entries) {
+            deleteFlow(entry);
         }
     }
     
     @Override
     public Map<String, Map<String, OFFlowMod>> getFlows() {
-        return entriesFromStorage;
+        // a copy, since the entries change under other threads
+        Map<String, Map<String, OFFlowMod>> flows = new HashMap<String, Map<String, OFFlowMod>>();
+        synchronized (entriesLock) {
+            for (Entry<String, Map<String, OFFlowMod>> e : entriesFromStorage.entrySet()) {
+                flows.put(e.getKey(), new HashMap<String, OFFlowMod>(e.getValue()));
+            }
+        }
+        return flows;
     }
     
     @Override
     public Map<String, OFFlowMod> getFlows(String dpid) {
-        return entriesFromStorage.get(dpid);
+        synchronized (entriesLock) {
+            Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
+            return (entries == null) ? null : new HashMap<String, OFFlowMod>(entries);
+        }
+    }
+
+    @Override
+    public void addListener(IStaticFlowEntryListener listener) {
+        listeners.add(listener);
     }
 
     
+    /**
+     * @return The entries of a switch that are active, i.e. not null
+     */
+    private static Map<String, OFFlowMod> activeFlows(Map<String, OFFlowMod> entries) {
+        Map<String, OFFlowMod> active = new HashMap<String, OFFlowMod>();
+        for (Entry<String, OFFlowMod> e : entries.entrySet()) {
+            if (e.getValue() != null)
+                active.put(e.getKey(), e.getValue());
+        }
+        return active;
+    }
+
     // IHAListener
     
     @Override
     public void roleChanged(Role oldRole, Role newRole) {
-        switch(newRole) {
-            case MASTER:
-                if (oldRole == Role.SLAVE) {
-                    log.debug("Re-reading static flows from storage due " +
-                            "to HA change from SLAVE->MASTER");
-                    entriesFromStorage = readEntriesFromStorage(); 
-                    entry2dpid = computeEntry2DpidMap(entriesFromStorage);
-                }
-                break;
-            case SLAVE:
-                log.debug("Clearing in-memory flows due to " +
-                        "HA change to SLAVE");
-                entry2dpid.clear();
-                entriesFromStorage.clear();
-                break;
-            default:
-            	break;
+        synchronized (entriesLock) {
+            switch(newRole) {
+                case MASTER:
+                    if (oldRole == Role.SLAVE) {
+                        log.debug("Re-reading static flows from storage due " +
+                                "to HA change from SLAVE->MASTER");
+                        Map<String, Map<String, OFFlowMod>> oldEntries = entriesFromStorage;
+                        entriesFromStorage = readEntriesFromStorage(); 
+                        entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+                        for (Entry<String, Map<String, OFFlowMod>> e : oldEntries.entrySet())
+                            notifyRemoved(e.getKey(), activeFlows(e.getValue()));
+                        for (Entry<String, Map<String, OFFlowMod>> e : entriesFromStorage.entrySet())
+                            notifyAdded(e.getKey(), activeFlows(e.getValue()));
+                    }
+                    break;
+                case SLAVE:
+                    log.debug("Clearing in-memory flows due to " +
+                            "HA change to SLAVE");
+                    entry2dpid.clear();
+                    for (Entry<String, Map<String, OFFlowMod>> e : entriesFromStorage.entrySet())
+                        notifyRemoved(e.getKey(), activeFlows(e.getValue()));
+                    entriesFromStorage.clear();
+                    break;
+                default:
+                	break;
+            }
         }
     }
     
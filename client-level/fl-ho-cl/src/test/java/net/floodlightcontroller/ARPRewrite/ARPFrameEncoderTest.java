@@ -0,0 +1,67 @@
+package net.floodlightcontroller.ARPRewrite;
+
+import java.util.Arrays;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Test;
+
+public class ARPFrameEncoderTest extends FloodlightTestCase {
+    protected static final byte[] DST = Ethernet.toMACAddress("ff:ff:ff:ff:ff:ff");
+    protected static final byte[] SRC = Ethernet.toMACAddress("00:11:22:33:44:55");
+    protected static final byte[] TGT = Ethernet.toMACAddress("00:00:00:00:00:00");
+    protected static final byte[] SENDER_IP = IPv4.toIPv4AddressBytes("10.0.0.1");
+    protected static final byte[] TARGET_IP = IPv4.toIPv4AddressBytes("10.0.0.2");
+
+    /**
+     * The frame as sendARP used to build it.
+     */
+    protected byte[] serialize(short vlan, byte priority, short opCode) {
+        return new Ethernet()
+        .setSourceMACAddress(SRC)
+        .setDestinationMACAddress(DST)
+        .setEtherType(Ethernet.TYPE_ARP)
+        .setVlanID(vlan)
+        .setPriorityCode(priority)
+        .setPayload(
+                new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(opCode)
+                .setSenderHardwareAddress(SRC)
+                .setSenderProtocolAddress(SENDER_IP)
+                .setTargetHardwareAddress(TGT)
+                .setTargetProtocolAddress(TARGET_IP))
+        .serialize();
+    }
+
+    protected byte[] encode(short vlan, byte priority, short opCode) {
+        byte[] frame = ARPFrameEncoder.get().encode(DST, SRC, vlan, priority,
+                opCode, SENDER_IP, TGT, TARGET_IP);
+        return Arrays.copyOf(frame, frame.length);
+    }
+
+    @Test
+    public void testUntagged() throws Exception {
+        byte[] frame = encode(Ethernet.VLAN_UNTAGGED, (byte) 0, ARP.OP_REQUEST);
+        assertEquals(ARPFrameEncoder.FRAME_LENGTH, frame.length);
+        assertTrue(Arrays.equals(serialize(Ethernet.VLAN_UNTAGGED, (byte) 0, ARP.OP_REQUEST), frame));
+        assertTrue(Arrays.equals(serialize(Ethernet.VLAN_UNTAGGED, (byte) 0, ARP.OP_REPLY),
+                encode(Ethernet.VLAN_UNTAGGED, (byte) 0, ARP.OP_REPLY)));
+    }
+
+    @Test
+    public void testTagged() throws Exception {
+        byte[] frame = encode((short) 42, (byte) 5, ARP.OP_REPLY);
+        assertEquals(ARPFrameEncoder.TAGGED_FRAME_LENGTH, frame.length);
+        assertTrue(Arrays.equals(serialize((short) 42, (byte) 5, ARP.OP_REPLY), frame));
+        // the untagged frame is unaffected by the tagged one
+        assertTrue(Arrays.equals(serialize(Ethernet.VLAN_UNTAGGED, (byte) 0, ARP.OP_REQUEST),
+                encode(Ethernet.VLAN_UNTAGGED, (byte) 0, ARP.OP_REQUEST)));
+    }
+}
@@ -0,0 +1,104 @@
+package net.floodlightcontroller.ARPRewrite;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+
+public class EgressPortCacheTest extends FloodlightTestCase {
+    protected static final String DPID = "00:00:00:00:00:00:00:01";
+
+    protected IStaticFlowEntryPusherService sfep;
+    protected Map<String, OFFlowMod> switchFlows;
+    protected EgressPortCache cache;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        switchFlows = new HashMap<String, OFFlowMod>();
+        sfep = createNiceMock(IStaticFlowEntryPusherService.class);
+        expect(sfep.getFlows(DPID)).andReturn(switchFlows).anyTimes();
+        expect(sfep.getFlows()).andReturn(
+                Collections.singletonMap(DPID, switchFlows)).anyTimes();
+        replay(sfep);
+        cache = new EgressPortCache(sfep);
+    }
+
+    protected OFFlowMod flow(short inPort, short outPort, short priority) {
+        OFFlowMod flow = new OFFlowMod();
+        OFMatch match = new OFMatch();
+        match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT);
+        match.setInputPort(inPort);
+        flow.setMatch(match);
+        flow.setOutPort(outPort);
+        flow.setPriority(priority);
+        return flow;
+    }
+
+    protected void add(String name, OFFlowMod flow) {
+        switchFlows.put(name, flow);
+        cache.flowsAdded(DPID, Collections.singletonMap(name, flow));
+    }
+
+    protected void remove(String name) {
+        OFFlowMod flow = switchFlows.remove(name);
+        cache.flowsRemoved(DPID, Collections.singletonMap(name, flow));
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        switchFlows.put("a", flow((short) 1, (short) 2, (short) 100));
+        switchFlows.put("b", flow((short) 2, (short) 1, (short) 100));
+        switchFlows.put("c", flow((short) 3, OFPort.OFPP_CONTROLLER.getValue(), (short) 100));
+        OFFlowMod wildcard = flow((short) 4, (short) 1, (short) 100);
+        wildcard.getMatch().setWildcards(OFMatch.OFPFW_ALL);
+        switchFlows.put("d", wildcard);
+        cache.rebuild();
+
+        assertEquals(2, cache.getEgressPort(1L, (short) 1));
+        assertEquals(1, cache.getEgressPort(1L, (short) 2));
+        // flows to the controller and without an ingress port are left out
+        assertEquals(0, cache.getEgressPort(1L, (short) 3));
+        assertEquals(0, cache.getEgressPort(1L, (short) 4));
+        assertEquals(0, cache.getEgressPort(1L, (short) 100));
+        assertEquals(0, cache.getEgressPort(2L, (short) 1));
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        add("high", flow((short) 1, (short) 2, (short) 32768));
+        assertEquals(2, cache.getEgressPort(1L, (short) 1));
+
+        // make before break: the new flow wins while both are there...
+        add("low", flow((short) 1, (short) 3, (short) 32767));
+        assertEquals(3, cache.getEgressPort(1L, (short) 1));
+        // ...and the old one going away leaves it be
+        remove("high");
+        assertEquals(3, cache.getEgressPort(1L, (short) 1));
+
+        // the remaining flow of highest priority takes over
+        add("other", flow((short) 1, (short) 4, (short) 10));
+        add("high", flow((short) 1, (short) 2, (short) 32768));
+        remove("high");
+        assertEquals(3, cache.getEgressPort(1L, (short) 1));
+        remove("low");
+        assertEquals(4, cache.getEgressPort(1L, (short) 1));
+        remove("other");
+        assertEquals(0, cache.getEgressPort(1L, (short) 1));
+
+        // a local port goes at the end of the array
+        add("local", flow(OFPort.OFPP_LOCAL.getValue(), (short) 1, (short) 100));
+        assertEquals(1, cache.getEgressPort(1L, OFPort.OFPP_LOCAL.getValue()));
+    }
+}
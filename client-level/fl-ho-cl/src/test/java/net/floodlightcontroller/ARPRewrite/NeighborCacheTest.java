@@ -0,0 +1,47 @@
+package net.floodlightcontroller.ARPRewrite;
+
+import static org.junit.Assert.*;
+
+import net.floodlightcontroller.packet.IPv4;
+
+import org.junit.Test;
+
+public class NeighborCacheTest {
+	protected static final int GATEWAY = IPv4.toIPv4Address("10.0.0.1");
+	protected static final int HOST = IPv4.toIPv4Address("10.0.0.2");
+	protected static final int OTHER = IPv4.toIPv4Address("10.0.0.3");
+
+	@Test
+	public void testExpiry() throws Exception {
+		NeighborCache cache = new NeighborCache(4, 1000);
+		assertNull(cache.get(GATEWAY, 0));
+
+		cache.put(GATEWAY, 0x001122334455L, 100);
+		NeighborCache.Neighbor n = cache.get(GATEWAY, 1100);
+		assertEquals(0x001122334455L, n.getMAC());
+		assertEquals(100, n.getLearnedMs());
+		assertNull(cache.get(GATEWAY, 1101));
+		assertEquals(0, cache.size());
+
+		// learning again restarts the time to live
+		cache.put(GATEWAY, 0x001122334455L, 1200);
+		cache.put(GATEWAY, 0x001122334466L, 1500);
+		assertEquals(0x001122334466L, cache.get(GATEWAY, 2400).getMAC());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		NeighborCache cache = new NeighborCache(2, 1000);
+		cache.put(GATEWAY, 1L, 0);
+		cache.put(HOST, 2L, 0);
+		assertNotNull(cache.get(GATEWAY, 0));
+		cache.put(OTHER, 3L, 0);
+		// the least recently used binding goes
+		assertEquals(2, cache.size());
+		assertNull(cache.get(HOST, 0));
+		assertNotNull(cache.get(GATEWAY, 0));
+
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+}
@@ -0,0 +1,133 @@
+package net.floodlightcontroller.handover;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class GRCClientTest {
+	private HttpServer server;
+	private String url;
+	private AtomicInteger requests;
+	private volatile long delayMs;
+	private CountDownLatch release;
+	private String lastDecision;
+	private GRCClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		requests = new AtomicInteger();
+		delayMs = 0;
+		release = new CountDownLatch(0);
+		// a stub GRC that always picks WiMAX, after a configurable delay
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/grc", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				try {
+					release.await(delayMs, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					// answer right away
+				}
+				byte[] body = "{\"network\": \"WiMAX\"}".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(body);
+				os.close();
+			}
+		});
+		server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/grc";
+		client = new GRCClient(url, 500, 200, 2, new GRCClient.IGRCListener() {
+			@Override
+			public void receiveDecision(double latitude, double longitude, String networkType, long decisionNs) {
+				lastDecision = networkType;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop(0);
+	}
+
+	private Future<String> query(double latitude) throws IOException {
+		Map<String, String> networkTypes = new LinkedHashMap<String, String>();
+		networkTypes.put("WiMAX", "Clemson");
+		networkTypes.put("Wifi", "");
+		return client.query(latitude, -82.8, networkTypes);
+	}
+
+	@Test
+	public void testDecision() throws Exception {
+		Future<String> decision = query(34.6);
+		assertEquals("WiMAX", decision.get(1, TimeUnit.SECONDS));
+		assertEquals("WiMAX", lastDecision);
+		assertEquals(0, client.getInFlight());
+
+		// the pooled connection is reused
+		assertEquals("WiMAX", query(34.6).get(1, TimeUnit.SECONDS));
+		assertEquals(2, requests.get());
+	}
+
+	@Test
+	public void testReadDeadline() throws Exception {
+		delayMs = 5000;
+		release = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Future<String> decision = query(34.6);
+		assertNull(decision.get(2, TimeUnit.SECONDS));
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("GRC query took " + elapsedMs + " ms", elapsedMs < 1500);
+		assertNull(lastDecision);
+		assertEquals(0, client.getInFlight());
+		release.countDown();
+	}
+
+	@Test
+	public void testCoalescingAndInFlightBound() throws Exception {
+		delayMs = 5000;
+		release = new CountDownLatch(1);
+		client.shutdown();
+		client = new GRCClient(url, 500, 5000, 2, new GRCClient.IGRCListener() {
+			@Override
+			public void receiveDecision(double latitude, double longitude, String networkType, long decisionNs) {
+				lastDecision = networkType;
+			}
+		});
+
+		Future<String> first = query(34.6);
+		assertSame(first, query(34.6));
+		Future<String> second = query(34.7);
+		assertNotNull(second);
+		assertNotSame(first, second);
+		// both slots are taken
+		assertNull(query(34.8));
+		assertEquals(2, client.getInFlight());
+
+		release.countDown();
+		assertEquals("WiMAX", first.get(2, TimeUnit.SECONDS));
+		assertEquals("WiMAX", second.get(2, TimeUnit.SECONDS));
+		assertEquals(2, requests.get());
+		assertEquals(0, client.getInFlight());
+		assertNotNull(query(34.8));
+	}
+}
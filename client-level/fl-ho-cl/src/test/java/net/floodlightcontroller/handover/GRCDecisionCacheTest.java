@@ -0,0 +1,47 @@
+package net.floodlightcontroller.handover;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class GRCDecisionCacheTest {
+
+	@Test
+	public void testGeohash() {
+		assertEquals("u4pruydqqvj", GRCDecisionCache.geohash(57.64911, 10.40744, 11));
+		assertEquals("dnjj", GRCDecisionCache.geohash(34.68, -82.84, 4));
+	}
+
+	@Test
+	public void testNearbyPositionsShareACell() {
+		GRCDecisionCache cache = new GRCDecisionCache(7, 16, 1000);
+		String cell = cache.getCell(34.67850, -82.83720);
+		cache.put(cell, "WiMAX", 0);
+		// a few meters away
+		assertEquals("WiMAX", cache.get(cache.getCell(34.67853, -82.83716), 10));
+		// a few kilometers away
+		assertNull(cache.get(cache.getCell(34.70, -82.80), 10));
+	}
+
+	@Test
+	public void testTimeToLive() {
+		GRCDecisionCache cache = new GRCDecisionCache(7, 16, 1000);
+		cache.put("dnjj6cp", "Wifi", 0);
+		assertEquals("Wifi", cache.get("dnjj6cp", 1000));
+		assertNull(cache.get("dnjj6cp", 1001));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		GRCDecisionCache cache = new GRCDecisionCache(7, 2, 1000);
+		cache.put("cell1", "Wifi", 0);
+		cache.put("cell2", "WiMAX", 0);
+		assertEquals("Wifi", cache.get("cell1", 0));
+		cache.put("cell3", "Wifi", 0);
+		assertEquals(2, cache.size());
+		assertNull(cache.get("cell2", 0));
+		assertEquals("Wifi", cache.get("cell1", 0));
+		assertEquals("Wifi", cache.get("cell3", 0));
+	}
+}
@@ -0,0 +1,261 @@
+package net.floodlightcontroller.handover;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.interfaceregistry.IInterfaceRegistryService;
+import net.floodlightcontroller.interfaceregistry.InterfaceRegistry;
+import net.floodlightcontroller.linkquality.ILinkQualityService;
+import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.easymock.IAnswer;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPhysicalPort;
+import org.openflow.protocol.OFPortStatus;
+import org.openflow.protocol.OFPortStatus.OFPortReason;
+import org.openflow.protocol.factory.BasicFactory;
+
+public class HandoverFailoverTest extends FloodlightTestCase {
+	private static final long TAP_DPID = 1L;
+	private static final long WIFI_DPID = 2L;
+	private static final long LTE_DPID = 3L;
+	private static final long WIMAX_DPID = 4L;
+	private static final short IFACE_PORT = 1;
+	private static final short PATCH_PORT = 2;
+	private static final short WIMAX_TAP_PATCH_PORT = 3;
+	private static final long WAIT_MS = 2000;
+
+	private Handover handover;
+	private FloodlightModuleContext fmc;
+	private MockFloodlightProvider mockFloodlightProvider;
+	private Map<Long, IOFSwitch> switches;
+	// the flow mods written to each switch, in order
+	private Map<Long, List<OFFlowMod>> written;
+	private final List<Long> down = Collections.synchronizedList(new ArrayList<Long>());
+	// the active network type every policy check sees
+	private final BlockingQueue<String> active = new LinkedBlockingQueue<String>();
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		mockFloodlightProvider = getMockFloodlightProvider();
+		switches = new HashMap<Long, IOFSwitch>();
+		written = new HashMap<Long, List<OFFlowMod>>();
+		for (long dpid = TAP_DPID; dpid <= WIMAX_DPID; dpid++) {
+			switches.put(dpid, createSwitch(dpid));
+		}
+		mockFloodlightProvider.setSwitches(switches);
+
+		InterfaceRegistry interfaces = new InterfaceRegistry();
+		fmc = new FloodlightModuleContext();
+		fmc.addConfigParam(interfaces, "interfaces", "wifi0,lte0,wimax0");
+		fmc.addConfigParam(interfaces, "tap-iface-name", "br_tap");
+		fmc.addConfigParam(interfaces, "tap-mac", "12:51:16:90:8f:ee");
+		fmc.addConfigParam(interfaces, "ovs-tap-dpid", "00:00:00:00:00:00:00:01");
+		fmc.addConfigParam(interfaces, "ovs-tap-local-port", "4");
+		addInterface(fmc, interfaces, "wifi0", "Wifi", WIFI_DPID, 1);
+		addInterface(fmc, interfaces, "lte0", "LTE", LTE_DPID, 2);
+		addInterface(fmc, interfaces, "wimax0", "WiMAX", WIMAX_DPID, WIMAX_TAP_PATCH_PORT);
+		interfaces.init(fmc);
+
+		handover = new Handover();
+		fmc.addService(IFloodlightProviderService.class, mockFloodlightProvider);
+		fmc.addService(IStaticFlowEntryPusherService.class, createNiceMock(IStaticFlowEntryPusherService.class));
+		fmc.addService(IRestApiService.class, createNiceMock(IRestApiService.class));
+		fmc.addService(ILinkQualityService.class, createNiceMock(ILinkQualityService.class));
+		fmc.addService(IInterfaceRegistryService.class, interfaces);
+		fmc.addConfigParam(handover, "grc-probe-interval-seconds", "60");
+		fmc.addConfigParam(handover, "gpsd-tcp-port", "1");
+		fmc.addConfigParam(handover, "grc-url", "");
+		fmc.addConfigParam(handover, "failover-order", "Wifi,LTE,WiMAX");
+		fmc.addConfigParam(handover, "policy-interval-ms", "10");
+		fmc.addConfigParam(handover, "barrier-timeout-ms", "100");
+		handover.init(fmc);
+	}
+
+	/*
+	 * Handover keeps its state in statics and starts a policy check thread
+	 * on every startUp, so it is only started by the one test that needs it.
+	 */
+	private void startHandover() throws Exception {
+		// start out on Wifi, then leave the rest to the failover
+		handover.setHandoverPolicy(new IHandoverPolicy() {
+			@Override
+			public String decide(String activeNetworkType, Map<String, LinkMetrics> metrics, long nowMs) {
+				active.offer(activeNetworkType);
+				return activeNetworkType.equals("offline") ? "Wifi" : null;
+			}
+		});
+		handover.setLinkMetricsSource(new MockLinkMetricsSource());
+		handover.startUp(fmc);
+		awaitActive("Wifi");
+		clearWritten();
+	}
+
+	private void addInterface(FloodlightModuleContext fmc, InterfaceRegistry interfaces,
+			String name, String networkType, long dpid, int tapPatchPort) {
+		fmc.addConfigParam(interfaces, name + "-iface-name", name);
+		fmc.addConfigParam(interfaces, name + "-network-type", networkType);
+		fmc.addConfigParam(interfaces, name + "-mac", "00:00:00:00:00:0" + dpid);
+		fmc.addConfigParam(interfaces, "ovs-" + name + "-dpid", "00:00:00:00:00:00:00:0" + dpid);
+		fmc.addConfigParam(interfaces, "ovs-" + name + "-iface-port", Short.toString(IFACE_PORT));
+		fmc.addConfigParam(interfaces, "ovs-" + name + "-to-tap-patch", Short.toString(PATCH_PORT));
+		fmc.addConfigParam(interfaces, "ovs-tap-to-" + name + "-patch", Integer.toString(tapPatchPort));
+	}
+
+	/**
+	 * A switch whose ports are up unless it is in down, and which records
+	 * the flow mods written to its channel. Every barrier is answered.
+	 */
+	@SuppressWarnings("unchecked")
+	private IOFSwitch createSwitch(final long dpid) throws Exception {
+		final List<OFFlowMod> flows = Collections.synchronizedList(new ArrayList<OFFlowMod>());
+		written.put(dpid, flows);
+		Channel channel = createNiceMock(Channel.class);
+		expect(channel.write(anyObject())).andAnswer(new IAnswer<ChannelFuture>() {
+			@Override
+			public ChannelFuture answer() throws Throwable {
+				ChannelBuffer buf = (ChannelBuffer) getCurrentArguments()[0];
+				List<OFFlowMod> batch = new ArrayList<OFFlowMod>();
+				for (OFMessage m : new BasicFactory().parseMessage(buf)) {
+					batch.add((OFFlowMod) m);
+				}
+				flows.addAll(batch);
+				return null;
+			}
+		}).anyTimes();
+		Future<OFBarrierReply> barrier = createNiceMock(Future.class);
+		expect(barrier.get(anyLong(), (TimeUnit) anyObject())).andReturn(new OFBarrierReply()).anyTimes();
+		replay(barrier);
+
+		IOFSwitch sw = createNiceMock(IOFSwitch.class);
+		expect(sw.getId()).andReturn(dpid).anyTimes();
+		expect(sw.getChannel()).andReturn(channel).anyTimes();
+		expect(sw.sendBarrier()).andReturn(barrier).anyTimes();
+		expect(sw.portEnabled(anyShort())).andAnswer(new IAnswer<Boolean>() {
+			@Override
+			public Boolean answer() throws Throwable {
+				return !down.contains(dpid);
+			}
+		}).anyTimes();
+		replay(channel, sw);
+		return sw;
+	}
+
+	private void clearWritten() {
+		for (List<OFFlowMod> flows : written.values()) {
+			flows.clear();
+		}
+	}
+
+	/**
+	 * Waits for a policy check to see a network type active, which it only
+	 * does once the handover to it is complete.
+	 */
+	private void awaitActive(String networkType) throws InterruptedException {
+		active.clear();
+		long deadline = System.currentTimeMillis() + WAIT_MS;
+		String seen;
+		do {
+			seen = active.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		} while (seen != null && !seen.equals(networkType));
+		assertEquals(networkType, seen);
+	}
+
+	private OFPortStatus linkDown(short port) {
+		OFPhysicalPort desc = new OFPhysicalPort();
+		desc.setPortNumber(port);
+		desc.setState(OFPhysicalPort.OFPortState.OFPPS_LINK_DOWN.getValue());
+		OFPortStatus status = new OFPortStatus();
+		status.setReason((byte) OFPortReason.OFPPR_MODIFY.ordinal());
+		status.setDesc(desc);
+		return status;
+	}
+
+	@Test
+	public void testFailover() throws Exception {
+		startHandover();
+
+		// a port status for another interface, or with the active link still up, changes nothing
+		down.add(LTE_DPID);
+		mockFloodlightProvider.dispatchMessage(switches.get(LTE_DPID), linkDown(IFACE_PORT));
+		mockFloodlightProvider.dispatchMessage(switches.get(WIFI_DPID), linkDown(IFACE_PORT));
+		awaitActive("Wifi");
+		for (List<OFFlowMod> flows : written.values()) {
+			assertTrue(flows.isEmpty());
+		}
+
+		// Wifi goes down, and LTE, next in the failover order, is down too
+		down.add(WIFI_DPID);
+		mockFloodlightProvider.dispatchMessage(switches.get(WIFI_DPID), linkDown(IFACE_PORT));
+		awaitActive("WiMAX");
+		// the down candidate is skipped
+		assertTrue(written.get(LTE_DPID).isEmpty());
+		// WiMAX's flows go in at the other priority, then Wifi's come out
+		List<OFFlowMod> iface = written.get(WIMAX_DPID);
+		assertEquals(4, iface.size());
+		assertEquals(PATCH_PORT, iface.get(0).getMatch().getInputPort());
+		assertEquals(IFACE_PORT, iface.get(2).getMatch().getInputPort());
+		List<OFFlowMod> tap = written.get(TAP_DPID);
+		assertEquals(8, tap.size());
+		assertEquals(WIMAX_TAP_PATCH_PORT, tap.get(2).getMatch().getInputPort());
+		short wimaxPriority = tap.get(0).getPriority();
+		for (OFFlowMod fm : iface) {
+			assertEquals(OFFlowMod.OFPFC_ADD, fm.getCommand());
+			assertEquals(wimaxPriority, fm.getPriority());
+		}
+		for (OFFlowMod fm : tap.subList(0, 4)) {
+			assertEquals(OFFlowMod.OFPFC_ADD, fm.getCommand());
+			assertEquals(wimaxPriority, fm.getPriority());
+		}
+		for (OFFlowMod fm : tap.subList(4, 8)) {
+			assertEquals(OFFlowMod.OFPFC_DELETE_STRICT, fm.getCommand());
+			assertFalse(wimaxPriority == fm.getPriority());
+		}
+		assertEquals(4, written.get(WIFI_DPID).size());
+		for (OFFlowMod fm : written.get(WIFI_DPID)) {
+			assertEquals(OFFlowMod.OFPFC_DELETE_STRICT, fm.getCommand());
+		}
+
+		// the WiMAX OVS disconnects; Wifi is still down, but LTE is back
+		clearWritten();
+		down.remove(LTE_DPID);
+		IOFSwitch sw = switches.remove(WIMAX_DPID);
+		for (IOFSwitchListener listener : mockFloodlightProvider.getSwitchListeners()) {
+			listener.removedSwitch(sw);
+		}
+		awaitActive("LTE");
+		assertTrue(written.get(WIFI_DPID).isEmpty());
+		assertEquals(4, written.get(LTE_DPID).size());
+		for (OFFlowMod fm : written.get(LTE_DPID)) {
+			assertEquals(OFFlowMod.OFPFC_ADD, fm.getCommand());
+			assertFalse(wimaxPriority == fm.getPriority());
+		}
+		// nothing can be written to the OVS that is gone
+		assertTrue(written.get(WIMAX_DPID).isEmpty());
+	}
+}
@@ -0,0 +1,136 @@
+package net.floodlightcontroller.handover;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.handover.Handover.FlowTemplate;
+import net.floodlightcontroller.interfaceregistry.HostInterface;
+import net.floodlightcontroller.interfaceregistry.IInterfaceRegistryService;
+import net.floodlightcontroller.interfaceregistry.InterfaceRegistry;
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.test.FloodlightTestCase;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFActionDataLayerDestination;
+import org.openflow.protocol.action.OFActionOutput;
+
+public class HandoverTemplateTest extends FloodlightTestCase {
+	private static final String TAP_MAC = "12:51:16:90:8f:ee";
+	private static final short PRIORITY = (short) 0x8000;
+	private static final short TAP_LOCAL_PORT = 4;
+	private static final short TAP_PATCH_PORT = 1;
+	private static final short IFACE_PORT = 1;
+	private static final short PATCH_PORT = 2;
+	private static final String SUFFIX = "-wifi-32768";
+
+	private Handover handover;
+	private HostInterface wifi;
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		InterfaceRegistry interfaces = new InterfaceRegistry();
+		FloodlightModuleContext fmc = new FloodlightModuleContext();
+		fmc.addConfigParam(interfaces, "interfaces", "wifi0");
+		fmc.addConfigParam(interfaces, "tap-iface-name", "br_tap");
+		fmc.addConfigParam(interfaces, "tap-mac", TAP_MAC);
+		fmc.addConfigParam(interfaces, "ovs-tap-dpid", "00:00:00:00:00:00:00:01");
+		fmc.addConfigParam(interfaces, "ovs-tap-local-port", Short.toString(TAP_LOCAL_PORT));
+		fmc.addConfigParam(interfaces, "wifi0-iface-name", "wifi0");
+		fmc.addConfigParam(interfaces, "wifi0-network-type", "Wifi");
+		fmc.addConfigParam(interfaces, "wifi0-mac", "00:23:15:81:8b:f8");
+		fmc.addConfigParam(interfaces, "ovs-wifi0-dpid", "00:00:00:00:00:00:00:02");
+		fmc.addConfigParam(interfaces, "ovs-wifi0-iface-port", Short.toString(IFACE_PORT));
+		fmc.addConfigParam(interfaces, "ovs-wifi0-to-tap-patch", Short.toString(PATCH_PORT));
+		fmc.addConfigParam(interfaces, "ovs-tap-to-wifi0-patch", Short.toString(TAP_PATCH_PORT));
+		interfaces.init(fmc);
+		fmc.addService(IInterfaceRegistryService.class, interfaces);
+
+		handover = new Handover();
+		handover.init(fmc);
+		wifi = interfaces.getInterface("Wifi");
+	}
+
+	private static OFActionOutput output(OFFlowMod flow) {
+		return (OFActionOutput) flow.getActions().get(flow.getActions().size() - 1);
+	}
+
+	private static void assertArpMatch(OFFlowMod flow, short inPort, short opCode) {
+		OFMatch match = flow.getMatch();
+		assertEquals(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE & ~OFMatch.OFPFW_NW_PROTO,
+				match.getWildcards());
+		assertEquals(inPort, match.getInputPort());
+		assertEquals(Ethernet.TYPE_ARP, match.getDataLayerType());
+		assertEquals((byte) opCode, match.getNetworkProtocol());
+	}
+
+	@Test
+	public void testArpOffloadFlows() throws Exception {
+		FlowTemplate template = handover.buildTemplate(wifi, PRIORITY, true);
+
+		// requests from the network go straight to the tap, addressed to it
+		OFFlowMod request = template.tapFlows.get("tap-from-patch-arp-request" + SUFFIX);
+		assertNotNull(request);
+		assertArpMatch(request, TAP_PATCH_PORT, ARP.OP_REQUEST);
+		assertEquals(2, request.getActions().size());
+		OFActionDataLayerDestination dlDst = (OFActionDataLayerDestination) request.getActions().get(0);
+		assertTrue(Arrays.equals(MACAddress.valueOf(TAP_MAC).toBytes(), dlDst.getDataLayerAddress()));
+		assertEquals(TAP_LOCAL_PORT, output(request).getPort());
+
+		// replies still need their target hardware address rewritten, so they go to the controller
+		OFFlowMod reply = template.tapFlows.get("tap(controller)-from-patch-arp-reply" + SUFFIX);
+		assertNotNull(reply);
+		assertArpMatch(reply, TAP_PATCH_PORT, ARP.OP_REPLY);
+		assertEquals(1, reply.getActions().size());
+		assertEquals(OFPort.OFPP_CONTROLLER.getValue(), output(reply).getPort());
+		assertFalse(template.tapFlows.containsKey("tap(controller)-from-patch-arp" + SUFFIX));
+
+		// the iface OVS forwards all ARP from the network unchanged
+		OFFlowMod iface = template.ifaceFlows.get("iface-to-patch-arp" + SUFFIX);
+		assertNotNull(iface);
+		assertEquals(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE,
+				iface.getMatch().getWildcards());
+		assertEquals(IFACE_PORT, iface.getMatch().getInputPort());
+		assertEquals(1, iface.getActions().size());
+		assertEquals(PATCH_PORT, output(iface).getPort());
+		assertEquals(4, template.ifaceFlows.size());
+		assertEquals(5, template.tapFlows.size());
+
+		// the lengths cover the rewrite, since the flows are written as serialized
+		for (Map<String, OFFlowMod> flows : Arrays.asList(template.tapFlows, template.ifaceFlows)) {
+			for (OFFlowMod flow : flows.values()) {
+				int length = OFFlowMod.MINIMUM_LENGTH;
+				for (int i = 0; i < flow.getActions().size(); i++) {
+					length += flow.getActions().get(i).getLengthU();
+				}
+				assertEquals(length, flow.getLengthU());
+				assertEquals(PRIORITY, flow.getPriority());
+			}
+		}
+	}
+
+	@Test
+	public void testArpThroughController() throws Exception {
+		FlowTemplate template = handover.buildTemplate(wifi, PRIORITY, false);
+
+		// all ARP from the network goes to the controller at the tap OVS, whatever its opcode
+		OFFlowMod arp = template.tapFlows.get("tap(controller)-from-patch-arp" + SUFFIX);
+		assertNotNull(arp);
+		assertEquals(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE,
+				arp.getMatch().getWildcards());
+		assertEquals(TAP_PATCH_PORT, arp.getMatch().getInputPort());
+		assertEquals(OFPort.OFPP_CONTROLLER.getValue(), output(arp).getPort());
+		assertFalse(template.tapFlows.containsKey("tap-from-patch-arp-request" + SUFFIX));
+		assertFalse(template.tapFlows.containsKey("tap(controller)-from-patch-arp-reply" + SUFFIX));
+		assertEquals(4, template.tapFlows.size());
+		assertEquals(4, template.ifaceFlows.size());
+	}
+}
@@ -0,0 +1,63 @@
+package net.floodlightcontroller.handover;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.handover.HandoverTimeline.Record;
+import net.floodlightcontroller.handover.HandoverTimeline.Stage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HandoverTimelineTest {
+	private HandoverTimeline timeline;
+
+	@Before
+	public void setUp() {
+		timeline = new HandoverTimeline(4);
+	}
+
+	private Record record(String to) {
+		Record r = new Record("Wifi", to, System.nanoTime());
+		r.stamp(Stage.FIRST_FLOW_MOD);
+		r.stamp(Stage.LAST_FLOW_MOD);
+		r.setSucceeded(true);
+		return r;
+	}
+
+	@Test
+	public void testRingBufferKeepsMostRecent() {
+		for (int i = 0; i < 6; i++) {
+			timeline.add(record("net" + i));
+		}
+		List<Record> records = timeline.getRecords();
+		assertEquals(4, records.size());
+		for (int i = 0; i < 4; i++) {
+			assertEquals("net" + (i + 2), records.get(i).toMap().get("to"));
+		}
+
+		timeline.reset();
+		assertTrue(timeline.getRecords().isEmpty());
+		assertNull(timeline.getSummary(Stage.FIRST_FLOW_MOD));
+	}
+
+	@Test
+	public void testSummarySkipsStagesNotReached() {
+		Record r = record("WiMAX");
+		timeline.add(r);
+		assertEquals(-1, r.getOffsetNs(Stage.TAP_BARRIER));
+		assertNull(timeline.getSummary(Stage.TAP_BARRIER));
+
+		Map<String, Long> summary = timeline.getSummary(Stage.LAST_FLOW_MOD);
+		assertEquals(Long.valueOf(1), summary.get("samples"));
+		assertEquals(summary.get("max"), summary.get("p50"));
+		assertEquals(summary.get("max"), summary.get("p99"));
+		assertTrue(summary.get("max") >= r.getOffsetNs(Stage.FIRST_FLOW_MOD));
+
+		Map<String, Object> m = timeline.toMap();
+		assertEquals(4, m.get("capacity"));
+		assertEquals(1, ((List<?>) m.get("handovers")).size());
+	}
+}
@@ -0,0 +1,82 @@
+package net.floodlightcontroller.handover;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HysteresisHandoverPolicyTest {
+	private static final long DWELL_MS = 1000;
+
+	private MockLinkMetricsSource source;
+	private IHandoverPolicy policy;
+
+	@Before
+	public void setUp() {
+		source = new MockLinkMetricsSource();
+		policy = new HysteresisHandoverPolicy(0.3, 0.6, DWELL_MS);
+	}
+
+	private String decide(String active, long nowMs) {
+		return policy.decide(active, source.getLinkMetrics(), nowMs);
+	}
+
+	@Test
+	public void testPicksBestLinkWhenOffline() {
+		source.setLink("Wifi", true, 0.5);
+		source.setLink("WiMAX", true, 0.8);
+		assertEquals("WiMAX", decide("offline", 0));
+	}
+
+	@Test
+	public void testLeavesDeadLinkImmediately() {
+		source.setLink("Wifi", false, 0.9);
+		source.setLink("WiMAX", true, 0.1);
+		assertEquals("WiMAX", decide("Wifi", 0));
+	}
+
+	@Test
+	public void testStaysOnGoodEnoughLink() {
+		source.setLink("Wifi", true, 0.35);
+		source.setLink("WiMAX", true, 1.0);
+		for (long t = 0; t < 5 * DWELL_MS; t += 100) {
+			assertNull(decide("Wifi", t));
+		}
+	}
+
+	@Test
+	public void testWaitsForDwellTime() {
+		source.setLink("Wifi", true, 0.2);
+		source.setLink("WiMAX", true, 0.7);
+		assertNull(decide("Wifi", 0));
+		assertNull(decide("Wifi", DWELL_MS - 1));
+		assertEquals("WiMAX", decide("Wifi", DWELL_MS));
+	}
+
+	@Test
+	public void testDwellRestartsWhenCandidateFades() {
+		source.setLink("Wifi", true, 0.2);
+		source.setLink("WiMAX", true, 0.7);
+		assertNull(decide("Wifi", 0));
+		// WiMAX dips between the thresholds: not good enough to enter
+		source.setLink("WiMAX", true, 0.5);
+		assertNull(decide("Wifi", 500));
+		source.setLink("WiMAX", true, 0.7);
+		assertNull(decide("Wifi", 600));
+		assertNull(decide("Wifi", 600 + DWELL_MS - 1));
+		assertEquals("WiMAX", decide("Wifi", 600 + DWELL_MS));
+	}
+
+	@Test
+	public void testNoCandidateAboveEnterThreshold() {
+		source.setLink("Wifi", true, 0.2);
+		source.setLink("WiMAX", true, 0.4);
+		assertNull(decide("Wifi", 0));
+		assertNull(decide("Wifi", 10 * DWELL_MS));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testThresholdsMustNotCross() {
+		new HysteresisHandoverPolicy(0.6, 0.3, DWELL_MS);
+	}
+}
@@ -0,0 +1,24 @@
+package net.floodlightcontroller.handover;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A link metrics source whose metrics are set by hand.
+ */
+public class MockLinkMetricsSource implements ILinkMetricsSource {
+	private final Map<String, LinkMetrics> metrics = new HashMap<String, LinkMetrics>();
+
+	public void setLink(String networkType, boolean up, double quality) {
+		metrics.put(networkType, new LinkMetrics(up, quality));
+	}
+
+	public void removeLink(String networkType) {
+		metrics.remove(networkType);
+	}
+
+	@Override
+	public Map<String, LinkMetrics> getLinkMetrics() {
+		return new HashMap<String, LinkMetrics>(metrics);
+	}
+}
@@ -0,0 +1,97 @@
+package net.floodlightcontroller.interfaceregistry;
+
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.test.FloodlightTestCase;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InterfaceRegistryTest extends FloodlightTestCase {
+    protected InterfaceRegistry registry;
+    protected FloodlightModuleContext fmc;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        registry = new InterfaceRegistry();
+        fmc = new FloodlightModuleContext();
+        fmc.addConfigParam(registry, "interfaces", "wifi0, lte0,wifi1");
+        fmc.addConfigParam(registry, "tap-iface-name", "br_tap");
+        fmc.addConfigParam(registry, "tap-mac", "12:51:16:90:8f:ee");
+        fmc.addConfigParam(registry, "ovs-tap-dpid", "00:00:00:00:00:00:00:01");
+        fmc.addConfigParam(registry, "ovs-tap-local-port", "4");
+        addInterface("wifi0", "Wifi", "", 2, 1, 1);
+        addInterface("lte0", "LTE", null, 3, 2, 200);
+        addInterface("wifi1", "Wifi", null, 4, 3, 3);
+    }
+
+    protected void addInterface(String name, String networkType, String operator,
+                                int dpid, int mac, int tapPatchPort) {
+        fmc.addConfigParam(registry, name + "-iface-name", name);
+        fmc.addConfigParam(registry, name + "-network-type", networkType);
+        if (operator != null) {
+            fmc.addConfigParam(registry, name + "-operator", operator);
+        }
+        fmc.addConfigParam(registry, name + "-mac", "00:00:00:00:00:0" + mac);
+        fmc.addConfigParam(registry, "ovs-" + name + "-dpid", "00:00:00:00:00:00:00:0" + dpid);
+        fmc.addConfigParam(registry, "ovs-" + name + "-iface-port", "1");
+        fmc.addConfigParam(registry, "ovs-" + name + "-to-tap-patch", "2");
+        fmc.addConfigParam(registry, "ovs-tap-to-" + name + "-patch", Integer.toString(tapPatchPort));
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        registry.init(fmc);
+
+        HostInterface tap = registry.getTap();
+        assertTrue(tap.isTap());
+        assertEquals(1L, tap.getDpid());
+        assertEquals(MACAddress.valueOf("12:51:16:90:8f:ee"), tap.getMAC());
+        assertEquals(3, registry.getInterfaces().size());
+        assertEquals("lte0", registry.getInterfaces().get(1).getName());
+
+        // the first interface of a network type serves it
+        assertEquals("wifi0", registry.getInterface("Wifi").getName());
+        assertEquals("", registry.getInterface("Wifi").getOperator());
+        assertNull(registry.getInterface("LTE").getOperator());
+        assertNull(registry.getInterface("WiMAX"));
+
+        assertSame(tap, registry.getInterface(1L));
+        assertEquals("wifi1", registry.getInterface(4L).getName());
+        assertNull(registry.getInterface(5L));
+
+        // ports of the tap OVS lead to the interface patched to them
+        assertSame(tap, registry.getInterface(1L, (short) 4));
+        assertEquals("wifi0", registry.getInterface(1L, (short) 1).getName());
+        assertEquals("lte0", registry.getInterface(1L, (short) 200).getName());
+        assertNull(registry.getInterface(1L, (short) 2));
+        assertNull(registry.getInterface(1L, (short) 201));
+        // every port of another OVS leads to its interface
+        assertEquals("lte0", registry.getInterface(3L, (short) 7).getName());
+    }
+
+    @Test
+    public void testSharedSwitch() throws Exception {
+        fmc.addConfigParam(registry, "ovs-wifi1-dpid", "00:00:00:00:00:00:00:02");
+        try {
+            registry.init(fmc);
+            fail("Two interfaces on one OVS should be rejected");
+        } catch (FloodlightModuleException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMissingKey() throws Exception {
+        fmc.addConfigParam(registry, "interfaces", "wifi0,wimax0");
+        try {
+            registry.init(fmc);
+            fail("An interface without a description should be rejected");
+        } catch (FloodlightModuleException e) {
+            assertTrue(e.getMessage().contains("wimax0"));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package net.floodlightcontroller.linkquality;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+
+public class LinkQualityMonitorTest extends FloodlightTestCase {
+    protected static final long DPID = 1L;
+    protected static final short PORT = 3;
+
+    protected LinkQualityMonitor monitor;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        monitor = new LinkQualityMonitor();
+        monitor.floodlightProvider = getMockFloodlightProvider();
+    }
+
+    protected OFPortStatisticsReply portStats(short port, long packets, long bytes,
+                                              long dropped, long errors) {
+        OFPortStatisticsReply reply = new OFPortStatisticsReply();
+        reply.setPortNumber(port);
+        reply.setreceivePackets(packets);
+        reply.setTransmitPackets(packets);
+        reply.setReceiveBytes(bytes);
+        reply.setTransmitBytes(bytes);
+        reply.setReceiveDropped(dropped);
+        reply.setTransmitDropped(0);
+        reply.setreceiveErrors(errors);
+        reply.setTransmitErrors(0);
+        return reply;
+    }
+
+    @Test
+    public void testWindowRates() throws Exception {
+        PortStatisticsWindow w = new PortStatisticsWindow(DPID, PORT, 3);
+        assertEquals(0, w.getLinkQuality(true).getWindowMs());
+
+        w.add(0, portStats(PORT, 0, 0, 0, 0));
+        w.add(1000, portStats(PORT, 450, 125000, 50, 50));
+        LinkQuality q = w.getLinkQuality(true);
+        assertEquals(1000, q.getWindowMs());
+        assertEquals(1000000.0, q.getRxBitsPerSecond(), 0.001);
+        assertEquals(450.0, q.getRxPacketsPerSecond(), 0.001);
+        assertEquals(50.0, q.getDropsPerSecond(), 0.001);
+        assertEquals(50.0, q.getErrorsPerSecond(), 0.001);
+        assertEquals(0.1, q.getLossRatio(), 0.001);
+
+        // the window slides: the first sample falls out
+        w.add(2000, portStats(PORT, 900, 250000, 50, 50));
+        w.add(3000, portStats(PORT, 1350, 375000, 50, 50));
+        q = w.getLinkQuality(true);
+        assertEquals(2000, q.getWindowMs());
+        assertEquals(0.0, q.getLossRatio(), 0.001);
+
+        // a counter reset starts the window over
+        w.add(4000, portStats(PORT, 10, 100, 0, 0));
+        assertEquals(0, w.getLinkQuality(true).getWindowMs());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPollPorts() throws Exception {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        Future<List<OFStatistics>> first = createMock(Future.class);
+        Future<List<OFStatistics>> second = createMock(Future.class);
+        List<OFStatistics> firstStats = new ArrayList<OFStatistics>();
+        firstStats.add(portStats(PORT, 0, 0, 0, 0));
+        firstStats.add(portStats((short) 4, 0, 0, 0, 0));
+        List<OFStatistics> secondStats = new ArrayList<OFStatistics>();
+        secondStats.add(portStats(PORT, 900, 1000, 200, 0));
+        secondStats.add(portStats((short) 4, 0, 0, 0, 0));
+
+        // one request per switch, for all of its ports
+        expect(sw.getStatistics(anyObject(OFStatisticsRequest.class)))
+                .andReturn(first).andReturn(second);
+        expect(first.get(anyLong(), eq(TimeUnit.MILLISECONDS))).andReturn(firstStats);
+        expect(second.get(anyLong(), eq(TimeUnit.MILLISECONDS))).andReturn(secondStats);
+        expect(sw.portEnabled(PORT)).andReturn(true).times(2);
+        expect(sw.portEnabled((short) 4)).andReturn(false).times(2);
+        replay(sw, first, second);
+
+        MockFloodlightProvider provider = getMockFloodlightProvider();
+        Map<Long, IOFSwitch> switches = new HashMap<Long, IOFSwitch>();
+        switches.put(DPID, sw);
+        provider.setSwitches(switches);
+        monitor.addMonitoredPort("Wifi", DPID, PORT);
+        monitor.addMonitoredPort("WiMAX", DPID, (short) 4);
+        monitor.addMonitoredPort("Ethernet", 2L, PORT);
+        assertNull(monitor.getLinkQuality("Wifi"));
+
+        monitor.pollPorts();
+        Thread.sleep(5);
+        monitor.pollPorts();
+        verify(sw, first, second);
+
+        LinkQuality wifi = monitor.getLinkQuality("Wifi");
+        assertTrue(wifi.isUp());
+        assertEquals(0.1, wifi.getLossRatio(), 0.001);
+        assertTrue(wifi.getRxBitsPerSecond() > 0);
+        assertFalse(monitor.getLinkQuality("WiMAX").isUp());
+        // the switch is not connected
+        assertFalse(monitor.getLinkQuality("Ethernet").isUp());
+        assertEquals(3, monitor.getLinkQualities().size());
+
+        monitor.removeMonitoredPort("Ethernet");
+        assertNull(monitor.getLinkQuality("Ethernet"));
+    }
+}
@@ -30,6 +30,7 @@ import net.floodlightcontroller.core.test.MockFloodlightProvider;
 import net.floodlightcontroller.test.FloodlightTestCase;
 import net.floodlightcontroller.restserver.RestApiServer;
 import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
+import net.floodlightcontroller.storage.IResultSet;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.storage.memory.MemoryStorageSource;
 import static net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher.*;
@@ -331,4 +332,71 @@ public class StaticFlowTests extends FloodlightTestCase {
         assert(staticFlowEntryPusher.entriesFromStorage.containsValue(FlowMod2));
         assert(staticFlowEntryPusher.entriesFromStorage.containsValue(FlowMod3));
     }
+
+    @Test
+    public void testRegisterAndUnregisterFlows() throws Exception {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        IStorageSourceService storage = createStorageWithFlowEntries();
+        long dpid = HexString.toLong(TestSwitch1DPID);
+
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        Capture<List<OFMessage>> writeCaptureList = new Capture<List<OFMessage>>(CaptureType.ALL);
+        mockSwitch.write(capture(writeCaptureList), (FloodlightContext) anyObject());
+        expectLastCall().anyTimes();
+        expect(mockSwitch.getId()).andReturn(dpid).anyTimes();
+        expect(mockSwitch.getStringId()).andReturn(TestSwitch1DPID).anyTimes();
+
+        staticFlowEntryPusher.setStorageSource(storage);
+        MockFloodlightProvider mockFloodlightProvider = getMockFloodlightProvider();
+        Map<Long, IOFSwitch> switchMap = new HashMap<Long, IOFSwitch>();
+        switchMap.put(dpid, mockSwitch);
+        mockFloodlightProvider.setSwitches(switchMap);
+        staticFlowEntryPusher.setFloodlightProvider(mockFloodlightProvider);
+        RestApiServer restApi = new RestApiServer();
+        restApi.init(new FloodlightModuleContext());
+        staticFlowEntryPusher.restApi = restApi;
+        staticFlowEntryPusher.startUp(null);    // again, to hack unittest
+        replay(mockSwitch);
+        final Map<String, OFFlowMod> notified = new HashMap<String, OFFlowMod>();
+        staticFlowEntryPusher.addListener(new IStaticFlowEntryListener() {
+            @Override
+            public void flowsAdded(String dpid, Map<String, OFFlowMod> flows) {
+                assertEquals(TestSwitch1DPID, dpid);
+                notified.putAll(flows);
+            }
+            @Override
+            public void flowsRemoved(String dpid, Map<String, OFFlowMod> flows) {
+                assertEquals(TestSwitch1DPID, dpid);
+                notified.keySet().removeAll(flows.keySet());
+            }
+        });
+
+        // the caller has written the flows itself, so nothing reaches the switch
+        OFFlowMod fm = FlowMod1.clone();
+        fm.getMatch().fromString("dl_dst=00:20:30:40:50:61");
+        Map<String, OFFlowMod> flows = new HashMap<String, OFFlowMod>();
+        flows.put("TestRule4", fm);
+        staticFlowEntryPusher.registerFlows(flows, TestSwitch1DPID);
+        assertEquals(TotalTestRules + 1, staticFlowEntryPusher.countEntries());
+        assertSame(fm, staticFlowEntryPusher.getFlows(TestSwitch1DPID).get("TestRule4"));
+        assertSame(fm, notified.get("TestRule4"));
+
+        storage.getRowAsync(TABLE_NAME, "TestRule4").get();
+        IResultSet resultSet = storage.getRow(TABLE_NAME, "TestRule4");
+        assertTrue(resultSet.next());
+        assertTrue(writeCaptureList.getValues().isEmpty());
+
+        List<String> names = new LinkedList<String>();
+        names.add("TestRule4");
+        staticFlowEntryPusher.unregisterFlows(names, TestSwitch1DPID);
+        assertEquals(TotalTestRules, staticFlowEntryPusher.countEntries());
+        assertTrue(notified.isEmpty());
+
+        storage.getRowAsync(TABLE_NAME, "TestRule4").get();
+        resultSet = storage.getRow(TABLE_NAME, "TestRule4");
+        assertFalse(resultSet.next());
+        assertTrue(writeCaptureList.getValues().isEmpty());
+        assertTrue(staticFlowEntryPusher.writeBehindEntries.isEmpty());
+        verify(mockSwitch);
+    }
 }
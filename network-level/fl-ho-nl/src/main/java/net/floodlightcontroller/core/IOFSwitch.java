@@ -26,6 +26,7 @@ import java.util.concurrent.Future;
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 
 import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPhysicalPort;
@@ -265,6 +266,29 @@ public interface IOFSwitch {
      */
     public void cancelFeaturesReply(int transactionId);
 
+    /**
+     * Writes an OFBarrierRequest to the switch behind any messages the
+     * calling thread has already written, and returns a Future object that
+     * can be used to retrieve the OFBarrierReply when it is available.
+     * Once the reply arrives, the switch has processed all of those messages.
+     *
+     * @return Future object wrapping OFBarrierReply
+     * @throws IOException
+     */
+    public Future<OFBarrierReply> sendBarrier() throws IOException;
+
+    /**
+     * Deliver the barrierReply future reply
+     * @param reply the reply to deliver
+     */
+    void deliverBarrierReply(OFMessage reply);
+
+    /*
+     * Cancel barrier reply with a specific transction ID
+     * @param transactionId the transaction ID
+     */
+    public void cancelBarrierReply(int transactionId);
+
     /**
      * Check if the switch is still connected;
      * Only call while holding processMessageLock
@@ -2,6 +2,10 @@ package net.floodlightcontroller.dhcpserver;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.Ethernet;
@@ -21,6 +25,10 @@ import java.lang.String;
  * --start time in seconds
  * --duration in seconds
  * 
+ * The lease status and times are held together in an immutable Lease, which
+ * only changes by compare-and-set, so concurrent attempts to lease, renew or
+ * cancel a binding cannot interleave.
+ * 
  * @author Ryan Izard (rizard@g.clemson.edu)
  */
 public class DHCPBinding {
@@ -31,36 +39,94 @@ public class DHCPBinding {
 	public static final int MAC_ADDRESS_LENGTH = (int) Ethernet.DATALAYER_ADDRESS_LENGTH;
 	public static final int MAC_ADDRESS_STRING_LENGTH = 17;
 	
-	private ArrayList<byte[]> MACS;
-	private byte[] CURRENT_MAC;
+	/**
+	 * The lease on a binding at one point in time. Every new lease has a
+	 * higher version than the one it replaces.
+	 */
+	public static final class Lease {
+		private final boolean active;
+		private final long mac;
+		private final long startSeconds;
+		private final long durationSeconds;
+		private final long version;
+
+		protected Lease(boolean active, long mac, long startSeconds, long durationSeconds, long version) {
+			this.active = active;
+			this.mac = mac;
+			this.startSeconds = startSeconds;
+			this.durationSeconds = durationSeconds;
+			this.version = version;
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+
+		/**
+		 * @return the MAC address of the client, as a long, or 0 if unknown
+		 */
+		public long getMAC() {
+			return mac;
+		}
+
+		public long getStartSeconds() {
+			return startSeconds;
+		}
+
+		public long getDurationSeconds() {
+			return durationSeconds;
+		}
+
+		public long getEndSeconds() {
+			return startSeconds + durationSeconds;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return an active lease to mac that follows this one
+		 */
+		public Lease leased(long mac, long startSeconds, long durationSeconds) {
+			return new Lease(true, mac, startSeconds, durationSeconds, version + 1);
+		}
+
+		/**
+		 * @return an inactive lease that follows this one
+		 */
+		public Lease cancelled() {
+			return new Lease(false, 0, 0, 0, version + 1);
+		}
+	}
+
+	private List<byte[]> MACS;
+	private volatile byte[] CURRENT_MAC;
 	private byte[] IP = new byte[IP_ADDRESS_LENGTH];
-	private boolean LEASE_STATUS;
-	private boolean PERMANENT_LEASE;
+	private final AtomicReference<Lease> LEASE = new AtomicReference<Lease>(new Lease(false, 0, 0, 0, 0));
+	private volatile boolean PERMANENT_LEASE;
+	// Whether the binding is on its pool's free-list
+	protected final AtomicBoolean FREE_QUEUED = new AtomicBoolean();
 	
 	private ArrayList<String> FLOWS;
 	private String HOME_SWITCH;
 	
-	private long LEASE_START_TIME_SECONDS;
-	private long LEASE_DURATION_SECONDS;
-	
 	protected DHCPBinding(byte[] ip, ArrayList<byte[]> macs) {
-		this.MACS = new ArrayList<byte[]>();
+		this.MACS = new CopyOnWriteArrayList<byte[]>();
 		for (int i = 0; i < macs.size(); i++) {
 			this.MACS.add(Arrays.copyOf(macs.get(i), MAC_ADDRESS_LENGTH));
 		}
 		this.CURRENT_MAC = null;
 		this.setIPv4Addresss(ip);
-		this.setLeaseStatus(false);
 		FLOWS = new ArrayList<String>();
 		this.FLOWS.add("");
 		this.HOME_SWITCH = "";
 	}
 	protected DHCPBinding(byte[] ip, byte[] mac) {
-		this.MACS = new ArrayList<byte[]>();
+		this.MACS = new CopyOnWriteArrayList<byte[]>();
 		this.MACS.add(Arrays.copyOf(mac, MAC_ADDRESS_LENGTH));
 		this.CURRENT_MAC = Arrays.copyOf(mac, MAC_ADDRESS_LENGTH);
 		this.setIPv4Addresss(ip);
-		this.setLeaseStatus(false);
 		FLOWS = new ArrayList<String>();
 		this.FLOWS.add("");
 		this.HOME_SWITCH = "";
@@ -114,7 +180,7 @@ public class DHCPBinding {
 	public String getMACAddressString(int index) {
 		return MACAddress.valueOf(MACS.get(index)).toString();
 	}
-	public ArrayList<byte[]> getMACAddresses() {
+	public List<byte[]> getMACAddresses() {
 		return MACS;
 	}
 	public String getMACAddressesString() {
@@ -129,6 +195,25 @@ public class DHCPBinding {
 		return macString;
 	}
 	
+	/**
+	 * @return the MAC address as a long, as it is kept in a Lease
+	 */
+	public static long toLong(byte[] mac) {
+		long l = 0;
+		for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+			l = (l << 8) | (mac[i] & 0xff);
+		}
+		return l;
+	}
+	
+	/**
+	 * @return true if the binding is actively leased to the MAC address
+	 */
+	public boolean isLeasedTo(byte[] mac) {
+		Lease lease = LEASE.get();
+		return lease.isActive() && lease.getMAC() == toLong(mac);
+	}
+	
 	public boolean isMACMemberOf(byte[] mac) {
 		for (byte[] test : MACS) {
 			if (Arrays.equals(test, mac)) {
@@ -146,7 +231,7 @@ public class DHCPBinding {
 	}
 	
 	public void addMACAddress(byte[] mac) {
-		if (!MACS.contains(mac)) {
+		if (!isMACMemberOf(mac)) {
 			MACS.add(Arrays.copyOf(mac, MAC_ADDRESS_LENGTH));
 		}
 		CURRENT_MAC = Arrays.copyOf(mac, MAC_ADDRESS_LENGTH);
@@ -172,7 +257,7 @@ public class DHCPBinding {
 	}
 	
 	public boolean isActiveLease() {
-		return LEASE_STATUS;
+		return LEASE.get().isActive();
 	}
 	
 	public void setStaticIPLease(boolean staticIP) {
@@ -183,13 +268,33 @@ public class DHCPBinding {
 		return PERMANENT_LEASE;
 	}
 	
+	public Lease getLease() {
+		return LEASE.get();
+	}
+	
+	/**
+	 * Replaces the lease, if it is still the one expected.
+	 * @return true if the lease was replaced
+	 */
+	public boolean compareAndSetLease(Lease expect, Lease update) {
+		return LEASE.compareAndSet(expect, update);
+	}
+	
 	public void setLeaseStatus(boolean status) {
-		LEASE_STATUS = status;
+		Lease lease;
+		do {
+			lease = LEASE.get();
+		} while (!LEASE.compareAndSet(lease, new Lease(status, lease.mac, lease.startSeconds,
+				lease.durationSeconds, lease.version + 1)));
+	}
+	
+	public long getLeaseEndTimeSeconds() {
+		return LEASE.get().getEndSeconds();
 	}
 	
 	public boolean isLeaseExpired() {
 		long currentTime = System.currentTimeMillis();
-		if ((currentTime / 1000) >= (LEASE_START_TIME_SECONDS + LEASE_DURATION_SECONDS)) {
+		if ((currentTime / 1000) >= getLeaseEndTimeSeconds()) {
 			return true;
 		} else {
 			return false;
@@ -197,21 +302,45 @@ public class DHCPBinding {
 	}
 	
 	protected void setLeaseStartTimeSeconds() {
-		LEASE_START_TIME_SECONDS = System.currentTimeMillis() / 1000;
+		setLeaseStartTimeSeconds(System.currentTimeMillis() / 1000);
+	}
+	
+	protected void setLeaseStartTimeSeconds(long time) {
+		Lease lease;
+		do {
+			lease = LEASE.get();
+		} while (!LEASE.compareAndSet(lease, new Lease(lease.active, lease.mac, time,
+				lease.durationSeconds, lease.version + 1)));
+	}
+	
+	public long getLeaseStartTimeSeconds() {
+		return LEASE.get().getStartSeconds();
+	}
+	
+	public long getLeaseDurationSeconds() {
+		return LEASE.get().getDurationSeconds();
 	}
 	
 	protected void setLeaseDurationSeconds(long time) {
-		LEASE_DURATION_SECONDS = time;
+		Lease lease;
+		do {
+			lease = LEASE.get();
+		} while (!LEASE.compareAndSet(lease, new Lease(lease.active, lease.mac, lease.startSeconds,
+				time, lease.version + 1)));
 	}
 	
 	protected void clearLeaseTimes() {
-		LEASE_START_TIME_SECONDS = 0;
-		LEASE_DURATION_SECONDS = 0;
+		Lease lease;
+		do {
+			lease = LEASE.get();
+		} while (!LEASE.compareAndSet(lease, new Lease(lease.active, lease.mac, 0, 0, lease.version + 1)));
 	}
 	
 	protected boolean cancelLease() {
-		this.clearLeaseTimes();
-		this.setLeaseStatus(false);
+		Lease lease;
+		do {
+			lease = LEASE.get();
+		} while (!LEASE.compareAndSet(lease, lease.cancelled()));
 		return true;
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import net.floodlightcontroller.core.web.serializers.DPIDSerializer;
+import net.floodlightcontroller.core.web.serializers.IPv4Serializer;
+import net.floodlightcontroller.core.web.serializers.MACSerializer;
+import net.floodlightcontroller.core.web.serializers.UShortSerializer;
+
+/**
+ * Where a client of the DHCP server is attached -- the switch and port its
+ * last REQUEST came in on -- along with the flow on the root OVS that sends
+ * its packets there, and the locations it had before.
+ *
+ * A location never changes; a client that moves gets a new one, which keeps
+ * the last MAX_HISTORY locations of the client, most recent first. So a
+ * location can be read without a lock while the client moves on.
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public class DHCPClientLocation {
+	// The most past locations a location keeps
+	public static final int MAX_HISTORY = 16;
+
+	private final long MAC;
+	private final int IP;
+	private final long DPID;
+	private final short PORT;
+	private final String FLOW_NAME;
+	private final long COOKIE;
+	private final long SINCE_MILLIS;
+	private final List<DHCPClientLocation> HISTORY;
+
+	/**
+	 * @param {@code long} mac: The MAC address of the client
+	 * @param {@code int} ip: The IP address leased to the client
+	 * @param {@code long} dpid: The switch the client is attached to
+	 * @param {@code short} port: The port the client is attached to
+	 * @param {@code String} flowName: The name of the client's flow on the root OVS, or null if it has none
+	 * @param {@code long} cookie: The cookie of the client's flow, or 0 if it has none
+	 * @param {@code DHCPClientLocation} previous: The location of the client before, or null
+	 */
+	public DHCPClientLocation(long mac, int ip, long dpid, short port, String flowName, long cookie,
+			DHCPClientLocation previous) {
+		MAC = mac;
+		IP = ip;
+		DPID = dpid;
+		PORT = port;
+		FLOW_NAME = flowName;
+		COOKIE = cookie;
+		SINCE_MILLIS = System.currentTimeMillis();
+		if (previous == null) {
+			HISTORY = Collections.emptyList();
+		} else {
+			List<DHCPClientLocation> history = new ArrayList<DHCPClientLocation>(MAX_HISTORY);
+			history.add(new DHCPClientLocation(previous));
+			for (DHCPClientLocation location : previous.HISTORY) {
+				if (history.size() == MAX_HISTORY) {
+					break;
+				}
+				history.add(location);
+			}
+			HISTORY = Collections.unmodifiableList(history);
+		}
+	}
+
+	// A copy of a location without its history, to keep in the history of the next
+	private DHCPClientLocation(DHCPClientLocation location) {
+		MAC = location.MAC;
+		IP = location.IP;
+		DPID = location.DPID;
+		PORT = location.PORT;
+		FLOW_NAME = location.FLOW_NAME;
+		COOKIE = location.COOKIE;
+		SINCE_MILLIS = location.SINCE_MILLIS;
+		HISTORY = Collections.emptyList();
+	}
+
+	@JsonProperty("mac")
+	@JsonSerialize(using=MACSerializer.class)
+	public long getMAC() {
+		return MAC;
+	}
+
+	@JsonProperty("ip")
+	@JsonSerialize(using=IPv4Serializer.class)
+	public int getIP() {
+		return IP;
+	}
+
+	@JsonProperty("switch")
+	@JsonSerialize(using=DPIDSerializer.class)
+	public long getDPID() {
+		return DPID;
+	}
+
+	@JsonProperty("port")
+	@JsonSerialize(using=UShortSerializer.class)
+	public short getPort() {
+		return PORT;
+	}
+
+	/**
+	 * @return {@code String}: The name of the client's flow on the root OVS, or null if it has none
+	 */
+	@JsonProperty("flow-name")
+	public String getFlowName() {
+		return FLOW_NAME;
+	}
+
+	@JsonProperty("cookie")
+	public long getCookie() {
+		return COOKIE;
+	}
+
+	/**
+	 * @return {@code long}: When the client arrived at the location, in milliseconds since the epoch
+	 */
+	@JsonProperty("since")
+	public long getSinceMillis() {
+		return SINCE_MILLIS;
+	}
+
+	/**
+	 * @return {@code List<DHCPClientLocation>}: The locations of the client before, most recent first
+	 */
+	@JsonProperty("history")
+	public List<DHCPClientLocation> getHistory() {
+		return HISTORY;
+	}
+}
@@ -0,0 +1,200 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.slf4j.Logger;
+
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+
+/**
+ * Pushes the flows that follow clients from one network to another, as
+ * a batch per switch. A client that moves has its old flow replaced by
+ * the new one, which has the same match, so the static flow pusher sends
+ * it as a single MODIFY_STRICT.
+ *
+ * The relocations for a switch are queued, and one task at a time drains
+ * the queue into a single write followed by a barrier, then waits for the
+ * barrier before it drains what was queued meanwhile. An idle switch gets
+ * its relocation right away; a switch busy with a group of clients roaming
+ * together gets all of those that arrive during a round trip in the next
+ * write. The relocations of a client queued together become one, from its
+ * first old flow to its last new one.
+ *
+ * A write the switch does not confirm within the barrier timeout is pushed
+ * again, up to MAX_ATTEMPTS times, ahead of what was queued meanwhile so
+ * that a newer relocation of a client still wins.
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public class DHCPFlowBatcher {
+	// The most times a relocation is pushed without the switch confirming it
+	public static final int MAX_ATTEMPTS = 3;
+
+	private final IStaticFlowEntryPusherService SFP;
+	private final Executor EXECUTOR;
+	private final long BARRIER_TIMEOUT_MS;
+	private final Logger log;
+
+	// switch DPID --> relocations queued for it
+	private final ConcurrentMap<String, SwitchQueue> QUEUES = new ConcurrentHashMap<String, SwitchQueue>();
+
+	private static class Relocation {
+		private final String oldFlowName;
+		private final String flowName;
+		private final OFFlowMod flow;
+		private final int attempts;
+
+		private Relocation(String oldFlowName, String flowName, OFFlowMod flow, int attempts) {
+			this.oldFlowName = oldFlowName;
+			this.flowName = flowName;
+			this.flow = flow;
+			this.attempts = attempts;
+		}
+	}
+
+	private static class SwitchQueue {
+		private final Queue<Relocation> relocations = new ConcurrentLinkedQueue<Relocation>();
+		private final AtomicBoolean draining = new AtomicBoolean(false);
+		// Relocations the switch did not confirm, only touched by the task draining the queue
+		private List<Relocation> unconfirmed = new ArrayList<Relocation>();
+	}
+
+	/**
+	 * @param {@code IStaticFlowEntryPusherService} sfp: The static flow pusher the flows are pushed with
+	 * @param {@code Executor} executor: Runs the task draining the queue of each switch
+	 * @param {@code long} barrierTimeoutMillis: How long to wait for the barrier after a write
+	 * @param {@code Logger} log: The log of the DHCP server
+	 */
+	public DHCPFlowBatcher(IStaticFlowEntryPusherService sfp, Executor executor, long barrierTimeoutMillis, Logger log) {
+		SFP = sfp;
+		EXECUTOR = executor;
+		BARRIER_TIMEOUT_MS = barrierTimeoutMillis;
+		this.log = log;
+	}
+
+	/**
+	 * Queues the flow of a client, replacing the one it had, if any.
+	 * @param {@code String} dpid: The switch the flows are on
+	 * @param {@code String} oldFlowName: The name of the flow the client had, or null
+	 * @param {@code String} flowName: The name of the client's new flow
+	 * @param {@code OFFlowMod} flow: The client's new flow
+	 */
+	public void relocate(String dpid, String oldFlowName, String flowName, OFFlowMod flow) {
+		SwitchQueue queue = QUEUES.get(dpid);
+		if (queue == null) {
+			QUEUES.putIfAbsent(dpid, new SwitchQueue());
+			queue = QUEUES.get(dpid);
+		}
+		queue.relocations.add(new Relocation(oldFlowName, flowName, flow, 0));
+		if (queue.draining.compareAndSet(false, true)) {
+			EXECUTOR.execute(new Drain(dpid, queue));
+		}
+	}
+
+	private class Drain implements Runnable {
+		private final String dpid;
+		private final SwitchQueue queue;
+
+		private Drain(String dpid, SwitchQueue queue) {
+			this.dpid = dpid;
+			this.queue = queue;
+		}
+
+		@Override
+		public void run() {
+			do {
+				try {
+					push(dpid, queue);
+				} catch (RuntimeException e) {
+					log.error("Failed to push client flows to switch " + dpid, e);
+				} finally {
+					queue.draining.set(false);
+				}
+				// Relocations queued after the last poll but before draining was cleared are ours to push
+			} while ((!queue.relocations.isEmpty() || !queue.unconfirmed.isEmpty())
+					&& queue.draining.compareAndSet(false, true));
+		}
+	}
+
+	private void push(String dpid, SwitchQueue queue) {
+		// A client's flows all have the same match
+		Map<OFMatch, Relocation> batch = new LinkedHashMap<OFMatch, Relocation>();
+		for (Relocation r : queue.unconfirmed) {
+			batch.put(r.flow.getMatch(), r);
+		}
+		queue.unconfirmed = new ArrayList<Relocation>();
+		Relocation relocation;
+		while ((relocation = queue.relocations.poll()) != null) {
+			Relocation earlier = batch.get(relocation.flow.getMatch());
+			if (earlier != null) {
+				relocation = new Relocation(earlier.oldFlowName, relocation.flowName, relocation.flow, 0);
+			}
+			batch.put(relocation.flow.getMatch(), relocation);
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		List<String> oldFlowNames = new ArrayList<String>(batch.size());
+		Map<String, OFFlowMod> flows = new HashMap<String, OFFlowMod>();
+		for (Relocation r : batch.values()) {
+			if (r.oldFlowName != null) {
+				oldFlowNames.add(r.oldFlowName);
+			}
+			flows.put(r.flowName, r.flow);
+		}
+		log.debug("Pushing " + flows.size() + " client flows to switch " + dpid);
+		Future<OFBarrierReply> barrier = SFP.replaceFlows(oldFlowNames, flows, dpid);
+		if (barrier == null) {
+			log.debug("Switch " + dpid + " is not connected; its client flows are pushed when it connects");
+			return;
+		}
+		try {
+			// null if the timeout passed without a reply
+			if (barrier.get(BARRIER_TIMEOUT_MS, TimeUnit.MILLISECONDS) != null) {
+				return;
+			}
+			barrier.cancel(true);
+			log.warn("Switch " + dpid + " did not confirm " + flows.size() + " client flows within "
+					+ BARRIER_TIMEOUT_MS + "ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (Exception e) {
+			log.error("Switch " + dpid + " did not confirm " + flows.size() + " client flows", e);
+		}
+		retry(dpid, queue, batch.values());
+	}
+
+	/**
+	 * Queues unconfirmed relocations to be pushed again. Each flow is now the
+	 * static flow pusher's entry under its name, so it replaces itself: the
+	 * switch gets the same flow again as a MODIFY_STRICT.
+	 */
+	private void retry(String dpid, SwitchQueue queue, Collection<Relocation> relocations) {
+		for (Relocation r : relocations) {
+			if (r.attempts + 1 < MAX_ATTEMPTS) {
+				queue.unconfirmed.add(new Relocation(r.flowName, r.flowName, r.flow, r.attempts + 1));
+			} else {
+				log.error("Giving up on client flow " + r.flowName + " for switch " + dpid + " after "
+						+ MAX_ATTEMPTS + " unconfirmed attempts");
+			}
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openflow.util.HexString;
+import org.slf4j.Logger;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+/**
+ * The class representing one subnet served by the DHCP server -- its
+ * DHCPPool along with the options and lease times handed out with it.
+ *
+ * The default instance is configured with the options as they have always
+ * been named in the configuration file:
+ *
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.lower-ip-range = <IP>
+ *
+ * and each additional instance, listed by name in the pools option, with
+ * the same options prefixed by its name:
+ *
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.pools = wifi, wimax
+ * 		net.floodlightcontroller.dhcpserver.DHCPServer.wifi-lower-ip-range = <IP>
+ *
+ * An additional instance must give its address range; any other option it
+ * does not give is that of the default instance. It serves the clients it
+ * is selected for by any of
+ *
+ * 		<name>-relay-agents = <giaddr>, <giaddr>, ...
+ * 		<name>-switch-ports = <DPID>/<port>, <DPID>/<port>, ...
+ * 		<name>-switches = <DPID>, <DPID>, ...
+ *
+ * The replies of an instance only differ in the options the client asks for
+ * and the client's addresses, so the instance keeps a DHCPReplyTemplate for
+ * each type of reply and list of options asked for.
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public class DHCPInstance {
+	// The most lists of options asked for to keep reply templates for, per type of reply
+	public static final int MAX_REPLY_TEMPLATES = 64;
+
+	private final String NAME;
+	private final DHCPPool POOL;
+
+	private final byte[] SUBNET_MASK;
+	private final byte[] BROADCAST_IP;
+	private final byte[] IP_START;
+	private final byte[] IP_STOP;
+	private final byte[] ROUTER_IP;
+	private final byte[] ROUTER_MAC;
+	private final byte[] NTP_IP_LIST;
+	private final byte[] DNS_IP_LIST;
+	private final byte[] DN;
+	private final byte[] IP_FORWARDING;
+	private final int DEFAULT_LEASE_TIME_SECONDS;
+	private final int HOLD_LEASE_TIME_SECONDS;
+	private final int REBIND_TIME_SECONDS;
+	private final int RENEWAL_TIME_SECONDS;
+	private final String STATIC_ADDRESSES;
+
+	private final List<Integer> RELAY_AGENTS = new ArrayList<Integer>();
+	private final List<NodePortTuple> SWITCH_PORTS = new ArrayList<NodePortTuple>();
+	private final List<Long> SWITCHES = new ArrayList<Long>();
+
+	// message type --> requested parameter list --> reply template
+	private final Map<Byte, Map<List<Byte>, DHCPReplyTemplate>> REPLY_TEMPLATES =
+			new ConcurrentHashMap<Byte, Map<List<Byte>, DHCPReplyTemplate>>();
+
+	/**
+	 * Reads the options of an instance from the DHCP server configuration.
+	 * @param {@code String} name: The name of the instance, or null for the default instance
+	 * @param {@code Map<String, String>} configOptions: The configuration of the DHCP server
+	 * @param {@code DHCPInstance} defaults: The default instance, or null for the default instance
+	 * @param {@code Logger} log: The log of the DHCP server
+	 * @throws IllegalArgumentException or NullPointerException if an option is missing or malformed
+	 */
+	public DHCPInstance(String name, Map<String, String> configOptions, DHCPInstance defaults, Logger log) {
+		String prefix = (name == null) ? "" : name + "-";
+		NAME = (name == null) ? "default" : name;
+
+		IP_START = IPv4.toIPv4AddressBytes(configOptions.get(prefix + "lower-ip-range"));
+		IP_STOP = IPv4.toIPv4AddressBytes(configOptions.get(prefix + "upper-ip-range"));
+		POOL = new DHCPPool(IP_START, IPv4.toIPv4Address(IP_STOP) - IPv4.toIPv4Address(IP_START) + 1, log);
+
+		String value;
+		SUBNET_MASK = ((value = configOptions.get(prefix + "subnet-mask")) != null || defaults == null)
+				? IPv4.toIPv4AddressBytes(value) : defaults.SUBNET_MASK;
+		BROADCAST_IP = ((value = configOptions.get(prefix + "broadcast-address")) != null || defaults == null)
+				? IPv4.toIPv4AddressBytes(value) : defaults.BROADCAST_IP;
+		ROUTER_IP = ((value = configOptions.get(prefix + "router")) != null || defaults == null)
+				? IPv4.toIPv4AddressBytes(value) : defaults.ROUTER_IP;
+		ROUTER_MAC = ((value = configOptions.get(prefix + "router-mac")) != null || defaults == null)
+				? Ethernet.toMACAddress(value) : defaults.ROUTER_MAC;
+		DN = ((value = configOptions.get(prefix + "domain-name")) != null || defaults == null)
+				? value.getBytes() : defaults.DN;
+		DEFAULT_LEASE_TIME_SECONDS = ((value = configOptions.get(prefix + "default-lease-time")) != null || defaults == null)
+				? Integer.parseInt(value) : defaults.DEFAULT_LEASE_TIME_SECONDS;
+		HOLD_LEASE_TIME_SECONDS = ((value = configOptions.get(prefix + "hold-lease-time")) != null || defaults == null)
+				? Integer.parseInt(value) : defaults.HOLD_LEASE_TIME_SECONDS;
+		RENEWAL_TIME_SECONDS = (int) (DEFAULT_LEASE_TIME_SECONDS / 2.0);
+		REBIND_TIME_SECONDS = (int) (DEFAULT_LEASE_TIME_SECONDS * 0.875);
+		IP_FORWARDING = ((value = configOptions.get(prefix + "ip-forwarding")) != null || defaults == null)
+				? DHCPServer.intToBytesSizeOne(Integer.parseInt(value)) : defaults.IP_FORWARDING;
+
+		// The order of the DNS and NTP servers should be most reliable to least
+		// TODO If the list is null then we need to not include this information with the options request,
+		// otherwise the client will get incorrect option information
+		if ((value = configOptions.get(prefix + "domain-name-servers")) != null) {
+			DNS_IP_LIST = IPv4.toIPv4AddressBytes(value.split("\\s*,\\s*")[0]);
+		} else {
+			DNS_IP_LIST = (defaults == null) ? null : defaults.DNS_IP_LIST;
+		}
+		if ((value = configOptions.get(prefix + "ntp-servers")) != null) {
+			NTP_IP_LIST = IPv4.toIPv4AddressBytes(value.split("\\s*,\\s*")[0]);
+		} else {
+			NTP_IP_LIST = (defaults == null) ? null : defaults.NTP_IP_LIST;
+		}
+		STATIC_ADDRESSES = configOptions.get(prefix + "reserved-static-addresses");
+
+		if (name != null) {
+			if ((value = configOptions.get(prefix + "relay-agents")) != null && !value.trim().isEmpty()) {
+				for (String giaddr : value.trim().split("\\s*,\\s*")) {
+					RELAY_AGENTS.add(IPv4.toIPv4Address(giaddr));
+				}
+			}
+			if ((value = configOptions.get(prefix + "switch-ports")) != null && !value.trim().isEmpty()) {
+				for (String switchPort : value.trim().split("\\s*,\\s*")) {
+					String[] dpidPort = switchPort.split("\\s*/\\s*");
+					if (dpidPort.length != 2) {
+						throw new IllegalArgumentException("DHCP pool " + name + " switch port " + switchPort
+								+ " is not of the form <DPID>/<port>");
+					}
+					SWITCH_PORTS.add(new NodePortTuple(HexString.toLong(dpidPort[0]), Short.parseShort(dpidPort[1])));
+				}
+			}
+			if ((value = configOptions.get(prefix + "switches")) != null && !value.trim().isEmpty()) {
+				for (String dpid : value.trim().split("\\s*,\\s*")) {
+					SWITCHES.add(HexString.toLong(dpid));
+				}
+			}
+		}
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	public DHCPPool getPool() {
+		return POOL;
+	}
+
+	public byte[] getSubnetMask() {
+		return SUBNET_MASK;
+	}
+
+	public byte[] getBroadcastIP() {
+		return BROADCAST_IP;
+	}
+
+	public byte[] getStartIP() {
+		return IP_START;
+	}
+
+	public byte[] getStopIP() {
+		return IP_STOP;
+	}
+
+	public byte[] getRouterIP() {
+		return ROUTER_IP;
+	}
+
+	public byte[] getRouterMAC() {
+		return ROUTER_MAC;
+	}
+
+	public byte[] getNTPIPList() {
+		return NTP_IP_LIST;
+	}
+
+	public byte[] getDNSIPList() {
+		return DNS_IP_LIST;
+	}
+
+	public byte[] getDomainName() {
+		return DN;
+	}
+
+	public byte[] getIPForwarding() {
+		return IP_FORWARDING;
+	}
+
+	public int getDefaultLeaseTimeSeconds() {
+		return DEFAULT_LEASE_TIME_SECONDS;
+	}
+
+	public int getHoldLeaseTimeSeconds() {
+		return HOLD_LEASE_TIME_SECONDS;
+	}
+
+	public int getRebindTimeSeconds() {
+		return REBIND_TIME_SECONDS;
+	}
+
+	public int getRenewalTimeSeconds() {
+		return RENEWAL_TIME_SECONDS;
+	}
+
+	/**
+	 * @return {@code String}: The reserved-static-addresses option of the instance, or null
+	 */
+	public String getStaticAddresses() {
+		return STATIC_ADDRESSES;
+	}
+
+	/**
+	 * @return {@code List<Integer>}: The relay agent (giaddr) addresses the instance serves
+	 */
+	public List<Integer> getRelayAgents() {
+		return RELAY_AGENTS;
+	}
+
+	/**
+	 * @return {@code List<NodePortTuple>}: The switch ports the instance serves
+	 */
+	public List<NodePortTuple> getSwitchPorts() {
+		return SWITCH_PORTS;
+	}
+
+	/**
+	 * @return {@code List<Long>}: The DPIDs of the switches the instance serves
+	 */
+	public List<Long> getSwitches() {
+		return SWITCHES;
+	}
+
+	/**
+	 * @param {@code byte} messageType: The DHCP message type of the reply
+	 * @param {@code List<Byte>} requestOrder: The options the client asked for, in order
+	 * @return {@code DHCPReplyTemplate}: The template of the reply, or null if there is none yet
+	 */
+	public DHCPReplyTemplate getReplyTemplate(byte messageType, List<Byte> requestOrder) {
+		Map<List<Byte>, DHCPReplyTemplate> templates = REPLY_TEMPLATES.get(messageType);
+		return (templates == null) ? null : templates.get(requestOrder);
+	}
+
+	/**
+	 * Keeps the template of a reply, unless MAX_REPLY_TEMPLATES are kept for the message type already.
+	 * @param {@code byte} messageType: The DHCP message type of the reply
+	 * @param {@code List<Byte>} requestOrder: The options the client asked for, in order
+	 * @param {@code DHCPReplyTemplate} template: The template of the reply
+	 */
+	public void putReplyTemplate(byte messageType, List<Byte> requestOrder, DHCPReplyTemplate template) {
+		Map<List<Byte>, DHCPReplyTemplate> templates = REPLY_TEMPLATES.get(messageType);
+		if (templates == null) {
+			REPLY_TEMPLATES.put(messageType, new ConcurrentHashMap<List<Byte>, DHCPReplyTemplate>());
+			templates = REPLY_TEMPLATES.get(messageType);
+		}
+		if (templates.size() < MAX_REPLY_TEMPLATES) {
+			templates.put(new ArrayList<Byte>(requestOrder), template);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A persistent record of the leases of a DHCPPool, so that a restarted
+ * server hands its clients the addresses they had.
+ *
+ * Every lease set, renewed or cancelled is appended to a journal file as a
+ * fixed size record. The journal is memory-mapped, so an append is a few
+ * stores into the page cache and survives the controller process dying.
+ * When the journal fills up, the active leases are written to a snapshot
+ * and the journal starts over. On startup, the snapshot and then the
+ * journal are read back in one sequential pass each.
+ *
+ * The snapshot and journal carry a generation number. A journal is only
+ * replayed on top of the snapshot of the same generation, so a crash
+ * between writing a snapshot and clearing the journal loses nothing.
+ *
+ * Each record is 40 bytes:
+ * 		type (1), unused (3), IP (4), MAC (8), lease start (8), lease duration (8), lease version (8)
+ * where the type is written last, so a record torn by a crash reads as the
+ * end of the journal. Leases are changed by many threads at once, so their
+ * records may be appended out of order; the pool keeps the lease of the
+ * highest version when they are replayed.
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public class DHCPLeaseJournal {
+	public static final String JOURNAL_FILE = "leases.journal";
+	public static final String SNAPSHOT_FILE = "leases.snapshot";
+
+	private static final int MAGIC = 0x44484350; // "DHCP"
+	private static final int HEADER_LENGTH = 16;
+	private static final int RECORD_LENGTH = 40;
+	private static final byte RECORD_END = 0;
+	private static final byte RECORD_LEASE = 1;
+	private static final byte RECORD_CANCEL = 2;
+
+	private final File journalFile;
+	private final File snapshotFile;
+	private final int capacity;
+	private RandomAccessFile journal;
+	private MappedByteBuffer records;
+	private long generation;
+	private boolean closed;
+
+	/**
+	 * @param directory The directory to keep the journal and snapshot in; created if need be
+	 * @param capacity The number of records the journal holds before it is compacted into a snapshot
+	 */
+	public DHCPLeaseJournal(File directory, int capacity) throws IOException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("DHCP lease journal capacity must be positive");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create DHCP lease journal directory " + directory);
+		}
+		this.journalFile = new File(directory, JOURNAL_FILE);
+		this.snapshotFile = new File(directory, SNAPSHOT_FILE);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Restores the leases in the snapshot and journal to the pool, and opens
+	 * the journal for appending. The pool must not have the journal set yet.
+	 * @return the number of records read
+	 */
+	public synchronized int replay(DHCPPool pool) throws IOException {
+		int replayed = 0;
+		generation = 0;
+		if (snapshotFile.length() >= HEADER_LENGTH) {
+			RandomAccessFile snapshot = new RandomAccessFile(snapshotFile, "r");
+			try {
+				FileChannel channel = snapshot.getChannel();
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == RECORD_LENGTH) {
+					generation = buffer.getLong(8);
+					replayed += replay(pool, buffer);
+				}
+			} finally {
+				snapshot.close();
+			}
+		}
+
+		journal = new RandomAccessFile(journalFile, "rw");
+		records = journal.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				HEADER_LENGTH + (long) capacity * RECORD_LENGTH);
+		if (records.getInt(0) == MAGIC && records.getInt(4) == RECORD_LENGTH && records.getLong(8) == generation) {
+			replayed += replay(pool, records);
+		} else {
+			clear(generation);
+		}
+		return replayed;
+	}
+
+	/**
+	 * Applies the records of a snapshot or journal to the pool, leaving the
+	 * buffer positioned after the last one.
+	 */
+	private static int replay(DHCPPool pool, ByteBuffer buffer) {
+		int replayed = 0;
+		byte[] ip = new byte[DHCPBinding.IP_ADDRESS_LENGTH];
+		byte[] mac = new byte[DHCPBinding.MAC_ADDRESS_LENGTH];
+		buffer.position(HEADER_LENGTH);
+		while (buffer.remaining() >= RECORD_LENGTH) {
+			int start = buffer.position();
+			byte type = buffer.get(start);
+			if (type == RECORD_END) {
+				break;
+			}
+			buffer.position(start + 4);
+			buffer.get(ip);
+			long m = buffer.getLong();
+			for (int i = mac.length - 1; i >= 0; i--, m >>>= 8) {
+				mac[i] = (byte) m;
+			}
+			long startSeconds = buffer.getLong();
+			long durationSeconds = buffer.getLong();
+			long version = buffer.getLong();
+			if (type == RECORD_LEASE) {
+				pool.restoreLease(ip, mac, startSeconds, durationSeconds, version);
+			} else if (type == RECORD_CANCEL) {
+				pool.restoreLease(ip, null, 0, 0, version);
+			}
+			replayed++;
+		}
+		return replayed;
+	}
+
+	/**
+	 * Empties the journal and marks it as following the snapshot of a generation.
+	 */
+	private void clear(long generation) {
+		int end = records.position() > HEADER_LENGTH ? records.position() : records.capacity();
+		for (int i = HEADER_LENGTH; i < end; i += RECORD_LENGTH) {
+			records.put(i, RECORD_END);
+		}
+		records.putLong(8, generation);
+		records.putInt(4, RECORD_LENGTH);
+		records.putInt(0, MAGIC);
+		records.position(HEADER_LENGTH);
+		this.generation = generation;
+	}
+
+	private static void putRecord(ByteBuffer buffer, DHCPBinding binding, DHCPBinding.Lease lease) {
+		int start = buffer.position();
+		buffer.position(start + 4);
+		buffer.put(binding.getIPv4AddressBytes());
+		buffer.putLong(lease.getMAC());
+		buffer.putLong(lease.getStartSeconds());
+		buffer.putLong(lease.getDurationSeconds());
+		buffer.putLong(lease.getVersion());
+		buffer.put(start, lease.isActive() ? RECORD_LEASE : RECORD_CANCEL);
+	}
+
+	/**
+	 * Records a lease being set, renewed, cancelled or expiring.
+	 * @param binding The binding of the lease
+	 * @param lease The lease the binding was given
+	 * @return false if the journal is full and a snapshot must be written instead
+	 */
+	public synchronized boolean append(DHCPBinding binding, DHCPBinding.Lease lease) {
+		if (closed) {
+			// The server is shutting down; changes from now on are not kept
+			return true;
+		}
+		if (records == null) {
+			throw new IllegalStateException("DHCP lease journal has not been replayed");
+		}
+		if (records.remaining() < RECORD_LENGTH) {
+			return false;
+		}
+		putRecord(records, binding, lease);
+		return true;
+	}
+
+	/**
+	 * Writes the active leases to a new snapshot and empties the journal. The
+	 * snapshot is written to the side and renamed over the old one once it is
+	 * on disk. The leases are read with the journal locked, so a lease changed
+	 * meanwhile is in the new journal if it is not in the snapshot.
+	 * @param pool The pool whose leases to write
+	 */
+	public synchronized void snapshot(DHCPPool pool) throws IOException {
+		List<DHCPBinding> bindings = new ArrayList<DHCPBinding>();
+		List<DHCPBinding.Lease> leases = new ArrayList<DHCPBinding.Lease>();
+		for (DHCPBinding binding : pool.getActiveLeases()) {
+			DHCPBinding.Lease lease = binding.getLease();
+			if (lease.isActive()) {
+				bindings.add(binding);
+				leases.add(lease);
+			}
+		}
+		File temp = new File(snapshotFile.getPath() + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + (leases.size() + 1) * RECORD_LENGTH);
+		buffer.putInt(MAGIC);
+		buffer.putInt(RECORD_LENGTH);
+		buffer.putLong(generation + 1);
+		for (int i = 0; i < leases.size(); i++) {
+			putRecord(buffer, bindings.get(i), leases.get(i));
+		}
+		buffer.put(new byte[RECORD_LENGTH]);
+		buffer.flip();
+		RandomAccessFile snapshot = new RandomAccessFile(temp, "rw");
+		try {
+			snapshot.setLength(0);
+			FileChannel channel = snapshot.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		} finally {
+			snapshot.close();
+		}
+		if (!temp.renameTo(snapshotFile)) {
+			throw new IOException("Could not replace DHCP lease snapshot " + snapshotFile);
+		}
+		clear(generation + 1);
+		records.force();
+	}
+
+	/**
+	 * Flushes the journal to disk and closes it. Records appended after
+	 * this are dropped.
+	 */
+	public synchronized void close() throws IOException {
+		closed = true;
+		if (journal != null) {
+			records.force();
+			journal.close();
+			journal = null;
+			records = null;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The current DHCPClientLocation of each client of the DHCP server, by MAC
+ * address and by IP address. Lookups are a single hash lookup and take no
+ * lock; the locations of a client are replaced by the DHCP server, which
+ * handles the REQUESTs of a client one at a time.
+ *
+ * An IP address leased to another client takes the location of the client
+ * that had it out of the index, since the flow of that location is the new
+ * client's now.
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public class DHCPMobilityIndex {
+	private final ConcurrentMap<Long, DHCPClientLocation> BY_MAC = new ConcurrentHashMap<Long, DHCPClientLocation>();
+	private final ConcurrentMap<Integer, DHCPClientLocation> BY_IP = new ConcurrentHashMap<Integer, DHCPClientLocation>();
+
+	/**
+	 * @param {@code long} mac: The MAC address of the client
+	 * @return {@code DHCPClientLocation}: The location of the client, or null if it is unknown
+	 */
+	public DHCPClientLocation getByMAC(long mac) {
+		return BY_MAC.get(mac);
+	}
+
+	/**
+	 * @param {@code int} ip: The IP address leased to the client
+	 * @return {@code DHCPClientLocation}: The location of the client, or null if it is unknown
+	 */
+	public DHCPClientLocation getByIP(int ip) {
+		return BY_IP.get(ip);
+	}
+
+	/**
+	 * @return {@code Collection<DHCPClientLocation>}: The locations of all of the clients
+	 */
+	public Collection<DHCPClientLocation> getAll() {
+		return Collections.unmodifiableCollection(BY_MAC.values());
+	}
+
+	/**
+	 * Records that a client is at a new location.
+	 * @param {@code long} mac: The MAC address of the client
+	 * @param {@code int} ip: The IP address leased to the client
+	 * @param {@code long} dpid: The switch the client is attached to
+	 * @param {@code short} port: The port the client is attached to
+	 * @param {@code String} flowName: The name of the client's flow on the root OVS, or null if it has none
+	 * @param {@code long} cookie: The cookie of the client's flow, or 0 if it has none
+	 * @return {@code DHCPClientLocation}: The new location of the client
+	 */
+	public DHCPClientLocation move(long mac, int ip, long dpid, short port, String flowName, long cookie) {
+		DHCPClientLocation previous = BY_MAC.get(mac);
+		DHCPClientLocation location = new DHCPClientLocation(mac, ip, dpid, port, flowName, cookie, previous);
+		BY_MAC.put(mac, location);
+		DHCPClientLocation other = BY_IP.put(ip, location);
+		if (other != null && other.getMAC() != mac) {
+			BY_MAC.remove(other.getMAC(), other);
+		}
+		if (previous != null && previous.getIP() != ip) {
+			BY_IP.remove(previous.getIP(), previous);
+		}
+		return location;
+	}
+
+	/**
+	 * Forgets a client.
+	 * @param {@code long} mac: The MAC address of the client
+	 * @return {@code DHCPClientLocation}: The location the client had, or null if it was unknown
+	 */
+	public DHCPClientLocation remove(long mac) {
+		DHCPClientLocation location = BY_MAC.remove(mac);
+		if (location != null) {
+			BY_IP.remove(location.getIP(), location);
+		}
+		return location;
+	}
+
+	public void clear() {
+		BY_MAC.clear();
+		BY_IP.clear();
+	}
+}
@@ -1,8 +1,12 @@
 package net.floodlightcontroller.dhcpserver;
 
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 
@@ -12,17 +16,41 @@ import net.floodlightcontroller.packet.IPv4;
 
 /**
  * The class representing a DHCP Pool.
- * This class is essentially a list of DHCPBinding objects containing IP, MAC, and lease status information.
+ * This class is essentially a set of DHCPBinding objects containing IP, MAC, and lease status information.
+ *
+ * The bindings are kept in an array indexed by their offset from the lowest address in the pool, and
+ * the MAC addresses bound to them in a hash table keyed by the MAC as a long, so neither lookup walks
+ * the pool. The dynamic bindings available for lease are queued on a free-list, oldest released first.
+ * Every lease given a new end time is queued by it, so expired leases are found without a scan.
+ * If a DHCPLeaseJournal is set, every change to a lease is recorded in it.
+ *
+ * There is no lock over the whole pool, so clients on different switches are served in parallel:
+ * 		- the array of bindings is replaced, never changed, when an address is added or removed,
+ * 		  so looking a binding up by IP takes no lock;
+ * 		- the MAC table is split in stripes by a hash of the MAC, and each stripe is the lock for
+ * 		  its MACs; getLock(mac) returns it, for a client's requests to be handled one at a time;
+ * 		- the lease of a binding only changes by compare-and-set, and an active lease only while
+ * 		  holding the lock of the MAC it is leased to, so two clients can never both get an address;
+ * 		- the free-list and the lease expiry queue are concurrent queues.
+ * Adding, removing and fixing addresses synchronize on the pool; they are for configuration.
  *
  * @author Ryan Izard (rizard@g.clemson.edu)
  */
 public class DHCPPool {
 	protected Logger log;
-	private volatile static ArrayList<DHCPBinding> DHCP_POOL = new ArrayList<DHCPBinding>();
-	private volatile int POOL_SIZE;
-	private volatile int POOL_AVAILABILITY;
-	private volatile boolean POOL_FULL;
-	private volatile byte[] STARTING_ADDRESS;
+	// The largest range of addresses, from lowest to highest, a pool can span
+	public static final int MAX_POOL_SPAN = 1 << 20;
+	// The number of stripes the MAC table is split in; a power of two
+	private static final int MAC_STRIPES = 64;
+	private volatile Addresses DHCP_POOL;
+	private final MACTable[] MAC_INDEX = new MACTable[MAC_STRIPES];
+	// bindings flagged FREE_QUEUED, some of which may have been leased since
+	private final ConcurrentLinkedQueue<DHCPBinding> FREE_LIST = new ConcurrentLinkedQueue<DHCPBinding>();
+	// leases by end time; an entry is stale once its binding has another lease
+	private final PriorityBlockingQueue<LeaseExpiry> EXPIRIES = new PriorityBlockingQueue<LeaseExpiry>();
+	private volatile DHCPLeaseJournal JOURNAL;
+	private final AtomicInteger POOL_SIZE = new AtomicInteger();
+	private final AtomicInteger POOL_AVAILABILITY = new AtomicInteger();
 	private final byte[] UNASSIGNED_MAC = Ethernet.toMACAddress("00:00:00:00:00:00");
 
 	// Need to write this to handle subnets later...
@@ -35,40 +63,148 @@ public class DHCPPool {
 	 * @return none
 	 */
 	public DHCPPool(byte[] startingIPv4Address, int size, Logger log) {
+		if (size < 0 || size > MAX_POOL_SPAN) {
+			throw new IllegalArgumentException("DHCP pool size must be between 0 and " + MAX_POOL_SPAN);
+		}
 		this.log = log;
-		int IPv4AsInt = IPv4.toIPv4Address(startingIPv4Address);
-		this.setPoolSize(size);
-		this.setPoolAvailability(size);
-		this.setPoolFull(false);
-		STARTING_ADDRESS = Arrays.copyOf(startingIPv4Address, startingIPv4Address.length);
-		for (int i = 0; i < size; i++){ 
-			DHCP_POOL.add(new DHCPBinding(IPv4.toIPv4AddressBytes(IPv4AsInt + i), UNASSIGNED_MAC));
+		for (int i = 0; i < MAC_STRIPES; i++) {
+			MAC_INDEX[i] = new MACTable();
+		}
+		int base = IPv4.toIPv4Address(startingIPv4Address);
+		DHCPBinding[] bindings = new DHCPBinding[size];
+		for (int i = 0; i < size; i++){
+			bindings[i] = new DHCPBinding(IPv4.toIPv4AddressBytes(base + i), UNASSIGNED_MAC);
+			enqueueFree(bindings[i]);
+		}
+		DHCP_POOL = new Addresses(base, bindings);
+		POOL_SIZE.set(size);
+		POOL_AVAILABILITY.set(size);
+	}
+
+	private static long toLong(byte[] mac) {
+		return DHCPBinding.toLong(mac);
+	}
+
+	private MACTable stripeOf(long mac) {
+		return MAC_INDEX[(int) ((mac * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(MAC_STRIPES)))];
+	}
+
+	/**
+	 * The lock for the leases of a MAC address. Holding it, the leases of the MAC
+	 * address only change by the holder's hand, except for being cancelled from
+	 * configuration.
+	 * @param {@code byte[]} mac: The MAC address of the client
+	 * @return {@code Object}: The lock to synchronize on
+	 */
+	public Object getLock(byte[] mac) {
+		return stripeOf(toLong(mac));
+	}
+
+	private void enqueueFree(DHCPBinding binding) {
+		if (binding.FREE_QUEUED.compareAndSet(false, true)) {
+			FREE_LIST.add(binding);
+		}
+	}
+
+	private boolean isFree(DHCPBinding binding) {
+		return binding != null && !binding.isActiveLease() && !binding.isStaticIPLease()
+				&& DHCP_POOL.get(IPv4.toIPv4Address(binding.getIPv4AddressBytes())) == binding;
+	}
+
+	/**
+	 * Drops the bindings at the head of the free-list that are no longer free.
+	 * The binding returned may be taken by another client before it is leased.
+	 * @return the first free binding, or null if there is none
+	 */
+	private DHCPBinding peekFree() {
+		DHCPBinding binding;
+		while ((binding = FREE_LIST.peek()) != null) {
+			if (isFree(binding)) {
+				return binding;
+			}
+			if (FREE_LIST.remove(binding)) {
+				binding.FREE_QUEUED.set(false);
+				// it may have been released again before the flag was cleared
+				if (isFree(binding)) {
+					enqueueFree(binding);
+				}
+			}
 		}
+		return null;
+	}
 
+	private void index(long mac, DHCPBinding binding) {
+		MACTable stripe = stripeOf(mac);
+		synchronized (stripe) {
+			stripe.put(mac, binding);
+		}
 	}
 
-	private void setPoolFull(boolean full) {
-		POOL_FULL = full;
+	private void unindex(long mac, DHCPBinding binding) {
+		MACTable stripe = stripeOf(mac);
+		synchronized (stripe) {
+			stripe.remove(mac, binding);
+		}
 	}
 
-	private boolean isPoolFull() {
-		return POOL_FULL;
+	private void indexMACs(DHCPBinding binding, boolean index) {
+		for (byte[] mac : binding.getMACAddresses()) {
+			if (!Arrays.equals(mac, UNASSIGNED_MAC)) {
+				if (index) {
+					index(toLong(mac), binding);
+				} else {
+					unindex(toLong(mac), binding);
+				}
+			}
+		}
 	}
 
-	private void setPoolSize(int size) {
-		POOL_SIZE = size;
+	/**
+	 * Keeps a journal of the leases from now on. The leases in the pool,
+	 * such as those just replayed from the journal, are written to a snapshot.
+	 * @param {@code DHCPLeaseJournal} journal: The replayed journal
+	 */
+	public void setJournal(DHCPLeaseJournal journal) throws IOException {
+		journal.snapshot(this);
+		JOURNAL = journal;
 	}
 
-	private int getPoolSize() {
-		return POOL_SIZE;
+	/**
+	 * Stops keeping a journal of the leases, flushing it to disk.
+	 */
+	public void closeJournal() throws IOException {
+		DHCPLeaseJournal journal = JOURNAL;
+		JOURNAL = null;
+		if (journal != null) {
+			journal.close();
+		}
 	}
 
-	private int getPoolAvailability() {
-		return POOL_AVAILABILITY;
+	/**
+	 * @return {@code ArrayList<DHCPBinding>}: The bindings with active leases
+	 */
+	public ArrayList<DHCPBinding> getActiveLeases() {
+		ArrayList<DHCPBinding> active = new ArrayList<DHCPBinding>();
+		for (DHCPBinding binding : DHCP_POOL.bindings) {
+			if (binding != null && binding.isActiveLease()) {
+				active.add(binding);
+			}
+		}
+		return active;
 	}
 
-	private void setPoolAvailability(int size) {
-		POOL_AVAILABILITY = size;
+	/**
+	 * Records a change to a lease, or a snapshot of all of them if the journal is full.
+	 */
+	private void journal(DHCPBinding binding, DHCPBinding.Lease lease) {
+		DHCPLeaseJournal journal = JOURNAL;
+		if (journal == null || journal.append(binding, lease)) return;
+		try {
+			journal.snapshot(this);
+		} catch (IOException e) {
+			if (log != null) log.error("Could not write DHCP lease snapshot; leases are no longer being kept", e);
+			JOURNAL = null;
+		}
 	}
 
 	/**
@@ -77,22 +213,12 @@ public class DHCPPool {
 	 * @return {@code DHCPBinding}: The matching DHCPBinding object or null if ip is not found
 	 */
 	public DHCPBinding getDHCPbindingFromIPv4(byte[] ip) {
-		if (ip == null) return null;
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (Arrays.equals(binding.getIPv4AddressBytes(), ip)) {
-				return binding;
-			}
-		}
-		return null;
+		if (ip == null || ip.length != DHCPBinding.IP_ADDRESS_LENGTH) return null;
+		return DHCP_POOL.get(IPv4.toIPv4Address(ip));
 	}
 	private DHCPBinding getLeasedDHCPbindingFromIPv4(byte[] ip) {
-		if (ip == null) return null;
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (Arrays.equals(binding.getIPv4AddressBytes(), ip) && binding.isActiveLease()) {
-				return binding;
-			}
-		}
-		return null;
+		DHCPBinding binding = getDHCPbindingFromIPv4(ip);
+		return (binding != null && binding.isActiveLease()) ? binding : null;
 	}
 	/**
 	 * Gets the DHCPBinding object from the DHCPPool containing {@code byte[]} mac
@@ -100,24 +226,18 @@ public class DHCPPool {
 	 * @return {@code DHCPBinding}: The matching DHCPBinding object or null if mac is not found
 	 */
 	public DHCPBinding getDHCPbindingFromMAC(byte[] mac) {
-		if (mac == null) return null;
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (binding.isMACMemberOf(mac)) {
-				return binding;
-			}
+		if (mac == null || mac.length != DHCPBinding.MAC_ADDRESS_LENGTH) return null;
+		long m = toLong(mac);
+		MACTable stripe = stripeOf(m);
+		synchronized (stripe) {
+			return stripe.get(m);
 		}
-		return null;
 	}
 	private DHCPBinding getLeasedDHCPbindingFromMAC(byte[] mac) {
-		if (mac == null) return null;
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (binding.isMACMemberOf(mac) && binding.isActiveLease()) {
-				return binding;
-			}
-		}
-		return null;
+		DHCPBinding binding = getDHCPbindingFromMAC(mac);
+		return (binding != null && binding.isLeasedTo(mac)) ? binding : null;
 	}
-	
+
 	public byte[] lookupBoundMAC(byte[] ip) {
 		DHCPBinding binding = getLeasedDHCPbindingFromIPv4(ip);
 		if (binding != null) {
@@ -125,7 +245,7 @@ public class DHCPPool {
 		}
 		return null;
 	}
-	
+
 	public byte[] lookupBoundIP(byte[] mac) {
 		DHCPBinding binding = getLeasedDHCPbindingFromMAC(mac);
 		if (binding != null) {
@@ -133,10 +253,10 @@ public class DHCPPool {
 		}
 		return null;
 	}
-	
+
 	/**
 	 * Gets the lease status of a particular IPv4 address, {@code byte[]} ip
-	 * @param {@code byte[]} ip: The IPv4 address of which to check the lease status 
+	 * @param {@code byte[]} ip: The IPv4 address of which to check the lease status
 	 * @return {@code boolean}: true if lease is active, false if lease is inactive/expired
 	 */
 	public boolean isIPv4Leased(byte[] ip) {
@@ -147,21 +267,101 @@ public class DHCPPool {
 	/**
 	 * Assigns a MAC address to the IP address of the DHCPBinding object in the DHCPPool object.
 	 * This method also sets the lease to active (i.e. true) when the assignment is made.
+	 * The binding is not assigned if it has been leased to another MAC address in the meantime.
 	 * @param {@code DHCPBinding} binding: The DHCPBinding object in which to set the MAC
 	 * @param {@code byte[]} mac: The MAC address to set in the DHCPBinding object
 	 * @param {@code long}: The time in seconds for which the lease will be valid
-	 * @return none
+	 * @return {@code boolean}: True on success, false if the binding is leased to another MAC address
+	 */
+	public boolean setDHCPbinding(DHCPBinding binding, byte[] mac, int time) {
+		long m = toLong(mac);
+		MACTable stripe = stripeOf(m);
+		synchronized (stripe) {
+			DHCPBinding.Lease lease;
+			DHCPBinding.Lease leased;
+			do {
+				lease = binding.getLease();
+				if (lease.isActive() && lease.getMAC() != m) return false;
+				leased = lease.leased(m, System.currentTimeMillis() / 1000, time);
+			} while (!binding.compareAndSetLease(lease, leased));
+			// Bug Fixed! Needed to check if it's already leased to the same MAC before removing from pool!
+			if (!lease.isActive()) POOL_AVAILABILITY.decrementAndGet();
+			binding.addMACAddress(mac);
+			stripe.put(m, binding);
+			EXPIRIES.add(new LeaseExpiry(binding, leased));
+			journal(binding, leased);
+			return true;
+		}
+	}
+	/**
+	 * Finds an available address for a MAC address and leases it, as getStaticLease(),
+	 * getSpecificAvailableLease() and then getAnyAvailableLease() would find it. If another
+	 * client takes the address first, the next one is tried.
+	 * @param {@code byte[]} mac: The MAC address of the device requesting the lease
+	 * @param {@code byte[]} ip: The IP address the device asked for, or null
+	 * @param {@code int} time: The time in seconds for which the lease will be valid
+	 * @return {@code DHCPBinding}: The binding leased, or null if no address is available
+	 */
+	public DHCPBinding allocateLease(byte[] mac, byte[] ip, int time) {
+		synchronized (getLock(mac)) {
+			while (hasAvailableAddresses()) {
+				DHCPBinding binding = getStaticLease(mac);
+				if (binding == null) {
+					binding = getSpecificAvailableLease(ip, mac);
+				}
+				if (binding == null) {
+					binding = getAnyAvailableLease(mac);
+				}
+				if (binding == null) {
+					return null;
+				}
+				if (setDHCPbinding(binding, mac, time)) {
+					return binding;
+				}
+				if (binding.isStaticIPLease() && binding.isMACMemberOf(mac)) {
+					// the fixed address is leased to another of its MAC addresses
+					return null;
+				}
+			}
+			return null;
+		}
+	}
+	/**
+	 * Restores a lease as it was recorded, without recording it again. A lease
+	 * older than the one the binding has is ignored, so records can be restored
+	 * in any order. Only to be used before the pool hands out leases.
+	 * @param {@code byte[]} ip: The IP address of the lease
+	 * @param {@code byte[]} mac: The MAC address it was leased to, or null if the lease was cancelled
+	 * @param {@code long} startSeconds: When the lease started, in seconds since the epoch
+	 * @param {@code long} durationSeconds: How long the lease was for, in seconds
+	 * @param {@code long} version: The version of the lease
+	 * @return {@code boolean}: True on success, false if unknown IP address or an old lease
 	 */
-	public void setDHCPbinding(DHCPBinding binding, byte[] mac, int time) {
-		int index = DHCP_POOL.indexOf(binding);
+	public boolean restoreLease(byte[] ip, byte[] mac, long startSeconds, long durationSeconds, long version) {
+		DHCPBinding binding = getDHCPbindingFromIPv4(ip);
+		if (binding == null) return false;
+		DHCPBinding.Lease lease = binding.getLease();
+		if (version <= lease.getVersion()) return false;
+		if (lease.isActive()) {
+			POOL_AVAILABILITY.incrementAndGet();
+			if (!binding.isStaticIPLease()) {
+				unindex(lease.getMAC(), binding);
+				binding.clearMACAddresses();
+			}
+		}
+		if (mac == null) {
+			binding.compareAndSetLease(lease, new DHCPBinding.Lease(false, 0, 0, 0, version));
+			if (!binding.isStaticIPLease()) enqueueFree(binding);
+			return true;
+		}
+		long m = toLong(mac);
+		DHCPBinding.Lease restored = new DHCPBinding.Lease(true, m, startSeconds, durationSeconds, version);
+		binding.compareAndSetLease(lease, restored);
+		POOL_AVAILABILITY.decrementAndGet();
 		binding.addMACAddress(mac);
-		// Bug Fixed! Needed to check if it's already leased to the same MAC before removing from pool!
-		if (!binding.isActiveLease()) this.setPoolAvailability(this.getPoolAvailability() - 1);
-		binding.setLeaseStatus(true);
-		DHCP_POOL.set(index, binding);
-		if (this.getPoolAvailability() == 0) setPoolFull(true);
-		binding.setLeaseStartTimeSeconds();
-		binding.setLeaseDurationSeconds(time);
+		index(m, binding);
+		EXPIRIES.add(new LeaseExpiry(binding, restored));
+		return true;
 	}
 	/**
 	 * Completely removes the DHCPBinding object with IP address {@code byte[]} ip from the DHCPPool
@@ -169,44 +369,40 @@ public class DHCPPool {
 	 * for lease after removal.
 	 * @return none
 	 */
-	public void removeIPv4FromDHCPPool(byte [] ip) {
-		if (ip == null || getDHCPbindingFromIPv4(ip) == null) return;
-		if (IPv4.toIPv4Address(ip) == IPv4.toIPv4Address(STARTING_ADDRESS)) {
-			DHCPBinding lowest = null;
-			// Locate the lowest address (other than ip), which will be the new starting address
-			for (DHCPBinding binding : DHCP_POOL) {
-				if (lowest == null) {
-					lowest = binding;
-				} else if (IPv4.toIPv4Address(binding.getIPv4AddressBytes()) < IPv4.toIPv4Address(lowest.getIPv4AddressBytes())
-						&& IPv4.toIPv4Address(binding.getIPv4AddressBytes()) != IPv4.toIPv4Address(ip))
-				{
-					lowest = binding;
-				}
-			}
-			// lowest is new starting address
-			STARTING_ADDRESS = Arrays.copyOf(lowest.getIPv4AddressBytes(), lowest.getIPv4AddressBytes().length);
+	public synchronized void removeIPv4FromDHCPPool(byte [] ip) {
+		DHCPBinding binding = getDHCPbindingFromIPv4(ip);
+		if (binding == null) return;
+		// a queued binding is dropped from the free-list once it reaches the head
+		DHCP_POOL = DHCP_POOL.remove(IPv4.toIPv4Address(ip));
+		DHCPBinding.Lease lease = binding.getLease();
+		if (lease.isActive()) {
+			unindex(lease.getMAC(), binding);
+		} else {
+			POOL_AVAILABILITY.decrementAndGet();
 		}
-		DHCP_POOL.remove(this.getDHCPbindingFromIPv4(ip));
-		this.setPoolSize(this.getPoolSize() - 1);
-		this.setPoolAvailability(this.getPoolAvailability() - 1);
-		if (this.getPoolAvailability() == 0) this.setPoolFull(true);
+		indexMACs(binding, false);
+		POOL_SIZE.decrementAndGet();
 	}
 	/**
 	 * Adds an IP address to the DHCPPool if the address is not already present. If present, nothing is added to the DHCPPool.
+	 * The pool can only span MAX_POOL_SPAN addresses from its lowest to its highest.
 	 * @param {@code byte[]} ip: The IP address to attempt to add to the DHCPPool
 	 * @return {@code DHCPBinding}: Reference to the DHCPBinding object if successful, null if unsuccessful
 	 */
-	public DHCPBinding addIPv4ToDHCPPool(byte[] ip) {
-		DHCPBinding binding = null;
-		if (this.getDHCPbindingFromIPv4(ip) == null) {
-			if (IPv4.toIPv4Address(ip) < IPv4.toIPv4Address(STARTING_ADDRESS)) {
-				STARTING_ADDRESS = Arrays.copyOf(ip, ip.length);
-			}
-			binding = new DHCPBinding(ip, UNASSIGNED_MAC);
-			DHCP_POOL.add(binding);
-			this.setPoolSize(this.getPoolSize() + 1);
-			this.setPoolFull(false);
+	public synchronized DHCPBinding addIPv4ToDHCPPool(byte[] ip) {
+		if (ip == null || ip.length != DHCPBinding.IP_ADDRESS_LENGTH || getDHCPbindingFromIPv4(ip) != null) return null;
+		int address = IPv4.toIPv4Address(ip);
+		DHCPBinding binding = new DHCPBinding(ip, UNASSIGNED_MAC);
+		Addresses pool = DHCP_POOL.add(address, binding);
+		if (pool == null) {
+			if (log != null) log.error("Cannot add " + IPv4.fromIPv4Address(address) + " to the DHCP pool; it would span more than "
+					+ MAX_POOL_SPAN + " addresses");
+			return null;
 		}
+		DHCP_POOL = pool;
+		POOL_SIZE.incrementAndGet();
+		POOL_AVAILABILITY.incrementAndGet();
+		enqueueFree(binding);
 		return binding;
 	}
 	/**
@@ -214,39 +410,27 @@ public class DHCPPool {
 	 * @return {@code boolean}: true if there are addresses available, false if the DHCPPool is full
 	 */
 	public boolean hasAvailableAddresses() {
-		if (isPoolFull() || getPoolAvailability() == 0) return false;
-		else return true;
+		return POOL_AVAILABILITY.get() > 0;
 	}
 	/**
 	 * Returns an available address (DHCPBinding) for lease.
 	 * If this MAC is configured for a static/fixed IP, that DHCPBinding will be returned.
 	 * If this MAC has had a lease before and that same lease is available, that DHCPBinding will be returned.
-	 * If not, then an attempt to return an address that has not been active before will be made.
-	 * If there are no addresses that have not been used, then the lowest currently inactive address will be returned.
+	 * If not, then the dynamic address that has been available the longest will be returned, the lowest
+	 * addresses first when none have been leased yet.
 	 * If all addresses are being used, then null will be returned.
 	 * @param {@code byte[]): MAC address of the device requesting the lease
 	 * @return {@code DHCPBinding}: Reference to the DHCPBinding object if successful, null if unsuccessful
 	 */
 	public DHCPBinding getAnyAvailableLease(byte[] mac) {
-		if (isPoolFull()) return null;
-		DHCPBinding usedBinding = null;
-		usedBinding = this.getDHCPbindingFromMAC(mac);
+		if (!hasAvailableAddresses()) return null;
+		DHCPBinding usedBinding = this.getDHCPbindingFromMAC(mac);
 		if (usedBinding != null) return usedBinding;
-
-		for (DHCPBinding binding : DHCP_POOL) {
-			if (!binding.isActiveLease() 
-					&& binding.isMACMemberOf(UNASSIGNED_MAC) && binding.getNumberOfMACAddresses() != 1)
-			{
-				return binding;
-			} else if (!binding.isActiveLease() && usedBinding == null && !binding.isStaticIPLease()) {
-				usedBinding = binding;
-			}
-		}
-		return usedBinding;
+		return peekFree();
 	}
-	
+
 	public DHCPBinding getStaticLease(byte[] mac) {
-		if (isPoolFull()) return null;
+		if (!hasAvailableAddresses()) return null;
 		return this.getDHCPbindingFromMAC(mac);
 	}
 
@@ -254,23 +438,23 @@ public class DHCPPool {
 	 * Returns a specific available IP address binding for lease. The MAC and IP will be queried
 	 * against the DHCP pool. (1) If the MAC is found in an available, fixed binding, and that binding
 	 * is not for the provided IP, the fixed binding associated with the MAC will be returned. (2) If the
-	 * IP is found in an available, fixed binding, and that binding also contains the MAC address provided, 
-	 * then the binding will be returned -- this is true only if the IP and MAC result in the same available, 
+	 * IP is found in an available, fixed binding, and that binding also contains the MAC address provided,
+	 * then the binding will be returned -- this is true only if the IP and MAC result in the same available,
 	 * fixed binding. (3) If the IP is found in the pool and it is available and not fixed, then its
-	 * binding will be returned. (4) If the IP provided does not match any available entries or is invalid, 
+	 * binding will be returned. (4) If the IP provided does not match any available entries or is invalid,
 	 * null will be returned. If this is the case, run getAnyAvailableLease(mac) to resolve.
 	 * @param {@code byte[]}: The IP address on which to try and obtain a lease
 	 * @param {@code byte[]}: The MAC address on which to try and obtain a lease.
 	 * @return {@code DHCPBinding}: Reference to the DHCPBinding object if successful, null if unsuccessful.
 	 */
 	public DHCPBinding getSpecificAvailableLease(byte[] ip, byte[] mac) {
-		if (ip == null || mac == null || isPoolFull()) return null;
+		if (ip == null || mac == null || !hasAvailableAddresses()) return null;
 
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		DHCPBinding binding2 = this.getDHCPbindingFromMAC(mac);
 
 		// For all of the following, the binding is also determined to be inactive:
-		
+
 		// If configured, we must return a fixed binding for a MAC address even if it's requesting another IP
 		if (binding2 != null && !binding2.isActiveLease() && binding2.isStaticIPLease() && binding != binding2) {
 			if (log != null) log.info("Fixed DHCP entry for MAC trumps requested IP. Returning binding for MAC");
@@ -293,17 +477,54 @@ public class DHCPPool {
 	 * Tries to renew an IP lease.
 	 * @param {@code byte[]}: The IP address on which to try and renew a lease
 	 * @param {@code long}: The time in seconds for which the lease will be valid
-	 * @return {@code DHCPBinding}: True on success, false if unknown IP address
+	 * @return {@code DHCPBinding}: True on success, false if unknown IP address or the lease is not active
 	 */
 	public boolean renewLease(byte[] ip, int time) {
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
-		if (binding != null) {
-			binding.setLeaseStartTimeSeconds();
-			binding.setLeaseDurationSeconds(time);
-			binding.setLeaseStatus(true);
+		if (binding == null) return false;
+		DHCPBinding.Lease lease = binding.getLease();
+		if (!lease.isActive()) return false;
+		synchronized (stripeOf(lease.getMAC())) {
+			DHCPBinding.Lease renewed = lease.leased(lease.getMAC(), System.currentTimeMillis() / 1000, time);
+			// the lease may have ended before the lock was taken
+			if (!binding.compareAndSetLease(lease, renewed)) return false;
+			EXPIRIES.add(new LeaseExpiry(binding, renewed));
+			journal(binding, renewed);
 			return true;
 		}
-		return false;
+	}
+	/**
+	 * Ends a lease of a binding, returning a dynamic binding to the free-list
+	 * with its MAC addresses forgotten.
+	 * @return false if the binding no longer has the lease
+	 */
+	private boolean release(DHCPBinding binding, DHCPBinding.Lease lease) {
+		synchronized (stripeOf(lease.getMAC())) {
+			if (binding.getLease() != lease) return false;
+			// the MAC addresses are forgotten while the lease still keeps other clients out
+			if (!binding.isStaticIPLease()) {
+				unindex(lease.getMAC(), binding);
+				binding.clearMACAddresses();
+			}
+			DHCPBinding.Lease cancelled = lease.cancelled();
+			binding.compareAndSetLease(lease, cancelled);
+			POOL_AVAILABILITY.incrementAndGet();
+			journal(binding, cancelled);
+		}
+		if (!binding.isStaticIPLease()) {
+			enqueueFree(binding);
+		}
+		return true;
+	}
+	/**
+	 * Ends the lease of a binding, if it has one.
+	 */
+	private void cancelLease(DHCPBinding binding) {
+		DHCPBinding.Lease lease;
+		do {
+			lease = binding.getLease();
+			if (!lease.isActive()) return;
+		} while (!release(binding, lease));
 	}
 	/**
 	 * Cancel an IP lease.
@@ -313,53 +534,58 @@ public class DHCPPool {
 	public boolean cancelLeaseOfIPv4(byte[] ip) {
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		if (binding != null) {
-			binding.clearLeaseTimes();
-			binding.setLeaseStatus(false);
-			if (!binding.isStaticIPLease()) {
-				binding.clearMACAddresses();
-			}
-			this.setPoolAvailability(this.getPoolAvailability() + 1);
-			this.setPoolFull(false);
+			cancelLease(binding);
 			return true;
 		}
 		return false;
 	}
 	/**
-	 * Cancel an IP lease.
+	 * Cancel an IP lease. Only a lease to the MAC address is cancelled, not one
+	 * of a fixed address that another of its MAC addresses holds.
 	 * @param {@code byte[]}: The MAC address on which to try and cancel a lease
 	 * @return {@code boolean}: True on success, false if unknown IP address
 	 */
 	public boolean cancelLeaseOfMAC(byte[] mac) {
 		DHCPBinding binding = getDHCPbindingFromMAC(mac);
-		if (binding != null) {
-			binding.clearLeaseTimes();
-			binding.setLeaseStatus(false);
-			if (!binding.isStaticIPLease()) {
-				binding.clearMACAddresses();
-			}
-			this.setPoolAvailability(this.getPoolAvailability() + 1);
-			this.setPoolFull(false);
-			return true;
-		}
-		return false;
+		if (binding == null) return false;
+		long m = toLong(mac);
+		DHCPBinding.Lease lease;
+		do {
+			lease = binding.getLease();
+			if (!lease.isActive() || lease.getMAC() != m) return true;
+		} while (!release(binding, lease));
+		return true;
 	}
 	/**
 	 * Make the addresses of expired leases available and reset the lease times.
+	 * Only the leases that have expired are looked at.
 	 * @return {@code ArrayList<DHCPBinding>}: A list of the bindings that are now available
 	 */
 	public ArrayList<DHCPBinding> cleanExpiredLeases() {
 		ArrayList<DHCPBinding> newAvailableLeases = new ArrayList<DHCPBinding>();
-		for (DHCPBinding binding : DHCP_POOL) {
-			// isLeaseExpired() automatically excludes configured static leases
-			if (binding.isLeaseExpired() && binding.isActiveLease()) {
-				this.cancelLeaseOfIPv4(binding.getIPv4AddressBytes());
-				this.setPoolAvailability(this.getPoolAvailability() + 1);
-				this.setPoolFull(false);
+		long nowSeconds = System.currentTimeMillis() / 1000;
+		LeaseExpiry expiry;
+		while ((expiry = EXPIRIES.poll()) != null) {
+			if (expiry.lease.getEndSeconds() > nowSeconds) {
+				EXPIRIES.add(expiry);
+				break;
+			}
+			DHCPBinding binding = expiry.binding;
+			if (getDHCPbindingFromIPv4(binding.getIPv4AddressBytes()) == binding && release(binding, expiry.lease)) {
 				newAvailableLeases.add(binding);
 			}
 		}
 		return newAvailableLeases;
 	}
+	/**
+	 * Gets the time at which the next lease expires. This may be early, if that lease has
+	 * since been renewed or cancelled, but never late.
+	 * @return {@code long}: The time in seconds since the epoch, or Long.MAX_VALUE if no lease is active
+	 */
+	public long getNextLeaseExpirySeconds() {
+		LeaseExpiry expiry = EXPIRIES.peek();
+		return (expiry == null) ? Long.MAX_VALUE : expiry.lease.getEndSeconds();
+	}
 	/**
 	 * Used to set a particular IP binding in the pool as a fixed/static IP lease.
 	 * This method does not set the lease as active, but instead reserves that IP
@@ -371,16 +597,175 @@ public class DHCPPool {
 	 * an address is requested from the MAC mac
 	 * @return {@code boolean}: True upon success; false upon failure (e.g. no IP found)
 	 */
-	public boolean configureFixedIPLease(byte[] ip, ArrayList<byte[]> macs) {
+	public synchronized boolean configureFixedIPLease(byte[] ip, ArrayList<byte[]> macs) {
 		DHCPBinding binding = this.getDHCPbindingFromIPv4(ip);
 		if (binding != null) {
+			cancelLease(binding);
+			indexMACs(binding, false);
 			binding.setMACAddresses(macs);
 			binding.setStaticIPLease(true);
-			binding.setLeaseStatus(false);
+			indexMACs(binding, true);
 			return true;
 		} else {
 			return false;
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * The addresses in the pool: the bindings by offset from the lowest address,
+	 * null where an address is not in the pool. Never changed once published.
+	 */
+	private static class Addresses {
+		private final int base;
+		private final DHCPBinding[] bindings;
+
+		Addresses(int base, DHCPBinding[] bindings) {
+			this.base = base;
+			this.bindings = bindings;
+		}
+
+		/**
+		 * @return the offset of ip into the bindings, or -1 if it is outside of them
+		 */
+		private int offsetOf(int ip) {
+			long offset = (ip & 0xffffffffL) - (base & 0xffffffffL);
+			return (offset < 0 || offset >= bindings.length) ? -1 : (int) offset;
+		}
+
+		DHCPBinding get(int ip) {
+			int offset = offsetOf(ip);
+			return (offset == -1) ? null : bindings[offset];
+		}
+
+		/**
+		 * @return the addresses with ip bound, or null if they would span more than MAX_POOL_SPAN
+		 */
+		Addresses add(int ip, DHCPBinding binding) {
+			long low = Math.min(ip & 0xffffffffL, base & 0xffffffffL);
+			long high = Math.max(ip & 0xffffffffL, (base & 0xffffffffL) + bindings.length - 1);
+			if (bindings.length == 0) {
+				low = high = ip & 0xffffffffL;
+			}
+			if (high - low + 1 > MAX_POOL_SPAN) {
+				return null;
+			}
+			DHCPBinding[] grown = new DHCPBinding[(int) (high - low + 1)];
+			if (bindings.length > 0) {
+				System.arraycopy(bindings, 0, grown, (int) ((base & 0xffffffffL) - low), bindings.length);
+			}
+			grown[(int) ((ip & 0xffffffffL) - low)] = binding;
+			return new Addresses((int) low, grown);
+		}
+
+		Addresses remove(int ip) {
+			DHCPBinding[] shrunk = Arrays.copyOf(bindings, bindings.length);
+			shrunk[offsetOf(ip)] = null;
+			return new Addresses(base, shrunk);
+		}
+	}
+
+	/**
+	 * A lease given to a binding, queued by its end time.
+	 */
+	private static class LeaseExpiry implements Comparable<LeaseExpiry> {
+		private final DHCPBinding binding;
+		private final DHCPBinding.Lease lease;
+
+		LeaseExpiry(DHCPBinding binding, DHCPBinding.Lease lease) {
+			this.binding = binding;
+			this.lease = lease;
+		}
+
+		@Override
+		public int compareTo(LeaseExpiry other) {
+			long endSeconds = lease.getEndSeconds();
+			long otherEndSeconds = other.lease.getEndSeconds();
+			return (endSeconds < otherEndSeconds) ? -1 : ((endSeconds == otherEndSeconds) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * An open addressing hash table from a MAC address, as a long, to the binding it is in.
+	 * A MAC address is in one binding at a time; if it is configured in more than one, a
+	 * fixed binding keeps it over a dynamic one. Each stripe of the pool's table is one
+	 * of these, guarded by its own monitor.
+	 */
+	private static class MACTable {
+		// no MAC address is all ones in the upper 16 bits
+		private static final long EMPTY = -1L;
+
+		private long[] keys = new long[16];
+		private DHCPBinding[] values = new DHCPBinding[16];
+		private int size;
+
+		{
+			Arrays.fill(keys, EMPTY);
+		}
+
+		private int slot(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			int i = (int) (h ^ (h >>> 32)) & (keys.length - 1);
+			while (keys[i] != EMPTY && keys[i] != key) {
+				i = (i + 1) & (keys.length - 1);
+			}
+			return i;
+		}
+
+		DHCPBinding get(long key) {
+			return values[slot(key)];
+		}
+
+		void put(long key, DHCPBinding value) {
+			int i = slot(key);
+			if (keys[i] == EMPTY) {
+				keys[i] = key;
+				values[i] = value;
+				if (++size * 2 > keys.length) {
+					rehash(keys.length * 2);
+				}
+			} else if (values[i] == value || !values[i].isStaticIPLease() || value.isStaticIPLease()) {
+				values[i] = value;
+			}
+		}
+
+		/**
+		 * Removes key, but only if it is mapped to value.
+		 */
+		void remove(long key, DHCPBinding value) {
+			int i = slot(key);
+			if (keys[i] == EMPTY || values[i] != value) {
+				return;
+			}
+			keys[i] = EMPTY;
+			values[i] = null;
+			size--;
+			// shift back the entries probed past the freed slot
+			int mask = keys.length - 1;
+			for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+				long k = keys[j];
+				DHCPBinding v = values[j];
+				keys[j] = EMPTY;
+				values[j] = null;
+				int s = slot(k);
+				keys[s] = k;
+				values[s] = v;
+			}
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = keys;
+			DHCPBinding[] oldValues = values;
+			keys = new long[capacity];
+			values = new DHCPBinding[capacity];
+			Arrays.fill(keys, EMPTY);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					int s = slot(oldKeys[i]);
+					keys[s] = oldKeys[i];
+					values[s] = oldValues[i];
+				}
+			}
+		}
+	}
+
+}
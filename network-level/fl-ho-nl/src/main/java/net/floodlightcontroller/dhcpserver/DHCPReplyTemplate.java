@@ -0,0 +1,122 @@
+package net.floodlightcontroller.dhcpserver;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * A DHCP reply frame -- Ethernet, IPv4, UDP and DHCP -- serialized once with
+ * everything but the client's addresses and transaction ID, which are patched
+ * into a copy of it along with the checksums, instead of building and
+ * serializing the packet objects for every reply.
+ *
+ * Every thread has its own copy of the frame, which is reused: a frame is only
+ * valid until the thread encodes the next one from the same template, so it has
+ * to be written out (and a packet-out flushed) before then.
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public class DHCPReplyTemplate {
+	private static final int MAC_LENGTH = 6;
+	private static final int CHADDR_LENGTH = 16;
+
+	// The offsets into an untagged frame with an IPv4 header without options
+	private static final int IPV4_OFFSET = 14;
+	private static final int IPV4_HEADER_LENGTH = 20;
+	private static final int IPV4_CHECKSUM_OFFSET = IPV4_OFFSET + 10;
+	private static final int IPV4_SOURCE_OFFSET = IPV4_OFFSET + 12;
+	private static final int IPV4_DESTINATION_OFFSET = IPV4_OFFSET + 16;
+	private static final int UDP_OFFSET = IPV4_OFFSET + IPV4_HEADER_LENGTH;
+	private static final int UDP_CHECKSUM_OFFSET = UDP_OFFSET + 6;
+	private static final int DHCP_OFFSET = UDP_OFFSET + 8;
+	private static final int XID_OFFSET = DHCP_OFFSET + 4;
+	private static final int YIADDR_OFFSET = DHCP_OFFSET + 16;
+	private static final int GIADDR_OFFSET = DHCP_OFFSET + 24;
+	private static final int CHADDR_OFFSET = DHCP_OFFSET + 28;
+
+	private final byte[] template;
+	private final ThreadLocal<byte[]> frames = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return template.clone();
+		}
+	};
+
+	/**
+	 * @param reply The reply to the client, with the addresses and transaction ID left blank
+	 */
+	public DHCPReplyTemplate(Ethernet reply) {
+		if (reply.getEtherType() != Ethernet.TYPE_IPv4 || reply.getVlanID() != Ethernet.VLAN_UNTAGGED) {
+			throw new IllegalArgumentException("A DHCP reply template must be an untagged IPv4 frame");
+		}
+		template = reply.serialize();
+		if ((template[IPV4_OFFSET] & 0xf) * 4 != IPV4_HEADER_LENGTH) {
+			throw new IllegalArgumentException("A DHCP reply template cannot have IPv4 options");
+		}
+	}
+
+	/**
+	 * @return the length of the frames encoded
+	 */
+	public int getLength() {
+		return template.length;
+	}
+
+	/**
+	 * Encodes a reply to a client.
+	 * @param chaddr The MAC address of the client, also the Ethernet destination
+	 * @param dstIPAddr The IPv4 destination
+	 * @param xid The transaction ID
+	 * @param yiaddr The IP address given to the client
+	 * @param giaddr The relay agent address
+	 * @return the frame, valid until the calling thread encodes another one from this template
+	 */
+	public byte[] encode(byte[] chaddr, int dstIPAddr, int xid, int yiaddr, int giaddr) {
+		byte[] f = frames.get();
+		System.arraycopy(template, 0, f, 0, f.length);
+		System.arraycopy(chaddr, 0, f, 0, MAC_LENGTH);
+		putInt(f, IPV4_DESTINATION_OFFSET, dstIPAddr);
+		putInt(f, XID_OFFSET, xid);
+		putInt(f, YIADDR_OFFSET, yiaddr);
+		putInt(f, GIADDR_OFFSET, giaddr);
+		System.arraycopy(chaddr, 0, f, CHADDR_OFFSET, Math.min(chaddr.length, CHADDR_LENGTH));
+
+		// The checksums are summed as IPv4.serialize() and UDP.serialize() do
+		putShort(f, IPV4_CHECKSUM_OFFSET, 0);
+		putShort(f, IPV4_CHECKSUM_OFFSET, ~fold(sum(f, IPV4_OFFSET, IPV4_HEADER_LENGTH, 0)));
+
+		int udpLength = f.length - UDP_OFFSET;
+		int pseudoHeader = sum(f, IPV4_SOURCE_OFFSET, 8, 0) + (f[IPV4_OFFSET + 9] & 0xff) + udpLength;
+		putShort(f, UDP_CHECKSUM_OFFSET, 0);
+		putShort(f, UDP_CHECKSUM_OFFSET, ~fold(sum(f, UDP_OFFSET, udpLength, pseudoHeader)));
+		return f;
+	}
+
+	/**
+	 * Adds up length bytes as 16-bit words, the last one padded if need be.
+	 */
+	private static int sum(byte[] f, int offset, int length, int accumulation) {
+		int end = offset + (length & ~1);
+		for (int i = offset; i < end; i += 2) {
+			accumulation += ((f[i] & 0xff) << 8) | (f[i + 1] & 0xff);
+		}
+		if ((length & 1) != 0) {
+			accumulation += (f[end] & 0xff) << 8;
+		}
+		return accumulation;
+	}
+
+	private static int fold(int accumulation) {
+		return ((accumulation >> 16) & 0xffff) + (accumulation & 0xffff);
+	}
+
+	private static void putShort(byte[] f, int offset, int value) {
+		f[offset] = (byte) (value >>> 8);
+		f[offset + 1] = (byte) value;
+	}
+
+	private static void putInt(byte[] f, int offset, int value) {
+		f[offset] = (byte) (value >>> 24);
+		f[offset + 1] = (byte) (value >>> 16);
+		f[offset + 2] = (byte) (value >>> 8);
+		f[offset + 3] = (byte) value;
+	}
+}
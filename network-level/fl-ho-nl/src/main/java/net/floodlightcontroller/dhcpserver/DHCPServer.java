@@ -1,12 +1,18 @@
 package net.floodlightcontroller.dhcpserver;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -47,7 +53,12 @@ import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.packet.DHCP;
 import net.floodlightcontroller.packet.DHCPOption;
+import net.floodlightcontroller.packet.DHCPPacketType;
+import net.floodlightcontroller.dhcpserver.web.DHCPWebRoutable;
+import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntries;
+import net.floodlightcontroller.topology.NodePortTuple;
 import net.floodlightcontroller.util.MACAddress;
 
 /**
@@ -82,36 +93,53 @@ import net.floodlightcontroller.util.MACAddress;
  * to be intercepted on that same port and sent to the DHCP server running
  * on the Floodlight controller.
  * 
- * Currently, this DHCP server only supports a single subnet; however,
- * work is ongoing to use connected OF switches and ports to allow
- * the user to configure multiple subnets. On a traditional DHCP server,
+ * This DHCP server can serve multiple subnets, each a {@code DHCPInstance}
+ * with its own pool, options and lease times. On a traditional DHCP server,
  * the machine is configured with different NICs, each with their own
  * statically-assigned IP address/subnet/mask. The DHCP server matches
  * the network information of each NIC with the DHCP server's configured
  * subnets and answers the requests accordingly. To mirror this behavior
- * on a OpenFlow network, we can differentiate between subnets based on a
- * device's attachment point. We can assign subnets for a device per
- * OpenFlow switch or per port per switch. This is the next step for
- * this implementations of a SDN DHCP server.
+ * on a OpenFlow network, we differentiate between subnets based on a
+ * device's attachment point. A request is answered from the instance of
+ * the relay agent (giaddr) it came through, else of the OpenFlow switch
+ * port it came in on, else of the switch, else from the default instance.
+ * Each is a single hash lookup.
+ *
+ * The switch and port each client's last REQUEST came in on, and the flow
+ * that follows it between networks, are kept in a {@code DHCPMobilityIndex}
+ * by MAC and by IP address. The module provides them as the
+ * {@code IDHCPMobilityService}, and over REST at /wm/dhcp/clients/<client>/json.
  *
  * I welcome any feedback or suggestions for improvement!
  * 
  * 
  */
-public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
+public class DHCPServer implements IOFMessageListener, IFloodlightModule, IDHCPMobilityService  {
 	protected static Logger log;
 	protected IFloodlightProviderService floodlightProvider;
 	protected IStaticFlowEntryPusherService sfp;
+	protected IRestApiService restApi;
+	// Pushes the flows of clients moving between networks, a batch per switch
+	protected DHCPFlowBatcher flowBatcher;
+	// Where each client is, by MAC and by IP address
+	protected final DHCPMobilityIndex mobilityIndex = new DHCPMobilityIndex();
 
 	// The garbage collector service for the DHCP server
 	// Handle expired leases by adding the IP back to the address pool
 	private static ScheduledThreadPoolExecutor leasePoliceDispatcher;
-	//private static ScheduledFuture<?> leasePoliceOfficer;
+	private static ScheduledFuture<?> leasePoliceOfficer;
+	private static long leasePoliceDueSeconds;
+	private static final Object leasePoliceLock = new Object();
 	private static Runnable leasePolicePatrol;
 
-	// Contains the pool of IP addresses their bindings to MAC addresses
-	// Tracks the lease status and duration of DHCP bindings
-	private static volatile DHCPPool theDHCPPool;
+	// Each instance contains a pool of IP addresses and their bindings to MAC addresses
+	// The pools track the lease status and duration of DHCP bindings
+	private static volatile DHCPInstance defaultInstance;
+	private static final List<DHCPInstance> instances = new CopyOnWriteArrayList<DHCPInstance>();
+	// The instances selected by relay agent (giaddr), switch port and switch
+	private static final Map<Integer, DHCPInstance> instancesByRelayAgent = new ConcurrentHashMap<Integer, DHCPInstance>();
+	private static final Map<NodePortTuple, DHCPInstance> instancesBySwitchPort = new ConcurrentHashMap<NodePortTuple, DHCPInstance>();
+	private static final Map<Long, DHCPInstance> instancesBySwitch = new ConcurrentHashMap<Long, DHCPInstance>();
 
 	/** START CONFIG FILE VARIABLES **/
 
@@ -123,22 +151,10 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	private static int CONTROLLER_IP;
 
 	private static byte[] DHCP_SERVER_DHCP_SERVER_IP; // Same as CONTROLLER_IP but in byte[] form
-	private static byte[] DHCP_SERVER_SUBNET_MASK;
-	private static byte[] DHCP_SERVER_BROADCAST_IP;
-	private static byte[] DHCP_SERVER_IP_START;
-	private static byte[] DHCP_SERVER_IP_STOP;
-	private static int DHCP_SERVER_ADDRESS_SPACE_SIZE; // Computed in startUp()
-	private static byte[] DHCP_SERVER_ROUTER_IP = null;
-	private static byte[] DHCP_SERVER_ROUTER_MAC = null;
-	private static byte[] DHCP_SERVER_NTP_IP_LIST = null;
-	private static byte[] DHCP_SERVER_DNS_IP_LIST = null;
-	private static byte[] DHCP_SERVER_DN = null;
-	private static byte[] DHCP_SERVER_IP_FORWARDING = null;
-	private static int DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS;
-	private static int DHCP_SERVER_HOLD_LEASE_TIME_SECONDS;
-	private static int DHCP_SERVER_REBIND_TIME_SECONDS; // Computed in startUp()
-	private static int DHCP_SERVER_RENEWAL_TIME_SECONDS; // Computed in startUp()
+	// The subnet, options and lease times are those of each DHCPInstance
 	private static long DHCP_SERVER_LEASE_POLICE_PATROL_PERIOD_SECONDS;
+	private static int DHCP_SERVER_LEASE_JOURNAL_CAPACITY = 65536; // Records before the journal is compacted
+	private static long DHCP_SERVER_RELOCATION_BARRIER_TIMEOUT_MS = 1000; // Wait for a switch to confirm client flows
 
 	private static int ROOT_NODE_ROOT_OVS_IP;
 	private static String ROOT_NODE_WIMAX_OVS_DPID;
@@ -232,6 +248,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 
 	// Used for composing DHCP REPLY messages
 	public static final byte[] BROADCAST_MAC = Ethernet.toMACAddress("FF:FF:FF:FF:FF:FF");
+	private static final byte[] BLANK_MAC = new byte[DHCPBinding.MAC_ADDRESS_LENGTH];
 	public static final int BROADCAST_IP = IPv4.toIPv4Address(IPv4.toIPv4AddressBytes("255.255.255.255"));
 	public static final int UNASSIGNED_IP = IPv4.toIPv4Address(IPv4.toIPv4AddressBytes("0.0.0.0"));
 
@@ -240,6 +257,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		Collection<Class<? extends IFloodlightService>> l = 
 				new ArrayList<Class<? extends IFloodlightService>>();
 		l.add(IFloodlightProviderService.class);
+		l.add(IRestApiService.class);
 		return l;
 	}
 
@@ -247,6 +265,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	public void init(FloodlightModuleContext context) throws FloodlightModuleException {
 		floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
 		sfp = context.getServiceImpl(IStaticFlowEntryPusherService.class);
+		restApi = context.getServiceImpl(IRestApiService.class);
 		log = LoggerFactory.getLogger(DHCPServer.class);
 		return;
 	}
@@ -254,24 +273,28 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	@Override
 	public void startUp(FloodlightModuleContext context) {
 		floodlightProvider.addOFMessageListener(OFType.PACKET_IN, this);
+		if (restApi != null) {
+			restApi.addRestletRoutable(new DHCPWebRoutable());
+		}
+		mobilityIndex.clear();
 
 		// Read our config options for the DHCP DHCPServer
 		Map<String, String> configOptions = context.getConfigParams(this);
 		try {
-			DHCP_SERVER_SUBNET_MASK = IPv4.toIPv4AddressBytes(configOptions.get("subnet-mask"));
-			DHCP_SERVER_IP_START = IPv4.toIPv4AddressBytes(configOptions.get("lower-ip-range"));
-			DHCP_SERVER_IP_STOP = IPv4.toIPv4AddressBytes(configOptions.get("upper-ip-range"));
-			DHCP_SERVER_ADDRESS_SPACE_SIZE = IPv4.toIPv4Address(DHCP_SERVER_IP_STOP) - IPv4.toIPv4Address(DHCP_SERVER_IP_START) + 1;
-			DHCP_SERVER_BROADCAST_IP = IPv4.toIPv4AddressBytes(configOptions.get("broadcast-address"));
-			DHCP_SERVER_ROUTER_IP = IPv4.toIPv4AddressBytes(configOptions.get("router"));
-			DHCP_SERVER_ROUTER_MAC = Ethernet.toMACAddress(configOptions.get("router-mac"));
-			DHCP_SERVER_DN = configOptions.get("domain-name").getBytes();
-			DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS = Integer.parseInt(configOptions.get("default-lease-time"));
-			DHCP_SERVER_HOLD_LEASE_TIME_SECONDS = Integer.parseInt(configOptions.get("hold-lease-time"));
-			DHCP_SERVER_RENEWAL_TIME_SECONDS = (int) (DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS / 2.0);
-			DHCP_SERVER_REBIND_TIME_SECONDS = (int) (DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS * 0.875);
+			// The default instance, then the named ones, which take the options they do not give from it
+			instances.clear();
+			instancesByRelayAgent.clear();
+			instancesBySwitchPort.clear();
+			instancesBySwitch.clear();
+			defaultInstance = new DHCPInstance(null, configOptions, null, log);
+			instances.add(defaultInstance);
+			String pools = configOptions.get("pools");
+			if (pools != null && !pools.trim().isEmpty()) {
+				for (String name : pools.trim().split("\\s*,\\s*")) {
+					addInstance(new DHCPInstance(name, configOptions, defaultInstance, log));
+				}
+			}
 			DHCP_SERVER_LEASE_POLICE_PATROL_PERIOD_SECONDS = Long.parseLong(configOptions.get("lease-gc-period"));
-			DHCP_SERVER_IP_FORWARDING = intToBytesSizeOne(Integer.parseInt(configOptions.get("ip-forwarding")));
 
 			CONTROLLER_MAC = Ethernet.toMACAddress(configOptions.get("controller-mac"));
 			CONTROLLER_IP = IPv4.toIPv4Address(configOptions.get("controller-ip"));
@@ -295,11 +318,112 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			log.error("Incorrect DHCP Server configuration options", e);
 			throw e;
 		}
-		// Create our new DHCPPool object with the specific address size
-		theDHCPPool = new DHCPPool(DHCP_SERVER_IP_START, DHCP_SERVER_ADDRESS_SPACE_SIZE, log);
+		// Fix the reserved addresses of each instance, then restore its leases from before a restart, if they are being kept
+		String journalDirectory = configOptions.get("lease-journal-dir");
+		int journalCapacity = DHCP_SERVER_LEASE_JOURNAL_CAPACITY;
+		if (configOptions.get("lease-journal-capacity") != null) {
+			journalCapacity = Integer.parseInt(configOptions.get("lease-journal-capacity"));
+		}
+		for (DHCPInstance instance : instances) {
+			configureStaticAddresses(instance);
+			if (journalDirectory != null && !journalDirectory.isEmpty()) {
+				// The default instance keeps its journal where it always has, the others in a directory of their own
+				File directory = (instance == defaultInstance) ? new File(journalDirectory) : new File(journalDirectory, instance.getName());
+				restoreLeases(instance, directory, journalCapacity);
+			}
+		}
+		if (journalDirectory != null && !journalDirectory.isEmpty()) {
+			// Appended records are only forced to disk by a snapshot, so flush them when the controller exits
+			Runtime.getRuntime().addShutdownHook(new Thread("DHCP lease journal shutdown") {
+				@Override
+				public void run() {
+					closeLeaseJournals();
+				}
+			});
+		}
+
+		// Push the flows of clients moving between networks in batches, confirmed by a barrier
+		if (configOptions.get("relocation-barrier-timeout-ms") != null) {
+			DHCP_SERVER_RELOCATION_BARRIER_TIMEOUT_MS = Long.parseLong(configOptions.get("relocation-barrier-timeout-ms"));
+		}
+		if (sfp != null) {
+			flowBatcher = new DHCPFlowBatcher(sfp, Executors.newCachedThreadPool(), DHCP_SERVER_RELOCATION_BARRIER_TIMEOUT_MS, log);
+		}
 
-		// Any addresses that need to be set as static/fixed can be permanently added to the pool with a set MAC
-		String staticAddresses = configOptions.get("reserved-static-addresses");
+		// Monitor bindings for expired leases and clean them up
+		leasePoliceDispatcher = new ScheduledThreadPoolExecutor(1);
+		leasePolicePatrol = new DHCPLeasePolice();
+		scheduleLeasePolice(true);
+	}
+
+	/**
+	 * Makes an additional instance serve the relay agents, switch ports and switches it is
+	 * configured for. The first instance configured for one of them keeps it.
+	 */
+	private static void addInstance(DHCPInstance instance) {
+		for (DHCPInstance other : instances) {
+			if (other.getName().equals(instance.getName())) {
+				throw new IllegalArgumentException("DHCP pool " + instance.getName() + " is configured twice");
+			}
+		}
+		instances.add(instance);
+		for (Integer giaddr : instance.getRelayAgents()) {
+			if (instancesByRelayAgent.containsKey(giaddr)) {
+				log.error("Relay agent " + IPv4.fromIPv4Address(giaddr) + " is already served by DHCP pool "
+						+ instancesByRelayAgent.get(giaddr).getName() + "; ignoring it for " + instance.getName());
+			} else {
+				instancesByRelayAgent.put(giaddr, instance);
+			}
+		}
+		for (NodePortTuple switchPort : instance.getSwitchPorts()) {
+			if (instancesBySwitchPort.containsKey(switchPort)) {
+				log.error("Switch port " + switchPort + " is already served by DHCP pool "
+						+ instancesBySwitchPort.get(switchPort).getName() + "; ignoring it for " + instance.getName());
+			} else {
+				instancesBySwitchPort.put(switchPort, instance);
+			}
+		}
+		for (Long dpid : instance.getSwitches()) {
+			if (instancesBySwitch.containsKey(dpid)) {
+				log.error("Switch " + HexString.toHexString(dpid) + " is already served by DHCP pool "
+						+ instancesBySwitch.get(dpid).getName() + "; ignoring it for " + instance.getName());
+			} else {
+				instancesBySwitch.put(dpid, instance);
+			}
+		}
+		log.info("Configured DHCP pool " + instance.getName() + " of " + IPv4.fromIPv4Address(IPv4.toIPv4Address(instance.getStartIP()))
+				+ " to " + IPv4.fromIPv4Address(IPv4.toIPv4Address(instance.getStopIP())));
+	}
+
+	/**
+	 * Gets the instance that serves a client: that of the relay agent the request came
+	 * through, else of the switch port it came in on, else of the switch, else the default.
+	 * @param dpid The DPID of the switch the request came in on
+	 * @param inPort The port the request came in on
+	 * @param giaddr The relay agent address of the request, or 0 if it was not relayed
+	 * @return the instance to answer from
+	 */
+	protected static DHCPInstance getInstance(long dpid, short inPort, int giaddr) {
+		DHCPInstance instance;
+		if (giaddr != 0 && (instance = instancesByRelayAgent.get(giaddr)) != null) {
+			return instance;
+		}
+		if (!instancesBySwitchPort.isEmpty() && (instance = instancesBySwitchPort.get(new NodePortTuple(dpid, inPort))) != null) {
+			return instance;
+		}
+		if ((instance = instancesBySwitch.get(dpid)) != null) {
+			return instance;
+		}
+		return defaultInstance;
+	}
+
+	/**
+	 * Sets up the fixed addresses given in the reserved-static-addresses option of an instance:
+	 * 		<IP>, <MAC>, <MAC>, ... ; <IP>, <MAC>, ...
+	 */
+	private static void configureStaticAddresses(DHCPInstance instance) {
+		DHCPPool pool = instance.getPool();
+		String staticAddresses = instance.getStaticAddresses();
 		if (staticAddresses != null) {
 			String[] macIpBindings = staticAddresses.split("\\s*;\\s*");
 			String[] macIpSplit;
@@ -309,7 +433,6 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 				macIpSplit = macIpBindings[i].split("\\s*,\\s*");
 				// Determine which elements are the MACs and which is the IP
 				// i.e. which order have they been typed in in the config file?
-				//log.info(macIpSplit[0] + " " + macIpSplit[1]);
 				for (int j = 0; j < macIpSplit.length; j++) {
 					if (macIpSplit[j].length() <= DHCPBinding.IP_ADDRESS_STRING_LENGTH_MAX && macIpSplit[j].length() >= DHCPBinding.IP_ADDRESS_STRING_LENGTH_MIN) {
 						ipPos = j;
@@ -317,48 +440,103 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 						macs.add(Ethernet.toMACAddress(macIpSplit[j]));
 					}
 				}				
-				if (ipPos != -1 && theDHCPPool.configureFixedIPLease(IPv4.toIPv4AddressBytes(macIpSplit[ipPos]), macs)) {
-					String ip = theDHCPPool.getDHCPbindingFromIPv4(IPv4.toIPv4AddressBytes(macIpSplit[ipPos])).getIPv4AddresString();
-					String mac = theDHCPPool.getDHCPbindingFromIPv4(IPv4.toIPv4AddressBytes(macIpSplit[ipPos])).getMACAddressesString();
-					log.info("Configured fixed address of " + ip + " for device " + mac);
+				if (ipPos != -1 && pool.configureFixedIPLease(IPv4.toIPv4AddressBytes(macIpSplit[ipPos]), macs)) {
+					String ip = pool.getDHCPbindingFromIPv4(IPv4.toIPv4AddressBytes(macIpSplit[ipPos])).getIPv4AddresString();
+					String mac = pool.getDHCPbindingFromIPv4(IPv4.toIPv4AddressBytes(macIpSplit[ipPos])).getMACAddressesString();
+					log.info("Configured fixed address of " + ip + " for device " + mac + " in DHCP pool " + instance.getName());
 				} else {
-					log.error("Could not configure fixed address " + macIpSplit[ipPos] + " for device!");
+					log.error("Could not configure fixed address " + macIpSplit[ipPos] + " for device in DHCP pool " + instance.getName() + "!");
 				}
 				macs.clear();
 			}
-			return;
 		}
+	}
 
-		// The order of the DNS and NTP servers should be most reliable to least
-		String dnses = configOptions.get("domain-name-servers");
-		String ntps = configOptions.get("ntp-servers");
-
-		// Separate the servers in the comma-delimited list
-		// TODO If the list is null then we need to not include this information with the options request,
-		// otherwise the client will get incorrect option information
-		if (dnses != null) {
-			DHCP_SERVER_DNS_IP_LIST = IPv4.toIPv4AddressBytes(dnses.split("\\s*,\\s*")[0].toString());
+	/**
+	 * Replays the lease journal of an instance into its pool, and keeps the journal from then on.
+	 */
+	private static void restoreLeases(DHCPInstance instance, File directory, int capacity) {
+		DHCPPool pool = instance.getPool();
+		try {
+			long start = System.currentTimeMillis();
+			DHCPLeaseJournal journal = new DHCPLeaseJournal(directory, capacity);
+			int records = journal.replay(pool);
+			pool.setJournal(journal);
+			log.info("Restored " + pool.getActiveLeases().size() + " leases of DHCP pool " + instance.getName() + " from " + records
+					+ " records in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			log.error("Could not restore DHCP leases from " + directory + "; leases will not be kept", e);
 		}
-		if (ntps != null) {
-			DHCP_SERVER_NTP_IP_LIST = IPv4.toIPv4AddressBytes(ntps.split("\\s*,\\s*")[0].toString());
+	}
+
+	/**
+	 * Flushes the lease journal of every instance to disk and closes it.
+	 */
+	private static void closeLeaseJournals() {
+		for (DHCPInstance instance : instances) {
+			try {
+				instance.getPool().closeJournal();
+			} catch (IOException e) {
+				log.error("Could not close the DHCP lease journal of pool " + instance.getName(), e);
+			}
 		}
+	}
 
-		// Monitor bindings for expired leases and clean them up
-		leasePoliceDispatcher = new ScheduledThreadPoolExecutor(1);
-		leasePolicePatrol = new DHCPLeasePolice();
-		/*leasePoliceOfficer = */
-		leasePoliceDispatcher.scheduleAtFixedRate(leasePolicePatrol, 10, 
-				DHCP_SERVER_LEASE_POLICE_PATROL_PERIOD_SECONDS, TimeUnit.SECONDS);
+	/**
+	 * Schedules the lease police for when the next lease expires, or at most
+	 * the patrol period from now. Unless reschedule is set, an earlier patrol
+	 * that is already scheduled is left as is.
+	 * Must not be called with the pool locked.
+	 * @param reschedule true to replace the scheduled patrol regardless
+	 */
+	private static void scheduleLeasePolice(boolean reschedule) {
+		long nowSeconds = System.currentTimeMillis() / 1000;
+		long dueSeconds = nowSeconds + DHCP_SERVER_LEASE_POLICE_PATROL_PERIOD_SECONDS;
+		for (DHCPInstance instance : instances) {
+			dueSeconds = Math.min(dueSeconds, instance.getPool().getNextLeaseExpirySeconds());
+		}
+		synchronized (leasePoliceLock) {
+			if (!reschedule && leasePoliceOfficer != null && leasePoliceDueSeconds <= dueSeconds) {
+				return;
+			}
+			if (leasePoliceOfficer != null) {
+				leasePoliceOfficer.cancel(false);
+			}
+			leasePoliceDueSeconds = dueSeconds;
+			leasePoliceOfficer = leasePoliceDispatcher.schedule(leasePolicePatrol,
+					Math.max(dueSeconds - nowSeconds, 0), TimeUnit.SECONDS);
+		}
 	}
 
 	@Override
 	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
-		return null;
+		Collection<Class<? extends IFloodlightService>> l = 
+				new ArrayList<Class<? extends IFloodlightService>>();
+		l.add(IDHCPMobilityService.class);
+		return l;
 	}
 
 	@Override
 	public Map<Class<? extends IFloodlightService>, IFloodlightService> getServiceImpls() {
-		return null;
+		Map<Class<? extends IFloodlightService>, IFloodlightService> m = 
+				new HashMap<Class<? extends IFloodlightService>, IFloodlightService>();
+		m.put(IDHCPMobilityService.class, this);
+		return m;
+	}
+
+	@Override
+	public DHCPClientLocation getClientLocation(long mac) {
+		return mobilityIndex.getByMAC(mac);
+	}
+
+	@Override
+	public DHCPClientLocation getClientLocationByIP(int ip) {
+		return mobilityIndex.getByIP(ip);
+	}
+
+	@Override
+	public Collection<DHCPClientLocation> getClientLocations() {
+		return mobilityIndex.getAll();
 	}
 
 	@Override
@@ -398,8 +576,27 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		return bytes;
 	}
 
-	public void sendDHCPOffer(IOFSwitch sw, short inPort, byte[] chaddr, int dstIPAddr, 
+	public void sendDHCPOffer(DHCPInstance instance, IOFSwitch sw, short inPort, byte[] chaddr, int dstIPAddr, 
 			int yiaddr, int giaddr, int xid, ArrayList<Byte> requestOrder) {
+		DHCPReplyTemplate template = instance.getReplyTemplate(DHCP_MSG_TYPE_OFFER[0], requestOrder);
+		if (template == null) {
+			template = new DHCPReplyTemplate(buildDHCPOffer(instance, requestOrder));
+			instance.putReplyTemplate(DHCP_MSG_TYPE_OFFER[0], requestOrder, template);
+		}
+		log.debug("Sending DHCP OFFER");
+		// Client has IP and dhcpc must have crashed if dstIPAddr is not 0
+		sendDHCPReply(sw, inPort, template.encode(chaddr, (dstIPAddr == 0) ? BROADCAST_IP : dstIPAddr,
+				xid, yiaddr, giaddr));
+	}
+
+	/**
+	 * Builds the OFFER the instance sends for the options asked for, with
+	 * the client's addresses and the transaction ID left blank.
+	 * @param {@code DHCPInstance} instance: The instance the client is served by
+	 * @param {@code List<Byte>} requestOrder: The options the client asked for, in order
+	 * @return {@code Ethernet}: The OFFER to make a DHCPReplyTemplate of
+	 */
+	protected Ethernet buildDHCPOffer(DHCPInstance instance, List<Byte> requestOrder) {
 		// Compose DHCP OFFER
 		/** (2) DHCP Offer
 		 * -- UDP src port = 67
@@ -421,21 +618,13 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		 * --	Option 54 = DHCP DHCPServer IP
 		 * --	Option 6 = DNS servers
 		 **/
-		OFPacketOut DHCPOfferPacket = (OFPacketOut)
-				floodlightProvider.getOFMessageFactory().getMessage(OFType.PACKET_OUT);
-		DHCPOfferPacket.setBufferId(-1);
-
 		Ethernet ethDHCPOffer = new Ethernet();
 		ethDHCPOffer.setSourceMACAddress(CONTROLLER_MAC);
-		ethDHCPOffer.setDestinationMACAddress(chaddr);
+		ethDHCPOffer.setDestinationMACAddress(BLANK_MAC);
 		ethDHCPOffer.setEtherType(Ethernet.TYPE_IPv4);
 
 		IPv4 ipv4DHCPOffer = new IPv4();
-		if (dstIPAddr == 0) {
-			ipv4DHCPOffer.setDestinationAddress(BROADCAST_IP);
-		} else { // Client has IP and dhcpc must have crashed
-			ipv4DHCPOffer.setDestinationAddress(dstIPAddr);
-		}
+		ipv4DHCPOffer.setDestinationAddress(BROADCAST_IP);
 		ipv4DHCPOffer.setSourceAddress(CONTROLLER_IP);
 		ipv4DHCPOffer.setProtocol(IPv4.PROTOCOL_UDP);
 		ipv4DHCPOffer.setTtl((byte) 64);
@@ -449,14 +638,14 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		dhcpDHCPOffer.setHardwareType((byte) 1);
 		dhcpDHCPOffer.setHardwareAddressLength((byte) 6);
 		dhcpDHCPOffer.setHops((byte) 0);
-		dhcpDHCPOffer.setTransactionId(xid);
+		dhcpDHCPOffer.setTransactionId(0);
 		dhcpDHCPOffer.setSeconds((short) 0);
 		dhcpDHCPOffer.setFlags((short) 0);
 		dhcpDHCPOffer.setClientIPAddress(UNASSIGNED_IP);
-		dhcpDHCPOffer.setYourIPAddress(yiaddr);
+		dhcpDHCPOffer.setYourIPAddress(UNASSIGNED_IP);
 		dhcpDHCPOffer.setServerIPAddress(CONTROLLER_IP);
-		dhcpDHCPOffer.setGatewayIPAddress(giaddr);
-		dhcpDHCPOffer.setClientHardwareAddress(chaddr);
+		dhcpDHCPOffer.setGatewayIPAddress(UNASSIGNED_IP);
+		dhcpDHCPOffer.setClientHardwareAddress(BLANK_MAC);
 
 		List<DHCPOption> dhcpOfferOptions = new ArrayList<DHCPOption>();
 		DHCPOption newOption;
@@ -471,61 +660,61 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_SN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_SN);
-				newOption.setData(DHCP_SERVER_SUBNET_MASK);
+				newOption.setData(instance.getSubnetMask());
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_ROUTER) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_ROUTER);
-				newOption.setData(DHCP_SERVER_ROUTER_IP);
+				newOption.setData(instance.getRouterIP());
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DN);
-				newOption.setData(DHCP_SERVER_DN);
-				newOption.setLength((byte) DHCP_SERVER_DN.length);
+				newOption.setData(instance.getDomainName());
+				newOption.setLength((byte) instance.getDomainName().length);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DNS) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DNS);
-				newOption.setData(DHCP_SERVER_DNS_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_DNS_IP_LIST.length);
+				newOption.setData(instance.getDNSIPList());
+				newOption.setLength((byte) instance.getDNSIPList().length);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP);
-				newOption.setData(DHCP_SERVER_BROADCAST_IP);
+				newOption.setData(instance.getBroadcastIP());
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.getDefaultLeaseTimeSeconds()));
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_NTP_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_NTP_IP);
-				newOption.setData(DHCP_SERVER_NTP_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_NTP_IP_LIST.length);
+				newOption.setData(instance.getNTPIPList());
+				newOption.setLength((byte) instance.getNTPIPList().length);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_REBIND_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.getRebindTimeSeconds()));
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_RENEWAL_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.getRenewalTimeSeconds()));
 				newOption.setLength((byte) 4);
 				dhcpOfferOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING);
-				newOption.setData(DHCP_SERVER_IP_FORWARDING);
+				newOption.setData(instance.getIPForwarding());
 				newOption.setLength((byte) 1);
 				dhcpOfferOptions.add(newOption);
 			} else {
@@ -547,33 +736,30 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		dhcpDHCPOffer.setOptions(dhcpOfferOptions);
 
 		ethDHCPOffer.setPayload(ipv4DHCPOffer.setPayload(udpDHCPOffer.setPayload(dhcpDHCPOffer)));
+		return ethDHCPOffer;
+	}
 
-		short packetOutLength = (short) OFPacketOut.MINIMUM_LENGTH;
-
-		DHCPOfferPacket.setInPort(OFPort.OFPP_NONE.getValue());
-
-		DHCPOfferPacket.setActionsLength((short) OFActionOutput.MINIMUM_LENGTH);
-		packetOutLength = (short) (packetOutLength + OFActionOutput.MINIMUM_LENGTH);
-
-		List<OFAction> actions = new ArrayList<OFAction>(1);
-		actions.add(new OFActionOutput(inPort, (short) 0));
-		DHCPOfferPacket.setActions(actions);
-
-		DHCPOfferPacket.setPacketData(ethDHCPOffer.serialize());
-		packetOutLength = (short) (packetOutLength + ethDHCPOffer.serialize().length);
-
-		DHCPOfferPacket.setLength(packetOutLength);
-
-		log.debug("Sending DHCP OFFER");
-		try {
-			sw.write(DHCPOfferPacket, null);
-		} catch (IOException e) {
-			System.out.println("Failed to write {} to switch {}: {}");
+	public void sendDHCPAck(DHCPInstance instance, IOFSwitch sw, short inPort, byte[] chaddr, int dstIPAddr, 
+			int yiaddr, int giaddr, int xid, ArrayList<Byte> requestOrder) {
+		DHCPReplyTemplate template = instance.getReplyTemplate(DHCP_MSG_TYPE_ACK[0], requestOrder);
+		if (template == null) {
+			template = new DHCPReplyTemplate(buildDHCPAck(instance, requestOrder));
+			instance.putReplyTemplate(DHCP_MSG_TYPE_ACK[0], requestOrder, template);
 		}
+		log.debug("Sending DHCP ACK");
+		// Client has IP and dhclient must have crashed if dstIPAddr is not 0
+		sendDHCPReply(sw, inPort, template.encode(chaddr, (dstIPAddr == 0) ? BROADCAST_IP : dstIPAddr,
+				xid, yiaddr, giaddr));
 	}
 
-	public void sendDHCPAck(IOFSwitch sw, short inPort, byte[] chaddr, int dstIPAddr, 
-			int yiaddr, int giaddr, int xid, ArrayList<Byte> requestOrder) {
+	/**
+	 * Builds the ACK the instance sends for the options asked for, with
+	 * the client's addresses and the transaction ID left blank.
+	 * @param {@code DHCPInstance} instance: The instance the client is served by
+	 * @param {@code List<Byte>} requestOrder: The options the client asked for, in order
+	 * @return {@code Ethernet}: The ACK to make a DHCPReplyTemplate of
+	 */
+	protected Ethernet buildDHCPAck(DHCPInstance instance, List<Byte> requestOrder) {
 		/** (4) DHCP ACK
 		 * -- UDP src port = 67
 		 * -- UDP dst port = 68
@@ -594,21 +780,13 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		 * --	Option 54 = DHCP DHCPServer IP
 		 * --	Option 6 = DNS servers
 		 **/
-		OFPacketOut DHCPACKPacket = (OFPacketOut)
-				floodlightProvider.getOFMessageFactory().getMessage(OFType.PACKET_OUT);
-		DHCPACKPacket.setBufferId(-1);
-
 		Ethernet ethDHCPAck = new Ethernet();
 		ethDHCPAck.setSourceMACAddress(CONTROLLER_MAC);
-		ethDHCPAck.setDestinationMACAddress(chaddr);
+		ethDHCPAck.setDestinationMACAddress(BLANK_MAC);
 		ethDHCPAck.setEtherType(Ethernet.TYPE_IPv4);
 
 		IPv4 ipv4DHCPAck = new IPv4();
-		if (dstIPAddr == 0) {
-			ipv4DHCPAck.setDestinationAddress(BROADCAST_IP);
-		} else { // Client has IP and dhclient must have crashed
-			ipv4DHCPAck.setDestinationAddress(dstIPAddr);
-		}
+		ipv4DHCPAck.setDestinationAddress(BROADCAST_IP);
 		ipv4DHCPAck.setSourceAddress(CONTROLLER_IP);
 		ipv4DHCPAck.setProtocol(IPv4.PROTOCOL_UDP);
 		ipv4DHCPAck.setTtl((byte) 64);
@@ -622,14 +800,14 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		dhcpDHCPAck.setHardwareType((byte) 1);
 		dhcpDHCPAck.setHardwareAddressLength((byte) 6);
 		dhcpDHCPAck.setHops((byte) 0);
-		dhcpDHCPAck.setTransactionId(xid);
+		dhcpDHCPAck.setTransactionId(0);
 		dhcpDHCPAck.setSeconds((short) 0);
 		dhcpDHCPAck.setFlags((short) 0);
 		dhcpDHCPAck.setClientIPAddress(UNASSIGNED_IP);
-		dhcpDHCPAck.setYourIPAddress(yiaddr);
+		dhcpDHCPAck.setYourIPAddress(UNASSIGNED_IP);
 		dhcpDHCPAck.setServerIPAddress(CONTROLLER_IP);
-		dhcpDHCPAck.setGatewayIPAddress(giaddr);
-		dhcpDHCPAck.setClientHardwareAddress(chaddr);
+		dhcpDHCPAck.setGatewayIPAddress(UNASSIGNED_IP);
+		dhcpDHCPAck.setClientHardwareAddress(BLANK_MAC);
 
 		List<DHCPOption> dhcpAckOptions = new ArrayList<DHCPOption>();
 		DHCPOption newOption;
@@ -644,31 +822,31 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_SN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_SN);
-				newOption.setData(DHCP_SERVER_SUBNET_MASK);
+				newOption.setData(instance.getSubnetMask());
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_ROUTER) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_ROUTER);
-				newOption.setData(DHCP_SERVER_ROUTER_IP);
+				newOption.setData(instance.getRouterIP());
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DN) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DN);
-				newOption.setData(DHCP_SERVER_DN);
-				newOption.setLength((byte) DHCP_SERVER_DN.length);
+				newOption.setData(instance.getDomainName());
+				newOption.setLength((byte) instance.getDomainName().length);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DNS) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_DNS);
-				newOption.setData(DHCP_SERVER_DNS_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_DNS_IP_LIST.length);
+				newOption.setData(instance.getDNSIPList());
+				newOption.setLength((byte) instance.getDNSIPList().length);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_BROADCAST_IP);
-				newOption.setData(DHCP_SERVER_BROADCAST_IP);
+				newOption.setData(instance.getBroadcastIP());
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_DHCP_SERVER) {
@@ -680,31 +858,31 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_LEASE_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.getDefaultLeaseTimeSeconds()));
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_NTP_IP) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_NTP_IP);
-				newOption.setData(DHCP_SERVER_NTP_IP_LIST);
-				newOption.setLength((byte) DHCP_SERVER_NTP_IP_LIST.length);
+				newOption.setData(instance.getNTPIPList());
+				newOption.setLength((byte) instance.getNTPIPList().length);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_REBIND_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_REBIND_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.getRebindTimeSeconds()));
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_RENEWAL_TIME);
-				newOption.setData(intToBytes(DHCP_SERVER_RENEWAL_TIME_SECONDS));
+				newOption.setData(intToBytes(instance.getRenewalTimeSeconds()));
 				newOption.setLength((byte) 4);
 				dhcpAckOptions.add(newOption);
 			} else if (specificRequest.byteValue() == DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING) {
 				newOption = new DHCPOption();
 				newOption.setCode(DHCP_REQ_PARAM_OPTION_CODE_IP_FORWARDING);
-				newOption.setData(DHCP_SERVER_IP_FORWARDING);
+				newOption.setData(instance.getIPForwarding());
 				newOption.setLength((byte) 1);
 				dhcpAckOptions.add(newOption);
 			}else {
@@ -720,27 +898,36 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		dhcpDHCPAck.setOptions(dhcpAckOptions);
 
 		ethDHCPAck.setPayload(ipv4DHCPAck.setPayload(udpDHCPAck.setPayload(dhcpDHCPAck)));
+		return ethDHCPAck;
+	}
 
-		short packetOutLength = (short) OFPacketOut.MINIMUM_LENGTH;
-
-		DHCPACKPacket.setInPort(OFPort.OFPP_NONE.getValue());
-
-		DHCPACKPacket.setActionsLength((short) OFActionOutput.MINIMUM_LENGTH);
-		packetOutLength = (short) (packetOutLength + OFActionOutput.MINIMUM_LENGTH);
+	/**
+	 * Sends a DHCP reply out of the port of the switch the request came in on.
+	 * The frame may be one encoded by a DHCPReplyTemplate, so it is flushed
+	 * out before the template can encode the next one.
+	 * @param {@code IOFSwitch} sw: The switch to send the reply from
+	 * @param {@code short} inPort: The port to send the reply out of
+	 * @param {@code byte[]} frame: The reply
+	 */
+	protected void sendDHCPReply(IOFSwitch sw, short inPort, byte[] frame) {
+		OFPacketOut DHCPReplyPacket = (OFPacketOut)
+				floodlightProvider.getOFMessageFactory().getMessage(OFType.PACKET_OUT);
+		DHCPReplyPacket.setBufferId(-1);
+		DHCPReplyPacket.setInPort(OFPort.OFPP_NONE.getValue());
 
+		DHCPReplyPacket.setActionsLength((short) OFActionOutput.MINIMUM_LENGTH);
 		List<OFAction> actions = new ArrayList<OFAction>(1);
 		actions.add(new OFActionOutput(inPort, (short) 0));
-		DHCPACKPacket.setActions(actions);
+		DHCPReplyPacket.setActions(actions);
 
-		DHCPACKPacket.setPacketData(ethDHCPAck.serialize());
-		packetOutLength = (short) (packetOutLength + ethDHCPAck.serialize().length);
+		DHCPReplyPacket.setPacketData(frame);
+		DHCPReplyPacket.setLength((short) (OFPacketOut.MINIMUM_LENGTH + OFActionOutput.MINIMUM_LENGTH + frame.length));
 
-		DHCPACKPacket.setLength(packetOutLength);
-		log.debug("Sending DHCP ACK");
 		try {
-			sw.write(DHCPACKPacket, null);
+			sw.write(DHCPReplyPacket, null);
+			sw.flush();
 		} catch (IOException e) {
-			System.out.println("Failed to write {} to switch {}: {}");
+			log.error("Failed to write DHCP reply to switch {}: {}", sw, e);
 		}
 	}
 
@@ -994,29 +1181,25 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 
 		OFPacketIn pi = (OFPacketIn) msg;
 
-		if (!theDHCPPool.hasAvailableAddresses()) {
-			log.info("DHCP Pool is full! Consider increasing the pool size.");
-			return Command.CONTINUE;
-		}
-
 		Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
 				IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
 
 		// Do Proxy ARP for all connected clients
 		if (eth.getEtherType() == Ethernet.TYPE_ARP) {
 			ARP ARPPayload = (ARP) eth.getPayload();
-			byte[] foundMAC;
+			DHCPInstance instance = getInstance(sw.getId(), pi.getInPort(), 0);
+			DHCPClientLocation client;
 			if (ARPPayload.getOpCode() == ARP.OP_REQUEST) {
 				// First, check to see if the MAC being requested is the GW/router
-				if (Arrays.equals(DHCP_SERVER_ROUTER_IP, ARPPayload.getTargetProtocolAddress())) {
+				if (Arrays.equals(instance.getRouterIP(), ARPPayload.getTargetProtocolAddress())) {
 					log.debug("Got ARP REQUEST for GW/Router. Sending Reply...");
-					sendARPReply(DHCP_SERVER_ROUTER_MAC, ARPPayload.getSenderHardwareAddress(), 
+					sendARPReply(instance.getRouterMAC(), ARPPayload.getSenderHardwareAddress(), 
 							ARPPayload.getTargetProtocolAddress(), ARPPayload.getSenderHardwareAddress(), 
 							pi.getInPort(), sw);
 				// Then, check to see if it's a known and active client of the DHCP server
-				} else if ((foundMAC = theDHCPPool.lookupBoundMAC(ARPPayload.getSenderProtocolAddress())) != null) {
+				} else if ((client = mobilityIndex.getByIP(IPv4.toIPv4Address(ARPPayload.getTargetProtocolAddress()))) != null) {
 					log.debug("Got ARP REQUEST for local IP. Sending Reply...");
-					sendARPReply(foundMAC, ARPPayload.getSenderHardwareAddress(), 
+					sendARPReply(MACAddress.valueOf(client.getMAC()).toBytes(), ARPPayload.getSenderHardwareAddress(), 
 							ARPPayload.getTargetProtocolAddress(), ARPPayload.getSenderHardwareAddress(), 
 							pi.getInPort(), sw);
 				// Otherwise, we need to let another machine handle the reply, so rebroadcast the request
@@ -1044,6 +1227,9 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 					// This is a DHCP packet that we need to process
 					DHCP DHCPPayload = (DHCP) UDPPayload.getPayload();
 					short inPort = pi.getInPort();
+					// The subnet of the client, and the pool of addresses to lease from it
+					DHCPInstance instance = getInstance(sw.getId(), inPort, DHCPPayload.getGatewayIPAddress());
+					DHCPPool pool = instance.getPool();
 
 					/* DHCP/IPv4 Header Information */
 					int xid = 0;
@@ -1052,7 +1238,9 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 					byte[] chaddr = null;
 					byte[] desiredIPAddr = null;
 					ArrayList<Byte> requestOrder = new ArrayList<Byte>();
+					DHCPOption option;
 					if (DHCPPayload.getOpCode() == DHCP_OPCODE_REQUEST) {
+						DHCPPacketType messageType = DHCPPayload.getPacketType();
 						/**  * (1) DHCP Discover
 						 * -- UDP src port = 68
 						 * -- UDP dst port = 67
@@ -1075,55 +1263,37 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 						 * --		(15) Domain Name
 						 * --		(6) DNS
 						 **/
-						if (Arrays.equals(DHCPPayload.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType).getData(), DHCP_MSG_TYPE_DISCOVER)) {
+						if (messageType == DHCPPacketType.DHCPDISCOVER) {
 							log.debug("DHCP DISCOVER Received");
 							xid = DHCPPayload.getTransactionId();
 							yiaddr = DHCPPayload.getYourIPAddress();
 							// Will have GW IP if a relay agent was used
 							giaddr = DHCPPayload.getGatewayIPAddress();
 							chaddr = Arrays.copyOf(DHCPPayload.getClientHardwareAddress(), DHCPPayload.getClientHardwareAddress().length);
-							List<DHCPOption> options = DHCPPayload.getOptions();
-							for (DHCPOption option : options) {
-								if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_IP) {
-									desiredIPAddr = Arrays.copyOf(option.getData(), option.getData().length);
-									log.debug("Got requested IP");
-								} else if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_PARAMTERS) {
-									log.debug("Got requested param list");
-									requestOrder = getRequestedParameters(DHCPPayload, false); 		
-								}
+							if ((option = DHCPPayload.getOption(DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_IP)) != null) {
+								desiredIPAddr = Arrays.copyOf(option.getData(), option.getData().length);
+								log.debug("Got requested IP");
+							}
+							if (DHCPPayload.getOption(DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_PARAMTERS) != null) {
+								log.debug("Got requested param list");
+								requestOrder = getRequestedParameters(DHCPPayload, false);
 							}
 
 							// Process DISCOVER message and prepare an OFFER with minimum-hold lease
 							// A HOLD lease should be a small amount of time sufficient for the client to respond
 							// with a REQUEST, at which point the ACK will set the least time to the DEFAULT
-							synchronized (theDHCPPool) {
-								if (!theDHCPPool.hasAvailableAddresses()) {
-									log.info("DHCP Pool is full! Consider increasing the pool size.");
-									log.info("Device with MAC " + MACAddress.valueOf(chaddr).toString() + " was not granted an IP lease");
-									return Command.CONTINUE;
-								}
-
-								DHCPBinding lease = theDHCPPool.getStaticLease(chaddr);
-
-								if (lease == null) {
-									lease = theDHCPPool.getSpecificAvailableLease(desiredIPAddr, chaddr);
-								}
-
-								if (lease != null) {
-									log.debug("Checking new lease with specific IP");
-									theDHCPPool.setDHCPbinding(lease, chaddr, DHCP_SERVER_HOLD_LEASE_TIME_SECONDS);
-									yiaddr = IPv4.toIPv4Address(lease.getIPv4AddressBytes());
-									log.debug("Got new lease for " + IPv4.fromIPv4Address(yiaddr) + " " + MACAddress.valueOf(chaddr).toString());
-								} else {
-									log.debug("Checking new lease for any IP");
-									lease = theDHCPPool.getAnyAvailableLease(chaddr);
-									theDHCPPool.setDHCPbinding(lease, chaddr, DHCP_SERVER_HOLD_LEASE_TIME_SECONDS);
-									yiaddr = IPv4.toIPv4Address(lease.getIPv4AddressBytes());
-									log.debug("Got new lease for " + IPv4.fromIPv4Address(yiaddr) + " " + MACAddress.valueOf(chaddr).toString());
-								}
+							// The static lease of the MAC, then the IP asked for, then any IP, each taken by compare-and-set
+							DHCPBinding lease = pool.allocateLease(chaddr, desiredIPAddr, instance.getHoldLeaseTimeSeconds());
+							if (lease == null) {
+								log.info("DHCP Pool is full! Consider increasing the pool size.");
+								log.info("Device with MAC " + MACAddress.valueOf(chaddr).toString() + " was not granted an IP lease");
+								return Command.CONTINUE;
 							}
+							yiaddr = IPv4.toIPv4Address(lease.getIPv4AddressBytes());
+							log.debug("Got new lease for " + IPv4.fromIPv4Address(yiaddr) + " " + MACAddress.valueOf(chaddr).toString());
 
-							sendDHCPOffer(sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);
+							scheduleLeasePolice(false);
+							sendDHCPOffer(instance, sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);
 						} // END IF DISCOVER
 
 						/** (3) DHCP Request
@@ -1143,7 +1313,7 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 						 * --	Option 50 = IP requested (from offer)
 						 * --	Option 54 = DHCP DHCPServer IP
 						 **/
-						else if (Arrays.equals(DHCPPayload.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType).getData(), DHCP_MSG_TYPE_REQUEST)) {
+						else if (messageType == DHCPPacketType.DHCPREQUEST) {
 							log.debug("DHCP REQUEST received");
 							IPv4SrcAddr = IPv4Payload.getSourceAddress();
 							xid = DHCPPayload.getTransactionId();
@@ -1151,64 +1321,72 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 							giaddr = DHCPPayload.getGatewayIPAddress();
 							chaddr = Arrays.copyOf(DHCPPayload.getClientHardwareAddress(), DHCPPayload.getClientHardwareAddress().length);
 
-							List<DHCPOption> options = DHCPPayload.getOptions();
-							for (DHCPOption option : options) {
-								if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_IP) {
-									desiredIPAddr = Arrays.copyOf(option.getData(), option.getData().length);
-									// TODO: Double-check to make sure checking if this is NULL breaks anything else somewhere (logic-wise)
-									if (theDHCPPool.getDHCPbindingFromMAC(chaddr) != null && !Arrays.equals(option.getData(), theDHCPPool.getDHCPbindingFromMAC(chaddr).getIPv4AddressBytes())) {
-										// This client wants a different IP than what we have on file, so cancel its HOLD lease now (if we have one)
-										theDHCPPool.cancelLeaseOfMAC(chaddr);
-										return Command.CONTINUE;
-									}
-								} else if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_DHCP_SERVER) {
-									if (!Arrays.equals(option.getData(), DHCP_SERVER_DHCP_SERVER_IP)) {
-										// We're not the DHCPServer the client wants to use, so cancel its HOLD lease now and ignore the client
-										theDHCPPool.cancelLeaseOfMAC(chaddr);
-										return Command.CONTINUE;
+							if ((option = DHCPPayload.getOption(DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_IP)) != null) {
+								desiredIPAddr = Arrays.copyOf(option.getData(), option.getData().length);
+								// TODO: Double-check to make sure checking if this is NULL breaks anything else somewhere (logic-wise)
+								if (pool.getDHCPbindingFromMAC(chaddr) != null && !Arrays.equals(option.getData(), pool.getDHCPbindingFromMAC(chaddr).getIPv4AddressBytes())) {
+									// This client wants a different IP than what we have on file, so cancel its HOLD lease now (if we have one)
+									if (pool.cancelLeaseOfMAC(chaddr)) {
+										forgetClient(MACAddress.valueOf(chaddr).toLong());
 									}
-								} else if (option.getCode() == DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_PARAMTERS) {
-									requestOrder = getRequestedParameters(DHCPPayload, false);
+									return Command.CONTINUE;
 								}
 							}
+							if ((option = DHCPPayload.getOption(DHCP_REQ_PARAM_OPTION_CODE_DHCP_SERVER)) != null
+									&& !Arrays.equals(option.getData(), DHCP_SERVER_DHCP_SERVER_IP)) {
+								// We're not the DHCPServer the client wants to use, so cancel its HOLD lease now and ignore the client
+								if (pool.cancelLeaseOfMAC(chaddr)) {
+									forgetClient(MACAddress.valueOf(chaddr).toLong());
+								}
+								return Command.CONTINUE;
+							}
+							if (DHCPPayload.getOption(DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_PARAMTERS) != null) {
+								requestOrder = getRequestedParameters(DHCPPayload, false);
+							}
 							// Process REQUEST message and prepare an ACK with default lease time
 							// This extends the hold lease time to that of a normal lease
 							boolean sendACK = true;
-							synchronized (theDHCPPool) {
-								if (!theDHCPPool.hasAvailableAddresses()) {
+							// Only this client's requests are held off; its lease cannot be taken or expire meanwhile
+							synchronized (pool.getLock(chaddr)) {
+								if (!pool.hasAvailableAddresses()) {
 									log.info("DHCP Pool is full! Consider increasing the pool size.");
 									log.info("Device with MAC " + MACAddress.valueOf(chaddr).toString() + " was not granted an IP lease");
 									return Command.CONTINUE;
 								}
-								DHCPBinding lease = theDHCPPool.getStaticLease(chaddr);
+								DHCPBinding lease = pool.getStaticLease(chaddr);
 
 								// Get any binding, in use now or not
 								if (desiredIPAddr != null && lease == null) {
-									lease = theDHCPPool.getDHCPbindingFromIPv4(desiredIPAddr);
+									lease = pool.getDHCPbindingFromIPv4(desiredIPAddr);
 								} else if (lease == null) {
-									lease = theDHCPPool.getAnyAvailableLease(chaddr);
+									lease = pool.getAnyAvailableLease(chaddr);
 								}
 								// This IP is not in our allocation range
 								if (lease == null) {
 									log.info("The IP " + IPv4.fromIPv4Address(IPv4.toIPv4Address(desiredIPAddr)) + " is not in the range " 
-											+ IPv4.fromIPv4Address(IPv4.toIPv4Address(DHCP_SERVER_IP_START)) + " to " + IPv4.fromIPv4Address(IPv4.toIPv4Address(DHCP_SERVER_IP_STOP)));
+											+ IPv4.fromIPv4Address(IPv4.toIPv4Address(instance.getStartIP())) + " to " + IPv4.fromIPv4Address(IPv4.toIPv4Address(instance.getStopIP())));
 									log.info("Device with MAC " + MACAddress.valueOf(chaddr).toString() + " was not granted an IP lease");
 									sendACK = false;
 									// Determine if the IP in the binding we just retrieved is okay to allocate to the MAC requesting it
-								} else if (!lease.isMACMemberOf(chaddr) && lease.isActiveLease()) {
+								} else if (!lease.isLeasedTo(chaddr) && lease.isActiveLease()) {
 									log.debug("Tried to REQUEST an IP that is currently assigned to another MAC");
 									log.debug("Device with MAC " + MACAddress.valueOf(chaddr).toString() + " was not granted an IP lease");
 									sendACK = false;
 									// Check if we want to renew the MAC's current lease
-								} else if (lease.isMACMemberOf(chaddr) && lease.isActiveLease()) {
+								} else if (lease.isLeasedTo(chaddr)) {
 									log.debug("Renewing lease for MAC " + MACAddress.valueOf(chaddr).toString());
-									theDHCPPool.renewLease(lease.getIPv4AddressBytes(), DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS);
+									if (!pool.renewLease(lease.getIPv4AddressBytes(), instance.getDefaultLeaseTimeSeconds())) {
+										sendACK = false;
+									}
 									yiaddr = IPv4.toIPv4Address(lease.getIPv4AddressBytes());
 									log.debug("Finalized renewed lease for " + IPv4.fromIPv4Address(yiaddr) + " " + MACAddress.valueOf(chaddr).toString());
 									// Check if we want to create a new lease for the MAC
 								} else if (!lease.isActiveLease()){
 									log.debug("Assigning new lease for MAC " + MACAddress.valueOf(chaddr).toString());
-									theDHCPPool.setDHCPbinding(lease, chaddr, DHCP_SERVER_DEFAULT_LEASE_TIME_SECONDS);
+									if (!pool.setDHCPbinding(lease, chaddr, instance.getDefaultLeaseTimeSeconds())) {
+										log.debug("The IP was assigned to another MAC in the meantime");
+										sendACK = false;
+									}
 									yiaddr = IPv4.toIPv4Address(lease.getIPv4AddressBytes());
 									log.debug("Finalized renewed lease for " + IPv4.fromIPv4Address(yiaddr) + " " + MACAddress.valueOf(chaddr).toString());
 								} else {
@@ -1220,42 +1398,42 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 								}
 							}
 							if (sendACK) {
-								sendDHCPAck(sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
+								scheduleLeasePolice(false);
+								sendDHCPAck(instance, sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
 							} else {
 								sendDHCPNack(sw, inPort, chaddr, giaddr, xid);
 							}
 						} // END IF REQUEST
-						else if (Arrays.equals(DHCPPayload.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType).getData(), DHCP_MSG_TYPE_RELEASE)) {
+						else if (messageType == DHCPPacketType.DHCPRELEASE) {
 							if (DHCPPayload.getServerIPAddress() != CONTROLLER_IP) {
 								log.info("DHCP RELEASE message not for our DHCP server");
 								// Send the packet out the port it would normally go out via the Forwarding module
 								// Execution jumps to return Command.CONTINUE at end of receive()
 							} else {
 								log.debug("Got DHCP RELEASE. Cancelling remaining time on DHCP lease");
-								synchronized(theDHCPPool) {
-									if (theDHCPPool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress())) {
-										log.info("Cancelled DHCP lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString());
-										log.info("IP " + theDHCPPool.getDHCPbindingFromMAC(DHCPPayload.getClientHardwareAddress()).getIPv4AddresString()
-												+ " is now available in the DHCP address pool");
-									} else {
-										log.debug("Lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString()
-												+ " was already inactive");
-									}
+								byte[] releasedIP = pool.lookupBoundIP(DHCPPayload.getClientHardwareAddress());
+								if (pool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress()) && releasedIP != null) {
+									forgetClient(MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toLong());
+									log.info("Cancelled DHCP lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString());
+									log.info("IP " + IPv4.fromIPv4Address(IPv4.toIPv4Address(releasedIP))
+											+ " is now available in the DHCP address pool");
+								} else {
+									log.debug("Lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString()
+											+ " was already inactive");
 								}
 							}
 						} // END IF RELEASE
-						else if (Arrays.equals(DHCPPayload.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType).getData(), DHCP_MSG_TYPE_DECLINE)) {
+						else if (messageType == DHCPPacketType.DHCPDECLINE) {
 							log.debug("Got DHCP DECLINE. Cancelling HOLD time on DHCP lease");
-							synchronized(theDHCPPool) {
-								if (theDHCPPool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress())) {
-									log.info("Cancelled DHCP lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString());
-								} else {
-									log.info("HOLD Lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString()
-											+ " has already expired");
-								}
+							if (pool.cancelLeaseOfMAC(DHCPPayload.getClientHardwareAddress())) {
+								forgetClient(MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toLong());
+								log.info("Cancelled DHCP lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString());
+							} else {
+								log.info("HOLD Lease of " + MACAddress.valueOf(DHCPPayload.getClientHardwareAddress()).toString()
+										+ " has already expired");
 							}
 						} // END IF DECLINE
-						else if (Arrays.equals(DHCPPayload.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType).getData(), DHCP_MSG_TYPE_INFORM)) {
+						else if (messageType == DHCPPacketType.DHCPINFORM) {
 							log.debug("Got DHCP INFORM. Retreiving requested parameters from message");
 							IPv4SrcAddr = IPv4Payload.getSourceAddress();
 							xid = DHCPPayload.getTransactionId();
@@ -1264,10 +1442,12 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 							chaddr = Arrays.copyOf(DHCPPayload.getClientHardwareAddress(), DHCPPayload.getClientHardwareAddress().length);
 
 							// Get the requests from the INFORM message. True for inform -- we don't want to include lease information
-							requestOrder = getRequestedParameters(DHCPPayload, true);
+							if (DHCPPayload.getOption(DHCP_REQ_PARAM_OPTION_CODE_REQUESTED_PARAMTERS) != null) {
+								requestOrder = getRequestedParameters(DHCPPayload, true);
+							}
 
 							// Process INFORM message and send an ACK with requested information
-							sendDHCPAck(sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
+							sendDHCPAck(instance, sw, inPort, chaddr, IPv4SrcAddr, yiaddr, giaddr, xid, requestOrder);							
 						} // END IF INFORM
 					} // END IF DHCP OPCODE REQUEST 
 					else if (DHCPPayload.getOpCode() == DHCP_OPCODE_REPLY) {
@@ -1284,162 +1464,129 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 		return Command.CONTINUE;
 	} // END of receive(pkt)
 
+	/**
+	 * Points the flow of a client on the root OVS at the network the client is on, and
+	 * records where the client is in the mobility index. A new client gets its home switch
+	 * and its first flow; a client that has moved has its flow replaced. The flows are
+	 * pushed by the DHCPFlowBatcher, in a batch with those of any other clients moving at
+	 * the same time.
+	 * @param {@code DHCPBinding} clientBinding: The lease of the client
+	 * @param {@code IOFSwitch} sw: The switch the client's REQUEST came from
+	 * @param {@code short} inPort: The port the client's REQUEST came in on
+	 */
 	public void updateClientLocation(DHCPBinding clientBinding, IOFSwitch sw, short inPort) {
 		// If the client is new, then give it a home switch...
 		if (clientBinding.getHomeSwitch().equals("")) {
 			clientBinding.setHomeSwitch(sw.getStringId());
 			log.debug("Setting home switch for client " + clientBinding.getIPv4AddresString() + " " + clientBinding.getMACAddressesString() 
 					+ " " + sw.getStringId());
-			// Set flows for the home (current) switch
-			if (sw.getStringId().equals(WIFI_NODE_WIFI_OVS_DPID)) {
-				log.info("Adding INITIAL WIFI FLOW for client " + clientBinding.getIPv4AddresString() + " at " + clientBinding.getHomeSwitch() );
-				OFFlowMod flow = new OFFlowMod();
-				OFMatch match = new OFMatch();
-				OFActionDataLayerDestination dldstAction = new OFActionDataLayerDestination();
-				ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-				OFActionOutput outputAction = new OFActionOutput();
-				match.setInputPort(OFPort.OFPP_LOCAL.getValue());
-				match.setDataLayerType(Ethernet.TYPE_IPv4);
-				match.setNetworkDestination(IPv4.toIPv4Address(clientBinding.getIPv4AddressBytes())); // match only our client's packets
-				dldstAction.setType(OFActionType.SET_DL_DST);
-				dldstAction.setDataLayerAddress(clientBinding.getCurrentMACAddressBytes());
-				dldstAction.setLength((short) OFActionDataLayerDestination.MINIMUM_LENGTH);
-				actionList.add(dldstAction);
-				outputAction.setType(OFActionType.OUTPUT);
-				outputAction.setPort(ROOT_NODE_ROOT_OVS_WIFI_PATCH);
-				outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-				actionList.add(outputAction);
-				flow.setCookie(0);
-				flow.setBufferId(-1);
-				flow.setOutPort(ROOT_NODE_ROOT_OVS_WIFI_PATCH);
-				flow.setActions(actionList);
-				flow.setMatch(match);
-				flow.setPriority((short) 32768);
-				flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + outputAction.getLengthU() + dldstAction.getLengthU());
-				String flowName = "WiFi-client-" + clientBinding.getIPv4AddresString();
-				sfp.addFlow(flowName, flow, ROOT_NODE_ROOT_OVS_DPID);
-				clientBinding.setFlowName(flowName);
-				log.info("added flow on SW " + ROOT_NODE_ROOT_OVS_DPID + flowName);
-				actionList.clear();
-			} else if (sw.getStringId().equals(ROOT_NODE_WIMAX_OVS_DPID)) {
-				log.info("Adding INITIAL WIMAX FLOW for client " + clientBinding.getIPv4AddresString() + " at " + clientBinding.getHomeSwitch() );
-				OFFlowMod flow = new OFFlowMod();
-				OFMatch match = new OFMatch();
-				OFActionDataLayerDestination dldstAction = new OFActionDataLayerDestination();
-				ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-				OFActionOutput outputAction = new OFActionOutput();
-				match.setInputPort(OFPort.OFPP_LOCAL.getValue());
-				match.setDataLayerType(Ethernet.TYPE_IPv4);
-				match.setNetworkDestination(IPv4.toIPv4Address(clientBinding.getIPv4AddressBytes())); // match only our client's packets
-				dldstAction.setType(OFActionType.SET_DL_DST);
-				dldstAction.setDataLayerAddress(clientBinding.getCurrentMACAddressBytes());
-				dldstAction.setLength((short) OFActionDataLayerDestination.MINIMUM_LENGTH);
-				actionList.add(dldstAction);
-				outputAction.setType(OFActionType.OUTPUT);
-				outputAction.setPort(ROOT_NODE_ROOT_OVS_WIMAX_PATCH);
-				outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-				actionList.add(outputAction);
-				flow.setCookie(0);
-				flow.setBufferId(-1);
-				flow.setOutPort(ROOT_NODE_ROOT_OVS_WIMAX_PATCH);
-				flow.setActions(actionList);
-				flow.setMatch(match);
-				flow.setPriority((short) 32768);
-				flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + outputAction.getLengthU() + dldstAction.getLengthU());
-				String flowName = "WiMAX-client-" + clientBinding.getIPv4AddresString();
-				sfp.addFlow(flowName, flow, ROOT_NODE_ROOT_OVS_DPID);
-				clientBinding.setFlowName(flowName);
-				log.info("added flow on SW " + ROOT_NODE_ROOT_OVS_DPID + flowName);
-				actionList.clear();
-			}
-			// If the client has already associated with a network (and thus has a flow name)
+		}
+		long mac = MACAddress.valueOf(clientBinding.getCurrentMACAddressBytes()).toLong();
+		int ip = IPv4.toIPv4Address(clientBinding.getIPv4AddressBytes());
+		// The client's flow is the one of its last location, which it keeps on a switch of neither network.
+		// A flow for an address the client had before is replaced all the same, so it does not linger.
+		DHCPClientLocation location = mobilityIndex.getByMAC(mac);
+		String oldFlowName = (location == null) ? null : location.getFlowName();
+		long oldCookie = (location == null) ? 0 : location.getCookie();
+		String flowName;
+		short patchPort;
+		if (sw.getStringId().equals(WIFI_NODE_WIFI_OVS_DPID)) {
+			flowName = "WiFi-client-" + clientBinding.getIPv4AddresString();
+			patchPort = ROOT_NODE_ROOT_OVS_WIFI_PATCH;
 		} else if (sw.getStringId().equals(ROOT_NODE_WIMAX_OVS_DPID)) {
-			if (clientBinding.getFlowName().startsWith("WiMAX")) {
-				log.debug("Client is still @ WiMAX!");
-			} else if (clientBinding.getFlowName().startsWith("WiFi")) {
-				// Client is new to the WiMAX network
-				sfp.deleteFlow(clientBinding.getFlowName());
-				clientBinding.setFlowName("");
-				log.debug("Client has arrived @ WiMAX!");
-				log.info("Adding WIMAX FLOW for client " + clientBinding.getIPv4AddresString() + " at " + clientBinding.getHomeSwitch() );
-				OFFlowMod flow = new OFFlowMod();
-				OFMatch match = new OFMatch();
-				OFActionDataLayerDestination dldstAction = new OFActionDataLayerDestination();
-				ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-				OFActionOutput outputAction = new OFActionOutput();
-				match.setInputPort(OFPort.OFPP_LOCAL.getValue());
-				match.setDataLayerType(Ethernet.TYPE_IPv4);
-				match.setNetworkDestination(IPv4.toIPv4Address(clientBinding.getIPv4AddressBytes())); // match only our client's packets
-				dldstAction.setType(OFActionType.SET_DL_DST);
-				dldstAction.setDataLayerAddress(clientBinding.getCurrentMACAddressBytes());
-				dldstAction.setLength((short) OFActionDataLayerDestination.MINIMUM_LENGTH);
-				actionList.add(dldstAction);
-				outputAction.setType(OFActionType.OUTPUT);
-				outputAction.setPort(ROOT_NODE_ROOT_OVS_WIMAX_PATCH);
-				outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-				actionList.add(outputAction);
-				flow.setCookie(0);
-				flow.setBufferId(-1);
-				flow.setOutPort(ROOT_NODE_ROOT_OVS_WIMAX_PATCH);
-				flow.setActions(actionList);
-				flow.setMatch(match);
-				flow.setPriority((short) 32768);
-				flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + outputAction.getLengthU() + dldstAction.getLengthU());
-				String flowName = "WiMAX-client-" + clientBinding.getIPv4AddresString();
-				sfp.addFlow(flowName, flow, ROOT_NODE_ROOT_OVS_DPID);
-				clientBinding.setFlowName(flowName);
-				log.info("added flow on SW " + ROOT_NODE_ROOT_OVS_DPID + flowName);
-				actionList.clear();
-			}
-		} else if (sw.getStringId().equals(WIFI_NODE_WIFI_OVS_DPID)) {
-			if (clientBinding.getFlowName().startsWith("WiFi")) {
-				log.debug("Client is still @ WiFi!");
-			} else if (clientBinding.getFlowName().startsWith("WiMAX")) {
-				// Client is new to the WiFi network
-				sfp.deleteFlow(clientBinding.getFlowName());
-				clientBinding.setFlowName("");
-				log.debug("Client has arrived @ WiFi!");
-				log.info("Adding WIFI FLOW for client " + clientBinding.getIPv4AddresString() + " at " + clientBinding.getHomeSwitch() );
-				OFFlowMod flow = new OFFlowMod();
-				OFMatch match = new OFMatch();
-				OFActionDataLayerDestination dldstAction = new OFActionDataLayerDestination();
-				ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-				OFActionOutput outputAction = new OFActionOutput();
-				match.setInputPort(OFPort.OFPP_LOCAL.getValue());
-				match.setDataLayerType(Ethernet.TYPE_IPv4);
-				match.setNetworkDestination(IPv4.toIPv4Address(clientBinding.getIPv4AddressBytes())); // match only our client's packets
-				dldstAction.setType(OFActionType.SET_DL_DST);
-				dldstAction.setDataLayerAddress(clientBinding.getCurrentMACAddressBytes());
-				dldstAction.setLength((short) OFActionDataLayerDestination.MINIMUM_LENGTH);
-				actionList.add(dldstAction);
-				outputAction.setType(OFActionType.OUTPUT);
-				outputAction.setPort(ROOT_NODE_ROOT_OVS_WIFI_PATCH);
-				outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-				actionList.add(outputAction);
-				flow.setCookie(0);
-				flow.setBufferId(-1);
-				flow.setOutPort(ROOT_NODE_ROOT_OVS_WIFI_PATCH);
-				flow.setActions(actionList);
-				flow.setMatch(match);
-				flow.setPriority((short) 32768);
-				flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + outputAction.getLengthU() + dldstAction.getLengthU());
-				String flowName = "WiFi-client-" + clientBinding.getIPv4AddresString();
-				sfp.addFlow(flowName, flow, ROOT_NODE_ROOT_OVS_DPID);
-				clientBinding.setFlowName(flowName);
-				log.info("added flow on SW " + ROOT_NODE_ROOT_OVS_DPID + flowName);
-				actionList.clear();
+			flowName = "WiMAX-client-" + clientBinding.getIPv4AddresString();
+			patchPort = ROOT_NODE_ROOT_OVS_WIMAX_PATCH;
+		} else {
+			if (oldFlowName != null && location.getIP() != ip) {
+				// Nothing replaces the flow of the old address here
+				deleteClientFlow(oldFlowName);
+				oldFlowName = null;
+				oldCookie = 0;
 			}
+			mobilityIndex.move(mac, ip, sw.getId(), inPort, oldFlowName, oldCookie);
+			return;
 		}
-		return;
+		if (flowName.equals(oldFlowName)) {
+			log.debug("Client " + clientBinding.getIPv4AddresString() + " is still @ " + sw.getStringId());
+			mobilityIndex.move(mac, ip, sw.getId(), inPort, oldFlowName, oldCookie);
+			return;
+		}
+		if (oldFlowName == null) {
+			log.info("Adding INITIAL FLOW " + flowName + " for client at " + clientBinding.getHomeSwitch());
+		} else {
+			log.info("Client has moved from " + oldFlowName + "; adding FLOW " + flowName);
+		}
+		OFFlowMod flow = buildClientFlow(clientBinding, patchPort);
+		// Recorded right away, so the next REQUEST of the client sees where it is
+		mobilityIndex.move(mac, ip, sw.getId(), inPort, flowName, StaticFlowEntries.computeEntryCookie(flow, 0, flowName));
+		clientBinding.setFlowName(flowName);
+		if (flowBatcher != null) {
+			flowBatcher.relocate(ROOT_NODE_ROOT_OVS_DPID, oldFlowName, flowName, flow);
+		}
+	}
+
+	/**
+	 * Forgets where a client whose lease has ended is, and takes its flow off the root OVS.
+	 * @param {@code long} mac: The MAC address of the client
+	 */
+	protected void forgetClient(long mac) {
+		DHCPClientLocation location = mobilityIndex.remove(mac);
+		if (location != null && location.getFlowName() != null) {
+			log.info("Removing FLOW " + location.getFlowName() + " of client " + MACAddress.valueOf(mac).toString());
+			deleteClientFlow(location.getFlowName());
+		}
+	}
+
+	private void deleteClientFlow(String flowName) {
+		if (sfp != null) {
+			sfp.deleteFlow(flowName);
+		}
+	}
+
+	/**
+	 * @param {@code DHCPBinding} clientBinding: The lease of the client
+	 * @param {@code short} patchPort: The root OVS patch port of the network the client is on
+	 * @return {@code OFFlowMod}: The flow on the root OVS sending the client's packets to that network
+	 */
+	protected OFFlowMod buildClientFlow(DHCPBinding clientBinding, short patchPort) {
+		OFFlowMod flow = new OFFlowMod();
+		OFMatch match = new OFMatch();
+		OFActionDataLayerDestination dldstAction = new OFActionDataLayerDestination();
+		ArrayList<OFAction> actionList = new ArrayList<OFAction>();
+		OFActionOutput outputAction = new OFActionOutput();
+		match.setInputPort(OFPort.OFPP_LOCAL.getValue());
+		match.setDataLayerType(Ethernet.TYPE_IPv4);
+		match.setNetworkDestination(IPv4.toIPv4Address(clientBinding.getIPv4AddressBytes())); // match only our client's packets
+		// The flow goes to the switch as it is, not through storage, so it must say which fields it matches
+		match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE & ~OFMatch.OFPFW_NW_DST_MASK);
+		dldstAction.setType(OFActionType.SET_DL_DST);
+		dldstAction.setDataLayerAddress(clientBinding.getCurrentMACAddressBytes());
+		dldstAction.setLength((short) OFActionDataLayerDestination.MINIMUM_LENGTH);
+		actionList.add(dldstAction);
+		outputAction.setType(OFActionType.OUTPUT);
+		outputAction.setPort(patchPort);
+		outputAction.setLength((short) OFActionOutput.MINIMUM_LENGTH);
+		actionList.add(outputAction);
+		flow.setCookie(0);
+		flow.setBufferId(-1);
+		flow.setOutPort(patchPort);
+		flow.setActions(actionList);
+		flow.setMatch(match);
+		flow.setPriority((short) 32768);
+		flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + outputAction.getLengthU() + dldstAction.getLengthU());
+		return flow;
 	}
 
 	/**
 	 * DHCPLeasePolice is a simple class that is instantiated and invoked
 	 * as a runnable thread. The objective is to clean up the expired DHCP
-	 * leases on a set time interval. Most DHCP leases are hours in length,
-	 * so the granularity of our check can be on the order of minutes (IMHO).
-	 * The period of the check for expired leases, in seconds, is specified
-	 * in the configuration file:
+	 * leases as they expire. The pool queues leases by their end time, so
+	 * a patrol only looks at the leases that have expired, and each patrol
+	 * schedules the next one for when the next lease expires. A new lease
+	 * that expires before then brings the patrol forward.
+	 * 
+	 * Patrols are at most a period apart, which is specified in the
+	 * configuration file:
 	 * 
 	 * 		floodlight/src/main/resources/floodlightdefault.properties
 	 * 
@@ -1455,16 +1602,23 @@ public class DHCPServer implements IOFMessageListener, IFloodlightModule  {
 	class DHCPLeasePolice implements Runnable {
 		@Override
 		public void run() {
-			log.info("Cleaning any expired DHCP leases...");
-			ArrayList<DHCPBinding> newAvailableBindings;
-			synchronized(theDHCPPool) {
-				// Loop through lease pool and check all leases to see if they are expired
-				// If a lease is expired, then clean it up and make the binding available
-				newAvailableBindings = theDHCPPool.cleanExpiredLeases();
-			}
-			for (DHCPBinding binding : newAvailableBindings) {
-				log.info("MAC " + binding.getMACAddressesString() + " has expired");
-				log.info("Lease now available for IP " + binding.getIPv4AddresString());
+			log.debug("Cleaning any expired DHCP leases...");
+			try {
+				// Only the leases that are past their end time are cleaned up and made available
+				for (DHCPInstance instance : instances) {
+					ArrayList<DHCPBinding> newAvailableBindings = instance.getPool().cleanExpiredLeases();
+					for (DHCPBinding binding : newAvailableBindings) {
+						// The MAC addresses of the binding are forgotten on release, so the client is found by its address
+						DHCPClientLocation location = mobilityIndex.getByIP(IPv4.toIPv4Address(binding.getIPv4AddressBytes()));
+						if (location != null) {
+							forgetClient(location.getMAC());
+						}
+						log.info("MAC " + binding.getMACAddressesString() + " has expired");
+						log.info("Lease now available for IP " + binding.getIPv4AddresString() + " in DHCP pool " + instance.getName());
+					}
+				}
+			} finally {
+				scheduleLeasePolice(true);
 			}
 		}
 	} // END DHCPLeasePolice Class
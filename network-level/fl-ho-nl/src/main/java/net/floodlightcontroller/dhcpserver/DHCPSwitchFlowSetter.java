@@ -1,11 +1,24 @@
 package net.floodlightcontroller.dhcpserver;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPort;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
@@ -23,13 +36,27 @@ import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.UDP;
-
 import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
-// Adding a comment to test a new commit
+import net.floodlightcontroller.staticflowentry.StaticFlowEntries;
+
+/**
+ * Inserts the flows on the OVS bridges of the handover network that patch
+ * the bridges together and redirect DHCP client traffic to the controller.
+ *
+ * The flows of each bridge are built once, at startup, and written to the
+ * bridge directly whenever it connects, as one batch followed by a barrier.
+ * A bridge that does not answer the barrier in time gets the batch again,
+ * up to MAX_ATTEMPTS times in all. Once a bridge confirms its flows it is
+ * ready (isSwitchReady) until it disconnects, and the flows are registered
+ * with the static flow pusher, so they are listed with the other static
+ * flows. The pusher leaves writing them on reconnect to this module.
+ */
 public class DHCPSwitchFlowSetter implements IFloodlightModule, IOFSwitchListener {
 	protected static Logger log;
 	protected IFloodlightProviderService floodlightProvider;
 	protected IStaticFlowEntryPusherService sfp;
+	// Waits for the barrier after the flows of a switch
+	protected Executor barrierExecutor;
 
 	private static String ROOT_NODE_ROOT_OVS_DPID;
 	private static String ROOT_NODE_WIFI_OVS_DPID;
@@ -53,6 +80,17 @@ public class DHCPSwitchFlowSetter implements IFloodlightModule, IOFSwitchListene
 	private static final short PRIORITY_LOW = (short) 1000;
 	private static final short PRIORITY_MIN = (short) 0;
 
+	private static long BARRIER_TIMEOUT_MS = 1000; // Wait for a switch to confirm its flows
+	// The most times the flows of a switch are written before giving up on it
+	public static final int MAX_ATTEMPTS = 3;
+
+	// switch DPID --> its flows, in the order they are written
+	private final Map<String, List<OFMessage>> FLOWS = new ConcurrentHashMap<String, List<OFMessage>>();
+	// switch DPID --> flow name --> flow, the same flows by the names they are listed under
+	private final Map<String, Map<String, OFFlowMod>> FLOW_NAMES = new ConcurrentHashMap<String, Map<String, OFFlowMod>>();
+	// switches that are connected and have confirmed their flows
+	private final Set<Long> READY_SWITCHES = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
 	@Override
 	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
 		return null;
@@ -76,8 +114,9 @@ public class DHCPSwitchFlowSetter implements IFloodlightModule, IOFSwitchListene
 	public void init(FloodlightModuleContext context)
 			throws FloodlightModuleException {
 		floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
-		log = LoggerFactory.getLogger(DHCPServer.class);
 		sfp = context.getServiceImpl(IStaticFlowEntryPusherService.class);
+		log = LoggerFactory.getLogger(DHCPServer.class);
+		barrierExecutor = Executors.newCachedThreadPool();
 	}
 
 	@Override
@@ -102,6 +141,9 @@ public class DHCPSwitchFlowSetter implements IFloodlightModule, IOFSwitchListene
 			WIFI_NODE_WIFI_OVS_PATCH = Short.parseShort(configOptions.get("wifi-node-wifi-ovs-patch-port"));
 			WIFI_NODE_TUNNEL_OVS_TUNNEL = Short.parseShort(configOptions.get("wifi-node-tunnel-ovs-tunnel-port"));
 			WIFI_NODE_TUNNEL_OVS_PATCH = Short.parseShort(configOptions.get("wifi-node-tunnel-ovs-patch-port"));
+			if (configOptions.get("barrier-timeout-ms") != null) {
+				BARRIER_TIMEOUT_MS = Long.parseLong(configOptions.get("barrier-timeout-ms"));
+			}
 		} catch(IllegalArgumentException ex) {
 			log.error("Incorrect DHCP Switch Flow Setter configuration options (illegal arg)", ex);
 			throw ex;
@@ -109,7 +151,147 @@ public class DHCPSwitchFlowSetter implements IFloodlightModule, IOFSwitchListene
 			log.error("Incorrect DHCP Switch Flow Setter configuration options (null ptr)", ex);
 			throw ex;
 		}
+		buildFlows();
+	}
+
+	/**
+	 * Builds the flows of each switch of the handover network.
+	 */
+	private void buildFlows() {
+		FLOWS.clear();
+		FLOW_NAMES.clear();
+		Map<String, OFFlowMod> flows;
+
+		// root node, WiFi bridge, patch to tunnel port
+		flows = new LinkedHashMap<String, OFFlowMod>();
+		flows.put("root-node-wifi-br-patch-tun", buildFlow(inPortMatch(ROOT_NODE_WIFI_OVS_PATCH), ROOT_NODE_WIFI_OVS_TUNNEL, PRIORITY_HIGH));
+		// root node, WiFi bridge, physical to patch
+		flows.put("root-node-wifi-br-tun-patch", buildFlow(inPortMatch(ROOT_NODE_WIFI_OVS_TUNNEL), ROOT_NODE_WIFI_OVS_PATCH, PRIORITY_HIGH));
+		putFlows(ROOT_NODE_WIFI_OVS_DPID, flows);
+
+		// root node, WiMAX bridge, patch to physical
+		flows = new LinkedHashMap<String, OFFlowMod>();
+		flows.put("root-node-wimax-br-patch-phys", buildFlow(inPortMatch(ROOT_NODE_WIMAX_OVS_PATCH), ROOT_NODE_WIMAX_OVS_VLAN, PRIORITY_HIGH));
+		// root node, WiMAX bridge, interface to patch
+		flows.put("root-node-wimax-br-phys-patch", buildFlow(inPortMatch(ROOT_NODE_WIMAX_OVS_VLAN), ROOT_NODE_WIMAX_OVS_PATCH, PRIORITY_HIGH));
+		// root node, WiMAX bridge, DHCP on physical
+		flows.put("root-node-wimax-br-DHCP-phys", buildFlow(dhcpClientMatch(ROOT_NODE_WIMAX_OVS_VLAN), OFPort.OFPP_CONTROLLER.getValue(), PRIORITY_MAX));
+		putFlows(ROOT_NODE_WIMAX_OVS_DPID, flows);
+
+		// root node, root bridge, patch AP3 (WiFi) to Linux
+		flows = new LinkedHashMap<String, OFFlowMod>();
+		flows.put("root-node-root-br-patchWiFi-linux", buildFlow(inPortMatch(ROOT_NODE_ROOT_OVS_WIFI_PATCH), OFPort.OFPP_LOCAL.getValue(), PRIORITY_HIGH));
+		// root node, root bridge, patch WiMAX to Linux
+		flows.put("root-node-root-br-patchWiMAX-linux", buildFlow(inPortMatch(ROOT_NODE_ROOT_OVS_WIMAX_PATCH), OFPort.OFPP_LOCAL.getValue(), PRIORITY_HIGH));
+		// root node, root bridge, physical to Linux
+		flows.put("root-ovs-root-br-phys-linux", buildFlow(inPortMatch((short) 1), OFPort.OFPP_LOCAL.getValue(), PRIORITY_HIGH));
+		// root node, root bridge, Linux to physical (match extra: src-ip of root node...i.e. it's outbound)
+		OFMatch match = new OFMatch();
+		match.setInputPort(OFPort.OFPP_LOCAL.getValue());
+		match.setDataLayerType(Ethernet.TYPE_IPv4); // ... IP packets ... required for a match on an IP address
+		match.setNetworkSource(ROOT_NODE_ROOT_OVS_IP);
+		match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE & ~OFMatch.OFPFW_NW_SRC_MASK);
+		flows.put("root-ovs-root-br-linux-phys-egress", buildFlow(match, (short) 1, PRIORITY_HIGH));
+		putFlows(ROOT_NODE_ROOT_OVS_DPID, flows);
+
+		// WiFi node, WiFi bridge, physical to patch
+		flows = new LinkedHashMap<String, OFFlowMod>();
+		flows.put("wifi-node-wifi-br-phys-patch", buildFlow(inPortMatch((short) 1), WIFI_NODE_WIFI_OVS_PATCH, PRIORITY_HIGH));
+		// WiFi node, WiFi bridge, patch to physical
+		flows.put("wifi-node-wifi-br-patch-phys", buildFlow(inPortMatch(WIFI_NODE_WIFI_OVS_PATCH), (short) 1, PRIORITY_HIGH));
+		// WiFi node, WiFi bridge, DHCP on physical
+		flows.put("wifi-node-wifi-br-DHCP-phys", buildFlow(dhcpClientMatch((short) 1), OFPort.OFPP_CONTROLLER.getValue(), PRIORITY_MAX));
+		putFlows(WIFI_NODE_WIFI_OVS_DPID, flows);
+
+		// WiFi node, tunnel bridge, tunnel to patch
+		flows = new LinkedHashMap<String, OFFlowMod>();
+		flows.put("wifi-node-tunnel-br-tun-patch", buildFlow(inPortMatch(WIFI_NODE_TUNNEL_OVS_TUNNEL), WIFI_NODE_TUNNEL_OVS_PATCH, PRIORITY_HIGH));
+		// WiFi node, tunnel bridge, patch to tunnel
+		flows.put("wifi-node-tunnel-br-patch-tun", buildFlow(inPortMatch(WIFI_NODE_TUNNEL_OVS_PATCH), WIFI_NODE_TUNNEL_OVS_TUNNEL, PRIORITY_HIGH));
+		putFlows(WIFI_NODE_TUNNEL_OVS_DPID, flows);
+	}
+	/**
+	 * @param {@code short} inPort: The port to match
+	 * @return {@code OFMatch}: A match on the input port only
+	 */
+	private static OFMatch inPortMatch(short inPort) {
+		OFMatch match = new OFMatch();
+		match.setInputPort(inPort);
+		match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT);
+		return match;
+	}
+
+	/**
+	 * @param {@code short} inPort: The port to match
+	 * @return {@code OFMatch}: A match on DHCP client packets coming in the port
+	 */
+	private static OFMatch dhcpClientMatch(short inPort) {
+		OFMatch match = new OFMatch();
+		match.setInputPort(inPort);
+		match.setDataLayerType(Ethernet.TYPE_IPv4);
+		match.setNetworkProtocol(IPv4.PROTOCOL_UDP);
+		match.setTransportSource(UDP.DHCP_CLIENT_PORT);
+		match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE
+				& ~OFMatch.OFPFW_NW_PROTO & ~OFMatch.OFPFW_TP_SRC);
+		return match;
+	}
+
+	/**
+	 * @param {@code OFMatch} match: The match of the flow, with its wildcards set
+	 * @param {@code short} outPort: The port the flow outputs to
+	 * @param {@code short} priority: The priority of the flow
+	 * @return {@code OFFlowMod}: The flow adding a single output action to the match
+	 */
+	private static OFFlowMod buildFlow(OFMatch match, short outPort, short priority) {
+		OFFlowMod flow = new OFFlowMod();
+		ArrayList<OFAction> actionList = new ArrayList<OFAction>();
+		OFActionOutput action = new OFActionOutput();
+		action.setType(OFActionType.OUTPUT);
+		action.setPort(outPort);
+		action.setMaxLength(Short.MAX_VALUE); // whole packets to the controller
+		action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
+		actionList.add(action);
+		flow.setCommand(OFFlowMod.OFPFC_ADD);
+		flow.setCookie(0);
+		flow.setBufferId(-1);
+		flow.setOutPort(outPort);
+		flow.setActions(actionList);
+		flow.setMatch(match);
+		flow.setPriority(priority);
+		flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
+		return flow;
+	}
+
+	/**
+	 * Keeps the flows of a switch, each with the cookie of a static flow of its name.
+	 * @param {@code String} dpid: The DPID of the switch, or null if it is not configured
+	 * @param {@code Map<String, OFFlowMod>} flows: The flows by name, in the order they are written
+	 */
+	private void putFlows(String dpid, Map<String, OFFlowMod> flows) {
+		if (dpid != null) {
+			for (Entry<String, OFFlowMod> e : flows.entrySet()) {
+				e.getValue().setCookie(StaticFlowEntries.computeEntryCookie(e.getValue(), 0, e.getKey()));
+			}
+			FLOWS.put(dpid, Collections.unmodifiableList(new ArrayList<OFMessage>(flows.values())));
+			FLOW_NAMES.put(dpid, Collections.unmodifiableMap(flows));
+		}
+	}
+
+	/**
+	 * @param {@code String} dpid: The DPID of a switch
+	 * @return {@code List<OFMessage>}: The flows the switch gets when it connects, or an empty list
+	 */
+	protected List<OFMessage> getFlows(String dpid) {
+		List<OFMessage> flows = FLOWS.get(dpid);
+		return (flows == null) ? Collections.<OFMessage>emptyList() : flows;
+	}
 
+	/**
+	 * @param {@code long} dpid: The DPID of a switch
+	 * @return {@code boolean}: Whether the switch is connected and has confirmed its flows
+	 */
+	public boolean isSwitchReady(long dpid) {
+		return READY_SWITCHES.contains(dpid);
 	}
 
 	@Override
@@ -118,293 +300,86 @@ public class DHCPSwitchFlowSetter implements IFloodlightModule, IOFSwitchListene
 		 * DHCP client --> DHCP DHCPServer traffic to the controller.
 		 * DHCP client's operate on UDP port 67
 		 */
-		OFFlowMod flow = new OFFlowMod();
-		OFMatch match = new OFMatch();
-		ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-		OFActionOutput action = new OFActionOutput();
-		String flowName;
-		
-		if (sw.getStringId().equals(ROOT_NODE_WIFI_OVS_DPID)) {
-			// root node, WiFi bridge, patch to tunnel port
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(ROOT_NODE_WIFI_OVS_PATCH);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(ROOT_NODE_WIFI_OVS_TUNNEL);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ROOT_NODE_WIFI_OVS_TUNNEL);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-node-wifi-br-patch-tun";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// root node, WiFi bridge, physical to patch
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(ROOT_NODE_WIFI_OVS_TUNNEL);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(ROOT_NODE_WIFI_OVS_PATCH);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ROOT_NODE_WIFI_OVS_PATCH);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-node-wifi-br-tun-patch";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-		} else if (sw.getStringId().equals(ROOT_NODE_WIMAX_OVS_DPID)) {
-			// root node, WiMAX bridge, patch to physical
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(ROOT_NODE_WIMAX_OVS_PATCH);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(ROOT_NODE_WIMAX_OVS_VLAN);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ROOT_NODE_WIMAX_OVS_VLAN);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-node-wimax-br-patch-phys";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// root node, WiMAX bridge, interface to patch
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(ROOT_NODE_WIMAX_OVS_VLAN);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(ROOT_NODE_WIMAX_OVS_PATCH);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(ROOT_NODE_WIMAX_OVS_PATCH);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-node-wimax-br-phys-patch";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// root node, WiMAX bridge, DHCP on physical
-			match.setInputPort(ROOT_NODE_WIMAX_OVS_VLAN);
-			match.setDataLayerType(Ethernet.TYPE_IPv4);
-			match.setNetworkProtocol(IPv4.PROTOCOL_UDP);
-			match.setTransportSource(UDP.DHCP_CLIENT_PORT);
-			action.setType(OFActionType.OUTPUT);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			action.setPort(OFPort.OFPP_CONTROLLER.getValue());
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(OFPort.OFPP_CONTROLLER.getValue());
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_MAX);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-node-wimax-br-DHCP-phys";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-		} else if (sw.getStringId().equals(ROOT_NODE_ROOT_OVS_DPID)) {	
-			// root node, root bridge, patch AP3 (WiFi) to Linux
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(ROOT_NODE_ROOT_OVS_WIFI_PATCH);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(OFPort.OFPP_LOCAL.getValue());
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(OFPort.OFPP_LOCAL.getValue());
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-node-root-br-patchWiFi-linux";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// root node, root bridge, patch WiMAX to Linux
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(ROOT_NODE_ROOT_OVS_WIMAX_PATCH);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(OFPort.OFPP_LOCAL.getValue());
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(OFPort.OFPP_LOCAL.getValue());
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-node-root-br-patchWiMAX-linux";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// root node, root bridge, physical to Linux
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort((short) 1);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(OFPort.OFPP_LOCAL.getValue());
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(OFPort.OFPP_LOCAL.getValue());
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-ovs-root-br-phys-linux";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// root node, root bridge, Linux to physical (match extra: src-ip of root node...i.e. it's outbound)
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(OFPort.OFPP_LOCAL.getValue());
-			match.setDataLayerType(Ethernet.TYPE_IPv4); // ... IP packets ... required for a match on an IP address
-			match.setNetworkSource(ROOT_NODE_ROOT_OVS_IP);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort((short) 1);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort((short) 1);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "root-ovs-root-br-linux-phys-egress";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-		} else if (sw.getStringId().equals(WIFI_NODE_WIFI_OVS_DPID)) {
-			// WiFi node, WiFi bridge, physical to patch
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort((short) 1);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(WIFI_NODE_WIFI_OVS_PATCH);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(WIFI_NODE_WIFI_OVS_PATCH);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "wifi-node-wifi-br-phys-patch";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// WiFi node, WiFi bridge, patch to physical
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(WIFI_NODE_WIFI_OVS_PATCH);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort((short) 1);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort((short) 1);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "wifi-node-wifi-br-patch-phys";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// root node, WiMAX bridge, DHCP on physical
-			match.setInputPort((short) 1);
-			match.setDataLayerType(Ethernet.TYPE_IPv4);
-			match.setNetworkProtocol(IPv4.PROTOCOL_UDP);
-			match.setTransportSource(UDP.DHCP_CLIENT_PORT);
-			action.setType(OFActionType.OUTPUT);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			action.setPort(OFPort.OFPP_CONTROLLER.getValue());
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(OFPort.OFPP_CONTROLLER.getValue());
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_MAX);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "wifi-node-wifi-br-DHCP-phys";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-		} else if (sw.getStringId().equals(WIFI_NODE_TUNNEL_OVS_DPID)) {
-			// WiFi node, tunnel bridge, tunnel to patch
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(WIFI_NODE_TUNNEL_OVS_TUNNEL);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(WIFI_NODE_TUNNEL_OVS_PATCH);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(WIFI_NODE_TUNNEL_OVS_PATCH);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "wifi-node-tunnel-br-tun-patch";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
-			// WiFi node, tunnel bridge, patch to tunnel
-			flow = new OFFlowMod();
-			match = new OFMatch();
-			match.setInputPort(WIFI_NODE_TUNNEL_OVS_PATCH);
-			action.setType(OFActionType.OUTPUT);
-			action.setPort(WIFI_NODE_TUNNEL_OVS_TUNNEL);
-			action.setLength((short) OFActionOutput.MINIMUM_LENGTH);
-			actionList.add(action);
-			flow.setCookie(0);
-			flow.setBufferId(-1);
-			flow.setOutPort(WIFI_NODE_TUNNEL_OVS_TUNNEL);
-			flow.setActions(actionList);
-			flow.setMatch(match);
-			flow.setPriority(PRIORITY_HIGH);
-			flow.setLengthU(OFFlowMod.MINIMUM_LENGTH + action.getLengthU());
-			flowName = "wifi-node-tunnel-br-patch-tun";
-			sfp.addFlow(flowName, flow, sw.getStringId());
-			log.info("added flow on SW " + sw.getStringId() + flowName);
-			actionList.clear();
+		List<OFMessage> flows = getFlows(sw.getStringId());
+		if (flows.isEmpty()) {
+			READY_SWITCHES.add(sw.getId());
+			return;
+		}
+		writeFlows(sw, flows, 1);
+	}
+
+	/**
+	 * Writes the flows of a switch followed by a barrier, and writes them again
+	 * if the barrier is not answered in time.
+	 * @param {@code IOFSwitch} sw: The switch
+	 * @param {@code List<OFMessage>} flows: The flows of the switch
+	 * @param {@code int} attempt: How many times the flows have been written, counting this one
+	 */
+	private void writeFlows(final IOFSwitch sw, final List<OFMessage> flows, final int attempt) {
+		final Future<OFBarrierReply> barrier;
+		try {
+			sw.write(flows, null);
+			barrier = sw.sendBarrier();
+		} catch (IOException e) {
+			log.error("Failed to write " + flows.size() + " flows to SW " + sw.getStringId(), e);
+			return;
+		}
+		log.info("Wrote " + flows.size() + " flows to SW " + sw.getStringId());
+		barrierExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (barrier.get(BARRIER_TIMEOUT_MS, TimeUnit.MILLISECONDS) != null) {
+						READY_SWITCHES.add(sw.getId());
+						log.info("SW " + sw.getStringId() + " confirmed its " + flows.size() + " flows");
+						registerFlows(sw.getStringId());
+						return;
+					}
+					// get() gives null rather than throwing when the switch does not answer in time
+					barrier.cancel(true);
+					log.warn("SW " + sw.getStringId() + " did not confirm its " + flows.size() + " flows within "
+							+ BARRIER_TIMEOUT_MS + "ms");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (Exception e) {
+					log.error("SW " + sw.getStringId() + " did not confirm its " + flows.size() + " flows", e);
+				}
+				if (attempt >= MAX_ATTEMPTS) {
+					log.error("Giving up on the flows of SW " + sw.getStringId() + " after " + attempt + " attempts");
+				} else if (sw.isConnected()) {
+					// The flows are added as they are, so writing them again is harmless
+					writeFlows(sw, flows, attempt + 1);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Lists the flows of a switch with the static flow pusher, which leaves writing
+	 * them to this module. It keeps and changes the flows it is given, so it gets copies.
+	 * @param {@code String} dpid: The DPID of the switch
+	 */
+	private void registerFlows(String dpid) {
+		Map<String, OFFlowMod> flows = FLOW_NAMES.get(dpid);
+		if (sfp == null || flows == null) {
+			return;
+		}
+		Map<String, OFFlowMod> copy = new LinkedHashMap<String, OFFlowMod>();
+		for (Entry<String, OFFlowMod> e : flows.entrySet()) {
+			try {
+				copy.put(e.getKey(), e.getValue().clone());
+			} catch (CloneNotSupportedException ex) {
+				// OFFlowMod is Cloneable
+			}
 		}
+		sfp.registerFlows(copy, dpid);
 	}
 
 	@Override
 	public void removedSwitch(IOFSwitch sw) {
 		// We can't exactly remove flows from a switch if/when it disconnects, so do nothing?
+		READY_SWITCHES.remove(sw.getId());
 	}
 
 	@Override
@@ -0,0 +1,30 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.Collection;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+/**
+ * Where the clients of the DHCP server are, as they move between networks.
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public interface IDHCPMobilityService extends IFloodlightService {
+
+	/**
+	 * @param {@code long} mac: The MAC address of the client
+	 * @return {@code DHCPClientLocation}: The location of the client, or null if it is unknown
+	 */
+	public DHCPClientLocation getClientLocation(long mac);
+
+	/**
+	 * @param {@code int} ip: The IP address leased to the client
+	 * @return {@code DHCPClientLocation}: The location of the client, or null if it is unknown
+	 */
+	public DHCPClientLocation getClientLocationByIP(int ip);
+
+	/**
+	 * @return {@code Collection<DHCPClientLocation>}: The locations of all of the clients
+	 */
+	public Collection<DHCPClientLocation> getClientLocations();
+}
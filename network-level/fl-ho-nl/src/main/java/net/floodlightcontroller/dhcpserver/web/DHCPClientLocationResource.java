@@ -0,0 +1,52 @@
+package net.floodlightcontroller.dhcpserver.web;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.restlet.data.Status;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+import net.floodlightcontroller.dhcpserver.DHCPClientLocation;
+import net.floodlightcontroller.dhcpserver.IDHCPMobilityService;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Lists where the clients of the DHCP server are, with
+ * 		/wm/dhcp/clients/all/json
+ * or where one client is, by MAC or IP address, with
+ * 		/wm/dhcp/clients/00:11:22:33:44:55/json
+ * 		/wm/dhcp/clients/10.3.10.5/json
+ */
+public class DHCPClientLocationResource extends ServerResource {
+	public static final String CLIENT_ERROR = "Invalid client: must be all, a MAC address or an IP address";
+
+	@Get("json")
+	public Collection<DHCPClientLocation> getClientLocations() {
+		IDHCPMobilityService mobility =
+				(IDHCPMobilityService) getContext().getAttributes().
+				get(IDHCPMobilityService.class.getCanonicalName());
+
+		String param = (String) getRequestAttributes().get("client");
+		if (param.toLowerCase().equals("all")) {
+			return mobility.getClientLocations();
+		}
+		DHCPClientLocation location;
+		try {
+			if (param.indexOf(':') >= 0) {
+				location = mobility.getClientLocation(MACAddress.valueOf(param).toLong());
+			} else {
+				location = mobility.getClientLocationByIP(IPv4.toIPv4Address(param));
+			}
+		} catch (RuntimeException e) {
+			setStatus(Status.CLIENT_ERROR_BAD_REQUEST, CLIENT_ERROR);
+			return null;
+		}
+		if (location == null) {
+			setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+			return null;
+		}
+		return Collections.singletonList(location);
+	}
+}
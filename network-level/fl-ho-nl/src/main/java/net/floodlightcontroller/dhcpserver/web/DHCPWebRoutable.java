@@ -0,0 +1,27 @@
+package net.floodlightcontroller.dhcpserver.web;
+
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.routing.Router;
+
+import net.floodlightcontroller.restserver.RestletRoutable;
+
+public class DHCPWebRoutable implements RestletRoutable {
+	/**
+	 * Create the Restlet router and bind to the proper resources.
+	 */
+	@Override
+	public Restlet getRestlet(Context context) {
+		Router router = new Router(context);
+		router.attach("/clients/{client}/json", DHCPClientLocationResource.class);
+		return router;
+	}
+
+	/**
+	 * Set the base path for the DHCP server
+	 */
+	@Override
+	public String basePath() {
+		return "/wm/dhcp";
+	}
+}
@@ -20,8 +20,8 @@ package net.floodlightcontroller.packet;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
 
 /**
  *
@@ -99,6 +99,8 @@ public class DHCP extends BasePacket {
     protected String serverName;
     protected String bootFileName;
     protected List<DHCPOption> options = new ArrayList<DHCPOption>();
+    // The first option of each code in options, indexed by the unsigned code
+    protected DHCPOption[] optionsByCode = new DHCPOption[256];
 
     /**
      * @return the opCode
@@ -286,15 +288,21 @@ public class DHCP extends BasePacket {
      * @return The value of the option if it exists, null otherwise
      */
     public DHCPOption getOption(DHCPOptionCode optionCode) {
-        for (DHCPOption opt : options) {
-            if (opt.code == optionCode.value)
-                return opt;
-        }
-        return null;
+        return getOption(optionCode.value);
+    }
+
+    /**
+     * Gets a specific DHCP option parameter
+     * @param optionCode The option code to get
+     * @return The first option with the code if it exists, null otherwise
+     */
+    public DHCPOption getOption(byte optionCode) {
+        return optionsByCode[0xff & optionCode];
     }
 
     /**
-     * @return the options
+     * @return the options, in the order they are serialized. Options added
+     * to the list are only found by getOption() once set with setOptions()
      */
     public List<DHCPOption> getOptions() {
         return options;
@@ -305,22 +313,29 @@ public class DHCP extends BasePacket {
      */
     public DHCP setOptions(List<DHCPOption> options) {
         this.options = options;
+        Arrays.fill(this.optionsByCode, null);
+        for (DHCPOption option : options) {
+            indexOption(option);
+        }
         return this;
     }
 
+    protected void indexOption(DHCPOption option) {
+        int code = 0xff & option.getCode();
+        if (this.optionsByCode[code] == null) {
+            this.optionsByCode[code] = option;
+        }
+    }
+
     /**
      * @return the packetType base on option 53
      */
     public DHCPPacketType getPacketType() {
-        ListIterator<DHCPOption> lit = options.listIterator();
-        while (lit.hasNext()) {
-            DHCPOption option = lit.next();
-            // only care option 53
-            if (option.getCode() == 53) {
-                return DHCPPacketType.getType(option.getData()[0]);
-            }
+        DHCPOption option = getOption(DHCPOptionCode.OptionCode_MessageType);
+        if (option == null || option.getData() == null || option.getData().length == 0) {
+            return null;
         }
-        return null;
+        return DHCPPacketType.getType(0xff & option.getData()[0]);
     }
     
     /**
@@ -494,6 +509,7 @@ public class DHCP extends BasePacket {
                 }
             }
             this.options.add(option);
+            indexOption(option);
             if (code == 255) {
                 // remaining bytes are supposed to be 0, but ignore them just in case
                 break;
@@ -1,7 +1,10 @@
 package net.floodlightcontroller.staticflowentry;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.Future;
 
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFlowMod;
 
 import net.floodlightcontroller.core.module.IFloodlightService;
@@ -20,6 +23,32 @@ public interface IStaticFlowEntryPusherService extends IFloodlightService {
      * @param name The name of the static flow to delete.
      */
     public void deleteFlow(String name);
+
+    /**
+     * Replaces a batch of static flows on a switch by another, in a single
+     * write followed by a barrier. A new flow with the match and priority
+     * of a replaced one is sent as a MODIFY_STRICT, so the switch never
+     * goes without an entry for the match; the other replaced flows are
+     * deleted and the other new flows added. Storage is updated afterwards.
+     * @param oldNames The names of the static flows to replace.
+     * @param flows Map of flow name to the flow to push. Names must be unique.
+     * @param swDpid The switch DPID the flows are on, in 00:00:00:00:00:00:00:01 notation.
+     * @return Future wrapping the barrier reply, or null if the switch is not
+     * connected.
+     */
+    public Future<OFBarrierReply> replaceFlows(Collection<String> oldNames,
+                                               Map<String, OFFlowMod> flows, String swDpid);
+
+    /**
+     * Records a batch of static flows that the caller has already written to
+     * the switch itself. The flows are persisted to storage, but nothing is
+     * written to the switch, now or when it reconnects: the caller writes them
+     * again itself. A flow becomes an ordinary static flow once it is changed
+     * through storage, addFlow() or replaceFlows().
+     * @param flows Map of flow name to the flow as it was written. Names must be unique.
+     * @param swDpid The switch DPID the flows are on, in 00:00:00:00:00:00:00:01 notation.
+     */
+    public void registerFlows(Map<String, OFFlowMod> flows, String swDpid);
     
     /**
      * Deletes all static flows for a practicular switch
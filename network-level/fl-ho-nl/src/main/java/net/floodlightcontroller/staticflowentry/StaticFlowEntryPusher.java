@@ -7,11 +7,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -35,6 +37,7 @@ import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.storage.IStorageSourceListener;
 
 import net.floodlightcontroller.storage.StorageException;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFFlowRemoved;
 import org.openflow.protocol.OFMatch;
@@ -100,6 +103,16 @@ public class StaticFlowEntryPusher
     protected Map<String, Map<String, OFFlowMod>> entriesFromStorage;
     // Entry Name -> DPID of Switch it's on
     protected Map<String, String> entry2dpid;
+    // Guards entriesFromStorage and entry2dpid, which storage listener,
+    // switch, REST and service caller threads all read and update
+    protected final Object entriesLock = new Object();
+    // Names of the entries registerFlows() was given, which their caller
+    // writes to the switch itself, also on reconnect. Guarded by entriesLock.
+    protected Set<String> callerWrittenEntries = new HashSet<String>();
+    // Entry Name -> number of pending storage notifications to ignore, for
+    // entries replaceFlows() already wrote to the switch
+    protected Map<String, Integer> writeBehindEntries =
+            new HashMap<String, Integer>();
 
     private BasicFactory ofMessageFactory;
 
@@ -124,12 +137,14 @@ public class StaticFlowEntryPusher
      * @return the number of static flow entries as cached from storage
      */
     public int countEntries() {
-        int size = 0;
-        if (entriesFromStorage == null)
-            return 0;
-        for (String ofswitch : entriesFromStorage.keySet())
-            size += entriesFromStorage.get(ofswitch).size();
-        return size;
+        synchronized (entriesLock) {
+            int size = 0;
+            if (entriesFromStorage == null)
+                return 0;
+            for (String ofswitch : entriesFromStorage.keySet())
+                size += entriesFromStorage.get(ofswitch).size();
+            return size;
+        }
     }
 
     public IFloodlightProviderService getFloodlightProvider() {
@@ -161,22 +176,28 @@ public class StaticFlowEntryPusher
      */
     protected void sendEntriesToSwitch(IOFSwitch sw) {
         String dpid = sw.getStringId();
-
-        if ((entriesFromStorage != null) && (entriesFromStorage.containsKey(dpid))) {
-            Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
-            List<String> sortedList = new ArrayList<String>(entries.keySet());
-            // weird that Collections.sort() returns void
-            Collections.sort( sortedList, new FlowModSorter(dpid));
-            for (String entryName : sortedList) {
-                OFFlowMod flowMod = entries.get(entryName);
-                if (flowMod != null) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Pushing static entry {} for {}", dpid, entryName);
+        List<OFFlowMod> flowMods = new ArrayList<OFFlowMod>();
+
+        synchronized (entriesLock) {
+            if ((entriesFromStorage != null) && (entriesFromStorage.containsKey(dpid))) {
+                Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
+                List<String> sortedList = new ArrayList<String>(entries.keySet());
+                // weird that Collections.sort() returns void
+                Collections.sort( sortedList, new FlowModSorter(dpid));
+                for (String entryName : sortedList) {
+                    OFFlowMod flowMod = entries.get(entryName);
+                    if (flowMod != null && !callerWrittenEntries.contains(entryName)) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Pushing static entry {} for {}", dpid, entryName);
+                        }
+                        flowMods.add(flowMod);
                     }
-                    writeFlowModToSwitch(sw, flowMod);
                 }
             }
         }
+        for (OFFlowMod flowMod : flowMods) {
+            writeFlowModToSwitch(sw, flowMod);
+        }
     }
     
     /**
@@ -350,35 +371,42 @@ public class StaticFlowEntryPusher
             new HashMap<String, Map<String, OFFlowMod>>();
         // build up list of what was added 
         for(Object key: rowKeys) {
+            if (consumeWriteBehind(key)) {
+                continue;   // already on the switch
+            }
             IResultSet resultSet = storageSource.getRow(tableName, key);
             for (Iterator<IResultSet> it = resultSet.iterator(); it.hasNext();) {
                 Map<String, Object> row = it.next().getRow();
                 parseRow(row, entriesToAdd);
             }            
         }
-        // batch updates by switch and blast them out
-        for (String dpid : entriesToAdd.keySet()) {
-            if (!entriesFromStorage.containsKey(dpid))
-                entriesFromStorage.put(dpid, new HashMap<String, OFFlowMod>());
-            List<OFMessage> outQueue = new ArrayList<OFMessage>();
-            for(String entry : entriesToAdd.get(dpid).keySet()) {
-                OFFlowMod newFlowMod = entriesToAdd.get(dpid).get(entry);
-                OFFlowMod oldFlowMod = entriesFromStorage.get(dpid).get(entry);
-                if (oldFlowMod != null) {  // remove any pre-existing rule
-                    oldFlowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
-                    outQueue.add(oldFlowMod);
-                }
-                if (newFlowMod != null) {
-                    entriesFromStorage.get(dpid).put(entry, newFlowMod);
-                    outQueue.add(newFlowMod);
-                    entry2dpid.put(entry, dpid);
-                } else {
-                    entriesFromStorage.get(dpid).remove(entry);
-                    entry2dpid.remove(entry);
+        synchronized (entriesLock) {
+            // batch updates by switch and blast them out
+            for (String dpid : entriesToAdd.keySet()) {
+                if (!entriesFromStorage.containsKey(dpid))
+                    entriesFromStorage.put(dpid, new HashMap<String, OFFlowMod>());
+                List<OFMessage> outQueue = new ArrayList<OFMessage>();
+                for(String entry : entriesToAdd.get(dpid).keySet()) {
+                    OFFlowMod newFlowMod = entriesToAdd.get(dpid).get(entry);
+                    OFFlowMod oldFlowMod = entriesFromStorage.get(dpid).get(entry);
+                    // changed in storage by someone else, so ours to push from now on
+                    callerWrittenEntries.remove(entry);
+                    if (oldFlowMod != null) {  // remove any pre-existing rule
+                        oldFlowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+                        outQueue.add(oldFlowMod);
+                    }
+                    if (newFlowMod != null) {
+                        entriesFromStorage.get(dpid).put(entry, newFlowMod);
+                        outQueue.add(newFlowMod);
+                        entry2dpid.put(entry, dpid);
+                    } else {
+                        entriesFromStorage.get(dpid).remove(entry);
+                        entry2dpid.remove(entry);
+                    }
                 }
-            }
             
-            writeOFMessagesToSwitch(HexString.toLong(dpid), outQueue);
+                writeOFMessagesToSwitch(HexString.toLong(dpid), outQueue);
+            }
         }
     }
 
@@ -393,6 +421,9 @@ public class StaticFlowEntryPusher
                 log.debug("tried to delete non-string key {}; ignoring", obj);
                 continue;
             }
+            if (consumeWriteBehind(obj)) {
+                continue;   // already deleted from the switch
+            }
             deleteStaticFlowEntry((String) obj);
         }
     }
@@ -403,33 +434,95 @@ public class StaticFlowEntryPusher
             		"deleting a static flow rule",
             recommendation=LogMessageDoc.REPORT_CONTROLLER_BUG)
     private boolean deleteStaticFlowEntry(String entryName) {
-        String dpid = entry2dpid.get(entryName);
-        if (log.isDebugEnabled()) {
-            log.debug("Deleting flow {} for switch {}", entryName, dpid);
-        }
-        if (dpid == null) {
-            log.error("inconsistent internal state: no switch has rule {}",
-                    entryName);
-            return false;
-        }
+        synchronized (entriesLock) {
+            String dpid = entry2dpid.get(entryName);
+            if (log.isDebugEnabled()) {
+                log.debug("Deleting flow {} for switch {}", entryName, dpid);
+            }
+            if (dpid == null) {
+                log.error("inconsistent internal state: no switch has rule {}",
+                        entryName);
+                return false;
+            }
         
-        // send flow_mod delete
-        OFFlowMod flowMod = entriesFromStorage.get(dpid).get(entryName);
-        flowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
-
-        if (entriesFromStorage.containsKey(dpid) && 
-                entriesFromStorage.get(dpid).containsKey(entryName)) {
-            entriesFromStorage.get(dpid).remove(entryName);
-        } else { 
-            log.debug("Tried to delete non-existent entry {} for switch {}", 
-                    entryName, dpid);
-            return false;
-        }
+            // send flow_mod delete
+            OFFlowMod flowMod = entriesFromStorage.get(dpid).get(entryName);
+            flowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+
+            if (entriesFromStorage.containsKey(dpid) && 
+                    entriesFromStorage.get(dpid).containsKey(entryName)) {
+                entriesFromStorage.get(dpid).remove(entryName);
+                callerWrittenEntries.remove(entryName);
+            } else { 
+                log.debug("Tried to delete non-existent entry {} for switch {}", 
+                        entryName, dpid);
+                return false;
+            }
         
-        writeFlowModToSwitch(HexString.toLong(dpid), flowMod);
-        return true;
+            writeFlowModToSwitch(HexString.toLong(dpid), flowMod);
+            return true;
+        }
     }
     
+    /**
+     * Notes that the next storage notification for an entry comes from
+     * a write-behind and must not be pushed to the switch again.
+     * @param entryName The name of the entry
+     */
+    private void markWriteBehind(String entryName) {
+        synchronized (writeBehindEntries) {
+            Integer pending = writeBehindEntries.get(entryName);
+            writeBehindEntries.put(entryName, (pending == null) ? 1 : pending + 1);
+        }
+    }
+
+    /**
+     * Consumes a pending write-behind notification for an entry
+     * @param key The row key of the entry
+     * @return true if the notification came from a write-behind
+     */
+    private boolean consumeWriteBehind(Object key) {
+        synchronized (writeBehindEntries) {
+            Integer pending = writeBehindEntries.get(key);
+            if (pending == null)
+                return false;
+            if (pending > 1)
+                writeBehindEntries.put((String) key, pending - 1);
+            else
+                writeBehindEntries.remove(key);
+            return true;
+        }
+    }
+
+    /**
+     * Writes a list of OFMessages to a switch followed by a barrier
+     * @param dpid The datapath ID of the switch to write to
+     * @param messages The list of OFMessages to write.
+     * @return Future wrapping the barrier reply, null if the switch is not
+     * connected or the write failed
+     */
+    private Future<OFBarrierReply> writeOFMessagesToSwitchWithBarrier(long dpid,
+                                                                  List<OFMessage> messages) {
+        IOFSwitch ofswitch = floodlightProvider.getSwitches().get(dpid);
+        if (ofswitch == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not sending {} entries :: switch {} not connected",
+                          messages.size(), dpid);
+            }
+            return null;
+        }
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Sending {} entries and a barrier to {}", messages.size(), dpid);
+            }
+            ofswitch.write(messages, null);
+            return ofswitch.sendBarrier();
+        } catch (IOException e) {
+            log.error("Tried to write to switch {} but got {}", dpid, e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Writes a list of OFMessages to a switch
      * @param dpid The datapath ID of the switch to write to
@@ -590,8 +683,10 @@ public class StaticFlowEntryPusher
         storageSource.createTable(TABLE_NAME, null);
         storageSource.setTablePrimaryKeyName(TABLE_NAME, COLUMN_NAME);
         storageSource.addListener(TABLE_NAME, this);
-        entriesFromStorage = readEntriesFromStorage(); 
-        entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+        synchronized (entriesLock) {
+            entriesFromStorage = readEntriesFromStorage(); 
+            entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+        }
         restApi.addRestletRoutable(new StaticFlowEntryWebRoutable());
     }
 
@@ -599,15 +694,18 @@ public class StaticFlowEntryPusher
     
     @Override
     public void addFlow(String name, OFFlowMod fm, String swDpid) {
-        Map<String, Object> fmMap = StaticFlowEntries.flowModToStorageEntry(fm, swDpid, name);
-        entry2dpid.put(name, swDpid);
-        Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
-        if (switchEntries == null) {
-            switchEntries = new HashMap<String, OFFlowMod>();
-            entriesFromStorage.put(swDpid, switchEntries);
+        synchronized (entriesLock) {
+            Map<String, Object> fmMap = StaticFlowEntries.flowModToStorageEntry(fm, swDpid, name);
+            entry2dpid.put(name, swDpid);
+            callerWrittenEntries.remove(name);
+            Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
+            if (switchEntries == null) {
+                switchEntries = new HashMap<String, OFFlowMod>();
+                entriesFromStorage.put(swDpid, switchEntries);
+            }
+            switchEntries.put(name, fm);
+            storageSource.insertRowAsync(TABLE_NAME, fmMap);
         }
-        switchEntries.put(name, fm);
-        storageSource.insertRowAsync(TABLE_NAME, fmMap);
     }
 
     @Override
@@ -616,9 +714,115 @@ public class StaticFlowEntryPusher
         // TODO - What if there is a delay in storage?
     }
     
+    @Override
+    public Future<OFBarrierReply> replaceFlows(Collection<String> oldNames,
+                                               Map<String, OFFlowMod> flows, String swDpid) {
+        synchronized (entriesLock) {
+            Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
+            if (switchEntries == null) {
+                switchEntries = new HashMap<String, OFFlowMod>();
+                entriesFromStorage.put(swDpid, switchEntries);
+            }
+            List<OFFlowMod> oldFlowMods = new ArrayList<OFFlowMod>(oldNames.size());
+            List<String> rowKeys = new ArrayList<String>(oldNames.size());
+            for (String name : oldNames) {
+                callerWrittenEntries.remove(name);
+                OFFlowMod fm = switchEntries.remove(name);
+                if (fm == null) {
+                    log.debug("Tried to replace non-existent entry {} for switch {}",
+                            name, swDpid);
+                    continue;
+                }
+                entry2dpid.remove(name);
+                oldFlowMods.add(fm);
+                if (!flows.containsKey(name)) {
+                    rowKeys.add(name);
+                }
+            }
+
+            List<OFMessage> outQueue = new ArrayList<OFMessage>(oldNames.size() + flows.size());
+            List<OFFlowMod> newFlowMods = new ArrayList<OFFlowMod>(flows.size());
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(flows.size());
+            for (Entry<String, OFFlowMod> e : flows.entrySet()) {
+                String name = e.getKey();
+                OFFlowMod fm = e.getValue();
+                fm.setCommand(OFFlowMod.OFPFC_ADD);
+                fm.setCookie(StaticFlowEntries.computeEntryCookie(fm, 0, name));
+                for (Iterator<OFFlowMod> it = oldFlowMods.iterator(); it.hasNext();) {
+                    OFFlowMod oldFlowMod = it.next();
+                    if (oldFlowMod.getMatch().equals(fm.getMatch()) &&
+                            oldFlowMod.getPriority() == fm.getPriority()) {
+                        // changes the actions of the entry in place
+                        fm.setCommand(OFFlowMod.OFPFC_MODIFY_STRICT);
+                        it.remove();
+                        break;
+                    }
+                }
+                OFFlowMod oldFlowMod = switchEntries.get(name);
+                if (oldFlowMod != null && 
+                        (!oldFlowMod.getMatch().equals(fm.getMatch()) ||
+                         oldFlowMod.getPriority() != fm.getPriority())) {
+                    oldFlowMod.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+                    outQueue.add(oldFlowMod);
+                }
+                switchEntries.put(name, fm);
+                entry2dpid.put(name, swDpid);
+                callerWrittenEntries.remove(name);
+                newFlowMods.add(fm);
+                rows.add(StaticFlowEntries.flowModToStorageEntry(fm, swDpid, name));
+            }
+            // whatever is left of the replaced flows has no successor
+            for (OFFlowMod fm : oldFlowMods) {
+                fm.setCommand(OFFlowMod.OFPFC_DELETE_STRICT);
+                outQueue.add(fm);
+            }
+            outQueue.addAll(newFlowMods);
+
+            Future<OFBarrierReply> barrier =
+                    writeOFMessagesToSwitchWithBarrier(HexString.toLong(swDpid), outQueue);
+            for (String name : rowKeys) {
+                markWriteBehind(name);
+                storageSource.deleteRowAsync(TABLE_NAME, name);
+            }
+            for (Map<String, Object> row : rows) {
+                markWriteBehind((String) row.get(COLUMN_NAME));
+                storageSource.insertRowAsync(TABLE_NAME, row);
+            }
+            return barrier;
+        }
+    }
+
+    @Override
+    public void registerFlows(Map<String, OFFlowMod> flows, String swDpid) {
+        synchronized (entriesLock) {
+            Map<String, OFFlowMod> switchEntries = entriesFromStorage.get(swDpid);
+            if (switchEntries == null) {
+                switchEntries = new HashMap<String, OFFlowMod>();
+                entriesFromStorage.put(swDpid, switchEntries);
+            }
+            for (Entry<String, OFFlowMod> e : flows.entrySet()) {
+                String name = e.getKey();
+                OFFlowMod fm = e.getValue();
+                fm.setCommand(OFFlowMod.OFPFC_ADD);
+                fm.setCookie(StaticFlowEntries.computeEntryCookie(fm, 0, name));
+                switchEntries.put(name, fm);
+                entry2dpid.put(name, swDpid);
+                // already on the switch, and put there again by the caller
+                callerWrittenEntries.add(name);
+                markWriteBehind(name);
+                storageSource.insertRowAsync(TABLE_NAME,
+                        StaticFlowEntries.flowModToStorageEntry(fm, swDpid, name));
+            }
+        }
+    }
+    
     @Override
     public void deleteAllFlows() {
-        for (String entry : entry2dpid.keySet()) {
+        List<String> entries;
+        synchronized (entriesLock) {
+            entries = new ArrayList<String>(entry2dpid.keySet());
+        }
+        for (String entry : entries) {
             deleteFlow(entry);
         }
     }
@@ -626,21 +830,36 @@ public class StaticFlowEntryPusher
     @Override
     public void deleteFlowsForSwitch(long dpid) {
         String sDpid = HexString.toHexString(dpid);
-        
-        for (Entry<String, String> e : entry2dpid.entrySet()) {
-            if (e.getValue().equals(sDpid))
-                deleteFlow(e.getKey());
+        List<String> entries = new ArrayList<String>();
+        synchronized (entriesLock) {
+            for (Entry<String, String> e : entry2dpid.entrySet()) {
+                if (e.getValue().equals(sDpid))
+                    entries.add(e.getKey());
+            }
+        }
+        for (String entry : entries) {
+            deleteFlow(entry);
         }
     }
     
     @Override
     public Map<String, Map<String, OFFlowMod>> getFlows() {
-        return entriesFromStorage;
+        // a copy, since the entries change under other threads
+        Map<String, Map<String, OFFlowMod>> flows = new HashMap<String, Map<String, OFFlowMod>>();
+        synchronized (entriesLock) {
+            for (Entry<String, Map<String, OFFlowMod>> e : entriesFromStorage.entrySet()) {
+                flows.put(e.getKey(), new HashMap<String, OFFlowMod>(e.getValue()));
+            }
+        }
+        return flows;
     }
     
     @Override
     public Map<String, OFFlowMod> getFlows(String dpid) {
-        return entriesFromStorage.get(dpid);
+        synchronized (entriesLock) {
+            Map<String, OFFlowMod> entries = entriesFromStorage.get(dpid);
+            return (entries == null) ? null : new HashMap<String, OFFlowMod>(entries);
+        }
     }
 
     
@@ -648,23 +867,25 @@ public class StaticFlowEntryPusher
     
     @Override
     public void roleChanged(Role oldRole, Role newRole) {
-        switch(newRole) {
-            case MASTER:
-                if (oldRole == Role.SLAVE) {
-                    log.debug("Re-reading static flows from storage due " +
-                            "to HA change from SLAVE->MASTER");
-                    entriesFromStorage = readEntriesFromStorage(); 
-                    entry2dpid = computeEntry2DpidMap(entriesFromStorage);
-                }
-                break;
-            case SLAVE:
-                log.debug("Clearing in-memory flows due to " +
-                        "HA change to SLAVE");
-                entry2dpid.clear();
-                entriesFromStorage.clear();
-                break;
-            default:
-            	break;
+        synchronized (entriesLock) {
+            switch(newRole) {
+                case MASTER:
+                    if (oldRole == Role.SLAVE) {
+                        log.debug("Re-reading static flows from storage due " +
+                                "to HA change from SLAVE->MASTER");
+                        entriesFromStorage = readEntriesFromStorage(); 
+                        entry2dpid = computeEntry2DpidMap(entriesFromStorage);
+                    }
+                    break;
+                case SLAVE:
+                    log.debug("Clearing in-memory flows due to " +
+                            "HA change to SLAVE");
+                    entry2dpid.clear();
+                    entriesFromStorage.clear();
+                    break;
+                default:
+                	break;
+            }
         }
     }
     
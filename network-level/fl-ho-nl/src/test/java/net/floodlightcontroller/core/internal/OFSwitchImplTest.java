@@ -3,18 +3,24 @@ package net.floodlightcontroller.core.internal;
 import static org.easymock.EasyMock.*;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.internal.OFSwitchImpl.PendingRoleRequestEntry;
 import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.core.test.MockThreadPoolService;
 import net.floodlightcontroller.test.FloodlightTestCase;
 
 import org.easymock.Capture;
+import org.easymock.IAnswer;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
 import org.junit.Before;
 import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFVendor;
@@ -233,4 +239,39 @@ public class OFSwitchImplTest extends FloodlightTestCase {
         assertEquals(null, sw.role);
         assertEquals(0, sw.pendingRoleRequests.size());
     }
+
+    @Test
+    public void testSendBarrier() throws Exception {
+        sw.setThreadPoolService(new MockThreadPoolService());
+        // the switch clears its write buffer once the channel returns, so
+        // copy the messages out as they are written
+        final List<OFMessage> written = new ArrayList<OFMessage>();
+        expect(sw.channel.write(anyObject())).andAnswer(new IAnswer<ChannelFuture>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public ChannelFuture answer() throws Throwable {
+                written.addAll((List<OFMessage>) getCurrentArguments()[0]);
+                return null;
+            }
+        });
+        replay(sw.channel);
+        Future<OFBarrierReply> future = sw.sendBarrier();
+        verify(sw.channel);
+        assertEquals(1, written.size());
+        OFMessage request = written.get(0);
+        assertEquals(OFType.BARRIER_REQUEST, request.getType());
+        assertFalse(future.isDone());
+
+        // a reply for some other barrier must not complete this one
+        OFBarrierReply reply = new OFBarrierReply();
+        reply.setXid(request.getXid() + 1);
+        sw.deliverBarrierReply(reply);
+        assertFalse(future.isDone());
+
+        reply.setXid(request.getXid());
+        sw.deliverBarrierReply(reply);
+        assertTrue(future.isDone());
+        assertSame(reply, future.get());
+        assertTrue(sw.barrierFutureMap.isEmpty());
+    }
 }
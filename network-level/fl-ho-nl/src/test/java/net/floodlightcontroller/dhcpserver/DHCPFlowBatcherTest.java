@@ -0,0 +1,177 @@
+package net.floodlightcontroller.dhcpserver;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.slf4j.LoggerFactory;
+
+public class DHCPFlowBatcherTest extends FloodlightTestCase {
+    protected static final String DPID = "00:00:00:00:00:00:01:01";
+
+    protected IStaticFlowEntryPusherService sfp;
+    protected Future<OFBarrierReply> barrier;
+    protected Capture<Collection<String>> oldNamesCapture;
+    protected Capture<Map<String, OFFlowMod>> flowsCapture;
+    // Runs the drain tasks when the test says so
+    protected List<Runnable> tasks = new LinkedList<Runnable>();
+    protected DHCPFlowBatcher batcher;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        sfp = createMock(IStaticFlowEntryPusherService.class);
+        barrier = createMock(Future.class);
+        oldNamesCapture = new Capture<Collection<String>>(CaptureType.ALL);
+        flowsCapture = new Capture<Map<String, OFFlowMod>>(CaptureType.ALL);
+        tasks.clear();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+        batcher = new DHCPFlowBatcher(sfp, executor, 100, LoggerFactory.getLogger(DHCPFlowBatcherTest.class));
+    }
+
+    protected OFFlowMod flow(String ip, short patchPort) {
+        OFFlowMod flow = new OFFlowMod();
+        flow.setMatch(new OFMatch().setNetworkDestination(IPv4.toIPv4Address(ip)));
+        flow.setOutPort(patchPort);
+        return flow;
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        expect(sfp.replaceFlows(capture(oldNamesCapture), capture(flowsCapture), eq(DPID)))
+                .andReturn(barrier).once();
+        expect(barrier.get(100, TimeUnit.MILLISECONDS)).andReturn(new OFBarrierReply()).once();
+        replay(sfp, barrier);
+
+        // One drain for all of the relocations queued before it runs
+        OFFlowMod last = flow("10.0.0.1", (short) 3);
+        batcher.relocate(DPID, null, "WiFi-client-10.0.0.1", flow("10.0.0.1", (short) 3));
+        batcher.relocate(DPID, "WiFi-client-10.0.0.1", "WiMAX-client-10.0.0.1", flow("10.0.0.1", (short) 5));
+        batcher.relocate(DPID, "WiMAX-client-10.0.0.1", "WiFi-client-10.0.0.1", last);
+        batcher.relocate(DPID, "WiFi-client-10.0.0.2", "WiMAX-client-10.0.0.2", flow("10.0.0.2", (short) 5));
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertTrue(tasks.isEmpty());
+
+        // A client's relocations become one, from its first old flow to its last new one
+        Collection<String> oldNames = oldNamesCapture.getValue();
+        assertEquals(1, oldNames.size());
+        assertTrue(oldNames.contains("WiFi-client-10.0.0.2"));
+        Map<String, OFFlowMod> flows = flowsCapture.getValue();
+        assertEquals(2, flows.size());
+        assertSame(last, flows.get("WiFi-client-10.0.0.1"));
+        assertEquals(5, flows.get("WiMAX-client-10.0.0.2").getOutPort());
+        verify(sfp, barrier);
+    }
+
+    @Test
+    public void testDrainAgain() throws Exception {
+        expect(sfp.replaceFlows(capture(oldNamesCapture), capture(flowsCapture), eq(DPID)))
+                .andReturn(barrier).times(2);
+        expect(barrier.get(100, TimeUnit.MILLISECONDS)).andReturn(new OFBarrierReply()).times(2);
+        replay(sfp, barrier);
+
+        batcher.relocate(DPID, "WiFi-client-10.0.0.1", "WiMAX-client-10.0.0.1", flow("10.0.0.1", (short) 5));
+        tasks.remove(0).run();
+        // Once the barrier is in, the next relocation is pushed right away
+        batcher.relocate(DPID, "WiFi-client-10.0.0.2", "WiMAX-client-10.0.0.2", flow("10.0.0.2", (short) 5));
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals(2, flowsCapture.getValues().size());
+        verify(sfp, barrier);
+    }
+
+    @Test
+    public void testSwitchNotConnected() throws Exception {
+        expect(sfp.replaceFlows(capture(oldNamesCapture), capture(flowsCapture), eq(DPID)))
+                .andReturn(null).once();
+        replay(sfp, barrier);
+
+        batcher.relocate(DPID, null, "WiFi-client-10.0.0.1", flow("10.0.0.1", (short) 3));
+        tasks.remove(0).run();
+        assertTrue(oldNamesCapture.getValue().isEmpty());
+        verify(sfp, barrier);
+    }
+
+    @Test
+    public void testBarrierTimeout() throws Exception {
+        @SuppressWarnings("unchecked")
+        Future<OFBarrierReply> confirmed = createMock(Future.class);
+        expect(sfp.replaceFlows(capture(oldNamesCapture), capture(flowsCapture), eq(DPID)))
+                .andReturn(barrier).andReturn(confirmed);
+        // No reply in time, while the client moves on and another one arrives
+        expect(barrier.get(100, TimeUnit.MILLISECONDS)).andAnswer(new IAnswer<OFBarrierReply>() {
+            @Override
+            public OFBarrierReply answer() throws Throwable {
+                batcher.relocate(DPID, "WiFi-client-10.0.0.1", "WiMAX-client-10.0.0.1", flow("10.0.0.1", (short) 5));
+                batcher.relocate(DPID, null, "WiFi-client-10.0.0.2", flow("10.0.0.2", (short) 3));
+                return null;
+            }
+        }).once();
+        expect(barrier.cancel(true)).andReturn(true).once();
+        expect(confirmed.get(100, TimeUnit.MILLISECONDS)).andReturn(new OFBarrierReply()).once();
+        replay(sfp, barrier, confirmed);
+
+        batcher.relocate(DPID, null, "WiFi-client-10.0.0.1", flow("10.0.0.1", (short) 3));
+        tasks.remove(0).run();
+        assertTrue(tasks.isEmpty());
+
+        // Pushed again at once, with the newer relocation of the client winning
+        assertEquals(2, flowsCapture.getValues().size());
+        Collection<String> oldNames = oldNamesCapture.getValues().get(1);
+        assertEquals(1, oldNames.size());
+        assertTrue(oldNames.contains("WiFi-client-10.0.0.1"));
+        Map<String, OFFlowMod> flows = flowsCapture.getValues().get(1);
+        assertEquals(2, flows.size());
+        assertEquals(5, flows.get("WiMAX-client-10.0.0.1").getOutPort());
+        assertTrue(flows.containsKey("WiFi-client-10.0.0.2"));
+        verify(sfp, barrier, confirmed);
+    }
+
+    @Test
+    public void testBarrierNeverConfirmed() throws Exception {
+        expect(sfp.replaceFlows(capture(oldNamesCapture), capture(flowsCapture), eq(DPID)))
+                .andReturn(barrier).times(DHCPFlowBatcher.MAX_ATTEMPTS);
+        expect(barrier.get(100, TimeUnit.MILLISECONDS)).andReturn(null).times(DHCPFlowBatcher.MAX_ATTEMPTS);
+        expect(barrier.cancel(true)).andReturn(true).times(DHCPFlowBatcher.MAX_ATTEMPTS);
+        replay(sfp, barrier);
+
+        batcher.relocate(DPID, "WiFi-client-10.0.0.1", "WiMAX-client-10.0.0.1", flow("10.0.0.1", (short) 5));
+        tasks.remove(0).run();
+        assertTrue(tasks.isEmpty());
+
+        // Each retry replaces the flow with itself
+        List<Collection<String>> oldNames = oldNamesCapture.getValues();
+        assertTrue(oldNames.get(0).contains("WiFi-client-10.0.0.1"));
+        for (int i = 1; i < DHCPFlowBatcher.MAX_ATTEMPTS; i++) {
+            assertTrue(oldNames.get(i).contains("WiMAX-client-10.0.0.1"));
+            assertTrue(flowsCapture.getValues().get(i).containsKey("WiMAX-client-10.0.0.1"));
+        }
+        verify(sfp, barrier);
+    }
+}
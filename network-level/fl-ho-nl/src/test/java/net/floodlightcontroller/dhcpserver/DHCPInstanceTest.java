@@ -0,0 +1,105 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.test.FloodlightTestCase;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DHCPInstanceTest extends FloodlightTestCase {
+    protected Map<String, String> config;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        config = new HashMap<String, String>();
+        config.put("subnet-mask", "255.255.0.0");
+        config.put("lower-ip-range", "10.3.10.5");
+        config.put("upper-ip-range", "10.3.10.105");
+        config.put("broadcast-address", "10.0.255.255");
+        config.put("router", "10.3.10.251");
+        config.put("router-mac", "d4:be:d9:8a:4f:42");
+        config.put("domain-name", "geni.net");
+        config.put("default-lease-time", "3600");
+        config.put("hold-lease-time", "16");
+        config.put("domain-name-servers", "130.127.255.250, 8.8.8.8");
+        config.put("ip-forwarding", "0");
+    }
+
+    @Test
+    public void testDefaultInstance() throws Exception {
+        DHCPInstance instance = new DHCPInstance(null, config, null, null);
+        assertEquals("default", instance.getName());
+        assertEquals(101, countAvailable(instance.getPool()));
+        assertTrue(Arrays.equals(IPv4.toIPv4AddressBytes("130.127.255.250"), instance.getDNSIPList()));
+        assertNull(instance.getNTPIPList());
+        assertEquals(1800, instance.getRenewalTimeSeconds());
+        assertEquals(3150, instance.getRebindTimeSeconds());
+        assertTrue(instance.getSwitches().isEmpty());
+
+        config.remove("router");
+        try {
+            new DHCPInstance(null, config, null, null);
+            fail("The default instance must give every option");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNamedInstance() throws Exception {
+        DHCPInstance defaults = new DHCPInstance(null, config, null, null);
+        config.put("wifi-lower-ip-range", "10.4.0.1");
+        config.put("wifi-upper-ip-range", "10.4.0.10");
+        config.put("wifi-router", "10.4.0.254");
+        config.put("wifi-default-lease-time", "600");
+        config.put("wifi-relay-agents", "10.4.0.254");
+        config.put("wifi-switch-ports", "00:00:00:00:00:00:02:02/3, 00:00:00:00:00:00:01:01 / 5");
+        config.put("wifi-switches", "00:00:00:00:00:00:02:03");
+        DHCPInstance wifi = new DHCPInstance("wifi", config, defaults, null);
+
+        assertEquals("wifi", wifi.getName());
+        assertEquals("10.4.0.1", wifi.getPool().getAnyAvailableLease(Arrays.copyOf(new byte[] {2}, 6)).getIPv4AddresString());
+        assertNull(wifi.getPool().getDHCPbindingFromIPv4(IPv4.toIPv4AddressBytes("10.4.0.11")));
+        // its own options
+        assertTrue(Arrays.equals(IPv4.toIPv4AddressBytes("10.4.0.254"), wifi.getRouterIP()));
+        assertEquals(600, wifi.getDefaultLeaseTimeSeconds());
+        assertEquals(300, wifi.getRenewalTimeSeconds());
+        // and the default ones
+        assertSame(defaults.getSubnetMask(), wifi.getSubnetMask());
+        assertSame(defaults.getDNSIPList(), wifi.getDNSIPList());
+        assertEquals(16, wifi.getHoldLeaseTimeSeconds());
+
+        assertEquals(Arrays.asList(IPv4.toIPv4Address("10.4.0.254")), wifi.getRelayAgents());
+        assertEquals(Arrays.asList(new NodePortTuple(0x202L, (short) 3), new NodePortTuple(0x101L, (short) 5)),
+                wifi.getSwitchPorts());
+        assertEquals(Arrays.asList(0x203L), wifi.getSwitches());
+
+        config.put("wimax-lower-ip-range", "10.5.0.1");
+        config.put("wimax-upper-ip-range", "10.5.0.10");
+        config.put("wimax-switch-ports", "00:00:00:00:00:00:01:02");
+        try {
+            new DHCPInstance("wimax", config, defaults, null);
+            fail("A switch port must name its port");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    protected static int countAvailable(DHCPPool pool) {
+        int available = 0;
+        for (int i = 0; pool.hasAvailableAddresses(); i++) {
+            pool.allocateLease(Arrays.copyOf(new byte[] {2, 0, 0, 0, (byte) (i >> 8), (byte) i}, 6), null, 60);
+            available++;
+        }
+        return available;
+    }
+}
@@ -0,0 +1,157 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.io.File;
+import java.util.Arrays;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DHCPLeaseJournalTest extends FloodlightTestCase {
+    protected File directory;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("dhcp", "journal");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    protected static byte[] mac(int i) {
+        return Ethernet.toByteArray(0x020000000000L + i);
+    }
+
+    protected static byte[] ip(int i) {
+        return IPv4.toIPv4AddressBytes(IPv4.toIPv4Address("10.0.0.0") + i);
+    }
+
+    /**
+     * Starts a server's pool, restored from the journal as it is on disk.
+     */
+    protected DHCPPool restart(DHCPLeaseJournal[] journal, int capacity) throws Exception {
+        if (journal[0] != null) {
+            journal[0].close();
+        }
+        DHCPPool pool = new DHCPPool(ip(0), 256, null);
+        journal[0] = new DHCPLeaseJournal(directory, capacity);
+        journal[0].replay(pool);
+        pool.setJournal(journal[0]);
+        return pool;
+    }
+
+    protected void lease(DHCPPool pool, int i, int seconds) {
+        pool.setDHCPbinding(pool.getSpecificAvailableLease(ip(i), mac(i)), mac(i), seconds);
+    }
+
+    protected void assertLeased(DHCPPool pool, int i) {
+        assertTrue(Arrays.equals(ip(i), pool.lookupBoundIP(mac(i))));
+        assertTrue(Arrays.equals(mac(i), pool.lookupBoundMAC(ip(i))));
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        DHCPLeaseJournal[] journal = new DHCPLeaseJournal[1];
+        DHCPPool pool = restart(journal, 16);
+        assertTrue(pool.getActiveLeases().isEmpty());
+
+        lease(pool, 1, 3600);
+        lease(pool, 2, 3600);
+        lease(pool, 3, 3600);
+        pool.cancelLeaseOfMAC(mac(2));
+        pool.renewLease(ip(3), 7200);
+        long end = pool.getDHCPbindingFromIPv4(ip(3)).getLeaseEndTimeSeconds();
+
+        pool = restart(journal, 16);
+        assertEquals(2, pool.getActiveLeases().size());
+        assertLeased(pool, 1);
+        assertLeased(pool, 3);
+        assertNull(pool.lookupBoundIP(mac(2)));
+        assertEquals(end, pool.getDHCPbindingFromIPv4(ip(3)).getLeaseEndTimeSeconds());
+        // the restored leases are handed out to their clients, not anyone else
+        assertSame(pool.getDHCPbindingFromIPv4(ip(1)), pool.getAnyAvailableLease(mac(1)));
+        assertTrue(Arrays.equals(ip(0), pool.getAnyAvailableLease(mac(9)).getIPv4AddressBytes()));
+
+        // and they still expire
+        lease(pool, 4, 0);
+        pool.cleanExpiredLeases();
+        pool = restart(journal, 16);
+        assertNull(pool.lookupBoundIP(mac(4)));
+        journal[0].close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        DHCPLeaseJournal[] journal = new DHCPLeaseJournal[1];
+        DHCPPool pool = restart(journal, 4);
+        // many more changes than the journal holds
+        for (int i = 0; i < 100; i++) {
+            lease(pool, i, 3600);
+            if (i % 3 == 0) {
+                pool.cancelLeaseOfIPv4(ip(i));
+            }
+        }
+        pool = restart(journal, 4);
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0) {
+                assertNull(pool.lookupBoundMAC(ip(i)));
+            } else {
+                assertLeased(pool, i);
+            }
+        }
+        assertEquals(66, pool.getActiveLeases().size());
+        journal[0].close();
+    }
+
+    @Test
+    public void testCloseJournal() throws Exception {
+        DHCPLeaseJournal[] journal = new DHCPLeaseJournal[1];
+        DHCPPool pool = restart(journal, 16);
+        lease(pool, 1, 3600);
+        pool.closeJournal();
+        // leases keep working once the journal is closed, they are just not kept
+        lease(pool, 2, 3600);
+        assertTrue(journal[0].append(pool.getDHCPbindingFromIPv4(ip(2)), pool.getDHCPbindingFromIPv4(ip(2)).getLease()));
+
+        journal[0] = null;
+        pool = restart(journal, 16);
+        assertLeased(pool, 1);
+        assertNull(pool.lookupBoundIP(mac(2)));
+        journal[0].close();
+    }
+
+    @Test
+    public void testManyLeases() throws Exception {
+        DHCPPool pool = new DHCPPool(ip(0), 1 << 16, null);
+        DHCPLeaseJournal journal = new DHCPLeaseJournal(directory, 65536);
+        journal.replay(pool);
+        pool.setJournal(journal);
+        for (int i = 0; i < 50000; i++) {
+            DHCPBinding binding = pool.getAnyAvailableLease(mac(i));
+            pool.setDHCPbinding(binding, mac(i), 3600);
+        }
+        journal.close();
+
+        pool = new DHCPPool(ip(0), 1 << 16, null);
+        journal = new DHCPLeaseJournal(directory, 65536);
+        assertEquals(50000, journal.replay(pool));
+        assertEquals(50000, pool.getActiveLeases().size());
+        assertLeased(pool, 49999);
+        journal.close();
+    }
+}
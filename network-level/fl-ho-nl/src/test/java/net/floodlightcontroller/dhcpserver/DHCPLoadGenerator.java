@@ -0,0 +1,511 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.util.HexString;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.internal.OFSwitchImpl;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.core.test.PacketFactory;
+import net.floodlightcontroller.packet.DHCP;
+import net.floodlightcontroller.packet.DHCPOption;
+import net.floodlightcontroller.packet.DHCPPacketType;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * A load generator for the DHCP server. Simulated clients, spread over the
+ * ports of mock switches, each go through DISCOVER, OFFER, REQUEST, ACK and
+ * then RELEASE their address, as packet-ins handed to DHCPServer.receive()
+ * by a number of threads, each with its own clients.
+ *
+ * Only the time and memory the server takes -- from deserializing a packet-in
+ * to the reply being written to the switch -- are measured, not building the
+ * clients' packets. It reports the DORA transactions per second, their latency
+ * percentiles, the bytes allocated per transaction and how often, and for how
+ * long, the threads were blocked on a monitor (the pool's MAC stripes, its
+ * journal) while it ran.
+ *
+ * 		java -cp <test classes>:<classes>:lib/* net.floodlightcontroller.dhcpserver.DHCPLoadGenerator
+ * 			[clients] [switches] [threads] [rounds]
+ *
+ * @author Ryan Izard (rizard@g.clemson.edu)
+ */
+public class DHCPLoadGenerator {
+	protected static final String CONTROLLER_IP = "10.0.0.250";
+	protected static final String LOWER_IP = "10.1.0.1";
+	protected static final int PORTS_PER_SWITCH = 48;
+	protected static final BasicFactory OF_MESSAGE_FACTORY = new BasicFactory();
+
+	// The last reply written to a mock switch by the thread, which the reply template may reuse
+	protected static final ThreadLocal<byte[]> LAST_REPLY = new ThreadLocal<byte[]>();
+
+	/**
+	 * A switch that keeps the DHCP replies written to it for the thread that wrote them.
+	 */
+	protected static class MockSwitch extends OFSwitchImpl {
+		private final long dpid;
+		private final AtomicLong packetOuts = new AtomicLong();
+
+		public MockSwitch(long dpid) {
+			this.dpid = dpid;
+			this.stringId = HexString.toHexString(dpid);
+		}
+
+		@Override
+		public long getId() {
+			return dpid;
+		}
+
+		@Override
+		public void write(OFMessage m, FloodlightContext bc) throws IOException {
+			if (m.getType() == OFType.PACKET_OUT) {
+				packetOuts.incrementAndGet();
+				LAST_REPLY.set(((OFPacketOut) m).getPacketData());
+			}
+		}
+
+		@Override
+		public void write(List<OFMessage> msglist, FloodlightContext bc) throws IOException {
+			for (OFMessage m : msglist) {
+				write(m, bc);
+			}
+		}
+
+		@Override
+		public void flush() {
+			// Nothing is buffered
+		}
+
+		public long getPacketOuts() {
+			return packetOuts.get();
+		}
+	}
+
+	/**
+	 * What one run of the load generator measured.
+	 */
+	public static class Result {
+		private final int clients;
+		private final int switches;
+		private final int threads;
+		private final int rounds;
+		private final long transactions;
+		private final long failures;
+		private final long elapsedNanos;
+		private final long[] latencyNanos;
+		private final long allocatedBytes;
+		private final long blockedCount;
+		private final long blockedMillis;
+
+		protected Result(int clients, int switches, int threads, int rounds, long transactions, long failures,
+				long elapsedNanos, long[] latencyNanos, long allocatedBytes, long blockedCount, long blockedMillis) {
+			this.clients = clients;
+			this.switches = switches;
+			this.threads = threads;
+			this.rounds = rounds;
+			this.transactions = transactions;
+			this.failures = failures;
+			this.elapsedNanos = elapsedNanos;
+			this.latencyNanos = latencyNanos;
+			this.allocatedBytes = allocatedBytes;
+			this.blockedCount = blockedCount;
+			this.blockedMillis = blockedMillis;
+		}
+
+		/**
+		 * @return the DORA transactions that ended with an ACK
+		 */
+		public long getTransactions() {
+			return transactions;
+		}
+
+		/**
+		 * @return the DORA transactions that did not get an OFFER or an ACK
+		 */
+		public long getFailures() {
+			return failures;
+		}
+
+		public double getTransactionsPerSecond() {
+			return transactions / (elapsedNanos / 1e9);
+		}
+
+		/**
+		 * @param percentile from 0 to 100
+		 * @return the latency of the server, DISCOVER and REQUEST together, at the percentile
+		 */
+		public long getLatencyNanos(double percentile) {
+			if (latencyNanos.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100 * latencyNanos.length) - 1;
+			return latencyNanos[Math.max(0, Math.min(index, latencyNanos.length - 1))];
+		}
+
+		/**
+		 * @return the bytes the server allocated per transaction, or -1 if the JVM cannot tell
+		 */
+		public long getAllocatedBytesPerTransaction() {
+			return (allocatedBytes < 0 || transactions == 0) ? -1 : allocatedBytes / transactions;
+		}
+
+		/**
+		 * @return how many times the threads blocked to enter a monitor
+		 */
+		public long getBlockedCount() {
+			return blockedCount;
+		}
+
+		/**
+		 * @return how long the threads were blocked to enter a monitor, or -1 if the JVM cannot tell
+		 */
+		public long getBlockedMillis() {
+			return blockedMillis;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = elapsedNanos / 1e9;
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("DHCP DORA load: %d clients on %d switches, %d threads, %d rounds%n",
+					clients, switches, threads, rounds));
+			sb.append(String.format("transactions: %d (%d failed) in %.3f s, %.1f per second%n",
+					transactions, failures, seconds, getTransactionsPerSecond()));
+			sb.append(String.format("latency (us): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+					getLatencyNanos(50) / 1e3, getLatencyNanos(90) / 1e3, getLatencyNanos(99) / 1e3,
+					getLatencyNanos(99.9) / 1e3, getLatencyNanos(100) / 1e3));
+			if (allocatedBytes < 0) {
+				sb.append(String.format("allocation: not measured by this JVM%n"));
+			} else {
+				sb.append(String.format("allocation: %d bytes per transaction, %.1f MB/s%n",
+						getAllocatedBytesPerTransaction(), allocatedBytes / seconds / (1024 * 1024)));
+			}
+			sb.append(String.format("monitor contention: blocked %d times", blockedCount));
+			if (blockedMillis >= 0) {
+				sb.append(String.format(", %d ms", blockedMillis));
+			}
+			return sb.toString();
+		}
+	}
+
+	protected final int clients;
+	protected final int threads;
+	protected final MockSwitch[] switches;
+	protected final DHCPServer dhcpServer;
+	protected final MockFloodlightProvider floodlightProvider;
+
+	/**
+	 * Starts a DHCP server with a pool of an address per client.
+	 * @param clients The number of simulated clients
+	 * @param switches The number of mock switches the clients are spread over
+	 * @param threads The number of threads the clients are split between
+	 */
+	public DHCPLoadGenerator(int clients, int switches, int threads) throws FloodlightModuleException {
+		if (clients < threads || switches < 1 || threads < 1) {
+			throw new IllegalArgumentException("Need at least a switch, a thread and a client per thread");
+		}
+		this.clients = clients;
+		this.threads = threads;
+		this.switches = new MockSwitch[switches];
+		for (int i = 0; i < switches; i++) {
+			this.switches[i] = new MockSwitch(0x1000L + i);
+		}
+
+		floodlightProvider = new MockFloodlightProvider();
+		dhcpServer = new DHCPServer();
+		FloodlightModuleContext fmc = new FloodlightModuleContext();
+		fmc.addService(IFloodlightProviderService.class, floodlightProvider);
+		fmc.addConfigParam(dhcpServer, "subnet-mask", "255.0.0.0");
+		fmc.addConfigParam(dhcpServer, "lower-ip-range", LOWER_IP);
+		fmc.addConfigParam(dhcpServer, "upper-ip-range",
+				IPv4.fromIPv4Address(IPv4.toIPv4Address(LOWER_IP) + clients - 1));
+		fmc.addConfigParam(dhcpServer, "broadcast-address", "10.255.255.255");
+		fmc.addConfigParam(dhcpServer, "router", "10.0.0.254");
+		fmc.addConfigParam(dhcpServer, "router-mac", "02:00:00:00:00:fe");
+		fmc.addConfigParam(dhcpServer, "domain-name", "geni.net");
+		fmc.addConfigParam(dhcpServer, "default-lease-time", "3600");
+		fmc.addConfigParam(dhcpServer, "hold-lease-time", "10");
+		fmc.addConfigParam(dhcpServer, "domain-name-servers", "10.0.0.253");
+		fmc.addConfigParam(dhcpServer, "ntp-servers", "10.0.0.252");
+		fmc.addConfigParam(dhcpServer, "ip-forwarding", "0");
+		fmc.addConfigParam(dhcpServer, "lease-gc-period", "10");
+		fmc.addConfigParam(dhcpServer, "controller-mac", "02:00:00:00:00:fa");
+		fmc.addConfigParam(dhcpServer, "controller-ip", CONTROLLER_IP);
+		// The handover switches are none of the mock switches, so no client location flows are pushed
+		fmc.addConfigParam(dhcpServer, "root-node-root-ovs-dpid", "00:00:00:00:00:00:00:01");
+		fmc.addConfigParam(dhcpServer, "root-node-wimax-ovs-dpid", "00:00:00:00:00:00:00:02");
+		fmc.addConfigParam(dhcpServer, "wifi-node-wifi-ovs-dpid", "00:00:00:00:00:00:00:03");
+		fmc.addConfigParam(dhcpServer, "root-node-root-ovs-wifi-patch-port", "1");
+		fmc.addConfigParam(dhcpServer, "root-node-root-ovs-wimax-patch-port", "2");
+		fmc.addConfigParam(dhcpServer, "root-node-root-ovs-ip", "10.0.0.1");
+		fmc.addConfigParam(dhcpServer, "wifi-node-ip", "10.0.0.2");
+		dhcpServer.init(fmc);
+		dhcpServer.startUp(fmc);
+	}
+
+	/**
+	 * @return the packet-outs written to all of the mock switches
+	 */
+	public long getPacketOuts() {
+		long packetOuts = 0;
+		for (MockSwitch sw : switches) {
+			packetOuts += sw.getPacketOuts();
+		}
+		return packetOuts;
+	}
+
+	/**
+	 * Has every client go through DORA and RELEASE its address a number of times.
+	 * @param rounds The number of times each client leases an address
+	 * @return what was measured
+	 */
+	public Result run(final int rounds) throws InterruptedException {
+		final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		final boolean allocationMeasured = threadMXBean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported();
+		if (allocationMeasured) {
+			((com.sun.management.ThreadMXBean) threadMXBean).setThreadAllocatedMemoryEnabled(true);
+		}
+		boolean contentionMeasured = threadMXBean.isThreadContentionMonitoringSupported();
+		if (contentionMeasured) {
+			threadMXBean.setThreadContentionMonitoringEnabled(true);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final Worker[] workers = new Worker[threads];
+		Thread[] workerThreads = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Worker(t, rounds, allocationMeasured ? (com.sun.management.ThreadMXBean) threadMXBean : null);
+			final Worker worker = workers[t];
+			workerThreads[t] = new Thread("dhcp-load-" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						worker.run();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			workerThreads[t].start();
+		}
+
+		long[] blockedBefore = blocked(threadMXBean, workerThreads);
+		long startNanos = System.nanoTime();
+		start.countDown();
+		for (Thread thread : workerThreads) {
+			thread.join();
+		}
+		long elapsedNanos = System.nanoTime() - startNanos;
+		long[] blockedAfter = blocked(threadMXBean, workerThreads);
+
+		long transactions = 0;
+		long failures = 0;
+		long allocatedBytes = allocationMeasured ? 0 : -1;
+		int latencies = 0;
+		for (Worker worker : workers) {
+			transactions += worker.transactions;
+			failures += worker.failures;
+			latencies += worker.latencies;
+			if (allocationMeasured) {
+				allocatedBytes += worker.allocatedBytes;
+			}
+		}
+		long[] latencyNanos = new long[latencies];
+		int offset = 0;
+		for (Worker worker : workers) {
+			System.arraycopy(worker.latencyNanos, 0, latencyNanos, offset, worker.latencies);
+			offset += worker.latencies;
+		}
+		Arrays.sort(latencyNanos);
+
+		return new Result(clients, switches.length, threads, rounds, transactions, failures, elapsedNanos, latencyNanos,
+				allocatedBytes, blockedAfter[0] - blockedBefore[0],
+				contentionMeasured ? blockedAfter[1] - blockedBefore[1] : -1);
+	}
+
+	/**
+	 * @return the times and the milliseconds the threads have blocked to enter a monitor so far
+	 */
+	protected static long[] blocked(ThreadMXBean threadMXBean, Thread[] threads) {
+		long[] blocked = new long[2];
+		for (Thread thread : threads) {
+			ThreadInfo info = threadMXBean.getThreadInfo(thread.getId());
+			if (info != null) {
+				blocked[0] += info.getBlockedCount();
+				blocked[1] += Math.max(0, info.getBlockedTime());
+			}
+		}
+		return blocked;
+	}
+
+	/**
+	 * Runs the clients of one thread.
+	 */
+	protected class Worker {
+		private final int index;
+		private final int rounds;
+		private final com.sun.management.ThreadMXBean allocation;
+		private final long[] latencyNanos;
+		private int latencies;
+		private long transactions;
+		private long failures;
+		private long allocatedBytes;
+
+		protected Worker(int index, int rounds, com.sun.management.ThreadMXBean allocation) {
+			this.index = index;
+			this.rounds = rounds;
+			this.allocation = allocation;
+			this.latencyNanos = new long[rounds * ((clients + threads - 1 - index) / threads)];
+		}
+
+		protected void run() {
+			long threadId = Thread.currentThread().getId();
+			for (int round = 0; round < rounds; round++) {
+				for (int client = index; client < clients; client += threads) {
+					MockSwitch sw = switches[client % switches.length];
+					short port = (short) (1 + (client / switches.length) % PORTS_PER_SWITCH);
+					byte[] mac = MACAddress.valueOf(0x020000000000L + client).toBytes();
+					int xid = (round << 20) ^ client;
+
+					OFPacketIn discover = makePacketIn(makeRequest(mac, xid, DHCPPacketType.DHCPDISCOVER, 0), port);
+					long allocatedBefore = (allocation == null) ? 0 : allocation.getThreadAllocatedBytes(threadId);
+					long startNanos = System.nanoTime();
+					dispatch(sw, discover);
+					long serverNanos = System.nanoTime() - startNanos;
+					long serverBytes = (allocation == null) ? 0 : allocation.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+					DHCP offer = takeReply(DHCPPacketType.DHCPOFFER, xid);
+					if (offer == null) {
+						failures++;
+						continue;
+					}
+					OFPacketIn request = makePacketIn(makeRequest(mac, xid, DHCPPacketType.DHCPREQUEST,
+							offer.getYourIPAddress()), port);
+					allocatedBefore = (allocation == null) ? 0 : allocation.getThreadAllocatedBytes(threadId);
+					startNanos = System.nanoTime();
+					dispatch(sw, request);
+					serverNanos += System.nanoTime() - startNanos;
+					serverBytes += (allocation == null) ? 0 : allocation.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+					DHCP ack = takeReply(DHCPPacketType.DHCPACK, xid);
+					if (ack == null) {
+						failures++;
+						continue;
+					}
+					transactions++;
+					latencyNanos[latencies++] = serverNanos;
+					allocatedBytes += serverBytes;
+
+					dispatch(sw, makePacketIn(makeRequest(mac, xid, DHCPPacketType.DHCPRELEASE, ack.getYourIPAddress()), port));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands a packet-in to the DHCP server as the controller would, deserializing it first.
+	 */
+	protected void dispatch(MockSwitch sw, OFPacketIn pi) {
+		Ethernet eth = new Ethernet();
+		eth.deserialize(pi.getPacketData(), 0, pi.getPacketData().length);
+		FloodlightContext cntx = new FloodlightContext();
+		IFloodlightProviderService.bcStore.put(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD, eth);
+		dhcpServer.receive(sw, pi, cntx);
+	}
+
+	/**
+	 * @return the reply the thread was last sent, if it is of the type and transaction expected
+	 */
+	protected static DHCP takeReply(DHCPPacketType type, int xid) {
+		byte[] frame = LAST_REPLY.get();
+		LAST_REPLY.remove();
+		if (frame == null) {
+			return null;
+		}
+		Ethernet eth = new Ethernet();
+		eth.deserialize(frame, 0, frame.length);
+		DHCP reply = (DHCP) eth.getPayload().getPayload().getPayload();
+		return (reply.getPacketType() == type && reply.getTransactionId() == xid) ? reply : null;
+	}
+
+	/**
+	 * Makes a client's message from the DISCOVER the test PacketFactory makes.
+	 * @param requestedIP The address asked for or released, or 0
+	 */
+	protected static Ethernet makeRequest(byte[] mac, int xid, DHCPPacketType type, int requestedIP) {
+		Ethernet eth = PacketFactory.DhcpDiscoveryRequestEthernet(MACAddress.valueOf(mac));
+		DHCP dhcp = (DHCP) eth.getPayload().getPayload().getPayload();
+		dhcp.setTransactionId(xid);
+
+		List<DHCPOption> options = new ArrayList<DHCPOption>();
+		options.add(new DHCPOption().setCode(DHCP.DHCPOptionCode.OptionCode_MessageType.getValue())
+				.setLength((byte) 1).setData(new byte[] {(byte) type.getValue()}));
+		if (type == DHCPPacketType.DHCPRELEASE) {
+			dhcp.setClientIPAddress(requestedIP);
+			dhcp.setServerIPAddress(IPv4.toIPv4Address(CONTROLLER_IP));
+		} else {
+			if (type == DHCPPacketType.DHCPREQUEST) {
+				options.add(new DHCPOption().setCode(DHCP.DHCPOptionCode.OptionCode_RequestedIP.getValue())
+						.setLength((byte) 4).setData(IPv4.toIPv4AddressBytes(requestedIP)));
+				options.add(new DHCPOption().setCode(DHCP.DHCPOptionCode.OptionCode_DHCPServerIp.getValue())
+						.setLength((byte) 4).setData(IPv4.toIPv4AddressBytes(CONTROLLER_IP)));
+			}
+			options.add(dhcp.getOption(DHCP.DHCPOptionCode.OptionCode_RequestedParameters));
+			options.add(dhcp.getOption(DHCP.DHCPOptionCode.OptionCode_ClientID));
+		}
+		options.add(new DHCPOption().setCode(DHCP.DHCPOptionCode.OptionCode_END.getValue()).setLength((byte) 0));
+		dhcp.setOptions(options);
+		return eth;
+	}
+
+	protected static OFPacketIn makePacketIn(Ethernet eth, short inPort) {
+		byte[] serializedPacket = eth.serialize();
+		return ((OFPacketIn) OF_MESSAGE_FACTORY.getMessage(OFType.PACKET_IN))
+				.setBufferId(OFPacketOut.BUFFER_ID_NONE)
+				.setInPort(inPort)
+				.setPacketData(serializedPacket)
+				.setReason(OFPacketInReason.NO_MATCH)
+				.setTotalLength((short) serializedPacket.length);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+		int switches = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 20;
+
+		// The server logs every message at debug
+		((ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger("net.floodlightcontroller"))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+
+		DHCPLoadGenerator generator = new DHCPLoadGenerator(clients, switches, threads);
+		// Warm up, then measure
+		generator.run(Math.max(1, rounds / 4));
+		System.out.println(generator.run(rounds));
+		// The lease police of the server is not a daemon thread
+		System.exit(0);
+	}
+}
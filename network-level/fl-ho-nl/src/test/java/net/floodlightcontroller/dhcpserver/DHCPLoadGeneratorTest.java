@@ -0,0 +1,24 @@
+package net.floodlightcontroller.dhcpserver;
+
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Test;
+
+public class DHCPLoadGeneratorTest extends FloodlightTestCase {
+    @Test
+    public void testLoad() throws Exception {
+        DHCPLoadGenerator generator = new DHCPLoadGenerator(64, 3, 4);
+        DHCPLoadGenerator.Result result = generator.run(3);
+
+        // Every client leases and releases an address each round, from a pool of an address per client
+        assertEquals(0, result.getFailures());
+        assertEquals(64 * 3, result.getTransactions());
+        assertEquals(64 * 3 * 2, generator.getPacketOuts());
+        assertTrue(result.getTransactionsPerSecond() > 0);
+        assertTrue(result.getLatencyNanos(50) > 0);
+        assertTrue(result.getLatencyNanos(50) <= result.getLatencyNanos(99));
+        assertTrue(result.getLatencyNanos(99) <= result.getLatencyNanos(100));
+        assertTrue(result.getBlockedCount() >= 0);
+        assertNotNull(result.toString());
+    }
+}
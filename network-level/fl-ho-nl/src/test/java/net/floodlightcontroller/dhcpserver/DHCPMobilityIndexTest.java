@@ -0,0 +1,80 @@
+package net.floodlightcontroller.dhcpserver;
+
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DHCPMobilityIndexTest extends FloodlightTestCase {
+    protected static final long MAC1 = 0x001122334455L;
+    protected static final long MAC2 = 0x001122334466L;
+    protected static final int IP1 = IPv4.toIPv4Address("10.3.10.5");
+    protected static final int IP2 = IPv4.toIPv4Address("10.3.10.6");
+
+    protected DHCPMobilityIndex index;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        index = new DHCPMobilityIndex();
+    }
+
+    @Test
+    public void testMove() throws Exception {
+        assertNull(index.getByMAC(MAC1));
+        assertNull(index.getByIP(IP1));
+
+        DHCPClientLocation first = index.move(MAC1, IP1, 0x202L, (short) 1, "WiFi-client-10.3.10.5", 7);
+        assertSame(first, index.getByMAC(MAC1));
+        assertSame(first, index.getByIP(IP1));
+        assertTrue(first.getHistory().isEmpty());
+
+        DHCPClientLocation second = index.move(MAC1, IP1, 0x102L, (short) 2, "WiMAX-client-10.3.10.5", 8);
+        assertSame(second, index.getByMAC(MAC1));
+        assertSame(second, index.getByIP(IP1));
+        assertEquals(0x102L, second.getDPID());
+        assertEquals(2, second.getPort());
+        assertEquals("WiMAX-client-10.3.10.5", second.getFlowName());
+        assertEquals(8, second.getCookie());
+        assertEquals(1, second.getHistory().size());
+        assertEquals(0x202L, second.getHistory().get(0).getDPID());
+        assertEquals("WiFi-client-10.3.10.5", second.getHistory().get(0).getFlowName());
+        // What was read before the move does not change
+        assertEquals(0x202L, first.getDPID());
+        assertEquals(1, index.getAll().size());
+    }
+
+    @Test
+    public void testHistoryBounded() throws Exception {
+        DHCPClientLocation location = null;
+        for (int i = 0; i < DHCPClientLocation.MAX_HISTORY + 5; i++) {
+            location = index.move(MAC1, IP1, i, (short) 1, null, 0);
+        }
+        assertEquals(DHCPClientLocation.MAX_HISTORY, location.getHistory().size());
+        // Most recent first
+        assertEquals(DHCPClientLocation.MAX_HISTORY + 3, location.getHistory().get(0).getDPID());
+        assertEquals(4, location.getHistory().get(DHCPClientLocation.MAX_HISTORY - 1).getDPID());
+        assertTrue(location.getHistory().get(0).getHistory().isEmpty());
+    }
+
+    @Test
+    public void testAddressChanges() throws Exception {
+        // A client with a new address is no longer found by the old one
+        index.move(MAC1, IP1, 0x202L, (short) 1, "WiFi-client-10.3.10.5", 7);
+        index.move(MAC1, IP2, 0x202L, (short) 1, "WiFi-client-10.3.10.6", 9);
+        assertNull(index.getByIP(IP1));
+        assertEquals(IP2, index.getByIP(IP2).getIP());
+
+        // An address leased to another client takes the location of the one that had it
+        index.move(MAC2, IP2, 0x102L, (short) 2, "WiMAX-client-10.3.10.6", 10);
+        assertNull(index.getByMAC(MAC1));
+        assertEquals(MAC2, index.getByIP(IP2).getMAC());
+        assertEquals(1, index.getAll().size());
+
+        assertNotNull(index.remove(MAC2));
+        assertNull(index.getByIP(IP2));
+        assertTrue(index.getAll().isEmpty());
+    }
+}
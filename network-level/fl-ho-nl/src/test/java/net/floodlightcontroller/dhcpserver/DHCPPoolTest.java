@@ -0,0 +1,228 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DHCPPoolTest extends FloodlightTestCase {
+    protected static final byte[] MAC1 = Ethernet.toMACAddress("00:00:00:00:00:01");
+    protected static final byte[] MAC2 = Ethernet.toMACAddress("00:00:00:00:00:02");
+    protected static final byte[] MAC3 = Ethernet.toMACAddress("00:00:00:00:00:03");
+
+    protected DHCPPool pool;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        pool = new DHCPPool(ip("10.0.0.10"), 4, null);
+    }
+
+    protected static byte[] ip(String ip) {
+        return IPv4.toIPv4AddressBytes(ip);
+    }
+
+    protected DHCPBinding lease(byte[] mac) {
+        DHCPBinding binding = pool.getAnyAvailableLease(mac);
+        pool.setDHCPbinding(binding, mac, 60);
+        return binding;
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        assertNull(pool.getDHCPbindingFromIPv4(ip("10.0.0.9")));
+        assertNull(pool.getDHCPbindingFromIPv4(ip("10.0.0.14")));
+        assertEquals("10.0.0.13", pool.getDHCPbindingFromIPv4(ip("10.0.0.13")).getIPv4AddresString());
+
+        DHCPBinding binding = lease(MAC1);
+        assertEquals("10.0.0.10", binding.getIPv4AddresString());
+        assertSame(binding, pool.getDHCPbindingFromMAC(MAC1));
+        assertTrue(Arrays.equals(MAC1, pool.lookupBoundMAC(ip("10.0.0.10"))));
+        assertTrue(Arrays.equals(ip("10.0.0.10"), pool.lookupBoundIP(MAC1)));
+        assertNull(pool.lookupBoundMAC(ip("10.0.0.11")));
+        assertNull(pool.lookupBoundIP(MAC2));
+
+        assertTrue(pool.cancelLeaseOfMAC(MAC1));
+        assertNull(pool.getDHCPbindingFromMAC(MAC1));
+        assertNull(pool.lookupBoundMAC(ip("10.0.0.10")));
+    }
+
+    @Test
+    public void testFreeList() throws Exception {
+        assertEquals("10.0.0.10", lease(MAC1).getIPv4AddresString());
+        assertEquals("10.0.0.11", lease(MAC2).getIPv4AddresString());
+        // a client keeps the binding it has
+        assertSame(pool.getDHCPbindingFromMAC(MAC1), pool.getAnyAvailableLease(MAC1));
+
+        // a released address goes behind the ones never leased
+        pool.cancelLeaseOfIPv4(ip("10.0.0.10"));
+        assertEquals("10.0.0.12", lease(MAC3).getIPv4AddresString());
+        // a requested address is taken out of turn
+        DHCPBinding specific = pool.getSpecificAvailableLease(ip("10.0.0.10"), MAC1);
+        pool.setDHCPbinding(specific, MAC1, 60);
+        assertEquals("10.0.0.13", lease(Ethernet.toMACAddress("00:00:00:00:00:04")).getIPv4AddresString());
+
+        assertFalse(pool.hasAvailableAddresses());
+        assertNull(pool.getAnyAvailableLease(Ethernet.toMACAddress("00:00:00:00:00:05")));
+        pool.cancelLeaseOfMAC(MAC2);
+        // cancelling twice frees the address once
+        pool.cancelLeaseOfIPv4(ip("10.0.0.11"));
+        assertTrue(pool.hasAvailableAddresses());
+        assertEquals("10.0.0.11", lease(MAC2).getIPv4AddresString());
+        assertFalse(pool.hasAvailableAddresses());
+    }
+
+    @Test
+    public void testFixedLease() throws Exception {
+        ArrayList<byte[]> macs = new ArrayList<byte[]>();
+        macs.add(MAC1);
+        macs.add(MAC2);
+        assertTrue(pool.configureFixedIPLease(ip("10.0.0.12"), macs));
+        assertFalse(pool.configureFixedIPLease(ip("10.0.1.12"), macs));
+
+        DHCPBinding fixed = pool.getDHCPbindingFromIPv4(ip("10.0.0.12"));
+        assertSame(fixed, pool.getStaticLease(MAC2));
+        assertSame(fixed, pool.getSpecificAvailableLease(ip("10.0.0.10"), MAC1));
+        assertSame(fixed, lease(MAC1));
+        pool.cancelLeaseOfMAC(MAC1);
+        // the fixed binding keeps its MACs and stays off the free-list
+        assertSame(fixed, pool.getDHCPbindingFromMAC(MAC1));
+        assertEquals("10.0.0.10", lease(MAC3).getIPv4AddresString());
+        assertEquals("10.0.0.11", lease(Ethernet.toMACAddress("00:00:00:00:00:04")).getIPv4AddresString());
+        assertEquals("10.0.0.13", lease(Ethernet.toMACAddress("00:00:00:00:00:05")).getIPv4AddresString());
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        assertNull(pool.addIPv4ToDHCPPool(ip("10.0.0.10")));
+        assertNotNull(pool.addIPv4ToDHCPPool(ip("10.0.0.5")));
+        assertNotNull(pool.addIPv4ToDHCPPool(ip("10.0.0.20")));
+        assertNull(pool.addIPv4ToDHCPPool(ip("11.0.0.20")));
+        assertEquals("10.0.0.5", pool.getDHCPbindingFromIPv4(ip("10.0.0.5")).getIPv4AddresString());
+        assertNull(pool.getDHCPbindingFromIPv4(ip("10.0.0.6")));
+        assertEquals("10.0.0.20", pool.getDHCPbindingFromIPv4(ip("10.0.0.20")).getIPv4AddresString());
+
+        pool.removeIPv4FromDHCPPool(ip("10.0.0.10"));
+        pool.removeIPv4FromDHCPPool(ip("10.0.0.12"));
+        assertNull(pool.getDHCPbindingFromIPv4(ip("10.0.0.10")));
+        // the free-list still hands out the remaining addresses in order
+        assertEquals("10.0.0.11", lease(MAC1).getIPv4AddresString());
+        assertEquals("10.0.0.13", lease(MAC2).getIPv4AddresString());
+        assertEquals("10.0.0.5", lease(MAC3).getIPv4AddresString());
+        assertEquals("10.0.0.20", lease(Ethernet.toMACAddress("00:00:00:00:00:04")).getIPv4AddresString());
+        assertFalse(pool.hasAvailableAddresses());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        assertEquals(Long.MAX_VALUE, pool.getNextLeaseExpirySeconds());
+        DHCPBinding expiring = pool.getAnyAvailableLease(MAC1);
+        pool.setDHCPbinding(expiring, MAC1, 0);
+        DHCPBinding renewed = pool.getAnyAvailableLease(MAC2);
+        pool.setDHCPbinding(renewed, MAC2, 0);
+        long nowSeconds = System.currentTimeMillis() / 1000;
+        assertTrue(pool.getNextLeaseExpirySeconds() <= nowSeconds);
+        pool.renewLease(renewed.getIPv4AddressBytes(), 3600);
+        DHCPBinding held = lease(MAC3);
+
+        // only the lease that is still due expires; the renewed one is skipped
+        ArrayList<DHCPBinding> expired = pool.cleanExpiredLeases();
+        assertEquals(1, expired.size());
+        assertSame(expiring, expired.get(0));
+        assertFalse(expiring.isActiveLease());
+        assertTrue(renewed.isActiveLease());
+        assertTrue(held.isActiveLease());
+        assertNull(pool.getDHCPbindingFromMAC(MAC1));
+        assertEquals(held.getLeaseEndTimeSeconds(), pool.getNextLeaseExpirySeconds());
+        assertTrue(pool.cleanExpiredLeases().isEmpty());
+
+        // a cancelled lease is not expired again
+        pool.cancelLeaseOfMAC(MAC3);
+        assertSame(held, pool.getDHCPbindingFromIPv4(held.getIPv4AddressBytes()));
+        assertTrue(pool.cleanExpiredLeases().isEmpty());
+    }
+
+    @Test
+    public void testManyClients() throws Exception {
+        pool = new DHCPPool(ip("10.1.0.0"), 1 << 16, null);
+        for (int i = 0; i < 1 << 16; i++) {
+            byte[] mac = Ethernet.toByteArray(0x020000000000L + i);
+            assertEquals(IPv4.toIPv4Address("10.1.0.0") + i,
+                    IPv4.toIPv4Address(lease(mac).getIPv4AddressBytes()));
+        }
+        assertFalse(pool.hasAvailableAddresses());
+        for (int i = 0; i < 1 << 16; i += 2) {
+            byte[] mac = Ethernet.toByteArray(0x020000000000L + i);
+            assertTrue(Arrays.equals(IPv4.toIPv4AddressBytes(IPv4.toIPv4Address("10.1.0.0") + i),
+                    pool.lookupBoundIP(mac)));
+            assertTrue(pool.cancelLeaseOfMAC(mac));
+        }
+        assertEquals("10.1.0.0", pool.getAnyAvailableLease(MAC1).getIPv4AddresString());
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        final int size = 64;
+        final int threads = 16;
+        pool = new DHCPPool(ip("10.2.0.0"), size, null);
+        // IP --> the MAC the pool leased it to, as the clients saw it
+        final ConcurrentHashMap<Integer, Long> owners = new ConcurrentHashMap<Integer, Long>();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread[] clients = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            clients[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(id);
+                    for (int i = 0; i < 20000 && failure.get() == null; i++) {
+                        long m = 0x020000000000L + id * 8 + random.nextInt(8);
+                        byte[] mac = Ethernet.toByteArray(m);
+                        byte[] bound = pool.lookupBoundIP(mac);
+                        if (bound == null) {
+                            DHCPBinding binding = pool.allocateLease(mac, null, 60);
+                            if (binding != null) {
+                                Long owner = owners.putIfAbsent(IPv4.toIPv4Address(binding.getIPv4AddressBytes()), m);
+                                if (owner != null && owner != m) {
+                                    failure.set(binding.getIPv4AddresString() + " leased to two clients");
+                                }
+                            }
+                        } else if (random.nextBoolean()) {
+                            owners.remove(IPv4.toIPv4Address(bound), m);
+                            pool.cancelLeaseOfMAC(mac);
+                        } else if (!pool.renewLease(bound, 60)) {
+                            failure.set(IPv4.fromIPv4Address(IPv4.toIPv4Address(bound)) + " not renewed");
+                        }
+                    }
+                }
+            };
+            clients[t].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        assertNull(failure.get(), failure.get());
+
+        ArrayList<DHCPBinding> active = pool.getActiveLeases();
+        assertEquals(owners.size(), active.size());
+        for (DHCPBinding binding : active) {
+            assertEquals(owners.get(IPv4.toIPv4Address(binding.getIPv4AddressBytes())).longValue(),
+                    DHCPBinding.toLong(binding.getCurrentMACAddressBytes()));
+        }
+        // the addresses not leased are all still available, and no more
+        for (int i = active.size(); i < size; i++) {
+            assertNotNull(pool.allocateLease(Ethernet.toByteArray(0x040000000000L + i), null, 60));
+        }
+        assertFalse(pool.hasAvailableAddresses());
+        assertNull(pool.allocateLease(MAC1, null, 60));
+    }
+}
@@ -0,0 +1,109 @@
+package net.floodlightcontroller.dhcpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.floodlightcontroller.packet.DHCP;
+import net.floodlightcontroller.packet.DHCPOption;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.junit.Test;
+
+public class DHCPReplyTemplateTest extends FloodlightTestCase {
+    protected static final byte[] BLANK_MAC = new byte[6];
+
+    protected Ethernet makeReply(byte[] chaddr, int dstIPAddr, int xid, int yiaddr, int giaddr, String domainName) {
+        List<DHCPOption> options = new ArrayList<DHCPOption>();
+        options.add(new DHCPOption().setCode((byte) 53).setLength((byte) 1).setData(new byte[] {2}));
+        options.add(new DHCPOption().setCode((byte) 1).setLength((byte) 4)
+                .setData(IPv4.toIPv4AddressBytes("255.255.0.0")));
+        options.add(new DHCPOption().setCode((byte) 15).setLength((byte) domainName.length())
+                .setData(domainName.getBytes()));
+        options.add(new DHCPOption().setCode((byte) 255).setLength((byte) 0));
+
+        DHCP dhcp = new DHCP()
+                .setOpCode(DHCP.OPCODE_REPLY)
+                .setHardwareType((byte) 1)
+                .setHardwareAddressLength((byte) 6)
+                .setTransactionId(xid)
+                .setYourIPAddress(yiaddr)
+                .setServerIPAddress(IPv4.toIPv4Address("10.3.10.250"))
+                .setGatewayIPAddress(giaddr)
+                .setClientHardwareAddress(chaddr)
+                .setOptions(options);
+        return (Ethernet) new Ethernet()
+                .setSourceMACAddress("00:00:00:00:00:fa")
+                .setDestinationMACAddress(chaddr)
+                .setEtherType(Ethernet.TYPE_IPv4)
+                .setPayload(new IPv4()
+                        .setSourceAddress("10.3.10.250")
+                        .setDestinationAddress(dstIPAddr)
+                        .setProtocol(IPv4.PROTOCOL_UDP)
+                        .setTtl((byte) 64)
+                        .setPayload(new UDP()
+                                .setSourcePort(UDP.DHCP_SERVER_PORT)
+                                .setDestinationPort(UDP.DHCP_CLIENT_PORT)
+                                .setPayload(dhcp)));
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        // Options long enough not to be padded, and of odd length, leave the UDP checksum a padded last byte
+        for (String domainName : new String[] {"geni.net", "vertical-handover.clemson.edu.exogeni.geni.net.xx"}) {
+            DHCPReplyTemplate template = new DHCPReplyTemplate(makeReply(BLANK_MAC, 0xffffffff, 0, 0, 0, domainName));
+            byte[][] chaddrs = {
+                    Ethernet.toMACAddress("00:11:22:33:44:55"),
+                    Ethernet.toMACAddress("ff:ff:ff:ff:ff:fe"),
+                    BLANK_MAC };
+            int[] xids = {0, 0x12345678, 0xffffffff};
+            int[] dsts = {0xffffffff, IPv4.toIPv4Address("10.3.10.7")};
+            int[] giaddrs = {0, IPv4.toIPv4Address("10.4.0.254")};
+            for (byte[] chaddr : chaddrs) {
+                for (int xid : xids) {
+                    for (int dst : dsts) {
+                        for (int giaddr : giaddrs) {
+                            int yiaddr = IPv4.toIPv4Address("10.3.10.5") + xid;
+                            byte[] expected = makeReply(chaddr, dst, xid, yiaddr, giaddr, domainName).serialize();
+                            byte[] encoded = template.encode(chaddr, dst, xid, yiaddr, giaddr);
+                            assertEquals(expected.length, template.getLength());
+                            assertTrue(Arrays.equals(expected, encoded));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFramePerThread() throws Exception {
+        final DHCPReplyTemplate template = new DHCPReplyTemplate(makeReply(BLANK_MAC, 0xffffffff, 0, 0, 0, "geni.net"));
+        final byte[][] frames = new byte[2][];
+        frames[0] = template.encode(Ethernet.toMACAddress("00:11:22:33:44:55"), 0xffffffff, 1, 2, 0);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                frames[1] = template.encode(Ethernet.toMACAddress("00:11:22:33:44:66"), 0xffffffff, 3, 4, 0);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotSame(frames[0], frames[1]);
+        assertSame(frames[0], template.encode(Ethernet.toMACAddress("00:11:22:33:44:55"), 0xffffffff, 1, 2, 0));
+    }
+
+    @Test
+    public void testTaggedFrame() throws Exception {
+        Ethernet reply = makeReply(BLANK_MAC, 0xffffffff, 0, 0, 0, "geni.net");
+        reply.setVlanID((short) 10);
+        try {
+            new DHCPReplyTemplate(reply);
+            fail("A tagged frame has its IPv4 header at another offset");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package net.floodlightcontroller.dhcpserver;
+
+import static org.easymock.EasyMock.*;
+import static net.floodlightcontroller.dhcpserver.DHCPLoadGenerator.makePacketIn;
+import static net.floodlightcontroller.dhcpserver.DHCPLoadGenerator.makeRequest;
+import static net.floodlightcontroller.dhcpserver.DHCPLoadGenerator.takeReply;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.dhcpserver.DHCPLoadGenerator.MockSwitch;
+import net.floodlightcontroller.packet.DHCP;
+import net.floodlightcontroller.packet.DHCPOption;
+import net.floodlightcontroller.packet.DHCPPacketType;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.test.FloodlightTestCase;
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFFlowMod;
+
+public class DHCPServerTest extends FloodlightTestCase {
+    protected static final long MAC = 0x020000000001L;
+    protected static final short PORT = 1;
+
+    protected DHCPLoadGenerator generator;
+    protected DHCPServer dhcpServer;
+    protected MockSwitch sw;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        generator = new DHCPLoadGenerator(2, 1, 1);
+        dhcpServer = generator.dhcpServer;
+        sw = generator.switches[0];
+    }
+
+    // Leases an address to the client, which is then at the port it asked from
+    protected int lease(int xid) throws Exception {
+        byte[] mac = MACAddress.valueOf(MAC).toBytes();
+        generator.dispatch(sw, makePacketIn(makeRequest(mac, xid, DHCPPacketType.DHCPDISCOVER, 0), PORT));
+        DHCP offer = takeReply(DHCPPacketType.DHCPOFFER, xid);
+        assertNotNull(offer);
+        generator.dispatch(sw, makePacketIn(makeRequest(mac, xid, DHCPPacketType.DHCPREQUEST,
+                offer.getYourIPAddress()), PORT));
+        DHCP ack = takeReply(DHCPPacketType.DHCPACK, xid);
+        assertNotNull(ack);
+
+        DHCPClientLocation location = dhcpServer.getClientLocation(MAC);
+        assertNotNull(location);
+        assertEquals(ack.getYourIPAddress(), location.getIP());
+        assertEquals(sw.getId(), location.getDPID());
+        assertSame(location, dhcpServer.getClientLocationByIP(ack.getYourIPAddress()));
+        return ack.getYourIPAddress();
+    }
+
+    @Test
+    public void testForgetOnRelease() throws Exception {
+        int ip = lease(1);
+        generator.dispatch(sw, makePacketIn(makeRequest(MACAddress.valueOf(MAC).toBytes(), 2,
+                DHCPPacketType.DHCPRELEASE, ip), PORT));
+        assertNull(dhcpServer.getClientLocation(MAC));
+        assertNull(dhcpServer.getClientLocationByIP(ip));
+        assertTrue(dhcpServer.getClientLocations().isEmpty());
+    }
+
+    @Test
+    public void testForgetOnDecline() throws Exception {
+        int ip = lease(1);
+        generator.dispatch(sw, makePacketIn(makeRequest(MACAddress.valueOf(MAC).toBytes(), 2,
+                DHCPPacketType.DHCPDECLINE, 0), PORT));
+        assertNull(dhcpServer.getClientLocation(MAC));
+        assertNull(dhcpServer.getClientLocationByIP(ip));
+    }
+
+    @Test
+    public void testForgetOnExpiry() throws Exception {
+        int ip = lease(1);
+        // A lease that is still good keeps the client
+        dhcpServer.new DHCPLeasePolice().run();
+        assertNotNull(dhcpServer.getClientLocation(MAC));
+
+        // The lease ends now, and its binding forgets the MAC of the client once it is cleaned up
+        DHCPPool pool = DHCPServer.getInstance(sw.getId(), PORT, 0).getPool();
+        assertTrue(pool.renewLease(IPv4.toIPv4AddressBytes(ip), 0));
+        dhcpServer.new DHCPLeasePolice().run();
+        assertNull(pool.lookupBoundMAC(IPv4.toIPv4AddressBytes(ip)));
+        assertNull(dhcpServer.getClientLocation(MAC));
+        assertNull(dhcpServer.getClientLocationByIP(ip));
+    }
+
+    @Test
+    public void testInformWithoutParameterList() throws Exception {
+        Ethernet inform = makeRequest(MACAddress.valueOf(MAC).toBytes(), 1, DHCPPacketType.DHCPINFORM, 0);
+        DHCP dhcp = (DHCP) inform.getPayload().getPayload().getPayload();
+        List<DHCPOption> options = new ArrayList<DHCPOption>();
+        for (DHCPOption option : dhcp.getOptions()) {
+            if (option.getCode() != DHCP.DHCPOptionCode.OptionCode_RequestedParameters.getValue()) {
+                options.add(option);
+            }
+        }
+        dhcp.setOptions(options);
+
+        // A client that asks for no options gets the ACK the server sends by default
+        generator.dispatch(sw, makePacketIn(inform, PORT));
+        DHCP ack = takeReply(DHCPPacketType.DHCPACK, 1);
+        assertNotNull(ack);
+        assertNull(ack.getOption(DHCP.DHCPOptionCode.OptionCode_LeaseTime));
+    }
+
+    @Test
+    public void testAddressChangeReplacesFlow() throws Exception {
+        // The WiMAX OVS of the harness, so the client gets a flow on the root OVS
+        IOFSwitch wimax = createMock(IOFSwitch.class);
+        expect(wimax.getStringId()).andReturn("00:00:00:00:00:00:00:02").anyTimes();
+        expect(wimax.getId()).andReturn(2L).anyTimes();
+        DHCPFlowBatcher flowBatcher = createMock(DHCPFlowBatcher.class);
+        flowBatcher.relocate(eq("00:00:00:00:00:00:00:01"), (String) isNull(),
+                eq("WiMAX-client-10.1.0.1"), anyObject(OFFlowMod.class));
+        // The flow of the address the client had is deleted along with it getting its new one
+        flowBatcher.relocate(eq("00:00:00:00:00:00:00:01"), eq("WiMAX-client-10.1.0.1"),
+                eq("WiMAX-client-10.1.0.2"), anyObject(OFFlowMod.class));
+        replay(wimax, flowBatcher);
+        dhcpServer.flowBatcher = flowBatcher;
+
+        byte[] mac = MACAddress.valueOf(MAC).toBytes();
+        dhcpServer.updateClientLocation(new DHCPBinding(IPv4.toIPv4AddressBytes("10.1.0.1"), mac), wimax, PORT);
+        dhcpServer.updateClientLocation(new DHCPBinding(IPv4.toIPv4AddressBytes("10.1.0.2"), mac), wimax, PORT);
+        verify(flowBatcher);
+        assertEquals("WiMAX-client-10.1.0.2", dhcpServer.getClientLocation(MAC).getFlowName());
+        assertNull(dhcpServer.getClientLocationByIP(IPv4.toIPv4Address("10.1.0.1")));
+    }
+}
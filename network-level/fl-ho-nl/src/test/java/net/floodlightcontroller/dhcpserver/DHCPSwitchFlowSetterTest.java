@@ -0,0 +1,225 @@
+package net.floodlightcontroller.dhcpserver;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.test.MockFloodlightProvider;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.staticflowentry.IStaticFlowEntryPusherService;
+import net.floodlightcontroller.staticflowentry.StaticFlowEntries;
+import net.floodlightcontroller.test.FloodlightTestCase;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.util.HexString;
+
+public class DHCPSwitchFlowSetterTest extends FloodlightTestCase {
+    protected static final String ROOT_OVS = "00:00:00:00:00:00:01:01";
+    protected static final String WIMAX_OVS = "00:00:00:00:00:00:01:02";
+    protected static final String WIFI_OVS = "00:00:00:00:00:00:01:03";
+    protected static final String WIFI_NODE_TUNNEL_OVS = "00:00:00:00:00:00:02:03";
+    protected static final String WIFI_NODE_WIFI_OVS = "00:00:00:00:00:00:02:02";
+
+    protected DHCPSwitchFlowSetter flowSetter;
+    protected IStaticFlowEntryPusherService sfp;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        flowSetter = new DHCPSwitchFlowSetter();
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        fmc.addService(IFloodlightProviderService.class, new MockFloodlightProvider());
+        sfp = createMock(IStaticFlowEntryPusherService.class);
+        fmc.addService(IStaticFlowEntryPusherService.class, sfp);
+        fmc.addConfigParam(flowSetter, "root-node-root-ovs-dpid", ROOT_OVS);
+        fmc.addConfigParam(flowSetter, "root-node-wimax-ovs-dpid", WIMAX_OVS);
+        fmc.addConfigParam(flowSetter, "root-node-wifi-ovs-dpid", WIFI_OVS);
+        fmc.addConfigParam(flowSetter, "wifi-node-tunnel-ovs-dpid", WIFI_NODE_TUNNEL_OVS);
+        fmc.addConfigParam(flowSetter, "wifi-node-wifi-ovs-dpid", WIFI_NODE_WIFI_OVS);
+        fmc.addConfigParam(flowSetter, "root-node-root-ovs-ip", "10.0.0.1");
+        fmc.addConfigParam(flowSetter, "root-node-root-ovs-wimax-patch-port", "5");
+        fmc.addConfigParam(flowSetter, "root-node-root-ovs-wifi-patch-port", "3");
+        fmc.addConfigParam(flowSetter, "root-node-wifi-ovs-patch-port", "2");
+        fmc.addConfigParam(flowSetter, "root-node-wifi-ovs-tunnel-port", "3");
+        fmc.addConfigParam(flowSetter, "root-node-wimax-ovs-patch-port", "13");
+        fmc.addConfigParam(flowSetter, "root-node-wimax-ovs-vlan-port", "2");
+        fmc.addConfigParam(flowSetter, "wifi-node-wifi-ovs-patch-port", "3");
+        fmc.addConfigParam(flowSetter, "wifi-node-tunnel-ovs-patch-port", "7");
+        fmc.addConfigParam(flowSetter, "wifi-node-tunnel-ovs-tunnel-port", "8");
+        fmc.addConfigParam(flowSetter, "barrier-timeout-ms", "100");
+        flowSetter.init(fmc);
+        flowSetter.startUp(fmc);
+        // Wait for the barrier in the test
+        flowSetter.barrierExecutor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+        };
+    }
+
+    protected IOFSwitch createSwitch(String dpid, Capture<List<OFMessage>> writeCapture,
+                                     Future<OFBarrierReply>... barriers) throws Exception {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getStringId()).andReturn(dpid).anyTimes();
+        expect(sw.getId()).andReturn(HexString.toLong(dpid)).anyTimes();
+        expect(sw.isConnected()).andReturn(true).anyTimes();
+        sw.write(capture(writeCapture), (FloodlightContext) isNull());
+        expectLastCall().times(barriers.length);
+        for (Future<OFBarrierReply> barrier : barriers) {
+            expect(sw.sendBarrier()).andReturn(barrier).once();
+        }
+        return sw;
+    }
+
+    // A barrier the switch answers in time, or does not (null, as OFMessageFuture gives then)
+    @SuppressWarnings("unchecked")
+    protected Future<OFBarrierReply> createBarrier(boolean answered) throws Exception {
+        Future<OFBarrierReply> barrier = createMock(Future.class);
+        if (answered) {
+            expect(barrier.get(100, TimeUnit.MILLISECONDS)).andReturn(new OFBarrierReply()).once();
+        } else {
+            expect(barrier.get(100, TimeUnit.MILLISECONDS)).andReturn(null).once();
+            expect(barrier.cancel(true)).andReturn(true).once();
+        }
+        return barrier;
+    }
+
+    @Test
+    public void testAddedSwitch() throws Exception {
+        Capture<List<OFMessage>> writeCapture = new Capture<List<OFMessage>>(CaptureType.ALL);
+        Future<OFBarrierReply> barrier = createBarrier(true);
+        @SuppressWarnings("unchecked")
+        IOFSwitch sw = createSwitch(WIMAX_OVS, writeCapture, barrier);
+        Capture<Map<String, OFFlowMod>> registerCapture = new Capture<Map<String, OFFlowMod>>();
+        sfp.registerFlows(capture(registerCapture), eq(WIMAX_OVS));
+        expectLastCall().once();
+        replay(sw, barrier, sfp);
+
+        assertFalse(flowSetter.isSwitchReady(sw.getId()));
+        flowSetter.addedSwitch(sw);
+        verify(sw, barrier, sfp);
+        assertTrue(flowSetter.isSwitchReady(sw.getId()));
+
+        // All of the flows of the switch in one write, which the answered barrier confirms
+        assertEquals(1, writeCapture.getValues().size());
+        List<OFMessage> flows = writeCapture.getValue();
+        assertEquals(3, flows.size());
+
+        // Written as is, so the matches say which fields they match
+        OFFlowMod patch = (OFFlowMod) flows.get(0);
+        assertEquals(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT, patch.getMatch().getWildcards());
+        assertEquals(13, patch.getMatch().getInputPort());
+        assertEquals(2, ((OFActionOutput) patch.getActions().get(0)).getPort());
+        OFFlowMod dhcp = (OFFlowMod) flows.get(2);
+        OFMatch dhcpMatch = new OFMatch();
+        dhcpMatch.fromString("in_port=2,dl_type=0x800,nw_proto=17,tp_src=68");
+        assertEquals(dhcpMatch, dhcp.getMatch());
+        assertEquals(UDP.DHCP_CLIENT_PORT, dhcp.getMatch().getTransportSource());
+        OFActionOutput toController = (OFActionOutput) dhcp.getActions().get(0);
+        assertEquals(OFPort.OFPP_CONTROLLER.getValue(), toController.getPort());
+        assertEquals(Short.MAX_VALUE, toController.getMaxLength());
+
+        // Once confirmed, copies of the flows are listed as static flows, under their names
+        Map<String, OFFlowMod> registered = registerCapture.getValue();
+        assertEquals(3, registered.size());
+        OFFlowMod registeredDhcp = registered.get("root-node-wimax-br-DHCP-phys");
+        assertEquals(dhcp, registeredDhcp);
+        assertNotSame(dhcp, registeredDhcp);
+        assertEquals(StaticFlowEntries.computeEntryCookie(dhcp, 0, "root-node-wimax-br-DHCP-phys"), dhcp.getCookie());
+
+        // The flows are built once
+        assertSame(flows, flowSetter.getFlows(WIMAX_OVS));
+
+        // Not ready once it disconnects
+        flowSetter.removedSwitch(sw);
+        assertFalse(flowSetter.isSwitchReady(sw.getId()));
+    }
+
+    @Test
+    public void testFlowsPerSwitch() throws Exception {
+        assertEquals(2, flowSetter.getFlows(WIFI_OVS).size());
+        assertEquals(3, flowSetter.getFlows(WIMAX_OVS).size());
+        assertEquals(4, flowSetter.getFlows(ROOT_OVS).size());
+        assertEquals(3, flowSetter.getFlows(WIFI_NODE_WIFI_OVS).size());
+        assertEquals(2, flowSetter.getFlows(WIFI_NODE_TUNNEL_OVS).size());
+        assertTrue(flowSetter.getFlows("00:00:00:00:00:00:00:09").isEmpty());
+        OFFlowMod egress = (OFFlowMod) flowSetter.getFlows(ROOT_OVS).get(3);
+        assertEquals(OFPort.OFPP_LOCAL.getValue(), egress.getMatch().getInputPort());
+        assertEquals(IPv4.toIPv4Address("10.0.0.1"), egress.getMatch().getNetworkSource());
+        assertEquals(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT & ~OFMatch.OFPFW_DL_TYPE & ~OFMatch.OFPFW_NW_SRC_MASK,
+                egress.getMatch().getWildcards());
+    }
+
+    @Test
+    public void testSwitchWithoutFlows() throws Exception {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getStringId()).andReturn("00:00:00:00:00:00:00:09").anyTimes();
+        expect(sw.getId()).andReturn(9L).anyTimes();
+        replay(sw, sfp);
+
+        // Nothing to write or confirm, so it is ready at once
+        flowSetter.addedSwitch(sw);
+        verify(sw, sfp);
+        assertTrue(flowSetter.isSwitchReady(9L));
+    }
+
+    @Test
+    public void testBarrierTimeout() throws Exception {
+        Capture<List<OFMessage>> writeCapture = new Capture<List<OFMessage>>(CaptureType.ALL);
+        Future<OFBarrierReply> unanswered = createBarrier(false);
+        Future<OFBarrierReply> answered = createBarrier(true);
+        @SuppressWarnings("unchecked")
+        IOFSwitch sw = createSwitch(ROOT_OVS, writeCapture, unanswered, answered);
+        sfp.registerFlows(anyObject(Map.class), eq(ROOT_OVS));
+        expectLastCall().once();
+        replay(sw, unanswered, answered, sfp);
+
+        // The barrier that times out is cancelled and the flows are written again
+        flowSetter.addedSwitch(sw);
+        verify(sw, unanswered, answered, sfp);
+        assertTrue(flowSetter.isSwitchReady(sw.getId()));
+        assertEquals(2, writeCapture.getValues().size());
+        assertSame(writeCapture.getValues().get(0), writeCapture.getValues().get(1));
+        assertEquals(4, writeCapture.getValues().get(1).size());
+    }
+
+    @Test
+    public void testBarrierNeverConfirmed() throws Exception {
+        Capture<List<OFMessage>> writeCapture = new Capture<List<OFMessage>>(CaptureType.ALL);
+        @SuppressWarnings("unchecked")
+        Future<OFBarrierReply>[] barriers = new Future[DHCPSwitchFlowSetter.MAX_ATTEMPTS];
+        for (int i = 0; i < barriers.length; i++) {
+            barriers[i] = createBarrier(false);
+        }
+        IOFSwitch sw = createSwitch(WIFI_OVS, writeCapture, barriers);
+        replay((Object[]) barriers);
+        replay(sw, sfp);
+
+        // Given up on after the last attempt, with no barrier left waiting and nothing listed
+        flowSetter.addedSwitch(sw);
+        verify((Object[]) barriers);
+        verify(sw, sfp);
+        assertFalse(flowSetter.isSwitchReady(sw.getId()));
+        assertEquals(DHCPSwitchFlowSetter.MAX_ATTEMPTS, writeCapture.getValues().size());
+    }
+}
@@ -22,7 +22,9 @@ package net.floodlightcontroller.packet;
 
 
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.ListIterator;
 
 import junit.framework.TestCase;
@@ -493,6 +495,38 @@ public class DHCPTest extends TestCase {
         assertTrue(Arrays.equals(this.dhcpPacket, result));
     }
 
+    public void testOptionIndex() {
+        DHCP dhcp = new DHCP();
+        dhcp.deserialize(dhcpPacket, 0, dhcpPacket.length);
+        assertEquals(DHCPPacketType.DHCPDISCOVER, dhcp.getPacketType());
+        // Every option is found by its code, the first of a code if it is repeated
+        for (DHCPOption option : dhcp.getOptions()) {
+            DHCPOption first = null;
+            for (DHCPOption o : dhcp.getOptions()) {
+                if (o.getCode() == option.getCode()) {
+                    first = o;
+                    break;
+                }
+            }
+            assertSame(first, dhcp.getOption(option.getCode()));
+        }
+        assertSame(dhcp.getOption((byte) 53), dhcp.getOption(DHCP.DHCPOptionCode.OptionCode_MessageType));
+        assertNull(dhcp.getOption((byte) 200));
+
+        List<DHCPOption> options = new ArrayList<DHCPOption>();
+        options.add(new DHCPOption().setCode((byte) 53).setLength((byte) 1).setData(new byte[] {5}));
+        options.add(new DHCPOption().setCode((byte) 200).setLength((byte) 1).setData(new byte[] {1}));
+        options.add(new DHCPOption().setCode((byte) 255).setLength((byte) 0));
+        dhcp.setOptions(options);
+        assertEquals(DHCPPacketType.DHCPACK, dhcp.getPacketType());
+        assertSame(options.get(1), dhcp.getOption((byte) 200));
+        assertSame(options.get(2), dhcp.getOption(DHCP.DHCPOptionCode.OptionCode_END));
+        assertNull(dhcp.getOption(DHCP.DHCPOptionCode.OptionCode_RequestedParameters));
+
+        dhcp.setOptions(new ArrayList<DHCPOption>());
+        assertNull(dhcp.getPacketType());
+    }
+
     public void testDeSerialize() {
         Ethernet eth = new Ethernet();
         eth.deserialize(dhcpPacket2, 0, dhcpPacket2.length);
@@ -7,11 +7,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 
 import org.easymock.Capture;
 import org.easymock.CaptureType;
 import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
@@ -30,6 +32,7 @@ import net.floodlightcontroller.core.test.MockFloodlightProvider;
 import net.floodlightcontroller.test.FloodlightTestCase;
 import net.floodlightcontroller.restserver.RestApiServer;
 import net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher;
+import net.floodlightcontroller.storage.IResultSet;
 import net.floodlightcontroller.storage.IStorageSourceService;
 import net.floodlightcontroller.storage.memory.MemoryStorageSource;
 import static net.floodlightcontroller.staticflowentry.StaticFlowEntryPusher.*;
@@ -331,4 +334,124 @@ public class StaticFlowTests extends FloodlightTestCase {
         assert(staticFlowEntryPusher.entriesFromStorage.containsValue(FlowMod2));
         assert(staticFlowEntryPusher.entriesFromStorage.containsValue(FlowMod3));
     }
+
+    @Test
+    public void testReplaceFlowsDirect() throws Exception {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        IStorageSourceService storage = createStorageWithFlowEntries();
+        long dpid = HexString.toLong(TestSwitch1DPID);
+
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        Capture<List<OFMessage>> writeCaptureList = new Capture<List<OFMessage>>(CaptureType.ALL);
+        @SuppressWarnings("unchecked")
+        Future<OFBarrierReply> barrier = createMock(Future.class);
+        mockSwitch.write(capture(writeCaptureList), (FloodlightContext) anyObject());
+        expectLastCall().anyTimes();
+        expect(mockSwitch.sendBarrier()).andReturn(barrier).times(1);
+        expect(mockSwitch.getId()).andReturn(dpid).anyTimes();
+        expect(mockSwitch.getStringId()).andReturn(TestSwitch1DPID).anyTimes();
+
+        staticFlowEntryPusher.setStorageSource(storage);
+        MockFloodlightProvider mockFloodlightProvider = getMockFloodlightProvider();
+        Map<Long, IOFSwitch> switchMap = new HashMap<Long, IOFSwitch>();
+        switchMap.put(dpid, mockSwitch);
+        mockFloodlightProvider.setSwitches(switchMap);
+        staticFlowEntryPusher.setFloodlightProvider(mockFloodlightProvider);
+        RestApiServer restApi = new RestApiServer();
+        restApi.init(new FloodlightModuleContext());
+        staticFlowEntryPusher.restApi = restApi;
+        staticFlowEntryPusher.startUp(null);    // again, to hack unittest
+        replay(mockSwitch);
+
+        // TestRule1 moves to TestRule4 with the same match, TestRule2 goes
+        // away and TestRule5 is new
+        OFFlowMod moved = FlowMod1.clone();
+        OFFlowMod added = FlowMod1.clone();
+        added.getMatch().fromString("dl_dst=00:20:30:40:50:61");
+        Map<String, OFFlowMod> flows = new HashMap<String, OFFlowMod>();
+        flows.put("TestRule4", moved);
+        flows.put("TestRule5", added);
+        List<String> names = new LinkedList<String>();
+        names.add("TestRule1");
+        names.add("TestRule2");
+        assertSame(barrier, staticFlowEntryPusher.replaceFlows(names, flows, TestSwitch1DPID));
+        assertEquals(1, writeCaptureList.getValues().size());
+        List<OFMessage> outList = writeCaptureList.getValues().get(0);
+        assertEquals(3, outList.size());
+        assertEquals(OFFlowMod.OFPFC_DELETE_STRICT, ((OFFlowMod) outList.get(0)).getCommand());
+        assertEquals(FlowMod2.getMatch(), ((OFFlowMod) outList.get(0)).getMatch());
+        assertEquals(OFFlowMod.OFPFC_MODIFY_STRICT, moved.getCommand());
+        assertEquals(OFFlowMod.OFPFC_ADD, added.getCommand());
+        assertTrue(outList.contains(moved));
+        assertTrue(outList.contains(added));
+        assertEquals(TotalTestRules, staticFlowEntryPusher.countEntries());
+
+        // storage follows, without pushing anything a second time
+        storage.getRowAsync(TABLE_NAME, "TestRule5").get();
+        assertFalse(storage.getRow(TABLE_NAME, "TestRule1").next());
+        assertFalse(storage.getRow(TABLE_NAME, "TestRule2").next());
+        assertTrue(storage.getRow(TABLE_NAME, "TestRule4").next());
+        assertTrue(storage.getRow(TABLE_NAME, "TestRule5").next());
+        assertEquals(1, writeCaptureList.getValues().size());
+        assertTrue(staticFlowEntryPusher.writeBehindEntries.isEmpty());
+        verify(mockSwitch);
+    }
+
+    @Test
+    public void testRegisterFlows() throws Exception {
+        StaticFlowEntryPusher staticFlowEntryPusher = new StaticFlowEntryPusher();
+        IStorageSourceService storage = createStorageWithFlowEntries();
+        long dpid = HexString.toLong(TestSwitch1DPID);
+
+        IOFSwitch mockSwitch = createNiceMock(IOFSwitch.class);
+        Capture<List<OFMessage>> writeCaptureList = new Capture<List<OFMessage>>(CaptureType.ALL);
+        mockSwitch.write(capture(writeCaptureList), (FloodlightContext) anyObject());
+        expectLastCall().anyTimes();
+        Capture<OFMessage> writeCapture = new Capture<OFMessage>(CaptureType.ALL);
+        mockSwitch.write(capture(writeCapture), (FloodlightContext) anyObject());
+        expectLastCall().anyTimes();
+        expect(mockSwitch.getId()).andReturn(dpid).anyTimes();
+        expect(mockSwitch.getStringId()).andReturn(TestSwitch1DPID).anyTimes();
+
+        staticFlowEntryPusher.setStorageSource(storage);
+        MockFloodlightProvider mockFloodlightProvider = getMockFloodlightProvider();
+        Map<Long, IOFSwitch> switchMap = new HashMap<Long, IOFSwitch>();
+        switchMap.put(dpid, mockSwitch);
+        mockFloodlightProvider.setSwitches(switchMap);
+        staticFlowEntryPusher.setFloodlightProvider(mockFloodlightProvider);
+        RestApiServer restApi = new RestApiServer();
+        restApi.init(new FloodlightModuleContext());
+        staticFlowEntryPusher.restApi = restApi;
+        staticFlowEntryPusher.startUp(null);    // again, to hack unittest
+        replay(mockSwitch);
+
+        // the caller has written the flows itself, so nothing reaches the switch
+        OFFlowMod fm = FlowMod1.clone();
+        fm.getMatch().fromString("dl_dst=00:20:30:40:50:61");
+        Map<String, OFFlowMod> flows = new HashMap<String, OFFlowMod>();
+        flows.put("TestRule4", fm);
+        staticFlowEntryPusher.registerFlows(flows, TestSwitch1DPID);
+        assertEquals(TotalTestRules + 1, staticFlowEntryPusher.countEntries());
+        assertSame(fm, staticFlowEntryPusher.getFlows(TestSwitch1DPID).get("TestRule4"));
+
+        storage.getRowAsync(TABLE_NAME, "TestRule4").get();
+        assertTrue(storage.getRow(TABLE_NAME, "TestRule4").next());
+        assertTrue(writeCaptureList.getValues().isEmpty());
+        assertTrue(writeCapture.getValues().isEmpty());
+        assertTrue(staticFlowEntryPusher.writeBehindEntries.isEmpty());
+
+        // the caller writes them again on reconnect, so only the other entries are pushed
+        staticFlowEntryPusher.addedSwitch(mockSwitch);
+        assertEquals(TotalTestRules, writeCapture.getValues().size());
+        for (OFMessage m : writeCapture.getValues()) {
+            assertNotSame(fm, m);
+        }
+
+        // once changed through the service it is pushed like any other entry
+        writeCapture.reset();
+        staticFlowEntryPusher.addFlow("TestRule4", fm, TestSwitch1DPID);
+        staticFlowEntryPusher.addedSwitch(mockSwitch);
+        assertEquals(TotalTestRules + 1, writeCapture.getValues().size());
+        verify(mockSwitch);
+    }
 }
@@ -15,6 +15,7 @@ import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IFloodlightProviderService.Role;
 
 import org.jboss.netty.channel.Channel;
+import org.openflow.protocol.OFBarrierReply;
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPhysicalPort;
@@ -322,6 +323,22 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
 
     }
 
+    @Override
+    public Future<OFBarrierReply> sendBarrier() throws IOException {
+        assertTrue("Unexpected method call", false);
+        return null;
+    }
+
+    @Override
+    public void deliverBarrierReply(OFMessage reply) {
+        assertTrue("Unexpected method call", false);
+    }
+
+    @Override
+    public void cancelBarrierReply(int transactionId) {
+        assertTrue("Unexpected method call", false);
+    }
+
     @Override
     public int getBuffers() {
         // TODO Auto-generated method stub